@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import de.kugihan.dictionaryformids.general.DictionaryException;
+
+/**
+ * ArchiveInputStreamAccess is implemented by all input stream accesses that
+ * load a dictionary from a zip archive.
+ *
+ */
+public interface ArchiveInputStreamAccess {
+
+	/**
+	 * Checks if the archive includes a jar file, which hints on an included
+	 * dictionary.
+	 *
+	 * @return true if jar file was found
+	 * @throws DictionaryException
+	 *             if there was an error opening the file
+	 */
+	boolean hasJarDictionary() throws DictionaryException;
+
+	/**
+	 * Returns the path of the archive.
+	 *
+	 * @return the path of the archive
+	 */
+	String getArchivePath();
+
+}
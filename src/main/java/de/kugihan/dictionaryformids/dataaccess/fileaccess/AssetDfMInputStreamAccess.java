@@ -19,10 +19,11 @@ import de.kugihan.dictionaryformids.general.Util;
 
 /**
  * AssetDfMInputStreamAccess provides functionality for loading a dictionary
- * from the applications included assets.
+ * from the applications included assets. Existence checks are answered from a
+ * listing of the assets.
  * 
  */
-public class AssetDfMInputStreamAccess extends DfMInputStreamAccess {
+public class AssetDfMInputStreamAccess extends ManifestDfMInputStreamAccess {
 
 	/**
 	 * The asset manager to use.
@@ -49,33 +50,57 @@ public class AssetDfMInputStreamAccess extends DfMInputStreamAccess {
 		directory = dictionaryDirectory;
 	}
 
+	/**
+	 * Returns a constant as the assets cannot be modified.
+	 * 
+	 * @return always 0
+	 */
+	@Override
+	protected final long getSourceLastModified() {
+		return 0;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public final boolean fileExists(final String asset)
-			throws DictionaryException {
-		boolean successfullyOpenedFile;
-		InputStream in = null;
-		String assetPath = getPath(asset);
+	protected final FileManifest createManifest() throws DictionaryException {
+		final FileManifest manifest = new FileManifest(getSourceLastModified());
 		try {
-			in = assetManager.open(assetPath);
-			successfullyOpenedFile = true;
+			addAssets(manifest, directory, "");
 		} catch (IOException e) {
-			successfullyOpenedFile = false;
+			Util.getUtil().log("Assets could not be listed:" + directory,
+					Util.logLevel3);
+			throw new DictionaryException("Assets could not be listed: "
+					+ directory);
 		}
-		if (successfullyOpenedFile) {
-			try {
-				in.close();
-			} catch (IOException e) {
-				Util.getUtil().log(
-						"Asset file could not be closed:" + assetPath,
-						Util.logLevel3);
-				throw new DictionaryException(
-						"Asset file could not be closed: " + assetPath);
+		return manifest;
+	}
+
+	/**
+	 * Adds the assets in the specified path and its subdirectories to the
+	 * manifest. The sizes of assets are not known.
+	 * 
+	 * @param manifest
+	 *            the manifest to add the assets to
+	 * @param path
+	 *            the path in the assets folder to list
+	 * @param prefix
+	 *            the path relative to the dictionary directory
+	 * @throws IOException
+	 *             if the assets could not be listed
+	 */
+	private void addAssets(final FileManifest manifest, final String path,
+			final String prefix) throws IOException {
+		for (String asset : assetManager.list(path)) {
+			final String assetPath = path + File.separator + asset;
+			final String[] children = assetManager.list(assetPath);
+			if (children != null && children.length > 0) {
+				addAssets(manifest, assetPath, prefix + asset + File.separator);
+			} else {
+				manifest.addFile(prefix + asset, FileManifest.UNKNOWN_SIZE);
 			}
 		}
-		return successfullyOpenedFile;
 	}
 
 	/**
@@ -85,15 +110,24 @@ public class AssetDfMInputStreamAccess extends DfMInputStreamAccess {
 	 *            the path of a dictionary file
 	 * @return the absolute path to the asset
 	 */
-	private String getPath(final String asset) {
+	protected final String getPath(final String asset) {
 		return directory + File.separator + asset;
 	}
 
+	/**
+	 * Returns the asset manager that provides the assets.
+	 * 
+	 * @return the asset manager
+	 */
+	protected final AssetManager getAssetManager() {
+		return assetManager;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public final InputStream getInputStream(final String asset)
+	public InputStream getInputStream(final String asset)
 			throws DictionaryException {
 		InputStream in;
 		final String assetPath = getPath(asset);
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * BlockCache keeps recently read blocks of dictionary files in memory. The
+ * blocks are evicted in least-recently-used order as soon as their total size
+ * exceeds the byte budget.
+ *
+ */
+public class BlockCache {
+
+	/**
+	 * Identifies a single block of a file.
+	 *
+	 */
+	public static final class BlockKey {
+
+		/**
+		 * Identifies the owner of the file, e.g. a dictionary.
+		 */
+		private final int namespace;
+
+		/**
+		 * The name of the file.
+		 */
+		private final String fileName;
+
+		/**
+		 * The position of the block in the file.
+		 */
+		private final long offset;
+
+		/**
+		 * Creates a new key.
+		 *
+		 * @param namespace
+		 *            the owner of the file
+		 * @param fileName
+		 *            the name of the file
+		 * @param offset
+		 *            the position of the block in the file
+		 */
+		public BlockKey(final int namespace, final String fileName, final long offset) {
+			this.namespace = namespace;
+			this.fileName = fileName;
+			this.offset = offset;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean equals(final Object object) {
+			if (!(object instanceof BlockKey)) {
+				return false;
+			}
+			final BlockKey key = (BlockKey) object;
+			return namespace == key.namespace && offset == key.offset
+					&& fileName.equals(key.fileName);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int hashCode() {
+			int hash = namespace;
+			hash = hash * 31 + fileName.hashCode();
+			hash = hash * 31 + (int) (offset ^ (offset >>> 32));
+			return hash;
+		}
+	}
+
+	/**
+	 * The cached blocks ordered from least to most recently used.
+	 */
+	private final LinkedHashMap<BlockKey, byte[]> blocks = new LinkedHashMap<BlockKey, byte[]>(
+			64, 0.75f, true);
+
+	/**
+	 * The maximum number of bytes kept in the cache.
+	 */
+	private long byteBudget;
+
+	/**
+	 * The number of bytes currently kept in the cache.
+	 */
+	private long size = 0;
+
+	/**
+	 * The number of requests that were answered from the cache.
+	 */
+	private long hitCount = 0;
+
+	/**
+	 * The number of requests that could not be answered from the cache.
+	 */
+	private long missCount = 0;
+
+	/**
+	 * The number of blocks removed to stay within the byte budget.
+	 */
+	private long evictionCount = 0;
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param maxBytes
+	 *            the maximum number of bytes kept in the cache
+	 */
+	public BlockCache(final long maxBytes) {
+		byteBudget = maxBytes;
+	}
+
+	/**
+	 * Returns the cached block.
+	 *
+	 * @param key
+	 *            the key of the block
+	 * @return the block or null if the block is not cached
+	 */
+	public final synchronized byte[] get(final BlockKey key) {
+		final byte[] block = blocks.get(key);
+		if (block == null) {
+			missCount++;
+		} else {
+			hitCount++;
+		}
+		return block;
+	}
+
+	/**
+	 * Returns if the block is cached. Neither the statistics nor the order of
+	 * eviction are changed, so checks that are followed by reading the block
+	 * are not counted twice.
+	 *
+	 * @param key
+	 *            the key of the block
+	 * @return true if the block is cached
+	 */
+	public final synchronized boolean contains(final BlockKey key) {
+		return blocks.containsKey(key);
+	}
+
+	/**
+	 * Adds a block to the cache and evicts old blocks if necessary.
+	 *
+	 * @param key
+	 *            the key of the block
+	 * @param block
+	 *            the data of the block, must not be modified afterwards
+	 */
+	public final synchronized void put(final BlockKey key, final byte[] block) {
+		if (block.length > byteBudget) {
+			return;
+		}
+		final byte[] previous = blocks.put(key, block);
+		if (previous != null) {
+			size -= previous.length;
+		}
+		size += block.length;
+		trimToSize(byteBudget);
+	}
+
+	/**
+	 * Removes least recently used blocks until the cache is not bigger than
+	 * the given size.
+	 *
+	 * @param maxBytes
+	 *            the maximum number of bytes to keep
+	 */
+	public final synchronized void trimToSize(final long maxBytes) {
+		final Iterator<Map.Entry<BlockKey, byte[]>> iterator = blocks.entrySet().iterator();
+		while (size > maxBytes && iterator.hasNext()) {
+			final Map.Entry<BlockKey, byte[]> eldest = iterator.next();
+			size -= eldest.getValue().length;
+			iterator.remove();
+			evictionCount++;
+		}
+	}
+
+	/**
+	 * Removes all blocks of a namespace, e.g. because the files they have
+	 * been read from have been modified. The removed blocks are not counted
+	 * as evictions.
+	 *
+	 * @param namespace
+	 *            the namespace of the blocks to remove
+	 */
+	public final synchronized void removeNamespace(final int namespace) {
+		final Iterator<Map.Entry<BlockKey, byte[]>> iterator = blocks.entrySet().iterator();
+		while (iterator.hasNext()) {
+			final Map.Entry<BlockKey, byte[]> entry = iterator.next();
+			if (entry.getKey().namespace == namespace) {
+				size -= entry.getValue().length;
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes all blocks from the cache.
+	 */
+	public final synchronized void clear() {
+		trimToSize(0);
+	}
+
+	/**
+	 * Changes the byte budget of the cache.
+	 *
+	 * @param maxBytes
+	 *            the maximum number of bytes kept in the cache
+	 */
+	public final synchronized void setByteBudget(final long maxBytes) {
+		byteBudget = maxBytes;
+		trimToSize(byteBudget);
+	}
+
+	public final synchronized long getByteBudget() {
+		return byteBudget;
+	}
+
+	public final synchronized long getSize() {
+		return size;
+	}
+
+	public final synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public final synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public final synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final synchronized String toString() {
+		return "BlockCache[size=" + size + ", budget=" + byteBudget + ", blocks="
+				+ blocks.size() + ", hits=" + hitCount + ", misses=" + missCount
+				+ ", evictions=" + evictionCount + "]";
+	}
+
+}
@@ -0,0 +1,386 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.kugihan.dictionaryformids.general.DictionaryException;
+
+/**
+ * CachingDfMInputStreamAccess wraps another input stream access and keeps the
+ * blocks read from its files in a {@link BlockCache}. Files that are read
+ * repeatedly, such as the search lists and directory files, are served from
+ * memory after the first access. The blocks are removed from the cache when
+ * a wrapped {@link ManifestDfMInputStreamAccess} detects that its source has
+ * been modified.
+ *
+ */
+public class CachingDfMInputStreamAccess extends DelegatingDfMInputStreamAccess {
+
+	/**
+	 * The size of a single cached block in bytes.
+	 */
+	public static final int BLOCK_SIZE = 8 * 1024;
+
+	/**
+	 * The namespace of the next instance.
+	 */
+	private static int nextNamespace = 0;
+
+	/**
+	 * The cache storing the blocks.
+	 */
+	private final BlockCache cache;
+
+	/**
+	 * Separates the blocks of this instance from the blocks of other
+	 * instances sharing the same cache.
+	 */
+	private final int namespace;
+
+	/**
+	 * Creates a new instance that stores the blocks of the wrapped access in
+	 * the given cache.
+	 *
+	 * @param delegateAccess
+	 *            the input stream access to wrap
+	 * @param blockCache
+	 *            the cache for the blocks, may be shared between instances
+	 */
+	public CachingDfMInputStreamAccess(final DfMInputStreamAccess delegateAccess,
+			final BlockCache blockCache) {
+		super(delegateAccess);
+		cache = blockCache;
+		synchronized (CachingDfMInputStreamAccess.class) {
+			namespace = nextNamespace++;
+		}
+		final DfMInputStreamAccess source = unwrap(delegateAccess);
+		if (source instanceof ManifestDfMInputStreamAccess) {
+			((ManifestDfMInputStreamAccess) source)
+					.addOnSourceModifiedListener(new ManifestDfMInputStreamAccess.OnSourceModifiedListener() {
+						@Override
+						public void onSourceModified() {
+							cache.removeNamespace(namespace);
+						}
+					});
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean fileExists(final String fileName) throws DictionaryException {
+		if (cache.contains(new BlockCache.BlockKey(namespace, fileName, 0))) {
+			return true;
+		}
+		return super.fileExists(fileName);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public InputStream getInputStream(final String fileName) throws DictionaryException {
+		final BlockCache.BlockKey firstBlock = new BlockCache.BlockKey(namespace, fileName, 0);
+		final long size = getFileSize(fileName);
+		if (cache.contains(firstBlock)) {
+			return new CachedBlockInputStream(fileName, null, size);
+		}
+		// open the file immediately so that missing files are reported here
+		final InputStream stream = super.getInputStream(fileName);
+		return new CachedBlockInputStream(fileName, stream, size);
+	}
+
+	/**
+	 * Returns the size of the file if the wrapped access knows it.
+	 *
+	 * @param fileName
+	 *            the name of the file
+	 * @return the size of the file or {@link FileManifest#UNKNOWN_SIZE}
+	 * @throws DictionaryException
+	 *             if the size could not be determined
+	 */
+	private long getFileSize(final String fileName) throws DictionaryException {
+		final DfMInputStreamAccess source = unwrap(getDelegate());
+		if (source instanceof ManifestDfMInputStreamAccess) {
+			return ((ManifestDfMInputStreamAccess) source).getFileSize(fileName);
+		}
+		return FileManifest.UNKNOWN_SIZE;
+	}
+
+	/**
+	 * Returns the cache storing the blocks.
+	 *
+	 * @return the cache storing the blocks
+	 */
+	public final BlockCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Reads a file block by block. Blocks are taken from the cache if
+	 * possible, otherwise they are read from the wrapped access and added to
+	 * the cache.
+	 *
+	 */
+	private final class CachedBlockInputStream extends InputStream {
+
+		/**
+		 * The name of the file.
+		 */
+		private final String fileName;
+
+		/**
+		 * The stream of the wrapped access or null if it has not been opened.
+		 */
+		private InputStream source;
+
+		/**
+		 * The position of the source stream in the file.
+		 */
+		private long sourcePosition = 0;
+
+		/**
+		 * The position of this stream in the file.
+		 */
+		private long position = 0;
+
+		/**
+		 * The position saved by {@link #mark(int)}.
+		 */
+		private long markedPosition = 0;
+
+		/**
+		 * The length of the file or -1 if it is not known yet.
+		 */
+		private long length;
+
+		/**
+		 * The current block or null if no block has been loaded.
+		 */
+		private byte[] block = null;
+
+		/**
+		 * The position of the current block in the file.
+		 */
+		private long blockOffset = 0;
+
+		/**
+		 * Creates a new stream for the file.
+		 *
+		 * @param name
+		 *            the name of the file
+		 * @param stream
+		 *            the already opened stream of the wrapped access or null
+		 * @param size
+		 *            the size of the file or {@link FileManifest#UNKNOWN_SIZE}
+		 */
+		CachedBlockInputStream(final String name, final InputStream stream,
+				final long size) {
+			fileName = name;
+			source = stream;
+			length = size;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read() throws IOException {
+			if (!loadBlockForPosition()) {
+				return -1;
+			}
+			final int value = block[(int) (position - blockOffset)] & 0xff;
+			position++;
+			return value;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read(final byte[] bytes, final int offset, final int count)
+				throws IOException {
+			if (count == 0) {
+				return 0;
+			}
+			int copied = 0;
+			while (copied < count && loadBlockForPosition()) {
+				final int blockPosition = (int) (position - blockOffset);
+				final int chunk = Math.min(count - copied, block.length - blockPosition);
+				System.arraycopy(block, blockPosition, bytes, offset + copied, chunk);
+				copied += chunk;
+				position += chunk;
+			}
+			if (copied == 0) {
+				return -1;
+			}
+			return copied;
+		}
+
+		/**
+		 * Skips bytes by moving the position only. Blocks that are skipped
+		 * completely are never read.
+		 *
+		 * @param count
+		 *            the number of bytes to skip
+		 * @return the number of bytes skipped
+		 */
+		@Override
+		public long skip(final long count) {
+			if (count <= 0) {
+				return 0;
+			}
+			long skipped = count;
+			if (length >= 0) {
+				skipped = Math.max(0, Math.min(count, length - position));
+			}
+			position += skipped;
+			return skipped;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int available() {
+			if (block == null || position < blockOffset
+					|| position >= blockOffset + block.length) {
+				return 0;
+			}
+			return (int) (blockOffset + block.length - position);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public synchronized void mark(final int readLimit) {
+			markedPosition = position;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public synchronized void reset() {
+			position = markedPosition;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close() throws IOException {
+			closeSource();
+		}
+
+		/**
+		 * Makes sure the block containing the current position is loaded.
+		 *
+		 * @return false if the position is at or behind the end of the file
+		 * @throws IOException
+		 *             if the block could not be read
+		 */
+		private boolean loadBlockForPosition() throws IOException {
+			if (length >= 0 && position >= length) {
+				return false;
+			}
+			if (block != null && position >= blockOffset
+					&& position < blockOffset + block.length) {
+				return true;
+			}
+			final long offset = position - position % BLOCK_SIZE;
+			final BlockCache.BlockKey key = new BlockCache.BlockKey(namespace, fileName, offset);
+			byte[] data = cache.get(key);
+			if (data == null) {
+				data = readBlock(offset);
+				cache.put(key, data);
+			}
+			block = data;
+			blockOffset = offset;
+			if (data.length < BLOCK_SIZE) {
+				length = offset + data.length;
+			}
+			return position < offset + data.length;
+		}
+
+		/**
+		 * Reads a block from the wrapped access.
+		 *
+		 * @param offset
+		 *            the position of the block in the file
+		 * @return the data of the block, shorter than a full block at the end
+		 *         of the file
+		 * @throws IOException
+		 *             if the block could not be read
+		 */
+		private byte[] readBlock(final long offset) throws IOException {
+			if (source == null || sourcePosition > offset) {
+				closeSource();
+				try {
+					source = getDelegate().getInputStream(fileName);
+				} catch (DictionaryException e) {
+					throw new IOException(e.getMessage());
+				}
+				sourcePosition = 0;
+			}
+			while (sourcePosition < offset) {
+				final long skipped = source.skip(offset - sourcePosition);
+				if (skipped > 0) {
+					sourcePosition += skipped;
+				} else if (source.read() >= 0) {
+					sourcePosition++;
+				} else {
+					return new byte[0];
+				}
+			}
+			final byte[] buffer = new byte[BLOCK_SIZE];
+			int filled = 0;
+			while (filled < BLOCK_SIZE) {
+				final int read = source.read(buffer, filled, BLOCK_SIZE - filled);
+				if (read < 0) {
+					break;
+				}
+				filled += read;
+			}
+			sourcePosition += filled;
+			if (filled == BLOCK_SIZE) {
+				return buffer;
+			}
+			final byte[] lastBlock = new byte[filled];
+			System.arraycopy(buffer, 0, lastBlock, 0, filled);
+			return lastBlock;
+		}
+
+		/**
+		 * Closes the stream of the wrapped access.
+		 *
+		 * @throws IOException
+		 *             if the stream could not be closed
+		 */
+		private void closeSource() throws IOException {
+			if (source != null) {
+				final InputStream stream = source;
+				source = null;
+				stream.close();
+			}
+		}
+	}
+
+}
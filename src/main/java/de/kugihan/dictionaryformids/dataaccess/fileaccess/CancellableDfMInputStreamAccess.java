@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.kugihan.dictionaryformids.general.DictionaryException;
+
+/**
+ * CancellableDfMInputStreamAccess stops the reads of a translation whose
+ * {@link CancellationToken} has been cancelled. Opening a file, every bulk
+ * read or skip and every {@value #SINGLE_READS_PER_CHECK} single-byte reads
+ * check the token attached to the current thread and fail if it has been
+ * cancelled. Threads without a token are not affected.
+ *
+ */
+public class CancellableDfMInputStreamAccess extends DelegatingDfMInputStreamAccess {
+
+	/**
+	 * The number of single-byte reads between two checks of the token.
+	 */
+	public static final int SINGLE_READS_PER_CHECK = 4096;
+
+	/**
+	 * CancellableInputStream checks the token of the current thread before
+	 * bulk transfers and periodically during single-byte reads.
+	 *
+	 */
+	private static final class CancellableInputStream extends FilterInputStream {
+
+		/**
+		 * The number of single-byte reads left until the token is checked
+		 * again.
+		 */
+		private int singleReadsUntilCheck = SINGLE_READS_PER_CHECK;
+
+		/**
+		 * Creates a new stream.
+		 *
+		 * @param source
+		 *            the stream to wrap
+		 */
+		private CancellableInputStream(final InputStream source) {
+			super(source);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read() throws IOException {
+			if (--singleReadsUntilCheck <= 0) {
+				singleReadsUntilCheck = SINGLE_READS_PER_CHECK;
+				CancellationToken.checkCurrent();
+			}
+			return super.read();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length)
+				throws IOException {
+			CancellationToken.checkCurrent();
+			return super.read(buffer, offset, length);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public long skip(final long byteCount) throws IOException {
+			CancellationToken.checkCurrent();
+			return super.skip(byteCount);
+		}
+	}
+
+	/**
+	 * Creates a new instance that stops the reads of cancelled translations.
+	 *
+	 * @param inputStreamAccess
+	 *            the input stream access to wrap
+	 */
+	public CancellableDfMInputStreamAccess(final DfMInputStreamAccess inputStreamAccess) {
+		super(inputStreamAccess);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public InputStream getInputStream(final String fileName) throws DictionaryException {
+		if (CancellationToken.isCurrentCancelled()) {
+			throw new DictionaryException("Translation cancelled: " + fileName);
+		}
+		return new CancellableInputStream(super.getInputStream(fileName));
+	}
+
+}
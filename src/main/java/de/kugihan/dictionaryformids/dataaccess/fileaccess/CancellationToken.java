@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.InterruptedIOException;
+
+/**
+ * CancellationToken signals that the work of a translation is no longer
+ * needed. A thread working for a translation attaches the token of the
+ * translation while it searches; dictionary files read through a
+ * {@link CancellableDfMInputStreamAccess} then fail as soon as the token has
+ * been cancelled, so the search stops at its next read instead of running to
+ * its end.
+ *
+ */
+public final class CancellationToken {
+
+	/**
+	 * The token attached to the current thread.
+	 */
+	private static final ThreadLocal<CancellationToken> CURRENT = new ThreadLocal<CancellationToken>();
+
+	/**
+	 * True if the token has been cancelled.
+	 */
+	private volatile boolean isCancelled = false;
+
+	/**
+	 * Cancels the token. Cancelling a token more than once has no effect.
+	 */
+	public void cancel() {
+		isCancelled = true;
+	}
+
+	/**
+	 * Returns if the token has been cancelled.
+	 *
+	 * @return true if the token has been cancelled
+	 */
+	public boolean isCancelled() {
+		return isCancelled;
+	}
+
+	/**
+	 * Attaches the token to the current thread until {@link #detach()} is
+	 * called.
+	 */
+	public void attach() {
+		CURRENT.set(this);
+	}
+
+	/**
+	 * Removes the token from the current thread.
+	 */
+	public static void detach() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * Returns if the token attached to the current thread has been cancelled.
+	 *
+	 * @return true if the current work should stop
+	 */
+	public static boolean isCurrentCancelled() {
+		final CancellationToken token = CURRENT.get();
+		return token != null && token.isCancelled;
+	}
+
+	/**
+	 * Fails if the token attached to the current thread has been cancelled.
+	 *
+	 * @throws InterruptedIOException
+	 *             if the current work should stop
+	 */
+	public static void checkCurrent() throws InterruptedIOException {
+		if (isCurrentCancelled()) {
+			throw new InterruptedIOException("Translation cancelled");
+		}
+	}
+
+}
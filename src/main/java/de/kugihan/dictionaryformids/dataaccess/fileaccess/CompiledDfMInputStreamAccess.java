@@ -0,0 +1,667 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import de.kugihan.dictionaryformids.general.CouldNotOpenFileException;
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.general.Util;
+
+/**
+ * CompiledDfMInputStreamAccess provides functionality for loading a dictionary
+ * from a single compiled file created by {@link CompiledDictionaryWriter}.
+ * <p>
+ * The compiled file is mapped into memory. Every dictionary file is split into
+ * blocks that are listed in a table of fixed-width entries, so any position of
+ * a file is reached by decoding a single block. The sorted search lists and
+ * indexes are stored with front coding, i.e. every line only stores the bytes
+ * that differ from the previous line. All other files are stored in deflated
+ * blocks. The dictionary engine receives the original bytes of every file.
+ * <p>
+ * The layout of the compiled file is:
+ * <ul>
+ * <li>header: magic, version, checksum of the source directory, offset,
+ * length and CRC-32 of the directory</li>
+ * <li>the encoded blocks of all files</li>
+ * <li>a block table per file: pairs of decoded and encoded offsets including
+ * a final pair marking the end of the file</li>
+ * <li>directory: name, mode, size, CRC-32, block count and table offset of
+ * every file</li>
+ * </ul>
+ *
+ */
+public class CompiledDfMInputStreamAccess extends ManifestDfMInputStreamAccess {
+
+	/**
+	 * The first bytes of every compiled file ("DfMC").
+	 */
+	static final int MAGIC = 0x44664d43;
+
+	/**
+	 * The version of the format.
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * The size of the header in bytes.
+	 */
+	static final int HEADER_SIZE = 32;
+
+	/**
+	 * The size of an entry of a block table in bytes.
+	 */
+	static final int TABLE_ENTRY_SIZE = 16;
+
+	/**
+	 * Mode of files stored in front-coded blocks of lines.
+	 */
+	static final byte MODE_FRONT_CODED = 1;
+
+	/**
+	 * Mode of files stored in deflated blocks. Blocks whose encoded size
+	 * equals the decoded size are stored uncompressed.
+	 */
+	static final byte MODE_DEFLATED = 2;
+
+	/**
+	 * Describes a single file in the compiled file.
+	 *
+	 */
+	private static final class CompiledFile {
+
+		/**
+		 * The mode of the blocks.
+		 */
+		private final byte mode;
+
+		/**
+		 * The size of the original file in bytes.
+		 */
+		private final long size;
+
+		/**
+		 * The CRC-32 of the original file.
+		 */
+		private final int checksum;
+
+		/**
+		 * The number of blocks of the file.
+		 */
+		private final int blockCount;
+
+		/**
+		 * The position of the block table in the compiled file.
+		 */
+		private final int tableOffset;
+
+		/**
+		 * Creates a new description of a file.
+		 *
+		 * @param fileMode
+		 *            the mode of the blocks
+		 * @param fileSize
+		 *            the size of the original file
+		 * @param fileChecksum
+		 *            the CRC-32 of the original file
+		 * @param numberOfBlocks
+		 *            the number of blocks
+		 * @param blockTableOffset
+		 *            the position of the block table
+		 */
+		private CompiledFile(final byte fileMode, final long fileSize, final int fileChecksum,
+				final int numberOfBlocks, final int blockTableOffset) {
+			mode = fileMode;
+			size = fileSize;
+			checksum = fileChecksum;
+			blockCount = numberOfBlocks;
+			tableOffset = blockTableOffset;
+		}
+	}
+
+	/**
+	 * CompiledInputStream decodes a single file block by block. Skipping and
+	 * resetting only change the position, the block including the new position
+	 * is decoded on the next read.
+	 *
+	 */
+	private final class CompiledInputStream extends InputStream {
+
+		/**
+		 * The file to decode.
+		 */
+		private final CompiledFile file;
+
+		/**
+		 * The current position in the original file.
+		 */
+		private long position = 0;
+
+		/**
+		 * The marked position.
+		 */
+		private long markPosition = 0;
+
+		/**
+		 * The decoded current block or null if no block has been decoded.
+		 */
+		private byte[] block = null;
+
+		/**
+		 * The position of the current block in the original file.
+		 */
+		private long blockStart = 0;
+
+		/**
+		 * Creates a new stream of the given file.
+		 *
+		 * @param compiledFile
+		 *            the file to decode
+		 */
+		private CompiledInputStream(final CompiledFile compiledFile) {
+			file = compiledFile;
+		}
+
+		/**
+		 * Makes sure the current block includes the current position.
+		 *
+		 * @return the number of bytes available in the current block
+		 * @throws IOException
+		 *             if the block could not be decoded
+		 */
+		private int fillBlock() throws IOException {
+			if (position >= file.size) {
+				return 0;
+			}
+			if (block == null || position < blockStart
+					|| position >= blockStart + block.length) {
+				final int index = findBlock(file, position);
+				blockStart = getDecodedOffset(file, index);
+				block = decodeBlock(file, index);
+			}
+			return (int) (blockStart + block.length - position);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read() throws IOException {
+			if (fillBlock() <= 0) {
+				return -1;
+			}
+			final int result = block[(int) (position - blockStart)] & 0xff;
+			position++;
+			return result;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length)
+				throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			final int available = fillBlock();
+			if (available <= 0) {
+				return -1;
+			}
+			final int count = Math.min(length, available);
+			System.arraycopy(block, (int) (position - blockStart), buffer, offset, count);
+			position += count;
+			return count;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public long skip(final long byteCount) {
+			if (byteCount <= 0) {
+				return 0;
+			}
+			final long skipped = Math.min(byteCount, Math.max(0, file.size - position));
+			position += skipped;
+			return skipped;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int available() {
+			if (block == null || position < blockStart || position >= blockStart + block.length) {
+				return 0;
+			}
+			return (int) (blockStart + block.length - position);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public synchronized void mark(final int readLimit) {
+			markPosition = position;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public synchronized void reset() {
+			position = markPosition;
+		}
+	}
+
+	/**
+	 * The compiled file.
+	 */
+	private final File compiledFile;
+
+	/**
+	 * The mapping of the compiled file.
+	 */
+	private final ByteBuffer data;
+
+	/**
+	 * The checksum of the source directory the file was compiled from.
+	 */
+	private final long sourceChecksum;
+
+	/**
+	 * The files in the compiled file by name.
+	 */
+	private final LinkedHashMap<String, CompiledFile> files;
+
+	/**
+	 * True if the access has been closed.
+	 */
+	private volatile boolean isClosed = false;
+
+	/**
+	 * Creates a new instance for an opened compiled file.
+	 *
+	 * @param file
+	 *            the compiled file
+	 * @param mapping
+	 *            the mapping of the compiled file
+	 * @param checksum
+	 *            the checksum of the source directory
+	 * @param directory
+	 *            the files in the compiled file
+	 */
+	private CompiledDfMInputStreamAccess(final File file, final ByteBuffer mapping,
+			final long checksum, final LinkedHashMap<String, CompiledFile> directory) {
+		compiledFile = file;
+		data = mapping;
+		sourceChecksum = checksum;
+		files = directory;
+	}
+
+	/**
+	 * Maps the compiled file and reads its directory.
+	 *
+	 * @param file
+	 *            the compiled file
+	 * @return the input stream access for the compiled file
+	 * @throws IOException
+	 *             if the file could not be read, is not a compiled file or is
+	 *             damaged
+	 */
+	public static CompiledDfMInputStreamAccess open(final File file) throws IOException {
+		final ByteBuffer mapping;
+		final RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = input.getChannel();
+			mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			// the mapping stays valid after closing the file
+			input.close();
+		}
+		if (mapping.capacity() < HEADER_SIZE || mapping.getInt(0) != MAGIC) {
+			throw new IOException("Not a compiled dictionary: " + file);
+		}
+		if (mapping.getInt(4) != VERSION) {
+			throw new IOException("Unsupported version of compiled dictionary: " + file);
+		}
+		final long checksum = mapping.getLong(8);
+		final long directoryOffset = mapping.getLong(16);
+		final int directoryLength = mapping.getInt(24);
+		final int directoryChecksum = mapping.getInt(28);
+		if (directoryOffset < HEADER_SIZE || directoryLength < 0
+				|| directoryOffset + directoryLength > mapping.capacity()) {
+			throw new IOException("Damaged compiled dictionary: " + file);
+		}
+		final byte[] directoryData = new byte[directoryLength];
+		final ByteBuffer directoryBuffer = mapping.duplicate();
+		directoryBuffer.position((int) directoryOffset);
+		directoryBuffer.get(directoryData);
+		final CRC32 crc = new CRC32();
+		crc.update(directoryData);
+		if ((int) crc.getValue() != directoryChecksum) {
+			throw new IOException("Damaged compiled dictionary: " + file);
+		}
+		final LinkedHashMap<String, CompiledFile> directory = new LinkedHashMap<String, CompiledFile>();
+		final DataInputStream entries = new DataInputStream(new MappedByteBufferInputStream(
+				ByteBuffer.wrap(directoryData)));
+		final int fileCount = entries.readInt();
+		for (int i = 0; i < fileCount; i++) {
+			final String name = entries.readUTF();
+			final byte mode = entries.readByte();
+			final long size = entries.readLong();
+			final int fileChecksum = entries.readInt();
+			final int blockCount = entries.readInt();
+			final long tableOffset = entries.readLong();
+			final long tableEnd = tableOffset + (long) (blockCount + 1) * TABLE_ENTRY_SIZE;
+			if (blockCount < 0 || tableOffset < HEADER_SIZE || tableEnd > mapping.capacity()) {
+				throw new IOException("Damaged compiled dictionary: " + file);
+			}
+			directory.put(name, new CompiledFile(mode, size, fileChecksum, blockCount,
+					(int) tableOffset));
+		}
+		return new CompiledDfMInputStreamAccess(file, mapping, checksum, directory);
+	}
+
+	/**
+	 * Returns the checksum of the source directory the file was compiled
+	 * from.
+	 *
+	 * @return the checksum of the source directory
+	 * @see CompiledDictionaryWriter#computeSourceChecksum(File)
+	 */
+	public final long getSourceChecksum() {
+		return sourceChecksum;
+	}
+
+	/**
+	 * Returns the compiled file.
+	 *
+	 * @return the compiled file
+	 */
+	public final File getCompiledFile() {
+		return compiledFile;
+	}
+
+	/**
+	 * Returns if the access has been closed. The compiled file of an open
+	 * access is still mapped and must not be deleted.
+	 *
+	 * @return true if the access has been closed
+	 */
+	public final boolean isClosed() {
+		return isClosed;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() {
+		isClosed = true;
+		super.close();
+	}
+
+	/**
+	 * Returns the CRC-32 of the original file.
+	 *
+	 * @param fileName
+	 *            the name of the file
+	 * @return the CRC-32 of the original file
+	 * @throws IOException
+	 *             if the file is not included
+	 */
+	final int getChecksum(final String fileName) throws IOException {
+		final CompiledFile file = files.get(fileName);
+		if (file == null) {
+			throw new IOException("File not included: " + fileName);
+		}
+		return file.checksum;
+	}
+
+	/**
+	 * Returns the index of the block that includes the given position.
+	 *
+	 * @param file
+	 *            the file to search
+	 * @param position
+	 *            the position in the original file
+	 * @return the index of the block
+	 */
+	private int findBlock(final CompiledFile file, final long position) {
+		int low = 0;
+		int high = file.blockCount - 1;
+		while (low < high) {
+			final int middle = (low + high + 1) >>> 1;
+			if (getDecodedOffset(file, middle) <= position) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the position of the block in the original file.
+	 *
+	 * @param file
+	 *            the file of the block
+	 * @param index
+	 *            the index of the block or the block count for the end of
+	 *            the file
+	 * @return the position in the original file
+	 */
+	private long getDecodedOffset(final CompiledFile file, final int index) {
+		return data.getLong(file.tableOffset + index * TABLE_ENTRY_SIZE);
+	}
+
+	/**
+	 * Returns the position of the block in the compiled file.
+	 *
+	 * @param file
+	 *            the file of the block
+	 * @param index
+	 *            the index of the block or the block count for the end of
+	 *            the file
+	 * @return the position in the compiled file
+	 */
+	private long getEncodedOffset(final CompiledFile file, final int index) {
+		return data.getLong(file.tableOffset + index * TABLE_ENTRY_SIZE + 8);
+	}
+
+	/**
+	 * Decodes a single block.
+	 *
+	 * @param file
+	 *            the file of the block
+	 * @param index
+	 *            the index of the block
+	 * @return the original bytes of the block
+	 * @throws IOException
+	 *             if the block is damaged
+	 */
+	private byte[] decodeBlock(final CompiledFile file, final int index) throws IOException {
+		final long decodedLength = getDecodedOffset(file, index + 1)
+				- getDecodedOffset(file, index);
+		final long encodedStart = getEncodedOffset(file, index);
+		final long encodedLength = getEncodedOffset(file, index + 1) - encodedStart;
+		if (decodedLength < 0 || encodedLength < 0
+				|| encodedStart + encodedLength > data.capacity()) {
+			throw new IOException("Damaged compiled dictionary: " + compiledFile);
+		}
+		final byte[] encoded = new byte[(int) encodedLength];
+		final ByteBuffer source = data.duplicate();
+		source.position((int) encodedStart);
+		source.get(encoded);
+		final byte[] decoded = new byte[(int) decodedLength];
+		if (file.mode == MODE_FRONT_CODED) {
+			decodeFrontCoded(encoded, decoded);
+		} else if (file.mode == MODE_DEFLATED) {
+			decodeDeflated(encoded, decoded);
+		} else {
+			throw new IOException("Unknown mode " + file.mode + " in " + compiledFile);
+		}
+		return decoded;
+	}
+
+	/**
+	 * Decodes a block of front-coded lines. Every line is stored as the
+	 * number of bytes shared with the previous line, the number of following
+	 * bytes and the following bytes.
+	 *
+	 * @param encoded
+	 *            the encoded block
+	 * @param decoded
+	 *            the array to fill with the original bytes
+	 * @throws IOException
+	 *             if the block is damaged
+	 */
+	private void decodeFrontCoded(final byte[] encoded, final byte[] decoded)
+			throws IOException {
+		final int[] position = new int[1];
+		int previousStart = 0;
+		int previousLength = 0;
+		int length = 0;
+		try {
+			while (position[0] < encoded.length) {
+				final int prefixLength = readVarInt(encoded, position);
+				final int suffixLength = readVarInt(encoded, position);
+				if (prefixLength > previousLength) {
+					throw new IOException("Damaged compiled dictionary: " + compiledFile);
+				}
+				System.arraycopy(decoded, previousStart, decoded, length, prefixLength);
+				System.arraycopy(encoded, position[0], decoded, length + prefixLength,
+						suffixLength);
+				position[0] += suffixLength;
+				previousStart = length;
+				previousLength = prefixLength + suffixLength;
+				length += previousLength;
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Damaged compiled dictionary: " + compiledFile);
+		}
+		if (length != decoded.length) {
+			throw new IOException("Damaged compiled dictionary: " + compiledFile);
+		}
+	}
+
+	/**
+	 * Decodes a deflated or uncompressed block.
+	 *
+	 * @param encoded
+	 *            the encoded block
+	 * @param decoded
+	 *            the array to fill with the original bytes
+	 * @throws IOException
+	 *             if the block is damaged
+	 */
+	private void decodeDeflated(final byte[] encoded, final byte[] decoded)
+			throws IOException {
+		if (encoded.length == decoded.length) {
+			System.arraycopy(encoded, 0, decoded, 0, encoded.length);
+			return;
+		}
+		final Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(encoded);
+			int length = 0;
+			while (length < decoded.length && !inflater.finished()) {
+				final int count = inflater.inflate(decoded, length, decoded.length - length);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				length += count;
+			}
+			if (length != decoded.length) {
+				throw new IOException("Damaged compiled dictionary: " + compiledFile);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Damaged compiled dictionary: " + compiledFile);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Reads an unsigned variable-length integer with seven bits per byte,
+	 * least significant bits first.
+	 *
+	 * @param buffer
+	 *            the buffer to read from
+	 * @param position
+	 *            the position to read at, updated to the following byte
+	 * @return the integer
+	 */
+	static int readVarInt(final byte[] buffer, final int[] position) {
+		int result = 0;
+		int shift = 0;
+		int value;
+		do {
+			value = buffer[position[0]++];
+			result |= (value & 0x7f) << shift;
+			shift += 7;
+		} while ((value & 0x80) != 0);
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final long getSourceLastModified() {
+		return compiledFile.lastModified();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final FileManifest createManifest() {
+		final FileManifest manifest = new FileManifest(getSourceLastModified());
+		for (String name : files.keySet()) {
+			manifest.addFile(name, files.get(name).size);
+		}
+		return manifest;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final InputStream getInputStream(final String fileName)
+			throws DictionaryException {
+		final CompiledFile file = files.get(fileName);
+		if (file == null) {
+			Util.getUtil().log("File not found:" + fileName, Util.logLevel3);
+			throw new CouldNotOpenFileException(
+					"Resource file could not be opened: " + fileName);
+		}
+		return new CompiledInputStream(file);
+	}
+
+}
@@ -0,0 +1,417 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import de.kugihan.dictionaryformids.general.DictionaryException;
+
+/**
+ * CompiledDictionaryWriter converts the files of a dictionary in a directory
+ * into a single compiled file that is read by
+ * {@link CompiledDfMInputStreamAccess}. Search lists and indexes are stored
+ * with front coding, all other files in deflated blocks. Every compiled file
+ * is read back and compared with the CRC-32 of the original files before it
+ * is accepted.
+ *
+ */
+public final class CompiledDictionaryWriter {
+
+	/**
+	 * The minimum number of original bytes per block.
+	 */
+	private static final int BLOCK_SIZE = 16 * 1024;
+
+	/**
+	 * The size of the buffer used to verify files.
+	 */
+	private static final int VERIFY_BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * The prefixes of the file names of sorted files that are front-coded.
+	 */
+	private static final String[] SORTED_FILE_PREFIXES = { "searchlist", "index" };
+
+	/**
+	 * The extension of sorted files that are front-coded.
+	 */
+	private static final String SORTED_FILE_EXTENSION = ".csv";
+
+	/**
+	 * Describes a single file that has been written to the compiled file.
+	 *
+	 */
+	private static final class CompiledEntry {
+
+		/**
+		 * The name of the file.
+		 */
+		private final String name;
+
+		/**
+		 * The mode of the blocks.
+		 */
+		private final byte mode;
+
+		/**
+		 * The CRC-32 of the original file.
+		 */
+		private final int checksum;
+
+		/**
+		 * The block table as pairs of decoded and encoded offsets including
+		 * the final pair.
+		 */
+		private final long[] table;
+
+		/**
+		 * Creates a new description of a written file.
+		 *
+		 * @param fileName
+		 *            the name of the file
+		 * @param fileMode
+		 *            the mode of the blocks
+		 * @param fileChecksum
+		 *            the CRC-32 of the original file
+		 * @param blockTable
+		 *            the block table of the file
+		 */
+		private CompiledEntry(final String fileName, final byte fileMode,
+				final int fileChecksum, final long[] blockTable) {
+			name = fileName;
+			mode = fileMode;
+			checksum = fileChecksum;
+			table = blockTable;
+		}
+	}
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private CompiledDictionaryWriter() {
+	}
+
+	/**
+	 * Computes a checksum of the names, sizes and modification times of all
+	 * files in the directory. The checksum changes whenever a file of the
+	 * dictionary is replaced. The names are encoded as UTF-8, so names that
+	 * only differ outside of the Latin-1 range change the checksum as well.
+	 *
+	 * @param directory
+	 *            the directory of the dictionary
+	 * @return the checksum of the directory
+	 */
+	public static long computeSourceChecksum(final File directory) {
+		final CRC32 crc = new CRC32();
+		final TreeSet<String> names = new TreeSet<String>(FileManifest.fromDirectory(directory)
+				.getFileNames());
+		for (String name : names) {
+			final File file = new File(directory, name);
+			final String identity = name + "|" + file.length() + "|" + file.lastModified()
+					+ "\n";
+			try {
+				crc.update(identity.getBytes("UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e.toString());
+			}
+		}
+		return (crc.getValue() << 32) | names.size();
+	}
+
+	/**
+	 * Converts all files in the directory into a compiled file.
+	 *
+	 * @param directory
+	 *            the directory of the dictionary
+	 * @param target
+	 *            the compiled file to write
+	 * @throws IOException
+	 *             if a file could not be read or written or the compiled file
+	 *             does not reproduce the original files
+	 */
+	public static void compile(final File directory, final File target) throws IOException {
+		final long sourceChecksum = computeSourceChecksum(directory);
+		final TreeSet<String> names = new TreeSet<String>(FileManifest.fromDirectory(directory)
+				.getFileNames());
+		final ByteArrayOutputStream directoryData = new ByteArrayOutputStream();
+		final DataOutputStream directoryOutput = new DataOutputStream(directoryData);
+		directoryOutput.writeInt(names.size());
+		final RandomAccessFile output = new RandomAccessFile(target, "rw");
+		try {
+			output.setLength(0);
+			output.write(new byte[CompiledDfMInputStreamAccess.HEADER_SIZE]);
+			final ArrayList<CompiledEntry> entries = new ArrayList<CompiledEntry>();
+			for (String name : names) {
+				final byte[] content = readFile(new File(directory, name));
+				final CRC32 crc = new CRC32();
+				crc.update(content);
+				if (isSortedFile(name)) {
+					entries.add(new CompiledEntry(name,
+							CompiledDfMInputStreamAccess.MODE_FRONT_CODED, (int) crc.getValue(),
+							writeFrontCoded(content, output)));
+				} else {
+					entries.add(new CompiledEntry(name, CompiledDfMInputStreamAccess.MODE_DEFLATED,
+							(int) crc.getValue(), writeDeflated(content, output)));
+				}
+			}
+			for (CompiledEntry entry : entries) {
+				final long tableOffset = output.getFilePointer();
+				final ByteArrayOutputStream tableData = new ByteArrayOutputStream(
+						entry.table.length * 8);
+				final DataOutputStream tableOutput = new DataOutputStream(tableData);
+				for (long value : entry.table) {
+					tableOutput.writeLong(value);
+				}
+				output.write(tableData.toByteArray());
+				directoryOutput.writeUTF(entry.name);
+				directoryOutput.writeByte(entry.mode);
+				directoryOutput.writeLong(entry.table[entry.table.length - 2]);
+				directoryOutput.writeInt(entry.checksum);
+				directoryOutput.writeInt(entry.table.length / 2 - 1);
+				directoryOutput.writeLong(tableOffset);
+			}
+			final byte[] directoryBytes = directoryData.toByteArray();
+			final long directoryOffset = output.getFilePointer();
+			output.write(directoryBytes);
+			final CRC32 directoryCrc = new CRC32();
+			directoryCrc.update(directoryBytes);
+			output.seek(0);
+			output.writeInt(CompiledDfMInputStreamAccess.MAGIC);
+			output.writeInt(CompiledDfMInputStreamAccess.VERSION);
+			output.writeLong(sourceChecksum);
+			output.writeLong(directoryOffset);
+			output.writeInt(directoryBytes.length);
+			output.writeInt((int) directoryCrc.getValue());
+		} finally {
+			output.close();
+		}
+		verify(target);
+	}
+
+	/**
+	 * Returns if the file is sorted line by line and should be front-coded.
+	 *
+	 * @param name
+	 *            the name of the file
+	 * @return true if the file should be front-coded
+	 */
+	private static boolean isSortedFile(final String name) {
+		final String baseName = new File(name).getName();
+		if (!baseName.endsWith(SORTED_FILE_EXTENSION)) {
+			return false;
+		}
+		for (String prefix : SORTED_FILE_PREFIXES) {
+			if (baseName.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes the content in blocks of front-coded lines.
+	 *
+	 * @param content
+	 *            the content of the file
+	 * @param output
+	 *            the compiled file
+	 * @return the block table as pairs of decoded and encoded offsets
+	 *         including the final pair
+	 * @throws IOException
+	 *             if the compiled file could not be written
+	 */
+	private static long[] writeFrontCoded(final byte[] content, final RandomAccessFile output)
+			throws IOException {
+		final ArrayList<Long> table = new ArrayList<Long>();
+		final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE);
+		int start = 0;
+		while (start < content.length) {
+			final int blockStart = start;
+			int previousStart = 0;
+			int previousLength = 0;
+			block.reset();
+			while (start < content.length && start - blockStart < BLOCK_SIZE) {
+				int end = start;
+				while (end < content.length && content[end] != '\n') {
+					end++;
+				}
+				if (end < content.length) {
+					// the line break belongs to the line
+					end++;
+				}
+				final int length = end - start;
+				final int maxPrefix = Math.min(previousLength, length);
+				int prefix = 0;
+				while (prefix < maxPrefix
+						&& content[previousStart + prefix] == content[start + prefix]) {
+					prefix++;
+				}
+				writeVarInt(block, prefix);
+				writeVarInt(block, length - prefix);
+				block.write(content, start + prefix, length - prefix);
+				previousStart = start;
+				previousLength = length;
+				start = end;
+			}
+			table.add(Long.valueOf(blockStart));
+			table.add(Long.valueOf(output.getFilePointer()));
+			output.write(block.toByteArray());
+		}
+		table.add(Long.valueOf(content.length));
+		table.add(Long.valueOf(output.getFilePointer()));
+		return toArray(table);
+	}
+
+	/**
+	 * Writes the content in deflated blocks. Blocks that do not get smaller
+	 * are stored uncompressed.
+	 *
+	 * @param content
+	 *            the content of the file
+	 * @param output
+	 *            the compiled file
+	 * @return the block table as pairs of decoded and encoded offsets
+	 *         including the final pair
+	 * @throws IOException
+	 *             if the compiled file could not be written
+	 */
+	private static long[] writeDeflated(final byte[] content, final RandomAccessFile output)
+			throws IOException {
+		final ArrayList<Long> table = new ArrayList<Long>();
+		final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		final byte[] buffer = new byte[BLOCK_SIZE];
+		try {
+			for (int start = 0; start < content.length; start += BLOCK_SIZE) {
+				final int length = Math.min(BLOCK_SIZE, content.length - start);
+				table.add(Long.valueOf(start));
+				table.add(Long.valueOf(output.getFilePointer()));
+				deflater.reset();
+				deflater.setInput(content, start, length);
+				deflater.finish();
+				int compressedLength = 0;
+				while (!deflater.finished() && compressedLength < length) {
+					compressedLength += deflater.deflate(buffer, compressedLength,
+							buffer.length - compressedLength);
+				}
+				if (deflater.finished() && compressedLength < length) {
+					output.write(buffer, 0, compressedLength);
+				} else {
+					output.write(content, start, length);
+				}
+			}
+		} finally {
+			deflater.end();
+		}
+		table.add(Long.valueOf(content.length));
+		table.add(Long.valueOf(output.getFilePointer()));
+		return toArray(table);
+	}
+
+	/**
+	 * Reads every file of the compiled file and compares it with the CRC-32
+	 * of the original file.
+	 *
+	 * @param target
+	 *            the compiled file
+	 * @throws IOException
+	 *             if a file does not match the original file
+	 */
+	private static void verify(final File target) throws IOException {
+		final CompiledDfMInputStreamAccess access = CompiledDfMInputStreamAccess.open(target);
+		final byte[] buffer = new byte[VERIFY_BUFFER_SIZE];
+		try {
+			for (String name : access.listDictionaryFiles()) {
+				final CRC32 crc = new CRC32();
+				final InputStream input = access.getInputStream(name);
+				try {
+					int length;
+					while ((length = input.read(buffer)) >= 0) {
+						crc.update(buffer, 0, length);
+					}
+				} finally {
+					input.close();
+				}
+				if ((int) crc.getValue() != access.getChecksum(name)) {
+					throw new IOException("Compiled file does not match original: " + name);
+				}
+			}
+		} catch (DictionaryException e) {
+			throw new IOException(e.toString());
+		}
+	}
+
+	/**
+	 * Reads the complete file.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @return the content of the file
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	private static byte[] readFile(final File file) throws IOException {
+		final long length = file.length();
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("File too large: " + file);
+		}
+		final byte[] content = new byte[(int) length];
+		final DataInputStream input = new DataInputStream(new FileInputStream(file));
+		try {
+			input.readFully(content);
+		} finally {
+			input.close();
+		}
+		return content;
+	}
+
+	/**
+	 * Writes an unsigned variable-length integer with seven bits per byte,
+	 * least significant bits first.
+	 *
+	 * @param output
+	 *            the stream to write to
+	 * @param value
+	 *            the non-negative integer to write
+	 */
+	private static void writeVarInt(final ByteArrayOutputStream output, final int value) {
+		int remaining = value;
+		while ((remaining & ~0x7f) != 0) {
+			output.write((remaining & 0x7f) | 0x80);
+			remaining >>>= 7;
+		}
+		output.write(remaining);
+	}
+
+	/**
+	 * Converts the list into an array.
+	 *
+	 * @param values
+	 *            the list to convert
+	 * @return the array of all values
+	 */
+	private static long[] toArray(final ArrayList<Long> values) {
+		final long[] result = new long[values.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = values.get(i).longValue();
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.InputStream;
+
+import de.kugihan.dictionaryformids.general.DictionaryException;
+
+/**
+ * DelegatingDfMInputStreamAccess is the base class of all input stream
+ * accesses that add functionality to another input stream access. By default,
+ * all requests are forwarded to the wrapped access.
+ *
+ */
+public abstract class DelegatingDfMInputStreamAccess extends DfMInputStreamAccess {
+
+	/**
+	 * The wrapped input stream access.
+	 */
+	private volatile DfMInputStreamAccess delegate;
+
+	/**
+	 * Creates a new instance that forwards all requests to the given access.
+	 *
+	 * @param delegateAccess
+	 *            the input stream access to wrap
+	 */
+	protected DelegatingDfMInputStreamAccess(final DfMInputStreamAccess delegateAccess) {
+		if (delegateAccess == null) {
+			throw new IllegalArgumentException();
+		}
+		delegate = delegateAccess;
+	}
+
+	/**
+	 * Returns the wrapped input stream access.
+	 *
+	 * @return the wrapped input stream access
+	 */
+	public DfMInputStreamAccess getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * Replaces the wrapped input stream access. Streams that have already
+	 * been opened keep reading from the previous access.
+	 *
+	 * @param delegateAccess
+	 *            the new input stream access to wrap
+	 */
+	protected final void setDelegate(final DfMInputStreamAccess delegateAccess) {
+		if (delegateAccess == null) {
+			throw new IllegalArgumentException();
+		}
+		delegate = delegateAccess;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean fileExists(final String fileName) throws DictionaryException {
+		return getDelegate().fileExists(fileName);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public InputStream getInputStream(final String fileName) throws DictionaryException {
+		return getDelegate().getInputStream(fileName);
+	}
+
+	/**
+	 * Releases the resources of the wrapped accesses, e.g. open files, when
+	 * the dictionary is no longer used. Subclasses holding resources release
+	 * them before calling this method.
+	 */
+	public void close() {
+		close(getDelegate());
+	}
+
+	/**
+	 * Releases the resources of the given access and all accesses it wraps.
+	 *
+	 * @param inputStreamAccess
+	 *            the outermost access of the chain to close
+	 */
+	public static void close(final DfMInputStreamAccess inputStreamAccess) {
+		if (inputStreamAccess instanceof DelegatingDfMInputStreamAccess) {
+			((DelegatingDfMInputStreamAccess) inputStreamAccess).close();
+		} else if (inputStreamAccess instanceof ManifestDfMInputStreamAccess) {
+			((ManifestDfMInputStreamAccess) inputStreamAccess).close();
+		}
+	}
+
+	/**
+	 * Removes all wrapping input stream accesses from the given access.
+	 *
+	 * @param inputStreamAccess
+	 *            the access to unwrap
+	 * @return the innermost input stream access
+	 */
+	public static DfMInputStreamAccess unwrap(final DfMInputStreamAccess inputStreamAccess) {
+		DfMInputStreamAccess result = inputStreamAccess;
+		while (result instanceof DelegatingDfMInputStreamAccess) {
+			result = ((DelegatingDfMInputStreamAccess) result).getDelegate();
+		}
+		return result;
+	}
+
+}
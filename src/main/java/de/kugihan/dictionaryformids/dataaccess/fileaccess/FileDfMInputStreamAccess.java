@@ -18,10 +18,10 @@ import de.kugihan.dictionaryformids.general.Util;
 
 /**
  * FileDfMInputStreamAccess provides functionality for loading a dictionary from
- * file system.
+ * file system. Existence checks are answered from a listing of the directory.
  * 
  */
-public class FileDfMInputStreamAccess extends DfMInputStreamAccess {
+public class FileDfMInputStreamAccess extends ManifestDfMInputStreamAccess {
 
 	/**
 	 * Specifies the working directory, that all following path names are
@@ -49,10 +49,29 @@ public class FileDfMInputStreamAccess extends DfMInputStreamAccess {
      * {@inheritDoc}
      */
 	@Override
-	public final boolean fileExists(final String fileName)
-			throws DictionaryException {
-		final File file = new File(directory + fileName);
-		return file.exists();
+	protected final long getSourceLastModified() {
+		return new File(directory).lastModified();
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	@Override
+	protected final FileManifest createManifest() {
+		return FileManifest.fromDirectory(new File(directory));
+	}
+
+	/**
+	 * Reads the length of the file, as a file may be replaced without
+	 * changing the modification time of the directory.
+	 *
+	 * @param manifestName
+	 *            the name of the file in the manifest
+	 * @return the current size of the file, 0 if it does not exist
+	 */
+	@Override
+	protected final long getCurrentFileSize(final String manifestName) {
+		return new File(directory, manifestName).length();
 	}
 
     /**
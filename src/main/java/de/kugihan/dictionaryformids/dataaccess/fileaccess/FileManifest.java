@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.File;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * FileManifest lists all files of a dictionary together with their sizes. It
+ * is created once by listing the dictionary's source and answers all
+ * following existence and size queries from memory.
+ *
+ */
+public class FileManifest {
+
+	/**
+	 * Size of files whose size is not known.
+	 */
+	public static final long UNKNOWN_SIZE = -1;
+
+	/**
+	 * The sizes of all files by their name.
+	 */
+	private final HashMap<String, Long> files = new HashMap<String, Long>();
+
+	/**
+	 * The modification time of the source when the manifest was created.
+	 */
+	private final long lastModified;
+
+	/**
+	 * Creates an empty manifest.
+	 *
+	 * @param sourceLastModified
+	 *            the modification time of the listed source
+	 */
+	public FileManifest(final long sourceLastModified) {
+		lastModified = sourceLastModified;
+	}
+
+	/**
+	 * Adds a file to the manifest.
+	 *
+	 * @param fileName
+	 *            the name of the file
+	 * @param size
+	 *            the size of the file or {@link #UNKNOWN_SIZE}
+	 */
+	public final void addFile(final String fileName, final long size) {
+		files.put(fileName, size);
+	}
+
+	/**
+	 * Checks if the manifest includes the file.
+	 *
+	 * @param fileName
+	 *            the name of the file
+	 * @return true if the file exists
+	 */
+	public final boolean contains(final String fileName) {
+		return files.containsKey(fileName);
+	}
+
+	/**
+	 * Returns the size of the file.
+	 *
+	 * @param fileName
+	 *            the name of the file
+	 * @return the size of the file or {@link #UNKNOWN_SIZE} if the size or
+	 *         the file is unknown
+	 */
+	public final long getSize(final String fileName) {
+		final Long size = files.get(fileName);
+		if (size == null) {
+			return UNKNOWN_SIZE;
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the names of all files.
+	 *
+	 * @return the names of all files
+	 */
+	public final Set<String> getFileNames() {
+		return files.keySet();
+	}
+
+	/**
+	 * Returns the modification time of the source when the manifest was
+	 * created.
+	 *
+	 * @return the modification time of the source
+	 */
+	public final long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Creates a manifest of all files in the directory and its
+	 * subdirectories. File names are relative to the directory.
+	 *
+	 * @param directory
+	 *            the directory to list
+	 * @return the manifest of the directory
+	 */
+	public static FileManifest fromDirectory(final File directory) {
+		final FileManifest manifest = new FileManifest(directory.lastModified());
+		addDirectory(manifest, directory, "");
+		return manifest;
+	}
+
+	/**
+	 * Adds the files of the directory and its subdirectories to the manifest.
+	 *
+	 * @param manifest
+	 *            the manifest to add the files to
+	 * @param directory
+	 *            the directory to list
+	 * @param prefix
+	 *            the path of the directory relative to the listed root
+	 */
+	private static void addDirectory(final FileManifest manifest,
+			final File directory, final String prefix) {
+		final File[] children = directory.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			final String name = prefix + child.getName();
+			if (child.isDirectory()) {
+				addDirectory(manifest, child, name + File.separator);
+			} else {
+				manifest.addFile(name, child.length());
+			}
+		}
+	}
+
+	/**
+	 * Creates a manifest of all entries in the central directory of the
+	 * archive. File names are the full entry names.
+	 *
+	 * @param archive
+	 *            the archive to list
+	 * @param archiveLastModified
+	 *            the modification time of the archive
+	 * @return the manifest of the archive
+	 */
+	public static FileManifest fromZipFile(final ZipFile archive,
+			final long archiveLastModified) {
+		final FileManifest manifest = new FileManifest(archiveLastModified);
+		final Enumeration<? extends ZipEntry> entries = archive.entries();
+		while (entries.hasMoreElements()) {
+			final ZipEntry entry = entries.nextElement();
+			if (!entry.isDirectory()) {
+				manifest.addFile(entry.getName(), entry.getSize());
+			}
+		}
+		return manifest;
+	}
+
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import de.kugihan.dictionaryformids.dataaccess.DictionaryDataFile;
+import de.kugihan.dictionaryformids.general.CouldNotOpenFileException;
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.general.Util;
+
+/**
+ * IndexedZipInputStreamAccess provides functionality for loading a dictionary
+ * from a zip archive. In contrast to {@link NativeZipInputStreamAccess}, the
+ * central directory of the archive is read only once into an index and the
+ * archive is kept open, so every file is accessed directly instead of
+ * decompressing all preceding entries.
+ *
+ */
+public class IndexedZipInputStreamAccess extends ManifestDfMInputStreamAccess implements
+		ArchiveInputStreamAccess {
+
+	/**
+	 * Path of the zip-file to which the class is attached.
+	 */
+	private final String zipfile;
+
+	/**
+	 * The opened archive or null if it has not been opened yet.
+	 */
+	private ZipFile archive = null;
+
+	/**
+	 * The index of all entries in the archive by their name.
+	 */
+	private HashMap<String, ZipEntry> entries = null;
+
+	/**
+	 * Object to synchronize opening and closing the archive.
+	 */
+	private final Object archiveSync = new Object();
+
+	/**
+	 * The path prefix that will be added to all requested files. This allows a
+	 * dictionary to be located in a subdirectory of the archive.
+	 */
+	private String dictionaryRoot = null;
+
+	/**
+	 * Constructor attaches this class to the specified zip-file. All following
+	 * tasks will be using this file.
+	 *
+	 * @param zipFilePath
+	 *            the zip-file represented by the class
+	 */
+	public IndexedZipInputStreamAccess(final String zipFilePath) {
+		zipfile = zipFilePath;
+	}
+
+	/**
+	 * Opens the archive and reads its central directory into the index if this
+	 * has not been done before.
+	 *
+	 * @return the opened archive
+	 * @throws DictionaryException
+	 *             if the archive could not be opened
+	 */
+	private ZipFile openArchive() throws DictionaryException {
+		synchronized (archiveSync) {
+			if (archive != null) {
+				return archive;
+			}
+			final ZipFile zipFile;
+			try {
+				zipFile = new ZipFile(zipfile);
+			} catch (IOException ioe) {
+				throw new CouldNotOpenFileException(ioe);
+			}
+			final HashMap<String, ZipEntry> index = new HashMap<String, ZipEntry>(
+					zipFile.size() * 2);
+			final Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+			while (zipEntries.hasMoreElements()) {
+				final ZipEntry entry = zipEntries.nextElement();
+				index.put(entry.getName(), entry);
+			}
+			entries = index;
+			archive = zipFile;
+			return archive;
+		}
+	}
+
+	/**
+	 * Looks for the given dictionary file in the dictionary directory specified
+	 * in {@link DictionaryDataFile}. If the file cannot be found in that
+	 * subdirectory, the root directory of the ZIP-archive will be used.
+	 *
+	 * @param fileName
+	 *            the dictionary file that is to be opened
+	 */
+	private void initializeDictionaryRoot(final String fileName) {
+		final String subDirectory = DictionaryDataFile.pathNameDataFiles + File.separator;
+		final boolean isRootInSubDirectory = entries.containsKey(subDirectory + fileName);
+		if (isRootInSubDirectory) {
+			dictionaryRoot = subDirectory;
+		} else {
+			dictionaryRoot = "";
+		}
+	}
+
+	/**
+	 * Finds the entry of the specified file in the index.
+	 *
+	 * @param fileName
+	 *            the name of the included file
+	 * @return the entry or null if the file is not included
+	 * @throws DictionaryException
+	 *             if the archive could not be opened
+	 */
+	private ZipEntry getEntry(final String fileName) throws DictionaryException {
+		// reopens the archive if it has been modified
+		getManifest();
+		final String entryName = getManifestName(fileName);
+		synchronized (archiveSync) {
+			openArchive();
+			return entries.get(entryName);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final String getManifestName(final String fileName)
+			throws DictionaryException {
+		openArchive();
+		synchronized (archiveSync) {
+			// find out where the dictionary is located on first run
+			if (dictionaryRoot == null) {
+				initializeDictionaryRoot(fileName);
+			}
+			return dictionaryRoot + fileName;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final long getSourceLastModified() {
+		return new File(zipfile).lastModified();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final FileManifest createManifest() throws DictionaryException {
+		final ZipFile zipFile = openArchive();
+		return FileManifest.fromZipFile(zipFile, getSourceLastModified());
+	}
+
+	/**
+	 * Closes the archive so that the index is read again.
+	 */
+	@Override
+	protected final void onSourceModified() {
+		close();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final InputStream getInputStream(final String fileName)
+			throws DictionaryException {
+		final ZipEntry entry = getEntry(fileName);
+		if (entry == null) {
+			Util.getUtil().log("File not found:" + fileName, Util.logLevel3);
+			throw new CouldNotOpenFileException(
+					"Resource file could not be opened: " + fileName);
+		}
+		try {
+			return openArchive().getInputStream(entry);
+		} catch (IOException ioe) {
+			throw new CouldNotOpenFileException(ioe);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final boolean hasJarDictionary() throws DictionaryException {
+		for (String name : getManifest().getFileNames()) {
+			if (name.endsWith(".jar")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Closes the archive. It will be opened again on the next access. Called
+	 * when the source has been modified and when the dictionary is unloaded.
+	 */
+	@Override
+	public final void close() {
+		synchronized (archiveSync) {
+			if (archive == null) {
+				return;
+			}
+			try {
+				archive.close();
+			} catch (IOException e) {
+				// ignore this exception
+			}
+			archive = null;
+			entries = null;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final String getArchivePath() {
+		return zipfile;
+	}
+
+}
@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.kugihan.dictionaryformids.general.DictionaryException;
+
+/**
+ * InstrumentedDfMInputStreamAccess records all existence checks, opened
+ * streams and transferred bytes of the wrapped input stream access in an
+ * {@link IoStatistics}. While recording is disabled, all requests are
+ * forwarded without measuring them.
+ *
+ */
+public class InstrumentedDfMInputStreamAccess extends DelegatingDfMInputStreamAccess {
+
+	/**
+	 * InstrumentedInputStream counts the bytes read and skipped and the time
+	 * spent in the wrapped stream. The counters are recorded when the stream
+	 * is closed.
+	 *
+	 */
+	private final class InstrumentedInputStream extends FilterInputStream {
+
+		/**
+		 * The name of the file in the statistics.
+		 */
+		private final String statisticsName;
+
+		/**
+		 * The search that was active when the stream was opened.
+		 */
+		private final IoStatistics.Query query;
+
+		/**
+		 * The number of bytes read.
+		 */
+		private long bytesRead = 0;
+
+		/**
+		 * The number of bytes skipped.
+		 */
+		private long bytesSkipped = 0;
+
+		/**
+		 * The time spent reading and skipping in nanoseconds.
+		 */
+		private long duration = 0;
+
+		/**
+		 * True if the stream has been closed.
+		 */
+		private boolean isClosed = false;
+
+		/**
+		 * Creates a new stream.
+		 *
+		 * @param source
+		 *            the stream to wrap
+		 * @param name
+		 *            the name of the file in the statistics
+		 * @param activeQuery
+		 *            the active search or null
+		 */
+		private InstrumentedInputStream(final InputStream source, final String name,
+				final IoStatistics.Query activeQuery) {
+			super(source);
+			statisticsName = name;
+			query = activeQuery;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read() throws IOException {
+			final long start = System.nanoTime();
+			final int result = super.read();
+			duration += System.nanoTime() - start;
+			if (result >= 0) {
+				bytesRead++;
+			}
+			return result;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length)
+				throws IOException {
+			final long start = System.nanoTime();
+			final int result = super.read(buffer, offset, length);
+			duration += System.nanoTime() - start;
+			if (result > 0) {
+				bytesRead += result;
+			}
+			return result;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public long skip(final long byteCount) throws IOException {
+			final long start = System.nanoTime();
+			final long result = super.skip(byteCount);
+			duration += System.nanoTime() - start;
+			if (result > 0) {
+				bytesSkipped += result;
+			}
+			return result;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close() throws IOException {
+			if (!isClosed) {
+				isClosed = true;
+				statistics.recordTransfer(query, statisticsName, bytesRead, bytesSkipped,
+						duration);
+			}
+			super.close();
+		}
+	}
+
+	/**
+	 * The statistics to record the I/O in.
+	 */
+	private final IoStatistics statistics;
+
+	/**
+	 * The prefix of all file names in the statistics.
+	 */
+	private final String namePrefix;
+
+	/**
+	 * Creates a new instance that records the I/O of the given access.
+	 *
+	 * @param inputStreamAccess
+	 *            the input stream access to instrument
+	 * @param ioStatistics
+	 *            the statistics to record the I/O in
+	 * @param name
+	 *            the name of the dictionary that is used to tell apart files
+	 *            of different dictionaries in the statistics
+	 */
+	public InstrumentedDfMInputStreamAccess(final DfMInputStreamAccess inputStreamAccess,
+			final IoStatistics ioStatistics, final String name) {
+		super(inputStreamAccess);
+		statistics = ioStatistics;
+		namePrefix = name + ":";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean fileExists(final String fileName) throws DictionaryException {
+		if (!statistics.isEnabled()) {
+			return super.fileExists(fileName);
+		}
+		final long start = System.nanoTime();
+		try {
+			return super.fileExists(fileName);
+		} finally {
+			statistics.recordProbe(namePrefix + fileName, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public InputStream getInputStream(final String fileName) throws DictionaryException {
+		if (!statistics.isEnabled()) {
+			return super.getInputStream(fileName);
+		}
+		final long start = System.nanoTime();
+		final InputStream stream = super.getInputStream(fileName);
+		final String statisticsName = namePrefix + fileName;
+		final IoStatistics.Query query = statistics.recordOpen(statisticsName,
+				System.nanoTime() - start);
+		return new InstrumentedInputStream(stream, statisticsName, query);
+	}
+
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+/**
+ * IoCounters sums up the I/O operations on dictionary files, e.g. of a single
+ * file or of a single search. Instances are not thread-safe and are guarded by
+ * the owning {@link IoStatistics}.
+ *
+ */
+public final class IoCounters {
+
+	/**
+	 * The number of nanoseconds in a millisecond.
+	 */
+	private static final long NANOSECONDS_PER_MILLISECOND = 1000L * 1000L;
+
+	/**
+	 * The number of opened streams.
+	 */
+	private long openCount = 0;
+
+	/**
+	 * The number of bytes read from the streams.
+	 */
+	private long bytesRead = 0;
+
+	/**
+	 * The number of bytes skipped in the streams.
+	 */
+	private long bytesSkipped = 0;
+
+	/**
+	 * The number of existence checks.
+	 */
+	private long probeCount = 0;
+
+	/**
+	 * The wall time in nanoseconds spent opening, reading and skipping.
+	 */
+	private long nanoseconds = 0;
+
+	/**
+	 * Adds an existence check.
+	 *
+	 * @param duration
+	 *            the duration of the check in nanoseconds
+	 */
+	void addProbe(final long duration) {
+		probeCount++;
+		nanoseconds += duration;
+	}
+
+	/**
+	 * Adds an opened stream.
+	 *
+	 * @param duration
+	 *            the duration of opening the stream in nanoseconds
+	 */
+	void addOpen(final long duration) {
+		openCount++;
+		nanoseconds += duration;
+	}
+
+	/**
+	 * Adds the bytes transferred by a stream.
+	 *
+	 * @param read
+	 *            the number of bytes read
+	 * @param skipped
+	 *            the number of bytes skipped
+	 * @param duration
+	 *            the duration of reading and skipping in nanoseconds
+	 */
+	void addTransfer(final long read, final long skipped, final long duration) {
+		bytesRead += read;
+		bytesSkipped += skipped;
+		nanoseconds += duration;
+	}
+
+	/**
+	 * Returns the number of opened streams.
+	 *
+	 * @return the number of opened streams
+	 */
+	public long getOpenCount() {
+		return openCount;
+	}
+
+	/**
+	 * Returns the number of bytes read from the streams.
+	 *
+	 * @return the number of bytes read
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Returns the number of bytes skipped in the streams.
+	 *
+	 * @return the number of bytes skipped
+	 */
+	public long getBytesSkipped() {
+		return bytesSkipped;
+	}
+
+	/**
+	 * Returns the number of existence checks.
+	 *
+	 * @return the number of existence checks
+	 */
+	public long getProbeCount() {
+		return probeCount;
+	}
+
+	/**
+	 * Returns the wall time spent opening, reading and skipping.
+	 *
+	 * @return the wall time in nanoseconds
+	 */
+	public long getNanoseconds() {
+		return nanoseconds;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "opens=" + openCount + " read=" + bytesRead + " skipped=" + bytesSkipped
+				+ " probes=" + probeCount + " time=" + nanoseconds / NANOSECONDS_PER_MILLISECOND
+				+ "ms";
+	}
+
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+/**
+ * IoHistogram counts non-negative values in buckets of powers of two, i.e.
+ * bucket n holds all values below 2^n that are not in a lower bucket.
+ * Instances are not thread-safe and are guarded by the owning
+ * {@link IoStatistics}.
+ *
+ */
+public final class IoHistogram {
+
+	/**
+	 * The number of buckets, enough for all non-negative long values.
+	 */
+	private static final int BUCKET_COUNT = 64;
+
+	/**
+	 * The name of the histogram.
+	 */
+	private final String name;
+
+	/**
+	 * The unit of the values.
+	 */
+	private final String unit;
+
+	/**
+	 * The number of values in each bucket.
+	 */
+	private final long[] buckets = new long[BUCKET_COUNT];
+
+	/**
+	 * The number of values.
+	 */
+	private long count = 0;
+
+	/**
+	 * The sum of all values.
+	 */
+	private long sum = 0;
+
+	/**
+	 * The largest value.
+	 */
+	private long max = 0;
+
+	/**
+	 * Creates an empty histogram.
+	 *
+	 * @param histogramName
+	 *            the name of the histogram
+	 * @param valueUnit
+	 *            the unit of the values
+	 */
+	public IoHistogram(final String histogramName, final String valueUnit) {
+		name = histogramName;
+		unit = valueUnit;
+	}
+
+	/**
+	 * Adds a value to the histogram. Negative values are counted as zero.
+	 *
+	 * @param value
+	 *            the value to add
+	 */
+	void record(final long value) {
+		final long positiveValue = Math.max(0, value);
+		buckets[BUCKET_COUNT - Long.numberOfLeadingZeros(positiveValue)]++;
+		count++;
+		sum += positiveValue;
+		max = Math.max(max, positiveValue);
+	}
+
+	/**
+	 * Removes all values from the histogram.
+	 */
+	void clear() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = 0;
+		}
+		count = 0;
+		sum = 0;
+		max = 0;
+	}
+
+	/**
+	 * Returns the number of values.
+	 *
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the average of all values.
+	 *
+	 * @return the average or 0 if the histogram is empty
+	 */
+	public long getAverage() {
+		return count == 0 ? 0 : sum / count;
+	}
+
+	/**
+	 * Returns the largest value.
+	 *
+	 * @return the largest value or 0 if the histogram is empty
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns an upper bound of the given percentile of all values.
+	 *
+	 * @param percentile
+	 *            the percentile between 0 and 100
+	 * @return the exclusive upper bound of the bucket including the
+	 *         percentile or 0 if the histogram is empty
+	 */
+	public long getPercentile(final int percentile) {
+		final long rank = (count * percentile + 99) / 100;
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets[i];
+			if (seen >= rank && seen > 0) {
+				return Math.min(getUpperBound(i), max + 1);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the exclusive upper bound of the given bucket.
+	 *
+	 * @param bucket
+	 *            the index of the bucket
+	 * @return the exclusive upper bound
+	 */
+	private static long getUpperBound(final int bucket) {
+		return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+	}
+
+	/**
+	 * Returns a multi-line description including all non-empty buckets.
+	 *
+	 * @return the description of the histogram
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder result = new StringBuilder();
+		result.append(name).append(" (").append(unit).append("): count=").append(count)
+				.append(" avg=").append(getAverage()).append(" p50<").append(getPercentile(50))
+				.append(" p90<").append(getPercentile(90)).append(" max=").append(max)
+				.append('\n');
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			if (buckets[i] == 0) {
+				continue;
+			}
+			result.append("  <").append(getUpperBound(i)).append(": ").append(buckets[i])
+					.append('\n');
+		}
+		return result.toString();
+	}
+
+}
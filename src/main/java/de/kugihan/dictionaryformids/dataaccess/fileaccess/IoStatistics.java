@@ -0,0 +1,501 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * IoStatistics collects the I/O operations recorded by
+ * {@link InstrumentedDfMInputStreamAccess} per file and per search.
+ * <p>
+ * A search is started with {@link #beginQuery(String, int)}. It consists of a
+ * number of segments, e.g. one for every language pair of every dictionary.
+ * The I/O of each thread is counted separately: all I/O of a thread until it
+ * calls {@link #finishSegment(String)} is attributed to the finished segment.
+ * This is exact as long as every segment is executed by a single thread, also
+ * if several segments are executed in parallel. I/O outside of searches,
+ * e.g. while loading a dictionary, is only included in the totals.
+ *
+ */
+public final class IoStatistics {
+
+	/**
+	 * The number of nanoseconds in a millisecond.
+	 */
+	private static final long NANOSECONDS_PER_MILLISECOND = 1000L * 1000L;
+
+	/**
+	 * The number of nanoseconds in a microsecond.
+	 */
+	private static final long NANOSECONDS_PER_MICROSECOND = 1000L;
+
+	/**
+	 * The number of finished searches that are kept.
+	 */
+	private static final int MAX_RECENT_QUERIES = 20;
+
+	/**
+	 * The I/O of a single search.
+	 *
+	 */
+	public static final class Query {
+
+		/**
+		 * The description of the search.
+		 */
+		private final String description;
+
+		/**
+		 * The number of segments of the search.
+		 */
+		private final int segmentCount;
+
+		/**
+		 * The time when the search was started in nanoseconds.
+		 */
+		private final long startTime = System.nanoTime();
+
+		/**
+		 * The duration of the search in nanoseconds or -1 if the search is
+		 * still active.
+		 */
+		private long duration = -1;
+
+		/**
+		 * True if the search was replaced by another search before all segments
+		 * were finished.
+		 */
+		private boolean isCancelled = false;
+
+		/**
+		 * The I/O of the complete search.
+		 */
+		private final IoCounters totals = new IoCounters();
+
+		/**
+		 * The I/O of the search per file.
+		 */
+		private final LinkedHashMap<String, IoCounters> files = new LinkedHashMap<String, IoCounters>();
+
+		/**
+		 * The descriptions of the finished segments.
+		 */
+		private final ArrayList<String> segmentLabels = new ArrayList<String>();
+
+		/**
+		 * The I/O of the finished segments.
+		 */
+		private final ArrayList<IoCounters> segments = new ArrayList<IoCounters>();
+
+		/**
+		 * The I/O of the current segment of each thread.
+		 */
+		private final HashMap<Thread, IoCounters> currentSegments = new HashMap<Thread, IoCounters>();
+
+		/**
+		 * Creates a new search.
+		 *
+		 * @param queryDescription
+		 *            the description of the search
+		 * @param numberOfSegments
+		 *            the number of segments of the search
+		 */
+		private Query(final String queryDescription, final int numberOfSegments) {
+			description = queryDescription;
+			segmentCount = numberOfSegments;
+		}
+
+		/**
+		 * Returns the description of the search.
+		 *
+		 * @return the description of the search
+		 */
+		public String getDescription() {
+			return description;
+		}
+
+		/**
+		 * Returns the duration of the search.
+		 *
+		 * @return the duration in nanoseconds or -1 if the search is still
+		 *         active
+		 */
+		public long getDuration() {
+			return duration;
+		}
+
+		/**
+		 * Returns the I/O of the complete search.
+		 *
+		 * @return the I/O of the search
+		 */
+		public IoCounters getTotals() {
+			return totals;
+		}
+
+		/**
+		 * Returns the counters of the given file, creating them if necessary.
+		 *
+		 * @param fileName
+		 *            the name of the file
+		 * @return the counters of the file
+		 */
+		private IoCounters getFile(final String fileName) {
+			return getCounters(files, fileName);
+		}
+
+		/**
+		 * Returns the counters of the current segment of the calling thread,
+		 * creating them if necessary.
+		 *
+		 * @return the counters of the segment
+		 */
+		private IoCounters getCurrentSegment() {
+			final Thread thread = Thread.currentThread();
+			IoCounters counters = currentSegments.get(thread);
+			if (counters == null) {
+				counters = new IoCounters();
+				currentSegments.put(thread, counters);
+			}
+			return counters;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String toString() {
+			final StringBuilder result = new StringBuilder();
+			result.append('"').append(description).append("\" ");
+			if (duration < 0) {
+				result.append("active");
+			} else {
+				result.append(duration / NANOSECONDS_PER_MILLISECOND).append("ms");
+			}
+			if (isCancelled) {
+				result.append(" cancelled");
+			}
+			result.append(": ").append(totals);
+			return result.toString();
+		}
+
+		/**
+		 * Appends a multi-line description of the search including all
+		 * segments and files.
+		 *
+		 * @param result
+		 *            the builder to append the description to
+		 */
+		private void appendDetails(final StringBuilder result) {
+			result.append(this).append('\n');
+			for (int i = 0; i < segments.size(); i++) {
+				result.append("  [").append(segmentLabels.get(i)).append("] ")
+						.append(segments.get(i)).append('\n');
+			}
+			for (Map.Entry<String, IoCounters> file : files.entrySet()) {
+				result.append("  ").append(file.getKey()).append(": ").append(file.getValue())
+						.append('\n');
+			}
+		}
+	}
+
+	/**
+	 * True if I/O should be recorded.
+	 */
+	private volatile boolean isEnabled = false;
+
+	/**
+	 * The I/O of all files.
+	 */
+	private IoCounters totals = new IoCounters();
+
+	/**
+	 * The I/O per file.
+	 */
+	private final LinkedHashMap<String, IoCounters> files = new LinkedHashMap<String, IoCounters>();
+
+	/**
+	 * The active search or null if no search is active.
+	 */
+	private Query activeQuery = null;
+
+	/**
+	 * The most recently finished searches, newest first.
+	 */
+	private final LinkedList<Query> recentQueries = new LinkedList<Query>();
+
+	/**
+	 * The durations of finished searches.
+	 */
+	private final IoHistogram queryDurations = new IoHistogram("Search duration", "ms");
+
+	/**
+	 * The bytes read by finished searches.
+	 */
+	private final IoHistogram queryBytesRead = new IoHistogram("Bytes read per search", "bytes");
+
+	/**
+	 * The bytes skipped by finished searches.
+	 */
+	private final IoHistogram queryBytesSkipped = new IoHistogram("Bytes skipped per search",
+			"bytes");
+
+	/**
+	 * The streams opened by finished searches.
+	 */
+	private final IoHistogram queryOpens = new IoHistogram("Opens per search", "streams");
+
+	/**
+	 * The existence checks of finished searches.
+	 */
+	private final IoHistogram queryProbes = new IoHistogram("Probes per search", "checks");
+
+	/**
+	 * The durations of opening streams.
+	 */
+	private final IoHistogram openDurations = new IoHistogram("Open duration", "us");
+
+	/**
+	 * The bytes read from single streams.
+	 */
+	private final IoHistogram streamBytesRead = new IoHistogram("Bytes read per stream", "bytes");
+
+	/**
+	 * Returns if I/O should be recorded.
+	 *
+	 * @return true if I/O should be recorded
+	 */
+	public boolean isEnabled() {
+		return isEnabled;
+	}
+
+	/**
+	 * Enables or disables recording. Disabled instrumented accesses forward
+	 * all requests without measuring them.
+	 *
+	 * @param enabled
+	 *            true if I/O should be recorded
+	 */
+	public void setEnabled(final boolean enabled) {
+		isEnabled = enabled;
+	}
+
+	/**
+	 * Starts a new search. An active search is finished as cancelled.
+	 *
+	 * @param description
+	 *            the description of the search
+	 * @param segmentCount
+	 *            the number of segments of the search
+	 */
+	public synchronized void beginQuery(final String description, final int segmentCount) {
+		if (activeQuery != null) {
+			activeQuery.isCancelled = true;
+			finishQuery();
+		}
+		activeQuery = new Query(description, segmentCount);
+	}
+
+	/**
+	 * Finishes the current segment of the active search and attributes all
+	 * I/O of the calling thread since its previous segment to it. The search
+	 * is finished when all its segments are finished.
+	 *
+	 * @param label
+	 *            the description of the segment
+	 * @return the search if it has been finished by this call or null
+	 *         otherwise
+	 */
+	public synchronized Query finishSegment(final String label) {
+		final Query query = activeQuery;
+		if (query == null) {
+			return null;
+		}
+		query.segmentLabels.add(label);
+		final IoCounters segment = query.currentSegments.remove(Thread.currentThread());
+		query.segments.add(segment == null ? new IoCounters() : segment);
+		if (query.segments.size() < query.segmentCount) {
+			return null;
+		}
+		finishQuery();
+		return query;
+	}
+
+	/**
+	 * Finishes the active search and records it in the histograms.
+	 */
+	private void finishQuery() {
+		final Query query = activeQuery;
+		activeQuery = null;
+		query.duration = System.nanoTime() - query.startTime;
+		queryDurations.record(query.duration / NANOSECONDS_PER_MILLISECOND);
+		queryBytesRead.record(query.totals.getBytesRead());
+		queryBytesSkipped.record(query.totals.getBytesSkipped());
+		queryOpens.record(query.totals.getOpenCount());
+		queryProbes.record(query.totals.getProbeCount());
+		recentQueries.addFirst(query);
+		while (recentQueries.size() > MAX_RECENT_QUERIES) {
+			recentQueries.removeLast();
+		}
+	}
+
+	/**
+	 * Records an existence check.
+	 *
+	 * @param fileName
+	 *            the name of the checked file
+	 * @param duration
+	 *            the duration of the check in nanoseconds
+	 */
+	synchronized void recordProbe(final String fileName, final long duration) {
+		totals.addProbe(duration);
+		getCounters(files, fileName).addProbe(duration);
+		if (activeQuery != null) {
+			activeQuery.totals.addProbe(duration);
+			activeQuery.getFile(fileName).addProbe(duration);
+			activeQuery.getCurrentSegment().addProbe(duration);
+		}
+	}
+
+	/**
+	 * Records an opened stream.
+	 *
+	 * @param fileName
+	 *            the name of the opened file
+	 * @param duration
+	 *            the duration of opening the stream in nanoseconds
+	 * @return the active search, to which the I/O of the stream is
+	 *         attributed, or null if no search is active
+	 */
+	synchronized Query recordOpen(final String fileName, final long duration) {
+		totals.addOpen(duration);
+		getCounters(files, fileName).addOpen(duration);
+		openDurations.record(duration / NANOSECONDS_PER_MICROSECOND);
+		if (activeQuery != null) {
+			activeQuery.totals.addOpen(duration);
+			activeQuery.getFile(fileName).addOpen(duration);
+			activeQuery.getCurrentSegment().addOpen(duration);
+		}
+		return activeQuery;
+	}
+
+	/**
+	 * Records the bytes transferred by a closed stream.
+	 *
+	 * @param query
+	 *            the search that was active when the stream was opened or
+	 *            null
+	 * @param fileName
+	 *            the name of the file
+	 * @param bytesRead
+	 *            the number of bytes read
+	 * @param bytesSkipped
+	 *            the number of bytes skipped
+	 * @param duration
+	 *            the duration of reading and skipping in nanoseconds
+	 */
+	synchronized void recordTransfer(final Query query, final String fileName,
+			final long bytesRead, final long bytesSkipped, final long duration) {
+		totals.addTransfer(bytesRead, bytesSkipped, duration);
+		getCounters(files, fileName).addTransfer(bytesRead, bytesSkipped, duration);
+		streamBytesRead.record(bytesRead);
+		if (query != null) {
+			query.totals.addTransfer(bytesRead, bytesSkipped, duration);
+			query.getFile(fileName).addTransfer(bytesRead, bytesSkipped, duration);
+			if (query == activeQuery) {
+				query.getCurrentSegment().addTransfer(bytesRead, bytesSkipped, duration);
+			}
+		}
+	}
+
+	/**
+	 * Returns the most recently finished searches.
+	 *
+	 * @return the finished searches, newest first
+	 */
+	public synchronized List<Query> getRecentQueries() {
+		return new ArrayList<Query>(recentQueries);
+	}
+
+	/**
+	 * Discards all recorded data.
+	 */
+	public synchronized void reset() {
+		totals = new IoCounters();
+		files.clear();
+		activeQuery = null;
+		recentQueries.clear();
+		queryDurations.clear();
+		queryBytesRead.clear();
+		queryBytesSkipped.clear();
+		queryOpens.clear();
+		queryProbes.clear();
+		openDurations.clear();
+		streamBytesRead.clear();
+	}
+
+	/**
+	 * Returns a multi-line report of all recorded data.
+	 *
+	 * @return the report
+	 */
+	public synchronized String getReport() {
+		final StringBuilder result = new StringBuilder();
+		result.append("Recording: ").append(isEnabled ? "enabled" : "disabled").append('\n');
+		result.append("Total: ").append(totals).append('\n');
+		result.append('\n');
+		result.append(queryDurations);
+		result.append(queryBytesRead);
+		result.append(queryBytesSkipped);
+		result.append(queryOpens);
+		result.append(queryProbes);
+		result.append(openDurations);
+		result.append(streamBytesRead);
+		result.append('\n');
+		result.append("Files:\n");
+		for (Map.Entry<String, IoCounters> file : files.entrySet()) {
+			result.append("  ").append(file.getKey()).append(": ").append(file.getValue())
+					.append('\n');
+		}
+		result.append('\n');
+		result.append("Recent searches:\n");
+		if (activeQuery != null) {
+			activeQuery.appendDetails(result);
+		}
+		for (Query query : recentQueries) {
+			query.appendDetails(result);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Returns the counters stored for the given file, creating them if
+	 * necessary.
+	 *
+	 * @param map
+	 *            the counters per file
+	 * @param fileName
+	 *            the name of the file
+	 * @return the counters of the file
+	 */
+	private static IoCounters getCounters(final Map<String, IoCounters> map,
+			final String fileName) {
+		IoCounters counters = map.get(fileName);
+		if (counters == null) {
+			counters = new IoCounters();
+			map.put(fileName, counters);
+		}
+		return counters;
+	}
+
+}
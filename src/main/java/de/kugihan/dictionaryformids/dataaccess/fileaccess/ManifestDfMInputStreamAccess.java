@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import de.kugihan.dictionaryformids.general.DictionaryException;
+
+/**
+ * ManifestDfMInputStreamAccess is the base class of all input stream accesses
+ * that answer existence and size queries from a {@link FileManifest} instead
+ * of probing the dictionary's source. The manifest is created on the first
+ * query and created again when the modification time of the source changes.
+ *
+ */
+public abstract class ManifestDfMInputStreamAccess extends DfMInputStreamAccess {
+
+	/**
+	 * Interface to notify about a modified source, so data read from the old
+	 * state of the source can be discarded.
+	 *
+	 */
+	public interface OnSourceModifiedListener {
+
+		/**
+		 * Called before the manifest is created again because the source has
+		 * been modified.
+		 */
+		void onSourceModified();
+	}
+
+	/**
+	 * The minimum time in milliseconds between two checks of the source's
+	 * modification time.
+	 */
+	private static final long MODIFICATION_CHECK_INTERVAL = 1000;
+
+	/**
+	 * The current manifest or null if it has not been created yet.
+	 */
+	private FileManifest manifest = null;
+
+	/**
+	 * The time of the last check of the source's modification time.
+	 */
+	private long lastModificationCheck = 0;
+
+	/**
+	 * The time of the last comparison of a file's size with the size in the
+	 * manifest.
+	 */
+	private long lastSizeCheck = 0;
+
+	/**
+	 * The listeners to notify when the source has been modified.
+	 */
+	private final Vector<OnSourceModifiedListener> onSourceModifiedListeners = new Vector<OnSourceModifiedListener>();
+
+	/**
+	 * Object to synchronize access to the manifest.
+	 */
+	private final Object manifestSync = new Object();
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean fileExists(final String fileName) throws DictionaryException {
+		return getManifest().contains(getManifestName(fileName));
+	}
+
+	/**
+	 * Returns the size of the specified file from the manifest. At most once
+	 * per {@link #MODIFICATION_CHECK_INTERVAL}, the size is compared with the
+	 * current size if the subclass can determine it. If they differ, the file
+	 * has been replaced without changing the modification time of the source,
+	 * so the manifest is created again.
+	 *
+	 * @param fileName
+	 *            the name of the file
+	 * @return the size of the file or {@link FileManifest#UNKNOWN_SIZE} if
+	 *         the size or the file is unknown
+	 * @throws DictionaryException
+	 *             if the manifest could not be created
+	 */
+	public final long getFileSize(final String fileName) throws DictionaryException {
+		final String manifestName = getManifestName(fileName);
+		final long size = getManifest().getSize(manifestName);
+		if (size == FileManifest.UNKNOWN_SIZE) {
+			// added files change the modification time of the source
+			return size;
+		}
+		synchronized (manifestSync) {
+			final long now = System.currentTimeMillis();
+			if (Math.abs(now - lastSizeCheck) < MODIFICATION_CHECK_INTERVAL) {
+				return size;
+			}
+			lastSizeCheck = now;
+		}
+		final long currentSize = getCurrentFileSize(manifestName);
+		if (currentSize == FileManifest.UNKNOWN_SIZE || currentSize == size) {
+			return size;
+		}
+		synchronized (manifestSync) {
+			if (manifest != null) {
+				manifest = null;
+				notifySourceModified();
+			}
+		}
+		return getManifest().getSize(manifestName);
+	}
+
+	/**
+	 * Returns the current size of a file of the source, e.g. by reading the
+	 * file's attributes, to validate the size stored in the manifest. By
+	 * default, the size cannot be determined.
+	 *
+	 * @param manifestName
+	 *            the name of the file in the manifest
+	 * @return the current size of the file or {@link FileManifest#UNKNOWN_SIZE}
+	 */
+	protected long getCurrentFileSize(final String manifestName) {
+		return FileManifest.UNKNOWN_SIZE;
+	}
+
+	/**
+	 * Returns the names of all dictionary files relative to the dictionary
+	 * root, i.e. the names accepted by {@link #getInputStream(String)}. The
+	 * result is only reliable after the first file has been accessed, as
+	 * subclasses determine the dictionary root on the first access.
+	 *
+	 * @return the names of all dictionary files
+	 * @throws DictionaryException
+	 *             if the manifest could not be created
+	 */
+	public final List<String> listDictionaryFiles() throws DictionaryException {
+		final String root = getManifestName("");
+		final ArrayList<String> fileNames = new ArrayList<String>();
+		for (String name : getManifest().getFileNames()) {
+			if (name.startsWith(root)) {
+				fileNames.add(name.substring(root.length()));
+			}
+		}
+		return fileNames;
+	}
+
+	/**
+	 * Returns the current manifest. The manifest is created if it does not
+	 * exist yet or if the source has been modified since its creation.
+	 *
+	 * @return the current manifest
+	 * @throws DictionaryException
+	 *             if the manifest could not be created
+	 */
+	protected final FileManifest getManifest() throws DictionaryException {
+		synchronized (manifestSync) {
+			final long now = System.currentTimeMillis();
+			if (manifest != null
+					&& Math.abs(now - lastModificationCheck) < MODIFICATION_CHECK_INTERVAL) {
+				return manifest;
+			}
+			lastModificationCheck = now;
+			final long lastModified = getSourceLastModified();
+			if (manifest != null && manifest.getLastModified() == lastModified) {
+				return manifest;
+			}
+			if (manifest != null) {
+				notifySourceModified();
+			}
+			manifest = createManifest();
+			return manifest;
+		}
+	}
+
+	/**
+	 * Discards the current manifest. It will be created again on the next
+	 * query.
+	 */
+	public final void invalidateManifest() {
+		synchronized (manifestSync) {
+			manifest = null;
+		}
+	}
+
+	/**
+	 * Returns the name of the specified file in the manifest. By default, the
+	 * name is not changed.
+	 *
+	 * @param fileName
+	 *            the name of the requested file
+	 * @return the name of the file in the manifest
+	 * @throws DictionaryException
+	 *             if the manifest could not be created
+	 */
+	protected String getManifestName(final String fileName) throws DictionaryException {
+		return fileName;
+	}
+
+	/**
+	 * Called before the manifest is created again because the source has
+	 * been modified. Subclasses may release data depending on the old state of
+	 * the source.
+	 */
+	protected void onSourceModified() {
+	}
+
+	/**
+	 * Adds a listener to notify when the source has been modified.
+	 *
+	 * @param listener
+	 *            the listener to add
+	 */
+	public final void addOnSourceModifiedListener(final OnSourceModifiedListener listener) {
+		onSourceModifiedListeners.add(listener);
+	}
+
+	/**
+	 * Lets the subclass and the listeners release data depending on the old
+	 * state of the source.
+	 */
+	private void notifySourceModified() {
+		onSourceModified();
+		synchronized (onSourceModifiedListeners) {
+			for (OnSourceModifiedListener listener : onSourceModifiedListeners) {
+				listener.onSourceModified();
+			}
+		}
+	}
+
+	/**
+	 * Releases the resources of the access, e.g. open files, when the
+	 * dictionary is no longer used. By default, nothing is released.
+	 */
+	public void close() {
+	}
+
+	/**
+	 * Returns the modification time of the dictionary's source.
+	 *
+	 * @return the modification time of the source or a constant if the source
+	 *         cannot be modified
+	 */
+	protected abstract long getSourceLastModified();
+
+	/**
+	 * Creates a manifest by listing the dictionary's source.
+	 *
+	 * @return the manifest of the source
+	 * @throws DictionaryException
+	 *             if the source could not be listed
+	 */
+	protected abstract FileManifest createManifest() throws DictionaryException;
+
+}
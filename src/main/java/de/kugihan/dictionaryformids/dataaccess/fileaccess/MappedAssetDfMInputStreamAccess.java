@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.kugihan.dictionaryformids.general.DictionaryException;
+
+/**
+ * MappedAssetDfMInputStreamAccess provides functionality for loading a
+ * dictionary from the application's included assets without inflating them.
+ * Assets that are stored uncompressed in the application package are mapped
+ * directly from the package file once and all following requests are served
+ * by views on the mapping. Compressed assets are opened through the asset
+ * manager as before.
+ *
+ */
+public class MappedAssetDfMInputStreamAccess extends AssetDfMInputStreamAccess {
+
+	/**
+	 * The maximum number of assets that are kept mapped at the same time.
+	 */
+	private static final int MAX_MAPPED_ASSETS = 32;
+
+	/**
+	 * The mapped assets by their name, ordered from least to most recently
+	 * used. Evicted mappings are released by the garbage collector.
+	 */
+	private final LinkedHashMap<String, MappedByteBuffer> mappedAssets = new LinkedHashMap<String, MappedByteBuffer>(
+			MAX_MAPPED_ASSETS, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, MappedByteBuffer> eldest) {
+			return size() > MAX_MAPPED_ASSETS;
+		}
+	};
+
+	/**
+	 * The names of assets that cannot be mapped as they are compressed.
+	 */
+	private final HashSet<String> compressedAssets = new HashSet<String>();
+
+	/**
+	 * Creates an InputStream for loading a dictionary from the application's
+	 * assets.
+	 *
+	 * @param currentAssetManager
+	 *            the asset manager that provides the assets to use
+	 * @param dictionaryDirectory
+	 *            the directory that includes the dictionary files
+	 */
+	public MappedAssetDfMInputStreamAccess(final AssetManager currentAssetManager,
+			final String dictionaryDirectory) {
+		super(currentAssetManager, dictionaryDirectory);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final InputStream getInputStream(final String asset) throws DictionaryException {
+		final MappedByteBuffer mapping = getMapping(asset);
+		if (mapping == null) {
+			return super.getInputStream(asset);
+		}
+		return new MappedByteBufferInputStream(mapping.duplicate());
+	}
+
+	/**
+	 * Returns the mapping of the specified asset and maps the asset if it is
+	 * not mapped yet.
+	 *
+	 * @param asset
+	 *            the path of a dictionary file
+	 * @return the mapping of the asset or null if the asset cannot be mapped
+	 */
+	private MappedByteBuffer getMapping(final String asset) {
+		synchronized (mappedAssets) {
+			if (compressedAssets.contains(asset)) {
+				return null;
+			}
+			final MappedByteBuffer mapping = mappedAssets.get(asset);
+			if (mapping != null) {
+				return mapping;
+			}
+		}
+		final MappedByteBuffer mapping = mapAsset(getPath(asset));
+		synchronized (mappedAssets) {
+			if (mapping == null) {
+				compressedAssets.add(asset);
+			} else {
+				mappedAssets.put(asset, mapping);
+			}
+		}
+		return mapping;
+	}
+
+	/**
+	 * Maps the region of the asset in the application package read-only into
+	 * memory.
+	 *
+	 * @param path
+	 *            the absolute path of the asset
+	 * @return the mapping of the asset or null if the asset is compressed or
+	 *         could not be mapped
+	 */
+	private MappedByteBuffer mapAsset(final String path) {
+		final AssetFileDescriptor descriptor;
+		try {
+			descriptor = getAssetManager().openFd(path);
+		} catch (IOException e) {
+			// compressed assets cannot be opened as file descriptor
+			return null;
+		}
+		try {
+			final FileInputStream input = descriptor.createInputStream();
+			try {
+				final FileChannel channel = input.getChannel();
+				final long start = descriptor.getStartOffset();
+				long length = descriptor.getLength();
+				if (length == AssetFileDescriptor.UNKNOWN_LENGTH) {
+					length = channel.size() - start;
+				}
+				return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			} finally {
+				// the mapping stays valid after closing the file
+				input.close();
+			}
+		} catch (IOException e) {
+			return null;
+		} finally {
+			try {
+				descriptor.close();
+			} catch (IOException e) {
+				// ignore this exception
+			}
+		}
+	}
+
+}
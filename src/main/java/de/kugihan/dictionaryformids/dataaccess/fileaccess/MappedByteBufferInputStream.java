@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * MappedByteBufferInputStream provides a lightweight {@link InputStream} view
+ * on a (memory-mapped) byte buffer. Skipping only moves the buffer's position
+ * and does not copy any data.
+ *
+ */
+public class MappedByteBufferInputStream extends InputStream {
+
+	/**
+	 * The buffer holding the data of the stream. The buffer's position is the
+	 * position of the stream.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * The position saved by {@link #mark(int)}.
+	 */
+	private int markedPosition = 0;
+
+	/**
+	 * Creates a new stream reading the remaining bytes of the given buffer.
+	 * The buffer must not be shared with other readers, so callers should
+	 * pass a duplicate of a shared buffer.
+	 *
+	 * @param data
+	 *            the buffer to read from
+	 */
+	public MappedByteBufferInputStream(final ByteBuffer data) {
+		buffer = data;
+		markedPosition = data.position();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final int read() {
+		if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		return buffer.get() & 0xff;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final int read(final byte[] bytes, final int offset, final int length) {
+		if (length == 0) {
+			return 0;
+		}
+		final int remaining = buffer.remaining();
+		if (remaining == 0) {
+			return -1;
+		}
+		final int count = Math.min(length, remaining);
+		buffer.get(bytes, offset, count);
+		return count;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final long skip(final long count) {
+		if (count <= 0) {
+			return 0;
+		}
+		final int skipped = (int) Math.min(count, buffer.remaining());
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final int available() {
+		return buffer.remaining();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final boolean markSupported() {
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final synchronized void mark(final int readLimit) {
+		markedPosition = buffer.position();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final synchronized void reset() {
+		buffer.position(markedPosition);
+	}
+
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.kugihan.dictionaryformids.general.CouldNotOpenFileException;
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.general.Util;
+
+/**
+ * MappedFileDfMInputStreamAccess provides functionality for loading a
+ * dictionary from file system. Each file is mapped into memory once and all
+ * following requests for the file are served by views on the mapping.
+ *
+ */
+public class MappedFileDfMInputStreamAccess extends ManifestDfMInputStreamAccess {
+
+	/**
+	 * The maximum number of files that are kept mapped at the same time.
+	 */
+	private static final int MAX_MAPPED_FILES = 32;
+
+	/**
+	 * Specifies the working directory, that all following path names are
+	 * relative to.
+	 */
+	private final String directory;
+
+	/**
+	 * The mapped files by their name, ordered from least to most recently
+	 * used. Evicted mappings are released by the garbage collector.
+	 */
+	private final LinkedHashMap<String, MappedByteBuffer> mappedFiles = new LinkedHashMap<String, MappedByteBuffer>(
+			MAX_MAPPED_FILES, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, MappedByteBuffer> eldest) {
+			return size() > MAX_MAPPED_FILES;
+		}
+	};
+
+	/**
+	 * Creates a new instance that maps the files in the specified directory.
+	 *
+	 * @param baseDirectory
+	 *            the directory that includes the dictionary
+	 */
+	public MappedFileDfMInputStreamAccess(final String baseDirectory) {
+		final boolean doesNotEndWithSeperator = baseDirectory != null
+				&& !baseDirectory.endsWith(File.separator);
+		if (doesNotEndWithSeperator) {
+			directory = baseDirectory + File.separator;
+		} else {
+			directory = baseDirectory;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final long getSourceLastModified() {
+		return new File(directory).lastModified();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final FileManifest createManifest() {
+		return FileManifest.fromDirectory(new File(directory));
+	}
+
+	/**
+	 * Reads the length of the file, as a file may be replaced without
+	 * changing the modification time of the directory.
+	 *
+	 * @param manifestName
+	 *            the name of the file in the manifest
+	 * @return the current size of the file, 0 if it does not exist
+	 */
+	@Override
+	protected final long getCurrentFileSize(final String manifestName) {
+		return new File(directory, manifestName).length();
+	}
+
+	/**
+	 * Releases all mappings as the mapped files may have been replaced.
+	 */
+	@Override
+	protected final void onSourceModified() {
+		clearMappings();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final InputStream getInputStream(final String fileName)
+			throws DictionaryException {
+		final MappedByteBuffer mapping = getMapping(fileName);
+		return new MappedByteBufferInputStream(mapping.duplicate());
+	}
+
+	/**
+	 * Returns the mapping of the specified file and maps the file if it is
+	 * not mapped yet.
+	 *
+	 * @param fileName
+	 *            the name of the file relative to the directory
+	 * @return the mapping of the whole file
+	 * @throws DictionaryException
+	 *             if the file could not be mapped
+	 */
+	private MappedByteBuffer getMapping(final String fileName)
+			throws DictionaryException {
+		synchronized (mappedFiles) {
+			final MappedByteBuffer mapping = mappedFiles.get(fileName);
+			if (mapping != null) {
+				return mapping;
+			}
+		}
+		final MappedByteBuffer mapping = mapFile(directory + fileName);
+		synchronized (mappedFiles) {
+			mappedFiles.put(fileName, mapping);
+		}
+		return mapping;
+	}
+
+	/**
+	 * Maps the complete file read-only into memory.
+	 *
+	 * @param path
+	 *            the path of the file to map
+	 * @return the mapping of the file
+	 * @throws DictionaryException
+	 *             if the file could not be opened or mapped
+	 */
+	private static MappedByteBuffer mapFile(final String path)
+			throws DictionaryException {
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(path, "r");
+			final FileChannel channel = file.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			Util.getUtil().log("File not found:" + path, Util.logLevel3);
+			throw new CouldNotOpenFileException(
+					"Resource file could not be opened: " + path);
+		} finally {
+			if (file != null) {
+				try {
+					// the mapping stays valid after closing the file
+					file.close();
+				} catch (IOException e) {
+					// ignore this exception
+				}
+			}
+		}
+	}
+
+	/**
+	 * Releases all mappings. Files will be mapped again on the next access.
+	 */
+	public final void clearMappings() {
+		synchronized (mappedFiles) {
+			mappedFiles.clear();
+		}
+	}
+
+}
@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.kugihan.dictionaryformids.general.DictionaryException;
+
+/**
+ * MemoryIndexDfMInputStreamAccess serves the search lists and indexes of a
+ * dictionary from memory once they have been installed. Until then, and for
+ * all other files, requests are forwarded to the wrapped access. The files
+ * are installed in one step, so searches running in parallel either read all
+ * of them from memory or none.
+ * <p>
+ * The access also records the path the dictionary's files are requested
+ * with, so the files to install can be named without knowing the layout of
+ * the source, and the key identifying the version of the dictionary's source
+ * files, so saved indexes can be checked against it.
+ * <p>
+ * If the access is replaced while the dictionary stays loaded, e.g. when an
+ * archive has been unpacked, the installed files are handed over to the
+ * access replacing it, see {@link #handOver(MemoryIndexDfMInputStreamAccess)}.
+ *
+ */
+public class MemoryIndexDfMInputStreamAccess extends DelegatingDfMInputStreamAccess {
+
+	/**
+	 * The name of the file every dictionary is loaded from.
+	 */
+	private static final String PROPERTIES_FILE_NAME = "DictionaryForMIDs.properties";
+
+	/**
+	 * The path the files are requested with or null if not known yet.
+	 */
+	private volatile String pathPrefix = null;
+
+	/**
+	 * The key identifying the dictionary's source files or null if not known.
+	 */
+	private volatile String sourceKey = null;
+
+	/**
+	 * The installed files by their name.
+	 */
+	private volatile Map<String, byte[]> files = Collections.emptyMap();
+
+	/**
+	 * The access that replaced this access or null if it is still used.
+	 */
+	private MemoryIndexDfMInputStreamAccess successor = null;
+
+	/**
+	 * Creates a new instance that forwards all requests until files are
+	 * installed.
+	 *
+	 * @param inputStreamAccess
+	 *            the input stream access to wrap
+	 */
+	public MemoryIndexDfMInputStreamAccess(final DfMInputStreamAccess inputStreamAccess) {
+		super(inputStreamAccess);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public InputStream getInputStream(final String fileName) throws DictionaryException {
+		if (pathPrefix == null && fileName.endsWith(PROPERTIES_FILE_NAME)) {
+			pathPrefix = fileName.substring(0, fileName.length() - PROPERTIES_FILE_NAME.length());
+		}
+		final byte[] content = files.get(fileName);
+		if (content != null) {
+			return new ByteArrayInputStream(content);
+		}
+		return super.getInputStream(fileName);
+	}
+
+	/**
+	 * Returns the path the dictionary's files are requested with.
+	 *
+	 * @return the path to prepend to file names or null if the dictionary has
+	 *         not been loaded through this access
+	 */
+	public String getPathPrefix() {
+		return pathPrefix;
+	}
+
+	/**
+	 * Returns the key identifying the dictionary and the version of its
+	 * source files.
+	 *
+	 * @return the key or null if it is not known
+	 */
+	public String getSourceKey() {
+		return sourceKey;
+	}
+
+	/**
+	 * Sets the key identifying the dictionary and the version of its source
+	 * files.
+	 *
+	 * @param key
+	 *            the key that changes whenever the source files change
+	 */
+	public void setSourceKey(final String key) {
+		sourceKey = key;
+	}
+
+	/**
+	 * Serves the given files from memory from now on. Previously installed
+	 * files are replaced.
+	 *
+	 * @param content
+	 *            the content of the files by their name
+	 */
+	public void install(final Map<String, byte[]> content) {
+		final MemoryIndexDfMInputStreamAccess replacement;
+		synchronized (this) {
+			files = Collections.unmodifiableMap(new HashMap<String, byte[]>(content));
+			replacement = successor;
+		}
+		if (replacement != null) {
+			replacement.install(content);
+		}
+	}
+
+	/**
+	 * Reads all files from the wrapped access again.
+	 */
+	public void uninstall() {
+		final MemoryIndexDfMInputStreamAccess replacement;
+		synchronized (this) {
+			files = Collections.emptyMap();
+			replacement = successor;
+		}
+		if (replacement != null) {
+			replacement.uninstall();
+		}
+	}
+
+	/**
+	 * Hands the installed files, the path and the source key over to the
+	 * access replacing this access. The replacing access must serve the
+	 * files with the same names. Files installed or uninstalled through this
+	 * access afterwards are forwarded to the replacing access, so the owner of
+	 * the installed files does not need to know about the replacement.
+	 *
+	 * @param replacement
+	 *            the access replacing this access
+	 */
+	public void handOver(final MemoryIndexDfMInputStreamAccess replacement) {
+		synchronized (this) {
+			replacement.pathPrefix = pathPrefix;
+			replacement.sourceKey = sourceKey;
+			replacement.files = files;
+			successor = replacement;
+		}
+	}
+
+	/**
+	 * Returns the number of files served from memory.
+	 *
+	 * @return the number of installed files
+	 */
+	public int getInstalledFileCount() {
+		return files.size();
+	}
+
+	/**
+	 * Finds the access of this type in a chain of input stream accesses.
+	 *
+	 * @param inputStreamAccess
+	 *            the outermost access of the chain
+	 * @return the access or null if the chain does not include one
+	 */
+	public static MemoryIndexDfMInputStreamAccess find(final DfMInputStreamAccess inputStreamAccess) {
+		DfMInputStreamAccess access = inputStreamAccess;
+		while (access instanceof DelegatingDfMInputStreamAccess) {
+			if (access instanceof MemoryIndexDfMInputStreamAccess) {
+				return (MemoryIndexDfMInputStreamAccess) access;
+			}
+			access = ((DelegatingDfMInputStreamAccess) access).getDelegate();
+		}
+		return null;
+	}
+
+}
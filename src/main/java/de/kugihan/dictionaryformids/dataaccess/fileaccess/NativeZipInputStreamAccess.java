@@ -12,6 +12,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 import de.kugihan.dictionaryformids.dataaccess.DictionaryDataFile;
@@ -24,7 +25,8 @@ import de.kugihan.dictionaryformids.general.Util;
  * a zip archive.
  *
  */
-public class NativeZipInputStreamAccess extends DfMInputStreamAccess {
+public class NativeZipInputStreamAccess extends ManifestDfMInputStreamAccess implements
+		ArchiveInputStreamAccess {
 
 	/**
 	 * Path of the zip-file to which the class is attached.
@@ -82,14 +84,63 @@ public class NativeZipInputStreamAccess extends DfMInputStreamAccess {
 	 */
 	private void initializeDictionaryRoot(final String fileName)
 			throws DictionaryException {
-		dictionaryRoot = DictionaryDataFile.pathNameDataFiles + File.separator;
-		// check if file exists using newly set dictionaryRoot
-		final boolean isRootInSubDirectory = fileExists(fileName);
-		if (!isRootInSubDirectory) {
+		final String subDirectory = DictionaryDataFile.pathNameDataFiles + File.separator;
+		final boolean isRootInSubDirectory = getManifest().contains(subDirectory + fileName);
+		if (isRootInSubDirectory) {
+			dictionaryRoot = subDirectory;
+		} else {
 			dictionaryRoot = "";
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final String getManifestName(final String fileName)
+			throws DictionaryException {
+		// find out where the dictionary is located on first run
+		if (dictionaryRoot == null) {
+			initializeDictionaryRoot(fileName);
+		}
+		return dictionaryRoot + fileName;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final long getSourceLastModified() {
+		return new File(zipfile).lastModified();
+	}
+
+	/**
+	 * Creates the manifest by reading the central directory of the zip-file
+	 * once.
+	 * 
+	 * @return the manifest of the zip-file
+	 * @throws DictionaryException
+	 *             if the zip-file could not be read
+	 */
+	@Override
+	protected final FileManifest createManifest() throws DictionaryException {
+		ZipFile archive = null;
+		try {
+			archive = new ZipFile(zipfile);
+			return FileManifest.fromZipFile(archive, getSourceLastModified());
+		} catch (IOException ioe) {
+			throw new CouldNotOpenFileException(ioe);
+		} finally {
+			if (archive != null) {
+				try {
+					archive.close();
+				} catch (IOException e) {
+					// ignore this exception
+				}
+			}
+		}
+	}
+
 	/**
 	 * Gets the {@link InputStream} of the specified file in the current
 	 * zip-file.
@@ -102,12 +153,12 @@ public class NativeZipInputStreamAccess extends DfMInputStreamAccess {
 	 */
 	private InputStream getInputStreamInternal(final String fileName)
 			throws DictionaryException {
-		// find out where the dictionary is located on first run
-		if (dictionaryRoot == null) {
-			initializeDictionaryRoot(fileName);
-		}
 		// add path prefix to fileName
-		final String absolutePath = dictionaryRoot + fileName;
+		final String absolutePath = getManifestName(fileName);
+		// avoid scanning the whole zip-file for missing files
+		if (!getManifest().contains(absolutePath)) {
+			return null;
+		}
 		ZipInputStream zipStream;
     	ZipEntry zippedFile = null;
 		try {
@@ -142,24 +193,6 @@ public class NativeZipInputStreamAccess extends DfMInputStreamAccess {
 		return zipStream;
 	}
 	
-	/**
-	 * {@inheritDoc}
-	 */
-	@Override
-	public final boolean fileExists(final String fileName) 
-			throws DictionaryException {
-		final InputStream inputStream = getInputStreamInternal(fileName);
-		final boolean fileExists = (inputStream != null);
-		if (fileExists) {
-			try {
-				inputStream.close();
-			} catch (IOException e) {
-				// ignore this exception
-			}
-		}
-    	return fileExists;
-	}
-
 	/**
 	 * Checks if the current zip-file includes a jar file, which hints on an
 	 * included dictionary.
@@ -168,18 +201,20 @@ public class NativeZipInputStreamAccess extends DfMInputStreamAccess {
 	 * @throws DictionaryException if there was an error opening the file
 	 */
 	public final boolean hasJarDictionary() throws DictionaryException {
-		try {
-	    	final ZipInputStream zipStream = openZipStream(); 
-	    	ZipEntry zippedFile = null;
-	    	while ((zippedFile = zipStream.getNextEntry()) != null) {
-	    		if (zippedFile.getName().endsWith(".jar")) {
-	    			return true;
-	    		}
-	    	}
-	    	return false;
-		} catch (IOException ioe) {
-			 throw new CouldNotOpenFileException(ioe);
+		for (String name : getManifest().getFileNames()) {
+			if (name.endsWith(".jar")) {
+				return true;
+			}
 		}
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final String getArchivePath() {
+		return zipfile;
 	}
 
 }
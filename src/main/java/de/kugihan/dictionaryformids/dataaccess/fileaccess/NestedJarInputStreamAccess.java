@@ -0,0 +1,624 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import de.kugihan.dictionaryformids.dataaccess.DictionaryDataFile;
+import de.kugihan.dictionaryformids.general.CouldNotOpenFileException;
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.general.Util;
+
+/**
+ * NestedJarInputStreamAccess provides functionality for loading a dictionary
+ * from a jar file inside a zip archive without extracting the jar file.
+ * <p>
+ * If the jar file is stored uncompressed in the archive, the central directory
+ * of the jar file is read from the mapped archive and every file is accessed
+ * directly. A compressed jar file is inflated once into a file in the
+ * directory passed to the constructor, which is then read the same way and
+ * reused as long as the archive is not modified.
+ * <p>
+ * Without such a directory, or if the jar file cannot be written, the jar
+ * file is inflated on the fly and scanned for the requested file. As every
+ * scan inflates all entries before the requested one, the inflated entries
+ * passed during a scan, including the first scan that creates the manifest,
+ * are kept in a bounded cache of the least recently used entries, so most
+ * files are served without scanning the jar file again.
+ *
+ */
+public class NestedJarInputStreamAccess extends ManifestDfMInputStreamAccess implements
+		ArchiveInputStreamAccess {
+
+	/**
+	 * The extension of jar files.
+	 */
+	private static final String JAR_EXTENSION = ".jar";
+
+	/**
+	 * The maximum number of bytes of all cached entries of a compressed jar
+	 * file.
+	 */
+	private static final int MAX_CACHED_BYTES = 4 * 1024 * 1024;
+
+	/**
+	 * The maximum size of a single cached entry. Bigger entries are always
+	 * read by scanning the jar file.
+	 */
+	private static final int MAX_CACHED_ENTRY_BYTES = MAX_CACHED_BYTES / 4;
+
+	/**
+	 * The size of the buffer used to read entries.
+	 */
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * The maximum number of inflated jar files kept in the directory of
+	 * inflated jar files.
+	 */
+	private static final int MAX_INFLATED_JARS = 4;
+
+	/**
+	 * The extension of inflated jar files that are still being written.
+	 */
+	private static final String TEMPORARY_EXTENSION = ".tmp";
+
+	/**
+	 * Object to synchronize writing and deleting inflated jar files, which
+	 * may be shared by several instances.
+	 */
+	private static final Object INFLATE_SYNC = new Object();
+
+	/**
+	 * Path of the zip-file to which the class is attached.
+	 */
+	private final String zipfile;
+
+	/**
+	 * The directory keeping inflated jar files or null if compressed jar
+	 * files are scanned.
+	 */
+	private final File inflatedJarDirectory;
+
+	/**
+	 * The central directory of the zip-file or null if it has not been read
+	 * yet.
+	 */
+	private ZipDirectory outerDirectory = null;
+
+	/**
+	 * The entry of the jar file in the zip-file.
+	 */
+	private ZipDirectory.Entry jarEntry = null;
+
+	/**
+	 * The central directory of the jar file or null if the jar file is
+	 * compressed and must be scanned.
+	 */
+	private ZipDirectory jarDirectory = null;
+
+	/**
+	 * Object to synchronize opening the archive.
+	 */
+	private final Object archiveSync = new Object();
+
+	/**
+	 * The path prefix that will be added to all requested files. This allows a
+	 * dictionary to be located in a subdirectory of the jar file.
+	 */
+	private String dictionaryRoot = null;
+
+	/**
+	 * The inflated entries of a compressed jar file by name in the order of
+	 * their last use.
+	 */
+	private final LinkedHashMap<String, byte[]> inflatedEntries = new LinkedHashMap<String, byte[]>(
+			16, 0.75f, true);
+
+	/**
+	 * The number of bytes of all inflated entries.
+	 */
+	private int inflatedBytes = 0;
+
+	/**
+	 * Constructor attaches this class to the specified zip-file. All following
+	 * tasks will be using the first jar file in this zip-file.
+	 *
+	 * @param zipFilePath
+	 *            the zip-file represented by the class
+	 */
+	public NestedJarInputStreamAccess(final String zipFilePath) {
+		this(zipFilePath, null);
+	}
+
+	/**
+	 * Constructor attaches this class to the specified zip-file. A compressed
+	 * jar file is inflated into the given directory on first use.
+	 *
+	 * @param zipFilePath
+	 *            the zip-file represented by the class
+	 * @param inflatedJarDirectory
+	 *            the directory keeping inflated jar files or null to scan
+	 *            compressed jar files
+	 */
+	public NestedJarInputStreamAccess(final String zipFilePath,
+			final File inflatedJarDirectory) {
+		zipfile = zipFilePath;
+		this.inflatedJarDirectory = inflatedJarDirectory;
+	}
+
+	/**
+	 * Maps the zip-file and reads the central directories of the zip-file and,
+	 * if possible, of the jar file if this has not been done before.
+	 *
+	 * @throws DictionaryException
+	 *             if the zip-file could not be read or includes no jar file
+	 */
+	private void openArchive() throws DictionaryException {
+		synchronized (archiveSync) {
+			if (outerDirectory != null) {
+				return;
+			}
+			try {
+				final ZipDirectory directory = new ZipDirectory(mapFile(zipfile));
+				ZipDirectory.Entry firstJar = null;
+				for (ZipDirectory.Entry entry : directory.getEntries()) {
+					if (!entry.isDirectory() && entry.getName().endsWith(JAR_EXTENSION)) {
+						firstJar = entry;
+						break;
+					}
+				}
+				if (firstJar == null) {
+					throw new CouldNotOpenFileException("No jar file found in: " + zipfile);
+				}
+				if (firstJar.getMethod() == ZipDirectory.METHOD_STORED) {
+					jarDirectory = new ZipDirectory(directory.getRawData(firstJar));
+				} else {
+					jarDirectory = openInflatedJar(directory, firstJar);
+				}
+				jarEntry = firstJar;
+				outerDirectory = directory;
+			} catch (IOException ioe) {
+				throw new CouldNotOpenFileException(ioe);
+			}
+		}
+	}
+
+	/**
+	 * Returns the central directory of the inflated copy of a compressed jar
+	 * file, inflating the jar file first if no current copy exists.
+	 *
+	 * @param directory
+	 *            the central directory of the zip-file
+	 * @param entry
+	 *            the entry of the jar file
+	 * @return the central directory of the copy or null if the jar file has
+	 *         to be scanned
+	 */
+	private ZipDirectory openInflatedJar(final ZipDirectory directory,
+			final ZipDirectory.Entry entry) {
+		if (inflatedJarDirectory == null) {
+			return null;
+		}
+		final File zip = new File(zipfile);
+		final String prefix = Integer.toHexString(zip.getAbsolutePath().hashCode()) + "-";
+		final File inflatedJar = new File(inflatedJarDirectory, prefix + zip.length() + "-"
+				+ zip.lastModified() + JAR_EXTENSION);
+		try {
+			synchronized (INFLATE_SYNC) {
+				if (inflatedJar.length() != entry.getSize()) {
+					inflateJar(directory, entry, inflatedJar);
+				}
+				inflatedJar.setLastModified(System.currentTimeMillis());
+				deleteOldJars(prefix, inflatedJar);
+			}
+			return new ZipDirectory(mapFile(inflatedJar.getPath()));
+		} catch (IOException e) {
+			Util.getUtil().log("Could not inflate jar file of " + zipfile + ": " + e,
+					Util.logLevel3);
+			inflatedJar.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Inflates the jar file into the given file. The file only exists if it
+	 * has been written completely.
+	 *
+	 * @param directory
+	 *            the central directory of the zip-file
+	 * @param entry
+	 *            the entry of the jar file
+	 * @param inflatedJar
+	 *            the file to write
+	 * @throws IOException
+	 *             if the jar file could not be inflated or written
+	 */
+	private static void inflateJar(final ZipDirectory directory, final ZipDirectory.Entry entry,
+			final File inflatedJar) throws IOException {
+		final File temporaryFile = new File(inflatedJar.getPath() + TEMPORARY_EXTENSION);
+		final InputStream input = directory.openEntry(entry);
+		try {
+			final FileOutputStream output = new FileOutputStream(temporaryFile);
+			try {
+				final byte[] buffer = new byte[BUFFER_SIZE];
+				int count;
+				while ((count = input.read(buffer)) >= 0) {
+					output.write(buffer, 0, count);
+				}
+			} finally {
+				output.close();
+			}
+		} finally {
+			input.close();
+		}
+		if (temporaryFile.length() != entry.getSize() || !temporaryFile.renameTo(inflatedJar)) {
+			temporaryFile.delete();
+			throw new IOException("Could not write " + inflatedJar);
+		}
+	}
+
+	/**
+	 * Deletes older copies of this archive's jar file and the least recently
+	 * used copies of other archives' jar files beyond
+	 * {@link #MAX_INFLATED_JARS}. Copies that are still mapped stay readable
+	 * until they are unmapped.
+	 *
+	 * @param prefix
+	 *            the prefix of the names of this archive's copies
+	 * @param currentJar
+	 *            the current copy of this archive's jar file
+	 */
+	private void deleteOldJars(final String prefix, final File currentJar) {
+		final File[] files = inflatedJarDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(final File first, final File second) {
+				final long firstModified = first.lastModified();
+				final long secondModified = second.lastModified();
+				return firstModified > secondModified ? -1
+						: (firstModified == secondModified ? 0 : 1);
+			}
+		});
+		// the current copy has just been used, so it is kept first
+		int keptJars = 1;
+		for (File file : files) {
+			if (file.equals(currentJar) || file.getName().endsWith(TEMPORARY_EXTENSION)) {
+				// copies being written are replaced by their next attempt
+				continue;
+			}
+			if (file.getName().startsWith(prefix) || keptJars >= MAX_INFLATED_JARS) {
+				file.delete();
+			} else {
+				keptJars++;
+			}
+		}
+	}
+
+	/**
+	 * Maps the complete file read-only into memory.
+	 *
+	 * @param path
+	 *            the path of the file to map
+	 * @return the mapping of the file
+	 * @throws IOException
+	 *             if the file could not be mapped
+	 */
+	private static ByteBuffer mapFile(final String path) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			// the mapping stays valid after closing the file
+			file.close();
+		}
+	}
+
+	/**
+	 * Opens a stream that inflates the complete jar file.
+	 *
+	 * @return the stream of the jar file
+	 * @throws DictionaryException
+	 *             if the archive could not be opened
+	 * @throws IOException
+	 *             if the jar file could not be opened
+	 */
+	private ZipInputStream openJarStream() throws DictionaryException, IOException {
+		final ZipDirectory directory;
+		final ZipDirectory.Entry entry;
+		synchronized (archiveSync) {
+			openArchive();
+			directory = outerDirectory;
+			entry = jarEntry;
+		}
+		return new ZipInputStream(directory.openEntry(entry));
+	}
+
+	/**
+	 * Returns the central directory of the jar file.
+	 *
+	 * @return the central directory or null if the jar file is compressed
+	 * @throws DictionaryException
+	 *             if the archive could not be opened
+	 */
+	private ZipDirectory getJarDirectory() throws DictionaryException {
+		synchronized (archiveSync) {
+			openArchive();
+			return jarDirectory;
+		}
+	}
+
+	/**
+	 * Looks for the given dictionary file in the dictionary directory specified
+	 * in {@link DictionaryDataFile}. If the file cannot be found in that
+	 * subdirectory, the root directory of the jar file will be used.
+	 *
+	 * @param fileName
+	 *            the dictionary file that is to be opened
+	 * @throws DictionaryException
+	 *             if the manifest could not be created
+	 */
+	private void initializeDictionaryRoot(final String fileName)
+			throws DictionaryException {
+		final String subDirectory = DictionaryDataFile.pathNameDataFiles + File.separator;
+		final boolean isRootInSubDirectory = getManifest().contains(subDirectory + fileName);
+		if (isRootInSubDirectory) {
+			dictionaryRoot = subDirectory;
+		} else {
+			dictionaryRoot = "";
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final String getManifestName(final String fileName)
+			throws DictionaryException {
+		// find out where the dictionary is located on first run
+		if (dictionaryRoot == null) {
+			initializeDictionaryRoot(fileName);
+		}
+		return dictionaryRoot + fileName;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final long getSourceLastModified() {
+		return new File(zipfile).lastModified();
+	}
+
+	/**
+	 * Creates the manifest from the central directory of the jar file or, if
+	 * the jar file is compressed, by scanning the jar file once.
+	 *
+	 * @return the manifest of the jar file
+	 * @throws DictionaryException
+	 *             if the jar file could not be read
+	 */
+	@Override
+	protected final FileManifest createManifest() throws DictionaryException {
+		final FileManifest manifest = new FileManifest(getSourceLastModified());
+		final ZipDirectory directory = getJarDirectory();
+		if (directory != null) {
+			for (ZipDirectory.Entry entry : directory.getEntries()) {
+				if (!entry.isDirectory()) {
+					manifest.addFile(entry.getName(), entry.getSize());
+				}
+			}
+			return manifest;
+		}
+		try {
+			final ZipInputStream jarStream = openJarStream();
+			try {
+				ZipEntry entry;
+				while ((entry = jarStream.getNextEntry()) != null) {
+					if (!entry.isDirectory()) {
+						// the scan inflates every entry, so its size is known
+						manifest.addFile(entry.getName(), readEntry(entry, jarStream));
+					}
+				}
+			} finally {
+				jarStream.close();
+			}
+		} catch (IOException ioe) {
+			throw new CouldNotOpenFileException(ioe);
+		}
+		return manifest;
+	}
+
+	/**
+	 * Reads the current entry of the jar stream to its end and caches its
+	 * content if it is small enough.
+	 *
+	 * @param entry
+	 *            the current entry
+	 * @param jarStream
+	 *            the stream positioned at the start of the entry
+	 * @return the size of the entry in bytes
+	 * @throws IOException
+	 *             if the entry could not be inflated
+	 */
+	private long readEntry(final ZipEntry entry, final InputStream jarStream)
+			throws IOException {
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		final boolean isCacheable = entry.getSize() <= MAX_CACHED_ENTRY_BYTES;
+		final ByteArrayOutputStream content = isCacheable ? new ByteArrayOutputStream(
+				(int) Math.max(0, entry.getSize())) : null;
+		long size = 0;
+		int count;
+		while ((count = jarStream.read(buffer)) >= 0) {
+			if (content != null && size + count <= MAX_CACHED_ENTRY_BYTES) {
+				content.write(buffer, 0, count);
+			}
+			size += count;
+		}
+		if (content != null && size <= MAX_CACHED_ENTRY_BYTES) {
+			cacheEntry(entry.getName(), content.toByteArray());
+		}
+		return size;
+	}
+
+	/**
+	 * Adds an inflated entry to the cache and removes the least recently used
+	 * entries until the cache fits into its limit.
+	 *
+	 * @param name
+	 *            the name of the entry
+	 * @param content
+	 *            the inflated entry
+	 */
+	private void cacheEntry(final String name, final byte[] content) {
+		synchronized (inflatedEntries) {
+			final byte[] previous = inflatedEntries.put(name, content);
+			if (previous != null) {
+				inflatedBytes -= previous.length;
+			}
+			inflatedBytes += content.length;
+			final Iterator<Map.Entry<String, byte[]>> entries = inflatedEntries.entrySet()
+					.iterator();
+			while (inflatedBytes > MAX_CACHED_BYTES && entries.hasNext()) {
+				inflatedBytes -= entries.next().getValue().length;
+				entries.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns a cached inflated entry.
+	 *
+	 * @param name
+	 *            the name of the entry
+	 * @return the content of the entry or null if it is not cached
+	 */
+	private byte[] getCachedEntry(final String name) {
+		synchronized (inflatedEntries) {
+			return inflatedEntries.get(name);
+		}
+	}
+
+	/**
+	 * Removes all cached inflated entries.
+	 */
+	private void clearCachedEntries() {
+		synchronized (inflatedEntries) {
+			inflatedEntries.clear();
+			inflatedBytes = 0;
+		}
+	}
+
+	/**
+	 * Maps the zip-file again as it has been replaced.
+	 */
+	@Override
+	protected final void onSourceModified() {
+		synchronized (archiveSync) {
+			outerDirectory = null;
+			jarEntry = null;
+			jarDirectory = null;
+		}
+		clearCachedEntries();
+	}
+
+	/**
+	 * Removes the cached inflated entries.
+	 */
+	@Override
+	public void close() {
+		clearCachedEntries();
+		super.close();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final InputStream getInputStream(final String fileName)
+			throws DictionaryException {
+		if (!fileExists(fileName)) {
+			Util.getUtil().log("File not found:" + fileName, Util.logLevel3);
+			throw new CouldNotOpenFileException(
+					"Resource file could not be opened: " + fileName);
+		}
+		final String absolutePath = getManifestName(fileName);
+		final ZipDirectory directory = getJarDirectory();
+		try {
+			if (directory != null) {
+				return directory.openEntry(directory.getEntry(absolutePath));
+			}
+			final byte[] cachedEntry = getCachedEntry(absolutePath);
+			if (cachedEntry != null) {
+				return new ByteArrayInputStream(cachedEntry);
+			}
+			final ZipInputStream jarStream = openJarStream();
+			ZipEntry entry;
+			while ((entry = jarStream.getNextEntry()) != null) {
+				if (absolutePath.equals(entry.getName())) {
+					if (entry.getSize() >= 0 && entry.getSize() <= MAX_CACHED_ENTRY_BYTES) {
+						final byte[] content = new byte[(int) entry.getSize()];
+						new DataInputStream(jarStream).readFully(content);
+						jarStream.close();
+						cacheEntry(absolutePath, content);
+						return new ByteArrayInputStream(content);
+					}
+					return jarStream;
+				}
+				if (!entry.isDirectory()) {
+					// cache the entries that have to be inflated anyway
+					readEntry(entry, jarStream);
+				}
+			}
+			jarStream.close();
+		} catch (IOException ioe) {
+			throw new CouldNotOpenFileException(ioe);
+		}
+		throw new CouldNotOpenFileException(
+				"Resource file could not be opened: " + fileName);
+	}
+
+	/**
+	 * Returns true as the dictionary is read from a jar file.
+	 *
+	 * @return always true
+	 */
+	@Override
+	public final boolean hasJarDictionary() {
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final String getArchivePath() {
+		return zipfile;
+	}
+
+}
@@ -0,0 +1,692 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import de.kugihan.dictionaryformids.general.DictionaryException;
+
+/**
+ * PooledDfMInputStreamAccess wraps another input stream access and keeps the
+ * streams of closed files open in a pool. A new stream for the same file
+ * reuses the pooled stream that is closest to the requested position, so
+ * resolving many positions in the same file requires only few opens:
+ * <ul>
+ * <li>file streams are repositioned by seeking,</li>
+ * <li>other streams, e.g. inflating zip streams, are reused as checkpoints
+ * and only skip forward from their current position.</li>
+ * </ul>
+ * All streams are buffered with pooled buffers. Positioning is lazy, so
+ * skipping only moves the position until the next read.
+ *
+ */
+public class PooledDfMInputStreamAccess extends DelegatingDfMInputStreamAccess {
+
+	/**
+	 * The size of the buffer of each stream.
+	 */
+	private static final int BUFFER_SIZE = 4 * 1024;
+
+	/**
+	 * The maximum number of idle streams kept for a single file.
+	 */
+	private static final int MAX_IDLE_STREAMS_PER_FILE = 4;
+
+	/**
+	 * The maximum number of idle streams kept for all files.
+	 */
+	private static final int MAX_IDLE_STREAMS = 16;
+
+	/**
+	 * The idle streams ordered from least to most recently used.
+	 */
+	private final LinkedList<PooledSource> idleSources = new LinkedList<PooledSource>();
+
+	/**
+	 * True if the access has been closed. Streams returned afterwards are
+	 * closed instead of being pooled.
+	 */
+	private boolean isClosed = false;
+
+	/**
+	 * The number of streams opened using the wrapped access.
+	 */
+	private long openCount = 0;
+
+	/**
+	 * The number of times an idle stream has been reused.
+	 */
+	private long reuseCount = 0;
+
+	/**
+	 * The number of times a file stream has been repositioned by seeking.
+	 */
+	private long seekCount = 0;
+
+	/**
+	 * The number of bytes that have been skipped by reading or skipping the
+	 * wrapped streams.
+	 */
+	private long skippedBytes = 0;
+
+	/**
+	 * Creates a new instance that pools the streams of the wrapped access.
+	 *
+	 * @param delegateAccess
+	 *            the input stream access to wrap
+	 */
+	public PooledDfMInputStreamAccess(final DfMInputStreamAccess delegateAccess) {
+		super(delegateAccess);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public InputStream getInputStream(final String fileName) throws DictionaryException {
+		final long size = getFileSize(fileName);
+		if (hasIdleSource(fileName)) {
+			// the source is chosen on the first read when the position is known
+			return new PooledInputStream(fileName, null, size);
+		}
+		// open the file immediately so that missing files are reported here
+		return new PooledInputStream(fileName, openSource(fileName), size);
+	}
+
+	/**
+	 * Returns the size of the file if the wrapped access knows it.
+	 *
+	 * @param fileName
+	 *            the name of the file
+	 * @return the size of the file or {@link FileManifest#UNKNOWN_SIZE}
+	 * @throws DictionaryException
+	 *             if the size could not be determined
+	 */
+	private long getFileSize(final String fileName) throws DictionaryException {
+		final DfMInputStreamAccess source = unwrap(getDelegate());
+		if (source instanceof ManifestDfMInputStreamAccess) {
+			return ((ManifestDfMInputStreamAccess) source).getFileSize(fileName);
+		}
+		return FileManifest.UNKNOWN_SIZE;
+	}
+
+	/**
+	 * Checks if the pool includes an idle stream of the file.
+	 *
+	 * @param fileName
+	 *            the name of the file
+	 * @return true if an idle stream of the file exists
+	 */
+	private boolean hasIdleSource(final String fileName) {
+		synchronized (idleSources) {
+			for (PooledSource source : idleSources) {
+				if (source.fileName.equals(fileName)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Opens a new stream of the file using the wrapped access.
+	 *
+	 * @param fileName
+	 *            the name of the file
+	 * @return the new stream
+	 * @throws DictionaryException
+	 *             if the file could not be opened
+	 */
+	private PooledSource openSource(final String fileName) throws DictionaryException {
+		final InputStream stream = getDelegate().getInputStream(fileName);
+		synchronized (idleSources) {
+			openCount++;
+		}
+		return new PooledSource(fileName, stream, getFileSize(fileName));
+	}
+
+	/**
+	 * Takes the idle stream of the file that can reach the position with the
+	 * least effort out of the pool.
+	 *
+	 * @param fileName
+	 *            the name of the file
+	 * @param position
+	 *            the position to reach
+	 * @return the stream or null if no idle stream can reach the position
+	 */
+	private PooledSource takeSource(final String fileName, final long position) {
+		synchronized (idleSources) {
+			PooledSource bestSource = null;
+			long bestDistance = Long.MAX_VALUE;
+			for (PooledSource source : idleSources) {
+				if (!source.fileName.equals(fileName)) {
+					continue;
+				}
+				final long distance = source.getDistance(position);
+				if (distance < bestDistance) {
+					bestSource = source;
+					bestDistance = distance;
+				}
+			}
+			if (bestSource != null) {
+				idleSources.remove(bestSource);
+				reuseCount++;
+			}
+			return bestSource;
+		}
+	}
+
+	/**
+	 * Puts a stream that is no longer used into the pool. The least recently
+	 * used streams are closed if the pool is full.
+	 *
+	 * @param source
+	 *            the stream to put into the pool
+	 */
+	private void releaseSource(final PooledSource source) {
+		final LinkedList<PooledSource> evictedSources = new LinkedList<PooledSource>();
+		synchronized (idleSources) {
+			if (isClosed) {
+				evictedSources.add(source);
+			} else {
+				idleSources.addLast(source);
+			}
+			int sameFileCount = 0;
+			for (Iterator<PooledSource> iterator = idleSources.descendingIterator(); iterator
+					.hasNext();) {
+				final PooledSource idleSource = iterator.next();
+				if (idleSource.fileName.equals(source.fileName)
+						&& ++sameFileCount > MAX_IDLE_STREAMS_PER_FILE) {
+					iterator.remove();
+					evictedSources.add(idleSource);
+				}
+			}
+			while (idleSources.size() > MAX_IDLE_STREAMS) {
+				evictedSources.add(idleSources.removeFirst());
+			}
+		}
+		for (PooledSource evictedSource : evictedSources) {
+			evictedSource.close();
+		}
+	}
+
+	/**
+	 * Closes all idle streams and stops pooling streams, so no file stays
+	 * open once the streams in use are closed.
+	 */
+	@Override
+	public void close() {
+		synchronized (idleSources) {
+			isClosed = true;
+		}
+		closeIdleStreams();
+		super.close();
+	}
+
+	/**
+	 * Closes all idle streams.
+	 */
+	public final void closeIdleStreams() {
+		final LinkedList<PooledSource> evictedSources;
+		synchronized (idleSources) {
+			evictedSources = new LinkedList<PooledSource>(idleSources);
+			idleSources.clear();
+		}
+		for (PooledSource evictedSource : evictedSources) {
+			evictedSource.close();
+		}
+	}
+
+	/**
+	 * Adds skipped bytes to the statistics.
+	 *
+	 * @param count
+	 *            the number of skipped bytes
+	 * @param isSeek
+	 *            true if the stream has been repositioned by seeking
+	 */
+	private void countSkip(final long count, final boolean isSeek) {
+		synchronized (idleSources) {
+			if (isSeek) {
+				seekCount++;
+			} else {
+				skippedBytes += count;
+			}
+		}
+	}
+
+	/**
+	 * Finds the access of this type in a chain of input stream accesses.
+	 *
+	 * @param inputStreamAccess
+	 *            the outermost access of the chain
+	 * @return the access or null if the chain does not include one
+	 */
+	public static PooledDfMInputStreamAccess find(final DfMInputStreamAccess inputStreamAccess) {
+		DfMInputStreamAccess access = inputStreamAccess;
+		while (access instanceof DelegatingDfMInputStreamAccess) {
+			if (access instanceof PooledDfMInputStreamAccess) {
+				return (PooledDfMInputStreamAccess) access;
+			}
+			access = ((DelegatingDfMInputStreamAccess) access).getDelegate();
+		}
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		synchronized (idleSources) {
+			return "PooledDfMInputStreamAccess[opens=" + openCount + ", reuses=" + reuseCount
+					+ ", seeks=" + seekCount + ", skippedBytes=" + skippedBytes
+					+ ", idle=" + idleSources.size() + "]";
+		}
+	}
+
+	/**
+	 * A stream of the wrapped access together with its buffer.
+	 *
+	 */
+	private final class PooledSource {
+
+		/**
+		 * The name of the file.
+		 */
+		private final String fileName;
+
+		/**
+		 * The stream of the wrapped access.
+		 */
+		private final InputStream stream;
+
+		/**
+		 * The position of the stream in the file.
+		 */
+		private long streamPosition = 0;
+
+		/**
+		 * The data read last from the stream.
+		 */
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+
+		/**
+		 * The position of the buffer's data in the file.
+		 */
+		private long bufferPosition = 0;
+
+		/**
+		 * The number of valid bytes in the buffer.
+		 */
+		private int bufferCount = 0;
+
+		/**
+		 * True if the end of the file has been reached.
+		 */
+		private boolean isEndOfFile = false;
+
+		/**
+		 * The size of the file or {@link FileManifest#UNKNOWN_SIZE}.
+		 */
+		private final long fileSize;
+
+		/**
+		 * Creates a new source for the stream.
+		 *
+		 * @param name
+		 *            the name of the file
+		 * @param inputStream
+		 *            the newly opened stream
+		 * @param size
+		 *            the size of the file or {@link FileManifest#UNKNOWN_SIZE}
+		 */
+		PooledSource(final String name, final InputStream inputStream, final long size) {
+			fileName = name;
+			stream = inputStream;
+			fileSize = size;
+		}
+
+		/**
+		 * Returns true if the stream can be repositioned by seeking.
+		 *
+		 * @return true if the stream can be repositioned by seeking
+		 */
+		boolean isSeekable() {
+			return stream instanceof FileInputStream;
+		}
+
+		/**
+		 * Returns the effort to reach the position from the current state.
+		 *
+		 * @param position
+		 *            the position to reach
+		 * @return the number of bytes to skip, 0 for buffered positions and
+		 *         seekable streams or {@link Long#MAX_VALUE} if the position
+		 *         cannot be reached
+		 */
+		long getDistance(final long position) {
+			if (position >= bufferPosition && position < bufferPosition + bufferCount) {
+				return 0;
+			}
+			if (isSeekable()) {
+				return 1;
+			}
+			if (position >= streamPosition) {
+				return position - streamPosition + 1;
+			}
+			return Long.MAX_VALUE;
+		}
+
+		/**
+		 * Reads data from the specified position.
+		 *
+		 * @param position
+		 *            the position in the file to read from
+		 * @param bytes
+		 *            the array to fill
+		 * @param offset
+		 *            the start offset in the array
+		 * @param length
+		 *            the maximum number of bytes to read
+		 * @return the number of bytes read or -1 at the end of the file
+		 * @throws IOException
+		 *             if the stream could not be read or repositioned
+		 */
+		int read(final long position, final byte[] bytes, final int offset,
+				final int length) throws IOException {
+			if (position < bufferPosition || position >= bufferPosition + bufferCount) {
+				if (!fill(position)) {
+					return -1;
+				}
+			}
+			final int bufferOffset = (int) (position - bufferPosition);
+			final int count = Math.min(length, bufferCount - bufferOffset);
+			System.arraycopy(buffer, bufferOffset, bytes, offset, count);
+			return count;
+		}
+
+		/**
+		 * Fills the buffer with the data at the specified position.
+		 *
+		 * @param position
+		 *            the position in the file
+		 * @return false if the position is at or behind the end of the file
+		 * @throws IOException
+		 *             if the stream could not be read or repositioned
+		 */
+		private boolean fill(final long position) throws IOException {
+			if (fileSize != FileManifest.UNKNOWN_SIZE && position >= fileSize) {
+				// nothing to read, do not skip through the rest of the file
+				bufferCount = 0;
+				return false;
+			}
+			moveTo(position);
+			bufferPosition = streamPosition;
+			bufferCount = 0;
+			if (isEndOfFile) {
+				return false;
+			}
+			final int count = stream.read(buffer, 0, buffer.length);
+			if (count <= 0) {
+				isEndOfFile = true;
+				return false;
+			}
+			bufferCount = count;
+			streamPosition += count;
+			return true;
+		}
+
+		/**
+		 * Moves the stream to the specified position.
+		 *
+		 * @param position
+		 *            the position in the file
+		 * @throws IOException
+		 *             if the stream could not be repositioned
+		 */
+		private void moveTo(final long position) throws IOException {
+			if (position == streamPosition) {
+				return;
+			}
+			if (isSeekable()) {
+				((FileInputStream) stream).getChannel().position(position);
+				streamPosition = position;
+				isEndOfFile = false;
+				countSkip(0, true);
+				return;
+			}
+			if (position < streamPosition) {
+				throw new IOException("Cannot move backwards: " + fileName);
+			}
+			final long start = streamPosition;
+			while (streamPosition < position && !isEndOfFile) {
+				final long skipped = stream.skip(position - streamPosition);
+				if (skipped > 0) {
+					streamPosition += skipped;
+				} else if (stream.read() >= 0) {
+					streamPosition++;
+				} else {
+					isEndOfFile = true;
+				}
+			}
+			countSkip(streamPosition - start, false);
+		}
+
+		/**
+		 * Closes the stream.
+		 */
+		void close() {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				// ignore this exception
+			}
+		}
+	}
+
+	/**
+	 * A stream of a file that borrows its data source from the pool.
+	 *
+	 */
+	private final class PooledInputStream extends InputStream {
+
+		/**
+		 * The name of the file.
+		 */
+		private final String fileName;
+
+		/**
+		 * The current data source or null if it has been returned to the pool.
+		 */
+		private PooledSource source;
+
+		/**
+		 * The position of this stream in the file.
+		 */
+		private long position = 0;
+
+		/**
+		 * The position saved by {@link #mark(int)}.
+		 */
+		private long markedPosition = 0;
+
+		/**
+		 * True if the stream has been closed.
+		 */
+		private boolean isClosed = false;
+
+		/**
+		 * Buffer for reading single bytes.
+		 */
+		private final byte[] singleByte = new byte[1];
+
+		/**
+		 * The size of the file or {@link FileManifest#UNKNOWN_SIZE}.
+		 */
+		private final long fileSize;
+
+		/**
+		 * Creates a new stream.
+		 *
+		 * @param name
+		 *            the name of the file
+		 * @param initialSource
+		 *            the data source to start with
+		 * @param size
+		 *            the size of the file or {@link FileManifest#UNKNOWN_SIZE}
+		 */
+		PooledInputStream(final String name, final PooledSource initialSource,
+				final long size) {
+			fileName = name;
+			source = initialSource;
+			fileSize = size;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read() throws IOException {
+			final int count = read(singleByte, 0, 1);
+			if (count <= 0) {
+				return -1;
+			}
+			return singleByte[0] & 0xff;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read(final byte[] bytes, final int offset, final int length)
+				throws IOException {
+			if (isClosed) {
+				throw new IOException("Stream closed: " + fileName);
+			}
+			if (length == 0) {
+				return 0;
+			}
+			final int count = getSource().read(position, bytes, offset, length);
+			if (count > 0) {
+				position += count;
+			}
+			return count;
+		}
+
+		/**
+		 * Skips bytes by moving the position only, but not beyond the end of
+		 * the file if its size is known. The data source is moved on the next
+		 * read.
+		 *
+		 * @param count
+		 *            the number of bytes to skip
+		 * @return the number of bytes skipped
+		 */
+		@Override
+		public long skip(final long count) {
+			if (count <= 0) {
+				return 0;
+			}
+			long skipped = count;
+			if (fileSize != FileManifest.UNKNOWN_SIZE) {
+				skipped = Math.max(0, Math.min(count, fileSize - position));
+			}
+			position += skipped;
+			return skipped;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int available() {
+			if (source == null) {
+				return 0;
+			}
+			final long end = source.bufferPosition + source.bufferCount;
+			if (position < source.bufferPosition || position >= end) {
+				return 0;
+			}
+			return (int) (end - position);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public synchronized void mark(final int readLimit) {
+			markedPosition = position;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public synchronized void reset() {
+			position = markedPosition;
+		}
+
+		/**
+		 * Returns the data source to the pool.
+		 */
+		@Override
+		public void close() {
+			if (isClosed) {
+				return;
+			}
+			isClosed = true;
+			if (source != null) {
+				releaseSource(source);
+				source = null;
+			}
+		}
+
+		/**
+		 * Returns a data source that can reach the current position. The
+		 * current source is exchanged if it cannot move backwards.
+		 *
+		 * @return the data source
+		 * @throws IOException
+		 *             if the file could not be opened
+		 */
+		private PooledSource getSource() throws IOException {
+			if (source != null && source.getDistance(position) != Long.MAX_VALUE) {
+				return source;
+			}
+			if (source != null) {
+				releaseSource(source);
+				source = null;
+			}
+			PooledSource newSource = takeSource(fileName, position);
+			if (newSource == null) {
+				try {
+					newSource = openSource(fileName);
+				} catch (DictionaryException e) {
+					throw new IOException(e.getMessage());
+				}
+			}
+			source = newSource;
+			return source;
+		}
+	}
+
+}
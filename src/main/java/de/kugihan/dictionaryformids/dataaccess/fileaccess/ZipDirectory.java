@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * ZipDirectory reads the central directory of a zip archive that is available
+ * as a byte buffer, e.g. a mapped file or an archive stored uncompressed inside
+ * another archive. Entries can be opened directly without decompressing
+ * preceding entries.
+ *
+ */
+public class ZipDirectory {
+
+	/**
+	 * Compression method of uncompressed entries.
+	 */
+	public static final int METHOD_STORED = 0;
+
+	/**
+	 * Compression method of deflated entries.
+	 */
+	public static final int METHOD_DEFLATED = 8;
+
+	private static final int END_OF_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int DIRECTORY_ENTRY_SIGNATURE = 0x02014b50;
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int END_OF_DIRECTORY_SIZE = 22;
+	private static final int MAX_COMMENT_SIZE = 0xffff;
+	private static final int DIRECTORY_ENTRY_SIZE = 46;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final long ZIP64_MARKER = 0xffffffffL;
+
+	/**
+	 * The encoding of entry names.
+	 */
+	private static final Charset NAME_ENCODING = Charset.forName("UTF-8");
+
+	/**
+	 * An entry of the central directory.
+	 *
+	 */
+	public static final class Entry {
+
+		private final String name;
+		private final int method;
+		private final long compressedSize;
+		private final long size;
+		private final long localHeaderOffset;
+
+		/**
+		 * Creates a new entry.
+		 *
+		 * @param entryName
+		 *            the name of the entry
+		 * @param compressionMethod
+		 *            the compression method of the entry
+		 * @param entryCompressedSize
+		 *            the size of the compressed data
+		 * @param entrySize
+		 *            the size of the uncompressed data
+		 * @param offset
+		 *            the position of the entry's local header in the archive
+		 */
+		Entry(final String entryName, final int compressionMethod,
+				final long entryCompressedSize, final long entrySize, final long offset) {
+			name = entryName;
+			method = compressionMethod;
+			compressedSize = entryCompressedSize;
+			size = entrySize;
+			localHeaderOffset = offset;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getMethod() {
+			return method;
+		}
+
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+	}
+
+	/**
+	 * The archive.
+	 */
+	private final ByteBuffer archive;
+
+	/**
+	 * All entries by their name in the order of the central directory.
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	/**
+	 * Creates a new instance and reads the central directory of the archive.
+	 *
+	 * @param archiveData
+	 *            the complete archive
+	 * @throws IOException
+	 *             if the archive is not a valid zip archive
+	 */
+	public ZipDirectory(final ByteBuffer archiveData) throws IOException {
+		archive = archiveData.duplicate();
+		archive.order(ByteOrder.LITTLE_ENDIAN);
+		readCentralDirectory();
+	}
+
+	/**
+	 * Reads all entries of the central directory.
+	 *
+	 * @throws IOException
+	 *             if the central directory is invalid
+	 */
+	private void readCentralDirectory() throws IOException {
+		final int endOfDirectory = findEndOfDirectory();
+		final int entryCount = archive.getShort(endOfDirectory + 10) & 0xffff;
+		final long directoryOffset = archive.getInt(endOfDirectory + 16) & ZIP64_MARKER;
+		if (directoryOffset == ZIP64_MARKER || directoryOffset >= archive.limit()) {
+			throw new IOException("Unsupported central directory offset");
+		}
+		int position = (int) directoryOffset;
+		for (int i = 0; i < entryCount; i++) {
+			if (position + DIRECTORY_ENTRY_SIZE > archive.limit()
+					|| archive.getInt(position) != DIRECTORY_ENTRY_SIGNATURE) {
+				throw new IOException("Invalid central directory entry");
+			}
+			final int method = archive.getShort(position + 10) & 0xffff;
+			final long compressedSize = archive.getInt(position + 20) & ZIP64_MARKER;
+			final long size = archive.getInt(position + 24) & ZIP64_MARKER;
+			final int nameLength = archive.getShort(position + 28) & 0xffff;
+			final int extraLength = archive.getShort(position + 30) & 0xffff;
+			final int commentLength = archive.getShort(position + 32) & 0xffff;
+			final long localHeaderOffset = archive.getInt(position + 42) & ZIP64_MARKER;
+			if (compressedSize == ZIP64_MARKER || size == ZIP64_MARKER
+					|| localHeaderOffset == ZIP64_MARKER) {
+				throw new IOException("ZIP64 archives are not supported");
+			}
+			final byte[] nameBytes = new byte[nameLength];
+			final ByteBuffer nameBuffer = archive.duplicate();
+			nameBuffer.position(position + DIRECTORY_ENTRY_SIZE);
+			nameBuffer.get(nameBytes);
+			final String name = new String(nameBytes, NAME_ENCODING);
+			entries.put(name, new Entry(name, method, compressedSize, size,
+					localHeaderOffset));
+			position += DIRECTORY_ENTRY_SIZE + nameLength + extraLength + commentLength;
+		}
+	}
+
+	/**
+	 * Finds the end of central directory record by searching backwards from
+	 * the end of the archive.
+	 *
+	 * @return the position of the record
+	 * @throws IOException
+	 *             if the record could not be found
+	 */
+	private int findEndOfDirectory() throws IOException {
+		final int last = archive.limit() - END_OF_DIRECTORY_SIZE;
+		final int first = Math.max(0, last - MAX_COMMENT_SIZE);
+		for (int position = last; position >= first; position--) {
+			if (archive.getInt(position) == END_OF_DIRECTORY_SIGNATURE) {
+				return position;
+			}
+		}
+		throw new IOException("End of central directory not found");
+	}
+
+	/**
+	 * Returns the entry with the specified name.
+	 *
+	 * @param name
+	 *            the name of the entry
+	 * @return the entry or null if the archive does not include the entry
+	 */
+	public final Entry getEntry(final String name) {
+		return entries.get(name);
+	}
+
+	/**
+	 * Returns all entries in the order of the central directory.
+	 *
+	 * @return all entries
+	 */
+	public final Collection<Entry> getEntries() {
+		return entries.values();
+	}
+
+	/**
+	 * Returns the compressed data of the entry.
+	 *
+	 * @param entry
+	 *            the entry of this archive
+	 * @return a new buffer holding only the compressed data
+	 * @throws IOException
+	 *             if the local header of the entry is invalid
+	 */
+	public final ByteBuffer getRawData(final Entry entry) throws IOException {
+		final int header = (int) entry.localHeaderOffset;
+		if (header + LOCAL_HEADER_SIZE > archive.limit()
+				|| archive.getInt(header) != LOCAL_HEADER_SIGNATURE) {
+			throw new IOException("Invalid local header: " + entry.name);
+		}
+		final int nameLength = archive.getShort(header + 26) & 0xffff;
+		final int extraLength = archive.getShort(header + 28) & 0xffff;
+		final int start = header + LOCAL_HEADER_SIZE + nameLength + extraLength;
+		final long end = start + entry.compressedSize;
+		if (end > archive.limit()) {
+			throw new IOException("Truncated entry: " + entry.name);
+		}
+		final ByteBuffer data = archive.duplicate();
+		data.limit((int) end);
+		data.position(start);
+		return data.slice();
+	}
+
+	/**
+	 * Opens the uncompressed data of the entry.
+	 *
+	 * @param entry
+	 *            the entry of this archive
+	 * @return the stream of the uncompressed data
+	 * @throws IOException
+	 *             if the entry cannot be read
+	 */
+	public final InputStream openEntry(final Entry entry) throws IOException {
+		final InputStream rawStream = new MappedByteBufferInputStream(getRawData(entry));
+		if (entry.method == METHOD_STORED) {
+			return rawStream;
+		} else if (entry.method == METHOD_DEFLATED) {
+			// the inflater may need an additional dummy byte for raw data
+			final InputStream paddedStream = new SequenceInputStream(rawStream,
+					new ByteArrayInputStream(new byte[1]));
+			return new EntryInflaterInputStream(paddedStream);
+		} else {
+			throw new IOException("Unsupported compression method: " + entry.method);
+		}
+	}
+
+	/**
+	 * Inflates raw deflated data and releases the inflater when closed.
+	 *
+	 */
+	private static final class EntryInflaterInputStream extends InflaterInputStream {
+
+		/**
+		 * Creates a new stream inflating the given stream.
+		 *
+		 * @param in
+		 *            the deflated data
+		 */
+		EntryInflaterInputStream(final InputStream in) {
+			super(in, new Inflater(true));
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close() throws IOException {
+			super.close();
+			inf.end();
+		}
+	}
+
+}
@@ -10,6 +10,7 @@ package de.kugihan.dictionaryformids.hmi_android;
 import android.app.Activity;
 import android.app.Dialog;
 import android.app.SearchManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -66,22 +67,28 @@ import java.util.Observer;
 import java.util.Vector;
 
 import de.kugihan.dictionaryformids.dataaccess.DictionaryDataFile;
-import de.kugihan.dictionaryformids.dataaccess.fileaccess.AssetDfMInputStreamAccess;
-import de.kugihan.dictionaryformids.dataaccess.fileaccess.DfMInputStreamAccess;
-import de.kugihan.dictionaryformids.dataaccess.fileaccess.FileDfMInputStreamAccess;
-import de.kugihan.dictionaryformids.dataaccess.fileaccess.NativeZipInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.BlockCache;
 import de.kugihan.dictionaryformids.general.DictionaryException;
 import de.kugihan.dictionaryformids.general.Util;
 import de.kugihan.dictionaryformids.hmi_android.data.DictionaryType;
+import de.kugihan.dictionaryformids.hmi_android.data.ArchiveDictionaryCache;
 import de.kugihan.dictionaryformids.hmi_android.data.AndroidUtil;
+import de.kugihan.dictionaryformids.hmi_android.data.DfMInputStreamAccessFactory;
 import de.kugihan.dictionaryformids.hmi_android.data.DfMTranslationExecutor;
+import de.kugihan.dictionaryformids.hmi_android.data.ParallelTranslationExecutor;
 import de.kugihan.dictionaryformids.hmi_android.data.DictionariesAdapter;
 import de.kugihan.dictionaryformids.hmi_android.data.Dictionary;
 import de.kugihan.dictionaryformids.hmi_android.data.DictionaryVector;
+import de.kugihan.dictionaryformids.hmi_android.data.SuggestionTranslationResult;
+import de.kugihan.dictionaryformids.hmi_android.data.TermIndexes;
+import de.kugihan.dictionaryformids.hmi_android.data.TranslationResultCache;
+import de.kugihan.dictionaryformids.hmi_android.data.TranslationTextIndex;
 import de.kugihan.dictionaryformids.hmi_android.data.TranslationsAdapter;
 import de.kugihan.dictionaryformids.hmi_android.service.DictionaryInstallationService;
 import de.kugihan.dictionaryformids.hmi_android.thread.LoadDictionaryThread;
 import de.kugihan.dictionaryformids.hmi_android.thread.LoadDictionaryThread.OnThreadResultListener;
+import de.kugihan.dictionaryformids.hmi_android.thread.QueryScheduler;
+import de.kugihan.dictionaryformids.hmi_android.thread.SpeculativePrefetcher;
 import de.kugihan.dictionaryformids.hmi_android.thread.Translations;
 import de.kugihan.dictionaryformids.hmi_android.view_helper.DialogHelper;
 import de.kugihan.dictionaryformids.hmi_android.view_helper.TranslationScrollListener;
@@ -161,8 +168,14 @@ public final class DictionaryForMIDs extends Activity {
 			super.onChanged();
 
 			int resultCount = 0;
+			int searchCount = 0;
 			for (TranslationResult translationResult : translationsAdapter.getTranslationResults()) {
+				if (translationResult instanceof SuggestionTranslationResult) {
+					// suggestions are not results of the search
+					continue;
+				}
 				resultCount += translationResult.numberOfFoundTranslations();
+				searchCount++;
 			}
 
 			final TextView output = (TextView) findViewById(R.id.output);
@@ -187,7 +200,7 @@ public final class DictionaryForMIDs extends Activity {
 			// show list
 			listView.setVisibility(View.VISIBLE);
 			// expand first result when all results are available
-			final boolean isTranslationFinished = translationsAdapter.getGroupCount() == dictionaries.getLoadedLanguagePairs();
+			final boolean isTranslationFinished = searchCount == dictionaries.getLoadedLanguagePairs();
 			if (translationsAdapter.getGroupCount() > 0 && isTranslationFinished && translationsAdapter.getChildrenCount(0) > 0) {
 				listView.expandGroup(0);
 			}
@@ -245,6 +258,12 @@ public final class DictionaryForMIDs extends Activity {
 	 */
 	private static final int MILLISECONDS_IN_A_SECOND = 1000;
 
+	/**
+	 * The name of the directory in the application's private storage that
+	 * keeps the saved term index snapshots and trigram indexes.
+	 */
+	private static final String TERM_INDEX_DIRECTORY = "term_indexes";
+
 	/**
 	 * The message id for translation errors.
 	 */
@@ -284,6 +303,16 @@ public final class DictionaryForMIDs extends Activity {
 
 	private Translations translations = null;
 
+	/**
+	 * The scheduler delaying the translations started while typing.
+	 */
+	private QueryScheduler queryScheduler = null;
+
+	/**
+	 * The prefetcher searching for likely next terms while idle.
+	 */
+	private SpeculativePrefetcher speculativePrefetcher = null;
+
 	/**
 	 * The helper for all dialogs.
 	 */
@@ -427,8 +456,19 @@ public final class DictionaryForMIDs extends Activity {
 		setProgressBarVisibility(false);
 
 
+		DfMInputStreamAccessFactory.getIoStatistics().setEnabled(Preferences.getIoStatistics());
 		translations = new Translations();
-		translations.setExecutor(new DfMTranslationExecutor());
+		if (Preferences.getParallelTranslation()) {
+			translations.setExecutor(new ParallelTranslationExecutor());
+		} else {
+			translations.setExecutor(new DfMTranslationExecutor());
+		}
+		queryScheduler = new QueryScheduler(translations);
+		speculativePrefetcher = new SpeculativePrefetcher(getApplicationContext(), translations);
+		TermIndexes.setStorageDirectory(getDir(TERM_INDEX_DIRECTORY, Context.MODE_PRIVATE));
+		TermIndexes.pruneSnapshots();
+		ArchiveDictionaryCache.getInstance(this).trimInBackground();
+		TranslationTextIndex.getInstance(this);
 
 		// create the adapter to display translations
 		final TranslationsAdapter translationsAdapter = new TranslationsAdapter(this);
@@ -651,6 +691,45 @@ public final class DictionaryForMIDs extends Activity {
 		// activity
 		translationsAdapter.unregisterDataSetObserver(translationsObserver);
 		translations.getTranslationState().deleteObserver(onFilterStateChangedObserver);
+		queryScheduler.release();
+		speculativePrefetcher.release();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onTrimMemory(final int level) {
+		super.onTrimMemory(level);
+		final BlockCache blockCache = DfMInputStreamAccessFactory.getBlockCache();
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+			blockCache.clear();
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+			blockCache.trimToSize(blockCache.getByteBudget() / 4);
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			blockCache.trimToSize(blockCache.getByteBudget() / 2);
+		}
+		final TranslationResultCache resultCache = Translations.getResultCache();
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+			TermIndexes.clear();
+		}
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+			resultCache.clear();
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			resultCache.trimToSize(resultCache.getByteBudget() / 4);
+		}
+		Log.d(LOG_TAG, "onTrimMemory " + level + ": " + blockCache + " " + resultCache);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		DfMInputStreamAccessFactory.getBlockCache().clear();
+		Translations.getResultCache().clear();
+		TermIndexes.clear();
 	}
 
 	/**
@@ -752,18 +831,7 @@ public final class DictionaryForMIDs extends Activity {
 			dictionaries.remove(dictionary);
 			dictionaries.addAfterLoadedDictionaries(dictionary);
 
-			DfMInputStreamAccess inputStreamAccess = null;
-
-			if (dictionary.getType() == DictionaryType.INCLUDED) {
-				inputStreamAccess = new AssetDfMInputStreamAccess(this.getAssets(), dictionary.getPath());
-			} else if (dictionary.getType() == DictionaryType.DIRECTORY) {
-				inputStreamAccess = new FileDfMInputStreamAccess(dictionary.getPath());
-			} else if (dictionary.getType() == DictionaryType.ARCHIVE) {
-				inputStreamAccess = new NativeZipInputStreamAccess(dictionary.getPath());
-			} else {
-				return;
-			}
-			startLoadDictionary(inputStreamAccess, dictionary.getType(), dictionary.getPath(), dictionary.getSelectedLanguages(),
+			startLoadDictionary(dictionary.getType(), dictionary.getPath(), dictionary.getSelectedLanguages(),
 					silent);
 		}
 	}
@@ -869,7 +937,8 @@ public final class DictionaryForMIDs extends Activity {
 		dictionaries.addAllFromIterable(data.dictionaryVector);
 		// Load translations
 		if (data.getTranslations() != null) {
-			translationsAdapter = new TranslationsAdapter(this, data.getTranslations());
+			translationsAdapter = new TranslationsAdapter(this, data.getTranslations(),
+					getDictionaryOrder());
 			translationsAdapter.registerDataSetObserver(translationsObserver);
 			final ExpandableListView listView = (ExpandableListView) findViewById(R.id.translationsListView);
 			listView.setAdapter(translationsAdapter);
@@ -941,10 +1010,9 @@ public final class DictionaryForMIDs extends Activity {
 	};
 
 	/**
-	 * Start the thread to load a new dictionary and update the view.
+	 * Start the thread to load a new dictionary and update the view. The
+	 * input stream access of the dictionary is created by the thread.
 	 *
-	 * @param inputStreamAccess
-	 *            the input stream to load the dictionary
 	 * @param dictionaryType
 	 *            the type of the dictionary
 	 * @param dictionaryPath
@@ -955,7 +1023,6 @@ public final class DictionaryForMIDs extends Activity {
 	 *            true if the thread should not display dialogs
 	 */
 	private void startLoadDictionary(
-			final DfMInputStreamAccess inputStreamAccess,
 			final DictionaryType dictionaryType, final String dictionaryPath,
 			final Dictionary.LanguageSelectionSet languageSelectionSet, final boolean exitSilently) {
 
@@ -986,10 +1053,10 @@ public final class DictionaryForMIDs extends Activity {
 		}
 
 		setProgressBarIndeterminateVisibility(true);
-		loadDictionaryThread = new LoadDictionaryThread();
+		loadDictionaryThread = new LoadDictionaryThread(this, dictionaryType, dictionaryPath);
 		final OnThreadResultListener threadListener = createThreadListener(dictionaryType, dictionaryPath, languageSelectionSet, exitSilently);
 		loadDictionaryThread.setOnThreadResultListener(threadListener);
-		loadDictionaryThread.execute(inputStreamAccess);
+		loadDictionaryThread.execute();
 	}
 
 	/**
@@ -1168,18 +1235,14 @@ public final class DictionaryForMIDs extends Activity {
 	/**
 	 * Start the thread to load a new dictionary and update the view.
 	 *
-	 * @param inputStreamAccess
-	 *            the input stream to load the dictionary
 	 * @param dictionaryType
 	 *            the type of the dictionary
 	 * @param dictionaryPath
 	 *            the path of the dictionary
 	 */
 	private void startLoadDictionary(
-			final DfMInputStreamAccess inputStreamAccess,
 			final DictionaryType dictionaryType, final String dictionaryPath) {
-		startLoadDictionary(inputStreamAccess, dictionaryType, dictionaryPath,
-				null, false);
+		startLoadDictionary(dictionaryType, dictionaryPath, null, false);
 	}
 
 	/**
@@ -1197,9 +1260,10 @@ public final class DictionaryForMIDs extends Activity {
 				final String searchString = text.getText().toString();
 				final boolean isInputEmpty = searchString.trim().length() == 0;
 				if (isInputEmpty) {
+					queryScheduler.cancel();
 					return;
 				}
-				startTranslation();
+				startTranslation(true);
 			}
 		}
 
@@ -1426,6 +1490,8 @@ public final class DictionaryForMIDs extends Activity {
 	public boolean onPrepareOptionsMenu(final Menu menu) {
 		final MenuItem item = menu.findItem(R.id.itemStarred);
 		item.setVisible(Preferences.getIsStarredWordsEnabled());
+		final MenuItem ioStatisticsItem = menu.findItem(R.id.itemIoStatistics);
+		ioStatisticsItem.setVisible(Preferences.getIoStatistics());
 		return super.onPrepareOptionsMenu(menu);
 	}
 
@@ -1467,6 +1533,12 @@ public final class DictionaryForMIDs extends Activity {
 			startActivityForResult(starredIntent, REQUEST_STARRED_WORDS);
 			return true;
 
+		case R.id.itemIoStatistics:
+			Intent ioStatisticsIntent = new Intent(DictionaryForMIDs.this,
+					IoStatisticsScreen.class);
+			startActivity(ioStatisticsIntent);
+			return true;
+
 		default:
 			return super.onMenuItemSelected(featureId, item);
 		}
@@ -1498,6 +1570,18 @@ public final class DictionaryForMIDs extends Activity {
 	 * Starts a translation if possible and updates the view.
 	 */
 	private boolean startTranslation() {
+		return startTranslation(false);
+	}
+
+	/**
+	 * Starts a translation if possible and updates the view.
+	 *
+	 * @param isTyping
+	 *            true if the translation has been triggered by typing and
+	 *            should be delayed until the user pauses
+	 * @return true if the translation has been started or scheduled
+	 */
+	private boolean startTranslation(final boolean isTyping) {
 		EditText text = (EditText) findViewById(R.id.TranslationInput);
 		final String searchString = text.getText().toString().trim();
 		final StringBuffer searchWord = new StringBuffer(searchString);
@@ -1516,8 +1600,6 @@ public final class DictionaryForMIDs extends Activity {
 
 		applySearchModeModifiers(searchWord);
 
-		cancelActiveTranslation();
-
 		// TODO: handle multiple dictionaries
 
 		TranslationParametersBatch batchParameters = new TranslationParametersBatch();
@@ -1548,12 +1630,33 @@ public final class DictionaryForMIDs extends Activity {
 				}
 			}
 		}
-		translations.startTranslation(batchParameters);
-
+		translationsAdapter.setDictionaryOrder(getDictionaryOrder());
+		if (isTyping) {
+			queryScheduler.schedule(batchParameters);
+		} else {
+			queryScheduler.startNow(batchParameters);
+		}
 
 		return true;
 	}
 
+	/**
+	 * Returns the loaded dictionaries in the order of the list of
+	 * dictionaries, which is their priority for ranking the best results.
+	 *
+	 * @return the dictionaries ordered from highest to lowest priority
+	 */
+	private Vector<DictionaryDataFile> getDictionaryOrder() {
+		final Vector<DictionaryDataFile> dictionaryOrder = new Vector<DictionaryDataFile>();
+		for (Dictionary dictionary : dictionaries) {
+			final DictionaryDataFile file = dictionary.getFile();
+			if (file != null) {
+				dictionaryOrder.add(file);
+			}
+		}
+		return dictionaryOrder;
+	}
+
 	/**
 	 * Checks if there currently is a dictionary loaded and available for
 	 * searching.
@@ -1579,7 +1682,7 @@ public final class DictionaryForMIDs extends Activity {
 	}
 
 	public void cancelActiveTranslation() {
-		translations.cancelTranslation();
+		queryScheduler.cancel();
 	}
 
 	/**
@@ -1879,16 +1982,11 @@ public final class DictionaryForMIDs extends Activity {
 		String zipPath = extras.getString(FileList.ZIP_PATH);
 		String assetPath = extras.getString(DictionaryList.ASSET_PATH);
 		if (filePath != null) {
-			startLoadDictionary(new FileDfMInputStreamAccess(filePath),
-					DictionaryType.DIRECTORY, filePath);
+			startLoadDictionary(DictionaryType.DIRECTORY, filePath);
 		} else if (assetPath != null) {
-			startLoadDictionary(new AssetDfMInputStreamAccess(this.getAssets(), assetPath),
-					DictionaryType.INCLUDED, assetPath);
+			startLoadDictionary(DictionaryType.INCLUDED, assetPath);
 		} else if (zipPath != null) {
-			NativeZipInputStreamAccess inputStreamAccess;
-			inputStreamAccess = new NativeZipInputStreamAccess(zipPath);
-			startLoadDictionary(inputStreamAccess, DictionaryType.ARCHIVE,
-					zipPath);
+			startLoadDictionary(DictionaryType.ARCHIVE, zipPath);
 		}
 	}
 
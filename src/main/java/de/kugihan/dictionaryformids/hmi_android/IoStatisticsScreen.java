@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.IoStatistics;
+import de.kugihan.dictionaryformids.hmi_android.data.DfMInputStreamAccessFactory;
+import de.kugihan.dictionaryformids.hmi_android.data.TermIndexes;
+import de.kugihan.dictionaryformids.hmi_android.thread.Translations;
+
+/**
+ * IoStatisticsScreen represents an Activity that displays the recorded I/O of
+ * dictionary files per file and per search and the state of the caches.
+ *
+ */
+public class IoStatisticsScreen extends Activity {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final void onCreate(final Bundle savedInstanceState) {
+		DictionaryForMIDs.setApplicationTheme(this);
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.io_statistics);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final void onResume() {
+		super.onResume();
+		refresh();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean onCreateOptionsMenu(final Menu menu) {
+		MenuInflater inflater = getMenuInflater();
+		inflater.inflate(R.menu.io_statistics_options, menu);
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean onOptionsItemSelected(final MenuItem item) {
+		final IoStatistics statistics = DfMInputStreamAccessFactory.getIoStatistics();
+		switch (item.getItemId()) {
+		case R.id.itemRefresh:
+			refresh();
+			return true;
+
+		case R.id.itemReset:
+			statistics.reset();
+			refresh();
+			return true;
+
+		case R.id.itemLog:
+			// log line by line as logcat truncates long messages
+			for (String line : getReport().split("\n")) {
+				Log.d(DictionaryForMIDs.LOG_TAG, line);
+			}
+			return true;
+
+		default:
+			return super.onOptionsItemSelected(item);
+		}
+	}
+
+	/**
+	 * Displays the current report of the I/O statistics and caches.
+	 */
+	private void refresh() {
+		final TextView report = (TextView) findViewById(R.id.IoStatistics);
+		report.setText(getReport());
+	}
+
+	/**
+	 * Creates the report of the I/O statistics followed by the state of the
+	 * caches and stream pools.
+	 *
+	 * @return the report
+	 */
+	private static String getReport() {
+		return DfMInputStreamAccessFactory.getIoStatistics().getReport() + "\n"
+				+ DfMInputStreamAccessFactory.getBlockCache() + "\n"
+				+ DfMInputStreamAccessFactory.getStreamPoolDescription()
+				+ Translations.getResultCache() + "\n"
+				+ TermIndexes.getDescription();
+	}
+
+}
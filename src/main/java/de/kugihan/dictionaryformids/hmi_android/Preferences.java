@@ -26,6 +26,9 @@ import org.json.JSONObject;
 
 import java.util.Vector;
 
+import de.kugihan.dictionaryformids.hmi_android.data.DfMInputStreamAccessFactory;
+import de.kugihan.dictionaryformids.hmi_android.data.TermIndexes;
+import de.kugihan.dictionaryformids.hmi_android.data.TranslationTextIndex;
 import de.kugihan.dictionaryformids.hmi_android.data.Dictionary;
 import de.kugihan.dictionaryformids.hmi_android.data.DictionaryType;
 import de.kugihan.dictionaryformids.hmi_android.view_helper.LocalizationHelper;
@@ -59,6 +62,25 @@ public class Preferences extends PreferenceActivity implements
 	public static final String PREF_STARRED_WORDS = "starredWords";
 	public static final String PREF_SEARCH_AS_YOU_TYPE = "searchAsYouType";
 	public static final String PREF_THEME = "theme";
+	public static final String PREF_INDEXED_ARCHIVE_ACCESS = "indexedArchiveAccess";
+	public static final String PREF_MAPPED_DIRECTORY_ACCESS = "mappedDirectoryAccess";
+	public static final String PREF_BLOCK_CACHE = "blockCache";
+	public static final String PREF_NESTED_ARCHIVE_ACCESS = "nestedArchiveAccess";
+	public static final String PREF_ARCHIVE_TRANSCODING = "archiveTranscoding";
+	public static final String PREF_STREAM_POOL = "streamPool";
+	public static final String PREF_IO_STATISTICS = "ioStatistics";
+	public static final String PREF_COMPILED_DICTIONARIES = "compiledDictionaries";
+	public static final String PREF_MAPPED_ASSET_ACCESS = "mappedAssetAccess";
+	public static final String PREF_PARALLEL_TRANSLATION = "parallelTranslation";
+	public static final String PREF_BATCH_LIMITS = "batchLimits";
+	public static final String PREF_BEST_RESULTS = "bestResults";
+	public static final String PREF_PREFIX_REFINEMENT = "prefixRefinement";
+	public static final String PREF_RESULT_CACHE = "resultCache";
+	public static final String PREF_SHARED_LANGUAGE_SCAN = "sharedLanguageScan";
+	public static final String PREF_SPECULATIVE_PREFETCH = "speculativePrefetch";
+	public static final String PREF_FUZZY_SUGGESTIONS = "fuzzySuggestions";
+	public static final String PREF_SEARCH_TRANSLATIONS = "searchTranslations";
+	public static final String PREF_TERM_INDEX_MEMORY = "termIndexMemory";
 
 	/**
 	 * Saves an instance of the application's context.
@@ -293,6 +315,17 @@ public class Preferences extends PreferenceActivity implements
 				R.integer.preferences_default_search_timeout);
 	}
 
+	/**
+	 * Returns the memory available for the in-memory term indexes of all
+	 * loaded dictionaries.
+	 *
+	 * @return the memory in megabytes, 0 if no term indexes should be built
+	 */
+	public static int getTermIndexMemory() {
+		return getStringPreferenceAsInteger(PREF_TERM_INDEX_MEMORY,
+				R.integer.preferences_default_term_index_memory);
+	}
+
 	/**
 	 * Returns the value of an string preference as integer or resets it to the
 	 * given default value if it cannot be parsed as integer. This is used for
@@ -361,6 +394,221 @@ public class Preferences extends PreferenceActivity implements
 		return preferencesInstance.getBoolean(PREF_SEARCH_AS_YOU_TYPE, defaultValue);
 	}
 
+	/**
+	 * Returns if archived dictionaries should be read using an index of the
+	 * archive's central directory instead of scanning the archive.
+	 *
+	 * @return true if the indexed archive access should be used
+	 */
+	public static boolean getIndexedArchiveAccess() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_indexed_archive_access);
+		return preferencesInstance.getBoolean(PREF_INDEXED_ARCHIVE_ACCESS, defaultValue);
+	}
+
+	/**
+	 * Returns if the files of dictionaries in directories should be mapped
+	 * into memory instead of being opened for every access.
+	 *
+	 * @return true if the mapped directory access should be used
+	 */
+	public static boolean getMappedDirectoryAccess() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_mapped_directory_access);
+		return preferencesInstance.getBoolean(PREF_MAPPED_DIRECTORY_ACCESS, defaultValue);
+	}
+
+	/**
+	 * Returns if recently read blocks of dictionary files should be kept in
+	 * memory.
+	 *
+	 * @return true if the block cache should be used
+	 */
+	public static boolean getBlockCache() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_block_cache);
+		return preferencesInstance.getBoolean(PREF_BLOCK_CACHE, defaultValue);
+	}
+
+	/**
+	 * Returns if dictionaries in jar files inside archives should be read
+	 * without extracting them first.
+	 *
+	 * @return true if the nested archive access should be used
+	 */
+	public static boolean getNestedArchiveAccess() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_nested_archive_access);
+		return preferencesInstance.getBoolean(PREF_NESTED_ARCHIVE_ACCESS, defaultValue);
+	}
+
+	/**
+	 * Returns if archived dictionaries should be unpacked into the
+	 * application's private storage in the background.
+	 *
+	 * @return true if archived dictionaries should be unpacked
+	 */
+	public static boolean getArchiveTranscoding() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_archive_transcoding);
+		return preferencesInstance.getBoolean(PREF_ARCHIVE_TRANSCODING, defaultValue);
+	}
+
+	/**
+	 * Returns if streams of dictionary files should be kept open and reused
+	 * for following reads of the same file.
+	 *
+	 * @return true if the stream pool should be used
+	 */
+	public static boolean getStreamPool() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_stream_pool);
+		return preferencesInstance.getBoolean(PREF_STREAM_POOL, defaultValue);
+	}
+
+	/**
+	 * Returns if the language pairs and dictionaries of a search should be
+	 * translated concurrently.
+	 *
+	 * @return true if the parallel translation executor should be used
+	 */
+	public static boolean getParallelTranslation() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_parallel_translation);
+		return preferencesInstance.getBoolean(PREF_PARALLEL_TRANSLATION, defaultValue);
+	}
+
+	/**
+	 * Returns if the maximum number of results and the search timeout should
+	 * apply to a whole search instead of each language pair.
+	 *
+	 * @return true if the limits apply to the whole search
+	 */
+	public static boolean getBatchLimits() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_batch_limits);
+		return preferencesInstance.getBoolean(PREF_BATCH_LIMITS, defaultValue);
+	}
+
+	/**
+	 * Returns if the best results of all dictionaries and language pairs should
+	 * be shown in one additional list.
+	 *
+	 * @return true if the list of best results should be shown
+	 */
+	public static boolean getBestResults() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_best_results);
+		return preferencesInstance.getBoolean(PREF_BEST_RESULTS, defaultValue);
+	}
+
+	/**
+	 * Returns if searches for an extended search term should be answered by
+	 * filtering the previous results when possible.
+	 *
+	 * @return true if previous results should be refined
+	 */
+	public static boolean getPrefixRefinement() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_prefix_refinement);
+		return preferencesInstance.getBoolean(PREF_PREFIX_REFINEMENT, defaultValue);
+	}
+
+	/**
+	 * Returns if the results of recent searches should be kept in memory.
+	 *
+	 * @return true if results should be cached
+	 */
+	public static boolean getResultCache() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_result_cache);
+		return preferencesInstance.getBoolean(PREF_RESULT_CACHE, defaultValue);
+	}
+
+	/**
+	 * Returns if language pairs with the same input language should share one
+	 * search of the dictionary.
+	 *
+	 * @return true if the search should be shared
+	 */
+	public static boolean getSharedLanguageScan() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_shared_language_scan);
+		return preferencesInstance.getBoolean(PREF_SHARED_LANGUAGE_SCAN, defaultValue);
+	}
+
+	/**
+	 * Returns if the most likely next searches should be executed while the
+	 * translations are idle.
+	 *
+	 * @return true if idle time should be used for prefetching
+	 */
+	public static boolean getSpeculativePrefetch() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_speculative_prefetch);
+		return preferencesInstance.getBoolean(PREF_SPECULATIVE_PREFETCH, defaultValue);
+	}
+
+	/**
+	 * Returns if entries of similar terms are suggested when a search finds
+	 * nothing.
+	 *
+	 * @return true if similar terms are suggested
+	 */
+	public static boolean getFuzzySuggestions() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_fuzzy_suggestions);
+		return preferencesInstance.getBoolean(PREF_FUZZY_SUGGESTIONS, defaultValue);
+	}
+
+	/**
+	 * Returns if searches find entries whose translations include the search
+	 * term instead of entries of the search term.
+	 *
+	 * @return true if the translations are searched
+	 */
+	public static boolean getSearchTranslations() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_search_translations);
+		return preferencesInstance.getBoolean(PREF_SEARCH_TRANSLATIONS, defaultValue);
+	}
+
+	/**
+	 * Returns if included dictionaries that are stored uncompressed should be
+	 * mapped directly from the application package.
+	 *
+	 * @return true if the mapped asset access should be used
+	 */
+	public static boolean getMappedAssetAccess() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_mapped_asset_access);
+		return preferencesInstance.getBoolean(PREF_MAPPED_ASSET_ACCESS, defaultValue);
+	}
+
+	/**
+	 * Returns if dictionaries in folders should be converted into compiled
+	 * files that are smaller and faster to read.
+	 *
+	 * @return true if compiled dictionaries should be used
+	 */
+	public static boolean getCompiledDictionaries() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_compiled_dictionaries);
+		return preferencesInstance.getBoolean(PREF_COMPILED_DICTIONARIES, defaultValue);
+	}
+
+	/**
+	 * Returns if the I/O of dictionary files should be recorded for the I/O
+	 * statistics screen.
+	 *
+	 * @return true if I/O statistics should be recorded
+	 */
+	public static boolean getIoStatistics() {
+		final boolean defaultValue = resources
+				.getBoolean(R.bool.preferences_default_io_statistics);
+		return preferencesInstance.getBoolean(PREF_IO_STATISTICS, defaultValue);
+	}
+
 	private static void saveCurrentVersion() {
 		final Editor editor = preferencesInstance.edit();
 		editor.putInt(PREF_VERSION, CURRENT_PREF_VERSION);
@@ -778,6 +1026,8 @@ public class Preferences extends PreferenceActivity implements
 				"" + getMaxResults());
 		getPreferenceScreen().findPreference(PREF_SEARCH_TIMEOUT).setSummary(
 				getString(R.string.title_seconds, getSearchTimeout()));
+		getPreferenceScreen().findPreference(PREF_TERM_INDEX_MEMORY).setSummary(
+				getString(R.string.title_megabytes, getTermIndexMemory()));
 		if (getIgnoreDictionaryTextStyles()) {
 			findPreference(PREF_IGNORE_DICTIONARY_TEXT_STYLES).setSummary(
 					R.string.summary_pref_ignore_font_style_unchecked);
@@ -846,8 +1096,24 @@ public class Preferences extends PreferenceActivity implements
 			setApplicationTheme(R.style.LightThemeSelector);
 		}
 
+		if (key.equals(PREF_IO_STATISTICS)) {
+			// dictionaries loaded without instrumentation stay unrecorded
+			DfMInputStreamAccessFactory.getIoStatistics().setEnabled(getIoStatistics());
+		}
+
+		if (key.equals(PREF_TERM_INDEX_MEMORY) && getTermIndexMemory() <= 0) {
+			// indexes are only built when dictionaries are loaded
+			TermIndexes.clear();
+		}
+
+		if (key.equals(PREF_SEARCH_TRANSLATIONS) && getSearchTranslations()) {
+			// index the translations of the dictionaries that are already loaded
+			TranslationTextIndex.indexLoadedDictionaries();
+		}
+
 		// tell user to restart application
-		if (key.equals(PREF_LANGUAGE_CODE) || key.equals(PREF_THEME)) {
+		if (key.equals(PREF_LANGUAGE_CODE) || key.equals(PREF_THEME)
+				|| key.equals(PREF_PARALLEL_TRANSLATION) || key.equals(PREF_BEST_RESULTS)) {
 			Toast.makeText(getBaseContext(), R.string.msg_restart_app_after_settings_changed,
 					Toast.LENGTH_LONG).show();
 		}
@@ -45,6 +45,7 @@ import de.kugihan.dictionaryformids.hmi_android.data.Dictionary;
 import de.kugihan.dictionaryformids.hmi_android.data.DictionaryType;
 import de.kugihan.dictionaryformids.hmi_android.data.ExternalStorageState;
 import de.kugihan.dictionaryformids.hmi_android.data.ResultProvider;
+import de.kugihan.dictionaryformids.hmi_android.data.TermIndexes;
 import de.kugihan.dictionaryformids.hmi_android.thread.HiddenDictionaryFinderTask;
 
 /**
@@ -343,6 +344,7 @@ public class RecentList extends ListActivity implements ResultProvider {
 			final int position = menuInfo.position;
 			final Dictionary dictionary = recentDictionaries.get(position);
 			Preferences.removeRecentDictionary(dictionary.getPath(), dictionary.getType());
+			TermIndexes.pruneSnapshots();
 			break;
 
 		default:
@@ -0,0 +1,489 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.StatFs;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.ManifestDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.hmi_android.DictionaryForMIDs;
+
+/**
+ * ArchiveDictionaryCache unpacks archived dictionaries into the application's
+ * private storage, so they can be read as fast as dictionaries in folders.
+ * Unpacking runs one dictionary at a time in a low-priority background thread.
+ * The least recently used dictionaries are removed when the cache exceeds its
+ * size limit, except for the directories that are read by a loaded dictionary.
+ * The size limit is derived from the free storage, see
+ * {@link #getMaxCacheSize()}.
+ * Every directory handed out by {@link #getCachedDirectory(String)} or to an
+ * {@link OnTranscodedListener} has to be handed back by
+ * {@link #releaseDirectory(File)} when it is no longer read, which is done by
+ * {@link CachedDirectoryDfMInputStreamAccess#close()}.
+ *
+ */
+public final class ArchiveDictionaryCache {
+
+	/**
+	 * Interface to notify about a finished unpacking.
+	 *
+	 */
+	public interface OnTranscodedListener {
+
+		/**
+		 * Called in the background thread when the dictionary has been
+		 * unpacked.
+		 *
+		 * @param directory
+		 *            the directory including the unpacked dictionary
+		 */
+		void onTranscoded(File directory);
+	}
+
+	/**
+	 * The size limit of all unpacked dictionaries that is used even if the
+	 * storage is almost full.
+	 */
+	private static final long MIN_CACHE_SIZE = 16L * 1024 * 1024;
+
+	/**
+	 * The size limit of all unpacked dictionaries that is not exceeded even if
+	 * the storage is almost empty.
+	 */
+	private static final long MAX_CACHE_SIZE = 512L * 1024 * 1024;
+
+	/**
+	 * The cache may use the free storage divided by this value in addition to
+	 * the storage it already uses.
+	 */
+	private static final int FREE_STORAGE_SHARE = 4;
+
+	/**
+	 * The name of the cache directory in the application's private storage.
+	 */
+	private static final String CACHE_DIRECTORY = "archive_cache";
+
+	/**
+	 * The file marking a completely unpacked dictionary.
+	 */
+	private static final String COMPLETE_MARKER = ".complete";
+
+	/**
+	 * The extension of directories that are currently being unpacked.
+	 */
+	private static final String TEMPORARY_EXTENSION = ".tmp";
+
+	/**
+	 * The size of the buffer used to copy files.
+	 */
+	private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * The single instance of the cache.
+	 */
+	private static ArchiveDictionaryCache instance = null;
+
+	/**
+	 * The application's context.
+	 */
+	private final Context context;
+
+	/**
+	 * The directory including all unpacked dictionaries.
+	 */
+	private final File cacheDirectory;
+
+	/**
+	 * The number of times each directory of an unpacked dictionary has been
+	 * handed out and not been released yet. These directories must not be
+	 * removed.
+	 */
+	private final HashMap<String, Integer> directoriesInUse = new HashMap<String, Integer>();
+
+	/**
+	 * The background thread unpacking the dictionaries.
+	 */
+	private final ExecutorService executor = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+							runnable.run();
+						}
+					}, "ArchiveDictionaryCache");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Creates the cache in the application's private storage.
+	 *
+	 * @param applicationContext
+	 *            the application's context
+	 */
+	private ArchiveDictionaryCache(final Context applicationContext) {
+		context = applicationContext;
+		cacheDirectory = applicationContext.getDir(CACHE_DIRECTORY, Context.MODE_PRIVATE);
+	}
+
+	/**
+	 * Returns the single instance of the cache.
+	 *
+	 * @param context
+	 *            any context of the application
+	 * @return the cache
+	 */
+	public static synchronized ArchiveDictionaryCache getInstance(final Context context) {
+		if (instance == null) {
+			instance = new ArchiveDictionaryCache(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * Returns the application's context.
+	 *
+	 * @return the application's context
+	 */
+	public Context getContext() {
+		return context;
+	}
+
+	/**
+	 * Returns the directory of the unpacked archive and marks it as recently
+	 * used and in use. Reads file attributes, so it should not be called on
+	 * the UI thread.
+	 *
+	 * @param archivePath
+	 *            the path of the archive
+	 * @return the directory including the unpacked dictionary or null if the
+	 *         archive has not been unpacked completely
+	 */
+	public File getCachedDirectory(final String archivePath) {
+		final File directory = new File(cacheDirectory, getKey(archivePath));
+		synchronized (this) {
+			if (!new File(directory, COMPLETE_MARKER).exists()) {
+				return null;
+			}
+			directory.setLastModified(System.currentTimeMillis());
+			acquireDirectory(directory.getName());
+		}
+		return directory;
+	}
+
+	/**
+	 * Hands back a directory returned by {@link #getCachedDirectory(String)}
+	 * or passed to an {@link OnTranscodedListener}. The directory may be
+	 * removed once it is no longer used by any dictionary.
+	 *
+	 * @param directory
+	 *            the directory of the unpacked dictionary
+	 */
+	public synchronized void releaseDirectory(final File directory) {
+		final Integer count = directoriesInUse.get(directory.getName());
+		if (count == null) {
+			return;
+		}
+		if (count.intValue() <= 1) {
+			directoriesInUse.remove(directory.getName());
+		} else {
+			directoriesInUse.put(directory.getName(), Integer.valueOf(count.intValue() - 1));
+		}
+	}
+
+	/**
+	 * Marks the directory as in use once more.
+	 *
+	 * @param key
+	 *            the name of the directory
+	 */
+	private void acquireDirectory(final String key) {
+		final Integer count = directoriesInUse.get(key);
+		directoriesInUse.put(key, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+	}
+
+	/**
+	 * Unpacks the dictionary in the background. Requests for archives that
+	 * are already unpacked are ignored.
+	 *
+	 * @param archivePath
+	 *            the path of the archive
+	 * @param source
+	 *            the access to the loaded dictionary in the archive
+	 * @param listener
+	 *            the listener to notify when unpacking has finished
+	 */
+	public void transcodeInBackground(final String archivePath,
+			final ManifestDfMInputStreamAccess source, final OnTranscodedListener listener) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					final File directory = transcode(archivePath, source);
+					if (directory != null) {
+						listener.onTranscoded(directory);
+					}
+				} catch (IOException e) {
+					Log.d(DictionaryForMIDs.LOG_TAG, "Unpacking failed: " + archivePath, e);
+				} catch (DictionaryException e) {
+					Log.d(DictionaryForMIDs.LOG_TAG, "Unpacking failed: " + archivePath, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Unpacks all files of the dictionary into the cache.
+	 *
+	 * @param archivePath
+	 *            the path of the archive
+	 * @param source
+	 *            the access to the loaded dictionary in the archive
+	 * @return the directory including the unpacked dictionary or null if the
+	 *         dictionary alone exceeds the size limit
+	 * @throws IOException
+	 *             if a file could not be written
+	 * @throws DictionaryException
+	 *             if a file could not be read
+	 */
+	private File transcode(final String archivePath,
+			final ManifestDfMInputStreamAccess source) throws IOException,
+			DictionaryException {
+		final File cachedDirectory = getCachedDirectory(archivePath);
+		if (cachedDirectory != null) {
+			return cachedDirectory;
+		}
+		final List<String> fileNames = source.listDictionaryFiles();
+		long knownSize = 0;
+		for (String fileName : fileNames) {
+			knownSize += Math.max(0, source.getFileSize(fileName));
+		}
+		final long maxCacheSize = getMaxCacheSize();
+		if (knownSize > maxCacheSize) {
+			Log.d(DictionaryForMIDs.LOG_TAG, "Not unpacking " + archivePath + ": " + knownSize
+					+ " bytes exceed the cache limit of " + maxCacheSize + " bytes");
+			return null;
+		}
+		final String key = getKey(archivePath);
+		final File temporaryDirectory = new File(cacheDirectory, key + TEMPORARY_EXTENSION);
+		deleteRecursively(temporaryDirectory);
+		for (String fileName : fileNames) {
+			copyFile(source, fileName, new File(temporaryDirectory, fileName));
+		}
+		if (!new File(temporaryDirectory, COMPLETE_MARKER).createNewFile()) {
+			throw new IOException("Could not mark unpacked dictionary: " + temporaryDirectory);
+		}
+		final File directory = new File(cacheDirectory, key);
+		synchronized (this) {
+			deleteRecursively(directory);
+			if (!temporaryDirectory.renameTo(directory)) {
+				deleteRecursively(temporaryDirectory);
+				throw new IOException("Could not move unpacked dictionary: " + directory);
+			}
+			acquireDirectory(key);
+			trimToSize(maxCacheSize);
+		}
+		return directory;
+	}
+
+	/**
+	 * Copies a single file of the dictionary into the cache.
+	 *
+	 * @param source
+	 *            the access to the dictionary
+	 * @param fileName
+	 *            the name of the file
+	 * @param destination
+	 *            the file to write
+	 * @throws IOException
+	 *             if the file could not be written
+	 * @throws DictionaryException
+	 *             if the file could not be read
+	 */
+	private static void copyFile(final ManifestDfMInputStreamAccess source,
+			final String fileName, final File destination) throws IOException,
+			DictionaryException {
+		final File parent = destination.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Could not create directory: " + parent);
+		}
+		final InputStream input = source.getInputStream(fileName);
+		try {
+			final OutputStream output = new FileOutputStream(destination);
+			try {
+				final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+				int length;
+				while ((length = input.read(buffer)) >= 0) {
+					output.write(buffer, 0, length);
+				}
+			} finally {
+				output.close();
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Removes the least recently used dictionaries in the background until
+	 * the cache fits into its size limit, e.g. after the free storage has
+	 * shrunk while the application was not running.
+	 */
+	public void trimInBackground() {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				trimToSize(getMaxCacheSize());
+			}
+		});
+	}
+
+	/**
+	 * Returns the size limit of all unpacked dictionaries. The cache may keep
+	 * the storage it already uses and a share of the free storage, within
+	 * {@link #MIN_CACHE_SIZE} and {@link #MAX_CACHE_SIZE}. Reads file
+	 * attributes, so it should not be called on the UI thread.
+	 *
+	 * @return the maximum number of bytes of all unpacked dictionaries
+	 */
+	private long getMaxCacheSize() {
+		long freeBytes;
+		try {
+			final StatFs statistics = new StatFs(cacheDirectory.getPath());
+			freeBytes = (long) statistics.getAvailableBlocks() * statistics.getBlockSize();
+		} catch (IllegalArgumentException e) {
+			freeBytes = 0;
+		}
+		final long maxBytes = getSize(cacheDirectory) + freeBytes / FREE_STORAGE_SHARE;
+		return Math.max(MIN_CACHE_SIZE, Math.min(MAX_CACHE_SIZE, maxBytes));
+	}
+
+	/**
+	 * Removes the least recently used dictionaries that are not in use until
+	 * the cache is not bigger than the given size.
+	 *
+	 * @param maxBytes
+	 *            the maximum number of bytes to keep
+	 */
+	private synchronized void trimToSize(final long maxBytes) {
+		final File[] directories = cacheDirectory.listFiles();
+		if (directories == null) {
+			return;
+		}
+		long size = 0;
+		for (File directory : directories) {
+			size += getSize(directory);
+		}
+		Arrays.sort(directories, new Comparator<File>() {
+			@Override
+			public int compare(final File first, final File second) {
+				final long difference = first.lastModified() - second.lastModified();
+				return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+			}
+		});
+		for (File directory : directories) {
+			if (size <= maxBytes) {
+				break;
+			}
+			final boolean isInUse = directoriesInUse.containsKey(directory.getName());
+			final boolean isTemporary = directory.getName().endsWith(TEMPORARY_EXTENSION);
+			if (isInUse || isTemporary) {
+				continue;
+			}
+			size -= getSize(directory);
+			deleteRecursively(directory);
+		}
+	}
+
+	/**
+	 * Returns the name of the cache entry of the archive or directory. The
+	 * name changes when the archive or directory is modified.
+	 *
+	 * @param archivePath
+	 *            the path of the archive or directory
+	 * @return the name of the cache entry
+	 */
+	static String getKey(final String archivePath) {
+		final File archive = new File(archivePath);
+		final String identity = archive.getAbsolutePath() + "|" + archive.lastModified()
+				+ "|" + archive.length();
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("MD5");
+			final byte[] hash = digest.digest(identity.getBytes("UTF-8"));
+			final StringBuilder key = new StringBuilder();
+			for (byte value : hash) {
+				key.append(Integer.toHexString((value & 0xff) | 0x100).substring(1));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(identity.hashCode());
+		} catch (IOException e) {
+			return Integer.toHexString(identity.hashCode());
+		}
+	}
+
+	/**
+	 * Returns the size of the file or of all files in the directory.
+	 *
+	 * @param file
+	 *            the file or directory
+	 * @return the size in bytes
+	 */
+	private static long getSize(final File file) {
+		final File[] children = file.listFiles();
+		if (children == null) {
+			return file.length();
+		}
+		long size = 0;
+		for (File child : children) {
+			size += getSize(child);
+		}
+		return size;
+	}
+
+	/**
+	 * Deletes the file or the directory including all files.
+	 *
+	 * @param file
+	 *            the file or directory to delete
+	 */
+	private static void deleteRecursively(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		if (file.exists() && !file.delete()) {
+			Log.v(DictionaryForMIDs.LOG_TAG, "Failed to delete: " + file);
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.io.File;
+
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.DelegatingDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.DfMInputStreamAccess;
+
+/**
+ * CachedDirectoryDfMInputStreamAccess reads a dictionary unpacked by the
+ * {@link ArchiveDictionaryCache} and hands the directory back to the cache
+ * when the access is closed, so the cache may remove it again.
+ *
+ */
+public class CachedDirectoryDfMInputStreamAccess extends DelegatingDfMInputStreamAccess {
+
+	/**
+	 * The cache including the directory.
+	 */
+	private final ArchiveDictionaryCache cache;
+
+	/**
+	 * The directory of the unpacked dictionary.
+	 */
+	private final File directory;
+
+	/**
+	 * True if the directory has been handed back to the cache.
+	 */
+	private boolean isReleased = false;
+
+	/**
+	 * Creates a new instance reading the unpacked dictionary with the given
+	 * access.
+	 *
+	 * @param archiveCache
+	 *            the cache that has handed out the directory
+	 * @param cachedDirectory
+	 *            the directory of the unpacked dictionary
+	 * @param directoryAccess
+	 *            the access to the directory
+	 */
+	public CachedDirectoryDfMInputStreamAccess(final ArchiveDictionaryCache archiveCache,
+			final File cachedDirectory, final DfMInputStreamAccess directoryAccess) {
+		super(directoryAccess);
+		cache = archiveCache;
+		directory = cachedDirectory;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (!isReleased) {
+				isReleased = true;
+				cache.releaseDirectory(directory);
+			}
+		}
+		super.close();
+	}
+
+}
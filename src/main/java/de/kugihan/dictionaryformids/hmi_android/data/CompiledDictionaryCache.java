@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.CompiledDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.CompiledDictionaryWriter;
+import de.kugihan.dictionaryformids.hmi_android.DictionaryForMIDs;
+
+/**
+ * CompiledDictionaryCache converts dictionaries in folders into compiled files
+ * in the application's private storage. Compiled files are only used while
+ * the checksum of the dictionary's folder matches the checksum stored in the
+ * compiled file, otherwise the original files are read. Conversion runs one
+ * dictionary at a time in a low-priority background thread.
+ *
+ */
+public final class CompiledDictionaryCache {
+
+	/**
+	 * The maximum number of bytes of all compiled files.
+	 */
+	private static final long MAX_CACHE_SIZE = 32L * 1024 * 1024;
+
+	/**
+	 * The name of the cache directory in the application's private storage.
+	 */
+	private static final String CACHE_DIRECTORY = "compiled_cache";
+
+	/**
+	 * The extension of compiled files.
+	 */
+	private static final String COMPILED_EXTENSION = ".dfmc";
+
+	/**
+	 * The extension of files that are currently being written.
+	 */
+	private static final String TEMPORARY_EXTENSION = ".tmp";
+
+	/**
+	 * The single instance of the cache.
+	 */
+	private static CompiledDictionaryCache instance = null;
+
+	/**
+	 * The directory including all compiled files.
+	 */
+	private final File cacheDirectory;
+
+	/**
+	 * The paths of the directories that are waiting for conversion.
+	 */
+	private final HashSet<String> pendingDirectories = new HashSet<String>();
+
+	/**
+	 * The accesses returned by {@link #getCompiledAccess(String)} that may
+	 * still be open. Their files are not removed when the cache is trimmed.
+	 */
+	private final ArrayList<CompiledDfMInputStreamAccess> openAccesses = new ArrayList<CompiledDfMInputStreamAccess>();
+
+	/**
+	 * The background thread converting the dictionaries.
+	 */
+	private final ExecutorService executor = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+							runnable.run();
+						}
+					}, "CompiledDictionaryCache");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Creates the cache in the application's private storage.
+	 *
+	 * @param applicationContext
+	 *            the application's context
+	 */
+	private CompiledDictionaryCache(final Context applicationContext) {
+		cacheDirectory = applicationContext.getDir(CACHE_DIRECTORY, Context.MODE_PRIVATE);
+	}
+
+	/**
+	 * Returns the single instance of the cache.
+	 *
+	 * @param context
+	 *            any context of the application
+	 * @return the cache
+	 */
+	public static synchronized CompiledDictionaryCache getInstance(final Context context) {
+		if (instance == null) {
+			instance = new CompiledDictionaryCache(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * Opens the compiled file of the directory if it matches the current
+	 * files of the directory. Damaged or outdated compiled files are removed.
+	 *
+	 * @param directoryPath
+	 *            the path of the dictionary's directory
+	 * @return the access to the compiled file or null if there is no valid
+	 *         compiled file
+	 */
+	public synchronized CompiledDfMInputStreamAccess getCompiledAccess(
+			final String directoryPath) {
+		final File compiledFile = getCompiledFile(directoryPath);
+		if (!compiledFile.exists()) {
+			return null;
+		}
+		try {
+			final CompiledDfMInputStreamAccess access = CompiledDfMInputStreamAccess
+					.open(compiledFile);
+			final long checksum = CompiledDictionaryWriter.computeSourceChecksum(new File(
+					directoryPath));
+			if (access.getSourceChecksum() == checksum) {
+				compiledFile.setLastModified(System.currentTimeMillis());
+				openAccesses.add(access);
+				return access;
+			}
+			Log.d(DictionaryForMIDs.LOG_TAG, "Outdated compiled dictionary: " + directoryPath);
+		} catch (IOException e) {
+			Log.d(DictionaryForMIDs.LOG_TAG, "Damaged compiled dictionary: " + directoryPath, e);
+		}
+		deleteFile(compiledFile);
+		return null;
+	}
+
+	/**
+	 * Converts the dictionary in the background. Requests for directories
+	 * that are already waiting for conversion are ignored.
+	 *
+	 * @param directoryPath
+	 *            the path of the dictionary's directory
+	 */
+	public synchronized void compileInBackground(final String directoryPath) {
+		if (!pendingDirectories.add(directoryPath)) {
+			return;
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					compile(directoryPath);
+				} catch (IOException e) {
+					Log.d(DictionaryForMIDs.LOG_TAG, "Compiling failed: " + directoryPath, e);
+				} finally {
+					synchronized (CompiledDictionaryCache.this) {
+						pendingDirectories.remove(directoryPath);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Converts the dictionary into a temporary file and replaces the compiled
+	 * file when the conversion has been verified.
+	 *
+	 * @param directoryPath
+	 *            the path of the dictionary's directory
+	 * @throws IOException
+	 *             if the dictionary could not be converted
+	 */
+	private void compile(final String directoryPath) throws IOException {
+		final File compiledFile = getCompiledFile(directoryPath);
+		final File temporaryFile = new File(compiledFile.getPath() + TEMPORARY_EXTENSION);
+		try {
+			CompiledDictionaryWriter.compile(new File(directoryPath), temporaryFile);
+			synchronized (this) {
+				deleteFile(compiledFile);
+				if (!temporaryFile.renameTo(compiledFile)) {
+					throw new IOException("Could not move compiled dictionary: " + compiledFile);
+				}
+				trimToSize(MAX_CACHE_SIZE);
+			}
+			Log.d(DictionaryForMIDs.LOG_TAG, "Compiled " + directoryPath + " to "
+					+ compiledFile.length() + " bytes");
+		} finally {
+			deleteFile(temporaryFile);
+		}
+	}
+
+	/**
+	 * Returns the compiled file of the directory.
+	 *
+	 * @param directoryPath
+	 *            the path of the dictionary's directory
+	 * @return the compiled file
+	 */
+	private File getCompiledFile(final String directoryPath) {
+		return new File(cacheDirectory, ArchiveDictionaryCache.getKey(directoryPath)
+				+ COMPILED_EXTENSION);
+	}
+
+	/**
+	 * Removes the least recently used compiled files until the cache is not
+	 * bigger than the given size. Files of open accesses are kept.
+	 *
+	 * @param maxBytes
+	 *            the maximum number of bytes to keep
+	 */
+	private synchronized void trimToSize(final long maxBytes) {
+		final File[] files = cacheDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		final HashSet<File> filesInUse = new HashSet<File>();
+		final Iterator<CompiledDfMInputStreamAccess> accesses = openAccesses.iterator();
+		while (accesses.hasNext()) {
+			final CompiledDfMInputStreamAccess access = accesses.next();
+			if (access.isClosed()) {
+				accesses.remove();
+			} else {
+				filesInUse.add(access.getCompiledFile());
+			}
+		}
+		long size = 0;
+		for (File file : files) {
+			size += file.length();
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(final File first, final File second) {
+				final long difference = first.lastModified() - second.lastModified();
+				return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+			}
+		});
+		for (File file : files) {
+			if (size <= maxBytes) {
+				break;
+			}
+			if (file.getName().endsWith(TEMPORARY_EXTENSION) || filesInUse.contains(file)) {
+				continue;
+			}
+			size -= file.length();
+			deleteFile(file);
+		}
+	}
+
+	/**
+	 * Deletes the file if it exists.
+	 *
+	 * @param file
+	 *            the file to delete
+	 */
+	private static void deleteFile(final File file) {
+		if (file.exists() && !file.delete()) {
+			Log.v(DictionaryForMIDs.LOG_TAG, "Failed to delete: " + file);
+		}
+	}
+
+}
@@ -0,0 +1,404 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import android.content.Context;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.zip.CRC32;
+
+import de.kugihan.dictionaryformids.dataaccess.DictionaryDataFile;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.AssetDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.BlockCache;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.CachingDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.CancellableDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.DelegatingDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.DfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.FileDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.IndexedZipInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.InstrumentedDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.IoStatistics;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.MappedAssetDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.MappedFileDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.MemoryIndexDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.NativeZipInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.NestedJarInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.PooledDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.hmi_android.Preferences;
+
+/**
+ * DfMInputStreamAccessFactory creates the input stream access that is used to
+ * read the files of a dictionary according to the current preferences.
+ *
+ */
+public final class DfMInputStreamAccessFactory {
+
+	/**
+	 * The share of the maximum heap size used for the block cache.
+	 */
+	private static final int BLOCK_CACHE_HEAP_DIVISOR = 16;
+
+	/**
+	 * The name of the directory in the application's private storage that
+	 * keeps inflated jar files of archives.
+	 */
+	private static final String INFLATED_JAR_DIRECTORY = "nested_jars";
+
+	/**
+	 * The cache shared by all input stream accesses that use a block cache.
+	 */
+	private static final BlockCache BLOCK_CACHE = new BlockCache(getDefaultBlockCacheBudget());
+
+	/**
+	 * The statistics shared by all instrumented input stream accesses.
+	 */
+	private static final IoStatistics IO_STATISTICS = new IoStatistics();
+
+	/**
+	 * The accesses of the loaded dictionaries.
+	 */
+	private static final IdentityHashMap<DictionaryDataFile, DfMInputStreamAccess> LOADED_ACCESSES = new IdentityHashMap<DictionaryDataFile, DfMInputStreamAccess>();
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private DfMInputStreamAccessFactory() {
+	}
+
+	/**
+	 * Creates the input stream access for the specified dictionary.
+	 *
+	 * @param context
+	 *            the context used to access included dictionaries
+	 * @param type
+	 *            the type of the dictionary
+	 * @param path
+	 *            the path of the dictionary
+	 * @return the input stream access to load the dictionary
+	 * @throws IllegalArgumentException
+	 *             if the type is not supported
+	 */
+	public static DfMInputStreamAccess createInputStreamAccess(final Context context,
+			final DictionaryType type, final String path) {
+		final DfMInputStreamAccess inputStreamAccess = createAccess(context, type, path);
+		setSourceKey(inputStreamAccess, type.name() + ":" + path + ":"
+				+ getSourceStamp(context, type, path));
+		return inputStreamAccess;
+	}
+
+	/**
+	 * Creates the input stream access for the specified dictionary without a
+	 * source key.
+	 *
+	 * @param context
+	 *            the context used to access included dictionaries
+	 * @param type
+	 *            the type of the dictionary
+	 * @param path
+	 *            the path of the dictionary
+	 * @return the input stream access to load the dictionary
+	 * @throws IllegalArgumentException
+	 *             if the type is not supported
+	 */
+	private static DfMInputStreamAccess createAccess(final Context context,
+			final DictionaryType type, final String path) {
+		if (type == DictionaryType.INCLUDED) {
+			if (Preferences.getMappedAssetAccess()) {
+				// uncompressed assets are mapped from the package, compressed
+				// ones are still inflated and benefit from the stream caches
+				return withStreamCaches(new MappedAssetDfMInputStreamAccess(
+						context.getAssets(), path), path);
+			} else {
+				return withStreamCaches(new AssetDfMInputStreamAccess(context.getAssets(),
+						path), path);
+			}
+		} else if (type == DictionaryType.DIRECTORY) {
+			if (Preferences.getCompiledDictionaries()) {
+				final CompiledDictionaryCache compiledCache = CompiledDictionaryCache
+						.getInstance(context);
+				final DfMInputStreamAccess compiledAccess = compiledCache.getCompiledAccess(path);
+				if (compiledAccess != null) {
+					return withStreamCaches(compiledAccess, path);
+				}
+				// fall back to the original files until the compiled file is ready
+				compiledCache.compileInBackground(path);
+			}
+			if (Preferences.getMappedDirectoryAccess()) {
+				// mapped files are already served from memory
+				return withInstrumentation(new MappedFileDfMInputStreamAccess(path), path);
+			} else {
+				return withStreamCaches(new FileDfMInputStreamAccess(path), path);
+			}
+		} else if (type == DictionaryType.ARCHIVE) {
+			if (!Preferences.getArchiveTranscoding()) {
+				return createArchiveAccess(path);
+			}
+			final ArchiveDictionaryCache cache = ArchiveDictionaryCache.getInstance(context);
+			final File cachedDirectory = cache.getCachedDirectory(path);
+			if (cachedDirectory != null) {
+				return new CachedDirectoryDfMInputStreamAccess(cache, cachedDirectory,
+						createAccess(context, DictionaryType.DIRECTORY, cachedDirectory.getPath()));
+			}
+			return new TranscodingDfMInputStreamAccess(cache, path, createArchiveAccess(path));
+		} else {
+			throw new IllegalArgumentException("Invalid Type: " + type.ordinal());
+		}
+	}
+
+	/**
+	 * Creates the input stream access for the specified archive.
+	 *
+	 * @param path
+	 *            the path of the archive
+	 * @return the input stream access to load the dictionary
+	 */
+	private static DfMInputStreamAccess createArchiveAccess(final String path) {
+		if (Preferences.getIndexedArchiveAccess()) {
+			return withStreamCaches(new IndexedZipInputStreamAccess(path), path);
+		} else {
+			return withStreamCaches(new NativeZipInputStreamAccess(path), path);
+		}
+	}
+
+	/**
+	 * Creates the input stream access for a dictionary in a jar file inside
+	 * the specified archive. A compressed jar file is inflated once into the
+	 * application's private storage.
+	 *
+	 * @param context
+	 *            the context used to find the private storage or null to
+	 *            scan compressed jar files instead
+	 * @param archivePath
+	 *            the path of the archive
+	 * @return the input stream access or null if reading nested jar files is
+	 *         disabled
+	 */
+	public static DfMInputStreamAccess createNestedArchiveAccess(final Context context,
+			final String archivePath) {
+		if (!Preferences.getNestedArchiveAccess()) {
+			return null;
+		}
+		final File inflatedJarDirectory = context == null ? null : context.getDir(
+				INFLATED_JAR_DIRECTORY, Context.MODE_PRIVATE);
+		final DfMInputStreamAccess inputStreamAccess = withStreamCaches(
+				new NestedJarInputStreamAccess(archivePath, inflatedJarDirectory), archivePath);
+		setSourceKey(inputStreamAccess, "NESTED:" + archivePath + ":"
+				+ getSourceStamp(null, DictionaryType.ARCHIVE, archivePath));
+		return inputStreamAccess;
+	}
+
+	/**
+	 * Returns if a key set by {@link #createInputStreamAccess(Context, DictionaryType, String)}
+	 * or {@link #createNestedArchiveAccess(Context, String)} identifies a version of
+	 * the given dictionary.
+	 *
+	 * @param key
+	 *            the key, possibly followed by further text
+	 * @param type
+	 *            the type of the dictionary
+	 * @param path
+	 *            the path of the dictionary
+	 * @return true if the key belongs to the dictionary
+	 */
+	public static boolean isSourceKeyOf(final String key, final DictionaryType type,
+			final String path) {
+		if (key.startsWith(type.name() + ":" + path + ":")) {
+			return true;
+		}
+		return type == DictionaryType.ARCHIVE && key.startsWith("NESTED:" + path + ":");
+	}
+
+	/**
+	 * Sets the key identifying the dictionary's source files on the memory
+	 * index of the access, so saved term indexes can be validated.
+	 *
+	 * @param inputStreamAccess
+	 *            the created input stream access
+	 * @param key
+	 *            the key of the dictionary's source files
+	 */
+	private static void setSourceKey(final DfMInputStreamAccess inputStreamAccess,
+			final String key) {
+		final MemoryIndexDfMInputStreamAccess memoryIndex = MemoryIndexDfMInputStreamAccess
+				.find(inputStreamAccess);
+		if (memoryIndex != null) {
+			memoryIndex.setSourceKey(key);
+		}
+	}
+
+	/**
+	 * Describes the version of a dictionary's source files by their sizes and
+	 * modification times, which only requires reading file attributes.
+	 *
+	 * @param context
+	 *            the context used to find the package of included
+	 *            dictionaries, not used for other types
+	 * @param type
+	 *            the type of the dictionary
+	 * @param path
+	 *            the path of the dictionary
+	 * @return the description, changing whenever a source file changes
+	 */
+	private static String getSourceStamp(final Context context, final DictionaryType type,
+			final String path) {
+		final File[] sources;
+		if (type == DictionaryType.INCLUDED) {
+			// included dictionaries only change with the package
+			sources = new File[] { new File(context.getPackageCodePath()) };
+		} else if (type == DictionaryType.DIRECTORY) {
+			sources = new File(path).listFiles();
+		} else {
+			sources = new File[] { new File(path) };
+		}
+		if (sources == null) {
+			return "";
+		}
+		Arrays.sort(sources);
+		final CRC32 stamp = new CRC32();
+		for (File source : sources) {
+			final String description = source.getName() + "/" + source.length() + "/"
+					+ source.lastModified() + ";";
+			stamp.update(description.getBytes());
+		}
+		return sources.length + "-" + Long.toHexString(stamp.getValue());
+	}
+
+	/**
+	 * Wraps the input stream access with a stream pool and the shared block
+	 * cache if they are enabled.
+	 *
+	 * @param inputStreamAccess
+	 *            the input stream access to wrap
+	 * @param path
+	 *            the path of the dictionary
+	 * @return the wrapped or the original input stream access
+	 */
+	private static DfMInputStreamAccess withStreamCaches(
+			final DfMInputStreamAccess inputStreamAccess, final String path) {
+		DfMInputStreamAccess result = inputStreamAccess;
+		if (Preferences.getStreamPool()) {
+			result = new PooledDfMInputStreamAccess(result);
+		}
+		if (Preferences.getBlockCache()) {
+			result = new CachingDfMInputStreamAccess(result, BLOCK_CACHE);
+		}
+		return withInstrumentation(result, path);
+	}
+
+	/**
+	 * Wraps the input stream access so the term index can be served from
+	 * memory and reads of cancelled translations stop, and with an
+	 * instrumentation that records the I/O requested by the
+	 * dictionary engine if I/O statistics are enabled. Without the
+	 * preference, no instrumentation is added at all.
+	 *
+	 * @param inputStreamAccess
+	 *            the input stream access to wrap
+	 * @param path
+	 *            the path of the dictionary
+	 * @return the wrapped or the original input stream access
+	 */
+	private static DfMInputStreamAccess withInstrumentation(
+			final DfMInputStreamAccess inputStreamAccess, final String path) {
+		final DfMInputStreamAccess cancellable = new CancellableDfMInputStreamAccess(
+				new MemoryIndexDfMInputStreamAccess(inputStreamAccess));
+		if (!Preferences.getIoStatistics()) {
+			return cancellable;
+		}
+		return new InstrumentedDfMInputStreamAccess(cancellable, IO_STATISTICS,
+				new File(path).getName());
+	}
+
+	/**
+	 * Remembers the access a dictionary has been loaded with, so its files can
+	 * be closed when the dictionary is unloaded.
+	 *
+	 * @param dataFile
+	 *            the loaded dictionary
+	 * @param inputStreamAccess
+	 *            the access the dictionary has been loaded with
+	 */
+	public static void registerLoadedAccess(final DictionaryDataFile dataFile,
+			final DfMInputStreamAccess inputStreamAccess) {
+		final DfMInputStreamAccess previousAccess;
+		synchronized (LOADED_ACCESSES) {
+			previousAccess = LOADED_ACCESSES.put(dataFile, inputStreamAccess);
+		}
+		if (previousAccess != null && previousAccess != inputStreamAccess) {
+			DelegatingDfMInputStreamAccess.close(previousAccess);
+		}
+	}
+
+	/**
+	 * Closes the files of the access a dictionary has been loaded with, e.g.
+	 * when the dictionary is unloaded or replaced.
+	 *
+	 * @param dataFile
+	 *            the dictionary that is no longer used
+	 */
+	public static void closeLoadedAccess(final DictionaryDataFile dataFile) {
+		final DfMInputStreamAccess inputStreamAccess;
+		synchronized (LOADED_ACCESSES) {
+			inputStreamAccess = LOADED_ACCESSES.remove(dataFile);
+		}
+		if (inputStreamAccess != null) {
+			DelegatingDfMInputStreamAccess.close(inputStreamAccess);
+		}
+	}
+
+	/**
+	 * Describes the stream pools of the accesses the loaded dictionaries use,
+	 * one line per pool.
+	 *
+	 * @return the description of the stream pools
+	 */
+	public static String getStreamPoolDescription() {
+		final StringBuilder description = new StringBuilder();
+		synchronized (LOADED_ACCESSES) {
+			for (DfMInputStreamAccess inputStreamAccess : LOADED_ACCESSES.values()) {
+				final PooledDfMInputStreamAccess pooledAccess = PooledDfMInputStreamAccess
+						.find(inputStreamAccess);
+				if (pooledAccess != null) {
+					description.append(pooledAccess).append('\n');
+				}
+			}
+		}
+		return description.toString();
+	}
+
+	/**
+	 * Returns the block cache shared by all created input stream accesses.
+	 *
+	 * @return the shared block cache
+	 */
+	public static BlockCache getBlockCache() {
+		return BLOCK_CACHE;
+	}
+
+	/**
+	 * Returns the I/O statistics shared by all created input stream accesses.
+	 *
+	 * @return the shared I/O statistics
+	 */
+	public static IoStatistics getIoStatistics() {
+		return IO_STATISTICS;
+	}
+
+	/**
+	 * Returns the default byte budget of the block cache depending on the
+	 * maximum heap size of the application.
+	 *
+	 * @return the default byte budget of the block cache
+	 */
+	public static long getDefaultBlockCacheBudget() {
+		return Runtime.getRuntime().maxMemory() / BLOCK_CACHE_HEAP_DIVISOR;
+	}
+
+}
@@ -1,5 +1,6 @@
 package de.kugihan.dictionaryformids.hmi_android.data;
 
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.CancellationToken;
 import de.kugihan.dictionaryformids.general.DictionaryException;
 import de.kugihan.dictionaryformids.translation.TranslationExecution;
 import de.kugihan.dictionaryformids.translation.TranslationExecutionCallback;
@@ -25,6 +26,16 @@ public class DfMTranslationExecutor implements TranslationExecutor {
 		TranslationExecution.executeTranslationBatch(translationParametersBatchObj);
 	}
 
+	@Override
+	public void executeTranslationBatch(TranslationParametersBatch translationParametersBatchObj,
+			CancellationToken token) throws DictionaryException {
+		// the translation thread of the core cannot observe the token, the
+		// batch is cancelled by cancelLastTranslation
+		if (!token.isCancelled()) {
+			TranslationExecution.executeTranslationBatch(translationParametersBatchObj);
+		}
+	}
+
 	@Override
 	public void cancelLastTranslation() {
 		TranslationExecution.cancelLastTranslation();
@@ -20,10 +20,6 @@ import java.util.Observable;
 import java.util.Observer;
 
 import de.kugihan.dictionaryformids.dataaccess.DictionaryDataFile;
-import de.kugihan.dictionaryformids.dataaccess.fileaccess.AssetDfMInputStreamAccess;
-import de.kugihan.dictionaryformids.dataaccess.fileaccess.DfMInputStreamAccess;
-import de.kugihan.dictionaryformids.dataaccess.fileaccess.FileDfMInputStreamAccess;
-import de.kugihan.dictionaryformids.dataaccess.fileaccess.NativeZipInputStreamAccess;
 import de.kugihan.dictionaryformids.general.DictionaryException;
 import de.kugihan.dictionaryformids.hmi_android.Preferences;
 import de.kugihan.dictionaryformids.hmi_android.R;
@@ -129,19 +125,8 @@ public class DictionariesAdapter extends BaseAdapter {
 					Preferences.setLoadDictionary(dictionaries);
 				} else {
 
-					final DfMInputStreamAccess inputStreamAccess;
-
-					if (dictionary.getType() == DictionaryType.INCLUDED) {
-						inputStreamAccess = new AssetDfMInputStreamAccess(viewGroup.getContext().getAssets(), dictionary.getPath());
-					} else if (dictionary.getType() == DictionaryType.DIRECTORY) {
-						inputStreamAccess = new FileDfMInputStreamAccess(dictionary.getPath());
-					} else if (dictionary.getType() == DictionaryType.ARCHIVE) {
-						inputStreamAccess = new NativeZipInputStreamAccess(dictionary.getPath());
-					} else {
-						throw new IllegalArgumentException("Invalid Type: " + dictionary.getType().ordinal());
-					}
-
-					LoadDictionaryThread loadDictionaryThread = new LoadDictionaryThread();
+					LoadDictionaryThread loadDictionaryThread = new LoadDictionaryThread(
+							viewGroup.getContext(), dictionary.getType(), dictionary.getPath());
 					final LoadDictionaryThread.OnThreadResultListener threadListener = new LoadDictionaryThread.OnThreadResultListener() {
 						@Override
 						public void onSuccess(DictionaryDataFile dataFile) {
@@ -160,7 +145,7 @@ public class DictionariesAdapter extends BaseAdapter {
 						}
 					};
 					loadDictionaryThread.setOnThreadResultListener(threadListener);
-					loadDictionaryThread.execute(inputStreamAccess);
+					loadDictionaryThread.execute();
 
 				}
 			}
@@ -13,6 +13,7 @@ import java.util.Observable;
 import de.kugihan.dictionaryformids.dataaccess.DictionaryDataFile;
 import de.kugihan.dictionaryformids.dataaccess.LanguageDefinition;
 import de.kugihan.dictionaryformids.hmi_android.DictionaryForMIDs;
+import de.kugihan.dictionaryformids.hmi_android.thread.Translations;
 
 public class Dictionary extends Observable {
 
@@ -214,6 +215,10 @@ public class Dictionary extends Observable {
 		if (file == null) {
 			throw new IllegalArgumentException();
 		}
+		if (this.file != null && this.file != file) {
+			// the replaced dictionary's files are no longer read
+			DfMInputStreamAccessFactory.closeLoadedAccess(this.file);
+		}
 		this.file = file;
 		this.abbreviation = file.dictionaryAbbreviation;
 		if (languageSelectionSet != null) {
@@ -236,6 +241,10 @@ public class Dictionary extends Observable {
 		if (this.file != null) {
 			String languages = TextUtils.join(" ", getLanguages());
 			this.abbreviation = languages;
+			// cached results keep the dictionary in memory
+			Translations.getResultCache().remove(this.file);
+			TermIndexes.remove(this.file);
+			DfMInputStreamAccessFactory.closeLoadedAccess(this.file);
 		}
 		this.file = null;
 		this.selectedPairs.clear();
@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.util.Vector;
+
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.general.Util;
+import de.kugihan.dictionaryformids.translation.TranslationParameters;
+import de.kugihan.dictionaryformids.translation.TranslationResult;
+
+/**
+ * FuzzyLookup finds the terms of a {@link TermIndex} that are similar to a
+ * word, to suggest corrections for searches without results. Similarity is
+ * the number of inserted, deleted, replaced or swapped adjacent characters,
+ * ignoring case.
+ * <p>
+ * The sorted terms are walked as an implicit trie: consecutive terms share
+ * the rows of the distance matrix for their common beginning, and all terms
+ * beginning with characters that cannot lead to a similar term are skipped
+ * with a binary search. No additional index is kept in memory, and the walk
+ * stops at a fixed deadline.
+ *
+ */
+public final class FuzzyLookup {
+
+	/**
+	 * The maximum time in milliseconds for finding similar terms.
+	 */
+	private static final long LOOKUP_TIMEOUT = 150;
+
+	/**
+	 * The maximum number of suggested terms.
+	 */
+	private static final int MAX_SUGGESTIONS = 5;
+
+	/**
+	 * The maximum length of words that allow only one edit.
+	 */
+	private static final int SHORT_WORD_LENGTH = 4;
+
+	/**
+	 * The number of terms visited between checks of the deadline.
+	 */
+	private static final int CHECK_INTERVAL = 1024;
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private FuzzyLookup() {
+	}
+
+	/**
+	 * Searches the entries of the terms similar to the searched word.
+	 *
+	 * @param parameters
+	 *            the parameters of a search without results
+	 * @param timeout
+	 *            the maximum duration of the search in milliseconds
+	 * @return the entries of the similar terms or null if no similar term has
+	 *         been found or the dictionary has no term index
+	 * @throws DictionaryException
+	 *             if the translation of a term fails
+	 */
+	public static SuggestionTranslationResult translate(final TranslationParameters parameters,
+			final long timeout) throws DictionaryException {
+		final long start = System.currentTimeMillis();
+		final String word = getWord(parameters.getToBeTranslatedWordText());
+		final int languageIndex = SubstringSearch.getInputLanguage(parameters);
+		if (word == null || languageIndex < 0) {
+			return null;
+		}
+		final TermIndex terms = TermIndexes.get(parameters.getDictionary(), languageIndex);
+		if (terms == null) {
+			return null;
+		}
+		final int maxDistance = word.length() <= SHORT_WORD_LENGTH ? 1 : 2;
+		final int[] similar = findSimilarTerms(terms, word, maxDistance, MAX_SUGGESTIONS,
+				start + Math.min(timeout, LOOKUP_TIMEOUT));
+		if (similar.length == 0) {
+			return null;
+		}
+		final Vector<String> suggestions = new Vector<String>();
+		for (int term : similar) {
+			suggestions.add(terms.getTerm(term));
+		}
+		final SuggestionTranslationResult result = new SuggestionTranslationResult(parameters,
+				suggestions);
+		final int breakReason = SubstringSearch.translateTerms(parameters, suggestions, start
+				+ timeout, result.getTranslations());
+		if (result.numberOfFoundTranslations() == 0) {
+			return null;
+		}
+		if (breakReason != SubstringSearch.NO_BREAK) {
+			result.translationBreakOccurred = true;
+			result.translationBreakReason = breakReason;
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the terms most similar to the word, excluding the word itself.
+	 *
+	 * @param terms
+	 *            the terms to search
+	 * @param word
+	 *            the word to find similar terms for
+	 * @param maxDistance
+	 *            the maximum number of edits
+	 * @param maxTerms
+	 *            the maximum number of terms to return
+	 * @param deadline
+	 *            the time the search has to stop at
+	 * @return the positions of the terms ordered by their distance
+	 */
+	public static int[] findSimilarTerms(final TermIndex terms, final String word,
+			final int maxDistance, final int maxTerms, final long deadline) {
+		final int wordLength = word.length();
+		final char[] characters = new char[wordLength];
+		for (int i = 0; i < wordLength; i++) {
+			characters[i] = Character.toLowerCase(word.charAt(i));
+		}
+		final int[] found = new int[maxTerms];
+		final int[] foundDistances = new int[maxTerms];
+		int foundCount = 0;
+		// rows[d] holds the distances after the first d characters of a term
+		int[][] rows = new int[wordLength + maxDistance + 2][wordLength + 1];
+		int[] rowMinimums = new int[rows.length];
+		for (int j = 0; j <= wordLength; j++) {
+			rows[0][j] = j;
+		}
+		int previous = -1;
+		int validRows = 0;
+		int visited = 0;
+		int term = 0;
+		while (term < terms.size()) {
+			if (++visited % CHECK_INTERVAL == 0 && System.currentTimeMillis() > deadline) {
+				break;
+			}
+			final int length = terms.getTermLength(term);
+			if (length + 1 > rows.length) {
+				final int[][] grownRows = new int[length + 1][];
+				System.arraycopy(rows, 0, grownRows, 0, rows.length);
+				for (int d = rows.length; d < grownRows.length; d++) {
+					grownRows[d] = new int[wordLength + 1];
+				}
+				rows = grownRows;
+				final int[] grownMinimums = new int[length + 1];
+				System.arraycopy(rowMinimums, 0, grownMinimums, 0, rowMinimums.length);
+				rowMinimums = grownMinimums;
+			}
+			// the rows of the common beginning with the previous term are kept
+			int depth = 0;
+			final int common = previous < 0 ? 0 : Math.min(validRows, length);
+			while (depth < common
+					&& terms.getLowerCaseCharacter(term, depth) == terms.getLowerCaseCharacter(
+							previous, depth)) {
+				depth++;
+			}
+			final int limit = foundCount == maxTerms ? foundDistances[maxTerms - 1] - 1
+					: maxDistance;
+			int prunedDepth = -1;
+			for (int d = depth + 1; d <= length; d++) {
+				final char character = terms.getLowerCaseCharacter(term, d - 1);
+				final int[] row = rows[d];
+				final int[] above = rows[d - 1];
+				row[0] = d;
+				int minimum = d;
+				for (int j = 1; j <= wordLength; j++) {
+					int distance = above[j - 1] + (character == characters[j - 1] ? 0 : 1);
+					distance = Math.min(distance, above[j] + 1);
+					distance = Math.min(distance, row[j - 1] + 1);
+					if (d > 1 && j > 1 && character == characters[j - 2]
+							&& terms.getLowerCaseCharacter(term, d - 2) == characters[j - 1]) {
+						distance = Math.min(distance, rows[d - 2][j - 2] + 1);
+					}
+					row[j] = distance;
+					minimum = Math.min(minimum, distance);
+				}
+				rowMinimums[d] = minimum;
+				if (minimum > limit) {
+					prunedDepth = d;
+					break;
+				}
+			}
+			previous = term;
+			if (prunedDepth > 0) {
+				// no term beginning with these characters is similar
+				validRows = prunedDepth - 1;
+				term = terms.findEnd(term, prunedDepth);
+				continue;
+			}
+			validRows = length;
+			final int distance = rows[length][wordLength];
+			if (distance > 0 && distance <= limit) {
+				// insert ordered by distance, dropping the worst term if full
+				int position = Math.min(foundCount, maxTerms - 1);
+				while (position > 0 && foundDistances[position - 1] > distance) {
+					found[position] = found[position - 1];
+					foundDistances[position] = foundDistances[position - 1];
+					position--;
+				}
+				found[position] = term;
+				foundDistances[position] = distance;
+				foundCount = Math.min(foundCount + 1, maxTerms);
+			}
+			term++;
+		}
+		final int[] result = new int[foundCount];
+		System.arraycopy(found, 0, result, 0, foundCount);
+		return result;
+	}
+
+	/**
+	 * Returns the searched word without search modifiers.
+	 *
+	 * @param searchWord
+	 *            the searched text
+	 * @return the word or null if the text includes wildcards within the word
+	 */
+	private static String getWord(final String searchWord) {
+		int start = 0;
+		int end = searchWord.length();
+		while (start < end && isModifier(searchWord.charAt(start))) {
+			start++;
+		}
+		while (end > start && isModifier(searchWord.charAt(end - 1))) {
+			end--;
+		}
+		final String word = searchWord.substring(start, end);
+		return SubstringSearch.isPlainTerm(word) ? word : null;
+	}
+
+	/**
+	 * Returns if the character is a search modifier at the beginning or end
+	 * of a search.
+	 *
+	 * @param character
+	 *            the character to check
+	 * @return true if the character modifies the search
+	 */
+	private static boolean isModifier(final char character) {
+		return character == Util.wildcardAnySeriesOfCharacter
+				|| character == Util.noSearchSubExpressionCharacter;
+	}
+
+	/**
+	 * Searches the entries of similar terms for the results of a search if
+	 * none of them found anything.
+	 *
+	 * @param results
+	 *            the results of all language pairs of a search
+	 * @param timeout
+	 *            the maximum duration of each lookup in milliseconds
+	 * @return the suggestions of all language pairs with similar terms
+	 * @throws DictionaryException
+	 *             if the translation of a term fails
+	 */
+	public static Vector<TranslationResult> suggest(final Vector<TranslationResult> results,
+			final long timeout) throws DictionaryException {
+		final Vector<TranslationResult> suggestions = new Vector<TranslationResult>();
+		for (TranslationResult result : results) {
+			if (result.numberOfFoundTranslations() > 0
+					|| result instanceof SuggestionTranslationResult) {
+				return new Vector<TranslationResult>();
+			}
+		}
+		for (TranslationResult result : results) {
+			final SuggestionTranslationResult suggestion = translate(
+					result.translationParametersObj, timeout);
+			if (suggestion != null) {
+				suggestions.add(suggestion);
+			}
+		}
+		return suggestions;
+	}
+
+}
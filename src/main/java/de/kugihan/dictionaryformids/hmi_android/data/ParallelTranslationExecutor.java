@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.CancellationToken;
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.hmi_android.DictionaryForMIDs;
+import de.kugihan.dictionaryformids.hmi_android.Preferences;
+import de.kugihan.dictionaryformids.translation.TranslationExecution;
+import de.kugihan.dictionaryformids.translation.TranslationExecutionCallback;
+import de.kugihan.dictionaryformids.translation.TranslationParameters;
+import de.kugihan.dictionaryformids.translation.TranslationParametersBatch;
+import de.kugihan.dictionaryformids.translation.TranslationResult;
+
+/**
+ * ParallelTranslationExecutor runs the entries of a translation batch
+ * concurrently on a bounded pool of worker threads instead of one after
+ * another. Every entry is translated synchronously by
+ * {@link TranslationExecution#getTranslationResult(TranslationParameters)} and
+ * its result is passed to the callback as soon as it is available. Results
+ * are delivered one at a time, so the callback needs no additional
+ * synchronization.
+ * <p>
+ * Starting a new batch or cancelling the last translation cancels all
+ * entries of the previous batch. Entries that have not started yet are
+ * dropped, results of running entries are discarded. Running entries are not
+ * interrupted, as interrupting a thread closes the file channels it reads
+ * from; instead the {@link CancellationToken} of the batch is cancelled and
+ * their next read from the dictionary fails.
+ * <p>
+ * If enabled, the whole batch is limited to the maximum number of results
+ * and the search timeout of the preferences, see
+ * {@link TranslationBatchPolicy}.
+ * <p>
+ * Searches for entries including a term are answered by
+ * {@link SubstringSearch} once the trigram index of the dictionary is
+ * available, and searches in translations by {@link TranslationTextSearch}.
+ *
+ */
+public class ParallelTranslationExecutor implements TranslationExecutor {
+
+	/**
+	 * The number of milliseconds in a second.
+	 */
+	private static final int MILLISECONDS_IN_A_SECOND = 1000;
+
+	/**
+	 * The maximum number of worker threads.
+	 */
+	private static final int MAX_THREADS = 4;
+
+	/**
+	 * The pool shared by all instances, so recreated activities do not start
+	 * additional threads.
+	 */
+	private static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+			Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors())),
+			new ThreadFactory() {
+				private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							runnable.run();
+						}
+					}, "Translation-" + threadNumber.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * The callback receiving the results.
+	 */
+	private TranslationExecutionCallback callback = null;
+
+	/**
+	 * The number of the current batch. Results of previous batches are
+	 * discarded.
+	 */
+	private int generation = 0;
+
+	/**
+	 * The token of the current batch.
+	 */
+	private CancellationToken token = new CancellationToken();
+
+	/**
+	 * The running and waiting entries of the current batch.
+	 */
+	private final IdentityHashMap<TranslationParameters, Future<?>> entries = new IdentityHashMap<TranslationParameters, Future<?>>();
+
+	/**
+	 * Object to serialize the delivery of results.
+	 */
+	private final Object deliverySync = new Object();
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void setTranslationExecutionCallback(
+			final TranslationExecutionCallback translationResultHMIObjParam) {
+		callback = translationResultHMIObjParam;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void executeTranslation(final TranslationParameters translationParametersObj)
+			throws DictionaryException {
+		final TranslationParametersBatch batch = new TranslationParametersBatch();
+		batch.addTranslationParameters(translationParametersObj);
+		executeTranslationBatch(batch);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void executeTranslationBatch(
+			final TranslationParametersBatch translationParametersBatchObj)
+			throws DictionaryException {
+		executeTranslationBatch(translationParametersBatchObj, new CancellationToken());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void executeTranslationBatch(
+			final TranslationParametersBatch translationParametersBatchObj,
+			final CancellationToken batchToken) throws DictionaryException {
+		final int batchGeneration;
+		final TranslationExecutionCallback batchCallback;
+		synchronized (this) {
+			cancelEntries();
+			batchGeneration = ++generation;
+			batchCallback = callback;
+			token = batchToken;
+		}
+		synchronized (deliverySync) {
+			batchCallback.deletePreviousTranslationResult();
+		}
+		final int count = translationParametersBatchObj.numberOfTranslationParameters();
+		final TranslationBatchPolicy policy;
+		if (Preferences.getBatchLimits()) {
+			policy = new TranslationBatchPolicy(count, Preferences.getMaxResults(),
+					Preferences.getSearchTimeout() * MILLISECONDS_IN_A_SECOND);
+		} else {
+			policy = null;
+		}
+		for (int i = 0; i < count; i++) {
+			final TranslationParameters parameters = translationParametersBatchObj
+					.getTranslationParametersAt(i);
+			synchronized (this) {
+				if (batchGeneration != generation) {
+					// a newer batch has already been started
+					return;
+				}
+				entries.put(parameters, WORKERS.submit(new Runnable() {
+					@Override
+					public void run() {
+						translate(parameters, batchGeneration, batchCallback, policy,
+								batchToken);
+					}
+				}));
+			}
+		}
+	}
+
+	/**
+	 * Translates a single entry and delivers the result if the batch of the
+	 * entry is still current. If the translation fails, an empty result
+	 * marked as cancelled is delivered instead, so every started entry is
+	 * finished.
+	 *
+	 * @param parameters
+	 *            the parameters of the entry
+	 * @param batchGeneration
+	 *            the number of the entry's batch
+	 * @param batchCallback
+	 *            the callback of the entry's batch
+	 * @param policy
+	 *            the limits of the entry's batch or null if the limits of the
+	 *            entry apply
+	 * @param batchToken
+	 *            the token of the entry's batch
+	 */
+	private void translate(final TranslationParameters parameters, final int batchGeneration,
+			final TranslationExecutionCallback batchCallback, final TranslationBatchPolicy policy,
+			final CancellationToken batchToken) {
+		if (batchToken.isCancelled() || !isCurrent(parameters, batchGeneration)) {
+			return;
+		}
+		TranslationResult result = null;
+		batchToken.attach();
+		try {
+			if (policy == null) {
+				result = search(parameters, Preferences.getSearchTimeout()
+						* MILLISECONDS_IN_A_SECOND);
+			} else {
+				result = translateWithinLimits(parameters, policy);
+			}
+		} catch (DictionaryException e) {
+			if (!batchToken.isCancelled()) {
+				Log.d(DictionaryForMIDs.LOG_TAG, "Translation failed", e);
+			}
+		} catch (RuntimeException e) {
+			Log.w(DictionaryForMIDs.LOG_TAG, "Translation failed", e);
+		} finally {
+			CancellationToken.detach();
+		}
+		if (result == null) {
+			result = createBreakResult(parameters, TranslationResult.BreakReasonCancelReceived);
+		}
+		if (batchToken.isCancelled()) {
+			// the reads of the search may have failed silently
+			return;
+		}
+		synchronized (deliverySync) {
+			if (!isCurrent(parameters, batchGeneration)) {
+				return;
+			}
+			synchronized (this) {
+				entries.remove(parameters);
+			}
+			batchCallback.newTranslationResult(result);
+		}
+	}
+
+	/**
+	 * Translates a single entry with its share of the results and the time
+	 * left for the batch. Entries that have neither results nor time left are
+	 * not searched.
+	 *
+	 * @param parameters
+	 *            the parameters of the entry
+	 * @param policy
+	 *            the limits of the entry's batch
+	 * @return the result of the entry
+	 * @throws DictionaryException
+	 *             if the translation fails
+	 */
+	private static TranslationResult translateWithinLimits(
+			final TranslationParameters parameters, final TranslationBatchPolicy policy)
+			throws DictionaryException {
+		final int share = policy.reserveShare();
+		final long remainingTime = policy.getRemainingTime();
+		if (share == 0 || remainingTime <= 0) {
+			policy.releaseShare(share, 0);
+			if (share == 0) {
+				return createBreakResult(parameters,
+						TranslationResult.BreakReasonCancelMaxNrOfHitsReached);
+			}
+			return createBreakResult(parameters,
+					TranslationResult.BreakReasonMaxExecutionTimeReached);
+		}
+		final TranslationParameters limitedParameters = new TranslationParameters(
+				parameters.getDictionary(), parameters.getToBeTranslatedWordText(),
+				parameters.getInputLanguages(), parameters.getOutputLanguages(), true, share,
+				(int) remainingTime);
+		TranslationResult result = null;
+		try {
+			result = search(limitedParameters, remainingTime);
+		} finally {
+			policy.releaseShare(share, result == null ? 0 : result.numberOfFoundTranslations());
+		}
+		// results are identified by the parameters of the batch
+		result.translationParametersObj = parameters;
+		return result;
+	}
+
+	/**
+	 * Creates an empty result of an entry that has not been searched
+	 * completely.
+	 *
+	 * @param parameters
+	 *            the parameters of the entry
+	 * @param breakReason
+	 *            the reason the entry has not been searched
+	 * @return the result
+	 */
+	private static TranslationResult createBreakResult(final TranslationParameters parameters,
+			final int breakReason) {
+		final TranslationResult result = new TranslationResult();
+		result.translationParametersObj = parameters;
+		result.dictionary = parameters.getDictionary();
+		result.translationBreakOccurred = true;
+		result.translationBreakReason = breakReason;
+		return result;
+	}
+
+	/**
+	 * Translates the parameters, answering searches in translations from the
+	 * translation text index and searches for entries including a term from
+	 * the trigram index if possible.
+	 *
+	 * @param parameters
+	 *            the parameters to translate
+	 * @param timeout
+	 *            the maximum duration of the search in milliseconds
+	 * @return the result
+	 * @throws DictionaryException
+	 *             if the translation fails
+	 */
+	private static TranslationResult search(final TranslationParameters parameters,
+			final long timeout) throws DictionaryException {
+		TranslationResult result = TranslationTextSearch.translate(parameters, timeout);
+		if (result != null) {
+			return result;
+		}
+		result = SubstringSearch.translate(parameters, timeout);
+		if (result != null) {
+			return result;
+		}
+		return TranslationExecution.getTranslationResult(parameters);
+	}
+
+	/**
+	 * Returns if the entry belongs to the current batch and has not been
+	 * cancelled.
+	 *
+	 * @param parameters
+	 *            the parameters of the entry
+	 * @param batchGeneration
+	 *            the number of the entry's batch
+	 * @return true if the result of the entry should be delivered
+	 */
+	private synchronized boolean isCurrent(final TranslationParameters parameters,
+			final int batchGeneration) {
+		return batchGeneration == generation && entries.containsKey(parameters);
+	}
+
+	/**
+	 * Cancels a single entry of the current batch. Its result will not be
+	 * delivered.
+	 *
+	 * @param translationParametersObj
+	 *            the parameters of the entry to cancel
+	 * @return true if the entry was waiting or running
+	 */
+	public synchronized boolean cancelTranslation(
+			final TranslationParameters translationParametersObj) {
+		final Future<?> entry = entries.remove(translationParametersObj);
+		if (entry == null) {
+			return false;
+		}
+		entry.cancel(false);
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void cancelLastTranslation() {
+		cancelEntries();
+		generation++;
+	}
+
+	/**
+	 * Cancels all entries of the current batch and stops their reads.
+	 */
+	private void cancelEntries() {
+		token.cancel();
+		for (Map.Entry<TranslationParameters, Future<?>> entry : entries.entrySet()) {
+			entry.getValue().cancel(false);
+		}
+		entries.clear();
+	}
+
+}
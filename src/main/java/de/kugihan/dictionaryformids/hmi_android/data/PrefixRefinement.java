@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Vector;
+
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.general.Util;
+import de.kugihan.dictionaryformids.translation.SingleTranslation;
+import de.kugihan.dictionaryformids.translation.SingleTranslationExtension;
+import de.kugihan.dictionaryformids.translation.TranslationParameters;
+import de.kugihan.dictionaryformids.translation.TranslationResult;
+
+/**
+ * PrefixRefinement answers searches for words beginning with a term from the
+ * complete result of a previous search for a shorter beginning of the same
+ * term. As every entry found for the longer term has also been found for the
+ * shorter one, the result can be computed by filtering the previous result in
+ * memory.
+ * <p>
+ * A previous result is only used if it was not truncated and if the keys its
+ * entries were found by can be determined from their text. In all other cases
+ * the refinement is refused and a real search has to be executed.
+ *
+ */
+public final class PrefixRefinement {
+
+	/**
+	 * No word matches the term.
+	 */
+	private static final int NO_MATCH = 0;
+
+	/**
+	 * A word begins with the term.
+	 */
+	private static final int MATCH = 1;
+
+	/**
+	 * It cannot be decided if a word matches the term as the dictionary may
+	 * normalize its characters.
+	 */
+	private static final int MATCH_UNKNOWN = 2;
+
+	/**
+	 * The result the refinement filters.
+	 */
+	private final TranslationResult result;
+
+	/**
+	 * The lower case term without wildcard the result has been found for.
+	 */
+	private final String term;
+
+	/**
+	 * The lower case words of the fromText of each entry of the result or
+	 * null if not determined yet.
+	 */
+	private String[][] keys = null;
+
+	/**
+	 * Creates a refinement for the result of a search.
+	 *
+	 * @param result
+	 *            the result of a search
+	 * @param term
+	 *            the lower case term without wildcard the result has been
+	 *            found for
+	 * @param keys
+	 *            the words of the entries or null if not determined yet
+	 */
+	private PrefixRefinement(final TranslationResult result, final String term,
+			final String[][] keys) {
+		this.result = result;
+		this.term = term;
+		this.keys = keys;
+	}
+
+	/**
+	 * Creates a refinement for the result of a finished search.
+	 *
+	 * @param result
+	 *            the result of a search
+	 * @return the refinement or null if the result cannot be refined
+	 */
+	public static PrefixRefinement create(final TranslationResult result) {
+		if (result.translationBreakOccurred) {
+			// the result may miss entries that match the longer term
+			return null;
+		}
+		final String term = getTerm(result.translationParametersObj);
+		if (term == null) {
+			return null;
+		}
+		return new PrefixRefinement(result, term, null);
+	}
+
+	/**
+	 * Returns the result the refinement filters.
+	 *
+	 * @return the result
+	 */
+	public TranslationResult getResult() {
+		return result;
+	}
+
+	/**
+	 * Answers the search by filtering the result of the refinement.
+	 *
+	 * @param parameters
+	 *            the parameters of the new search
+	 * @return the refinement holding the new result or null if the search
+	 *         cannot be answered from the result
+	 */
+	public synchronized PrefixRefinement refine(final TranslationParameters parameters) {
+		final TranslationParameters previous = result.translationParametersObj;
+		if (parameters.getDictionary() != previous.getDictionary()
+				|| !Arrays.equals(parameters.getInputLanguages(), previous.getInputLanguages())
+				|| !Arrays.equals(parameters.getOutputLanguages(), previous.getOutputLanguages())) {
+			return null;
+		}
+		final String newTerm = getTerm(parameters);
+		if (newTerm == null || !newTerm.startsWith(term)) {
+			return null;
+		}
+		if (keys == null && !determineKeys()) {
+			return null;
+		}
+		final TranslationResult refinedResult = new TranslationResult();
+		final Vector<String[]> translationKeys = new Vector<String[]>();
+		for (int i = 0; i < keys.length; i++) {
+			final int match = match(keys[i], newTerm);
+			if (match == MATCH_UNKNOWN) {
+				return null;
+			}
+			if (match == MATCH) {
+				refinedResult.translations.add(result.getTranslationAt(i));
+				translationKeys.add(keys[i]);
+			}
+		}
+		refinedResult.translationParametersObj = parameters;
+		refinedResult.dictionary = result.dictionary;
+		refinedResult.translationBreakOccurred = false;
+		return new PrefixRefinement(refinedResult, newTerm,
+				translationKeys.toArray(new String[translationKeys.size()][]));
+	}
+
+	/**
+	 * Determines the words of all entries. Fails if an entry does not include
+	 * a word that explains why it has been found, as it has been found by a
+	 * key that is not part of its text.
+	 *
+	 * @return true if the words of all entries could be determined
+	 */
+	private boolean determineKeys() {
+		final int count = result.numberOfFoundTranslations();
+		final String[][] words = new String[count][];
+		for (int i = 0; i < count; i++) {
+			final SingleTranslation entry = result.getTranslationAt(i);
+			final SingleTranslationExtension translation;
+			if (entry instanceof SingleTranslationExtension) {
+				translation = (SingleTranslationExtension) entry;
+			} else {
+				translation = new SingleTranslationExtension(entry, result.dictionary);
+			}
+			try {
+				words[i] = splitWords(translation.getFromTextAsString());
+			} catch (DictionaryException e) {
+				return false;
+			}
+			if (match(words[i], term) == NO_MATCH) {
+				return false;
+			}
+		}
+		keys = words;
+		return true;
+	}
+
+	/**
+	 * Checks if one of the words begins with the term. Characters beyond
+	 * ASCII may be normalized by the dictionary, so a word is only compared
+	 * up to its first such character.
+	 *
+	 * @param words
+	 *            the lower case words of an entry
+	 * @param term
+	 *            the lower case term
+	 * @return NO_MATCH, MATCH or MATCH_UNKNOWN
+	 */
+	private static int match(final String[] words, final String term) {
+		int match = NO_MATCH;
+		for (String word : words) {
+			int asciiLength = 0;
+			while (asciiLength < word.length() && word.charAt(asciiLength) < 0x80) {
+				asciiLength++;
+			}
+			final int length = Math.min(asciiLength, term.length());
+			if (!word.regionMatches(0, term, 0, length)) {
+				continue;
+			}
+			if (length == term.length()) {
+				return MATCH;
+			}
+			match = MATCH_UNKNOWN;
+		}
+		return match;
+	}
+
+	/**
+	 * Splits the text into its lower case words.
+	 *
+	 * @param text
+	 *            the text to split
+	 * @return the words of the text
+	 */
+	private static String[] splitWords(final String text) {
+		final Vector<String> words = new Vector<String>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			final boolean isWordCharacter = i < text.length()
+					&& Character.isLetterOrDigit(text.charAt(i));
+			if (isWordCharacter && start < 0) {
+				start = i;
+			} else if (!isWordCharacter && start >= 0) {
+				words.add(text.substring(start, i).toLowerCase(Locale.ENGLISH));
+				start = -1;
+			}
+		}
+		return words.toArray(new String[words.size()]);
+	}
+
+	/**
+	 * Returns the term of a search for entries beginning with a term.
+	 *
+	 * @param parameters
+	 *            the parameters of the search
+	 * @return the lower case term without wildcard or null if the search is
+	 *         not a search for a plain ASCII word followed by a wildcard
+	 */
+	private static String getTerm(final TranslationParameters parameters) {
+		final String searchWord = parameters.getToBeTranslatedWordText();
+		final int length = searchWord.length() - 1;
+		if (length < 1 || searchWord.charAt(length) != Util.wildcardAnySeriesOfCharacter) {
+			return null;
+		}
+		for (int i = 0; i < length; i++) {
+			final char character = searchWord.charAt(i);
+			if (character >= 0x80 || !Character.isLetterOrDigit(character)) {
+				return null;
+			}
+		}
+		return searchWord.substring(0, length).toLowerCase(Locale.ENGLISH);
+	}
+
+}
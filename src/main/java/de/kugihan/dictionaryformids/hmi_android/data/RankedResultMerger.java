@@ -0,0 +1,365 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Vector;
+
+import de.kugihan.dictionaryformids.dataaccess.DictionaryDataFile;
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.general.Util;
+import de.kugihan.dictionaryformids.translation.SingleTranslation;
+import de.kugihan.dictionaryformids.translation.SingleTranslationExtension;
+import de.kugihan.dictionaryformids.translation.TranslationResult;
+
+/**
+ * RankedResultMerger ranks the entries of the results of all dictionaries and
+ * language pairs of a search against each other and keeps the best entries.
+ * Results can be added one after another as they arrive; the best entries
+ * are available at any time. Parsing the entries and comparing them with the
+ * search term is done by {@link #rank(TranslationResult)}, which can run on
+ * the thread delivering the result, so adding the {@link RankedResult} is
+ * cheap.
+ * <p>
+ * Entries are ranked by these criteria, each one only deciding if the
+ * previous ones are equal:
+ * <ol>
+ * <li>the text equals the search term</li>
+ * <li>a word of the text equals the search term</li>
+ * <li>the search term was found at the beginning of the text</li>
+ * <li>the priority of the dictionary</li>
+ * <li>the sort number of the entry in its dictionary</li>
+ * <li>the order of arrival</li>
+ * </ol>
+ *
+ */
+public class RankedResultMerger {
+
+	/**
+	 * An entry with its rank.
+	 */
+	private static final class RankedTranslation implements Comparable<RankedTranslation> {
+
+		/**
+		 * The parsed entry.
+		 */
+		private final SingleTranslationExtension translation;
+
+		/**
+		 * 2 if the text equals the search term, 1 if a word equals the search
+		 * term, 0 otherwise.
+		 */
+		private final int exactness;
+
+		/**
+		 * The position of the entry's dictionary in the priority order.
+		 */
+		private final int dictionaryPriority;
+
+		/**
+		 * The number of entries added before this entry.
+		 */
+		private final long arrival;
+
+		/**
+		 * Creates a ranked entry.
+		 *
+		 * @param translation
+		 *            the parsed entry
+		 * @param exactness
+		 *            how exactly the entry matches the search term
+		 * @param dictionaryPriority
+		 *            the position of the entry's dictionary
+		 * @param arrival
+		 *            the number of entries added before
+		 */
+		RankedTranslation(final SingleTranslationExtension translation, final int exactness,
+				final int dictionaryPriority, final long arrival) {
+			this.translation = translation;
+			this.exactness = exactness;
+			this.dictionaryPriority = dictionaryPriority;
+			this.arrival = arrival;
+		}
+
+		/**
+		 * Compares the rank of the entries.
+		 *
+		 * @param other
+		 *            the entry to compare with
+		 * @return a negative value if this entry ranks lower than the other
+		 */
+		@Override
+		public int compareTo(final RankedTranslation other) {
+			if (exactness != other.exactness) {
+				return exactness < other.exactness ? -1 : 1;
+			}
+			if (translation.isFoundAtBeginOfExpression() != other.translation
+					.isFoundAtBeginOfExpression()) {
+				return translation.isFoundAtBeginOfExpression() ? 1 : -1;
+			}
+			if (dictionaryPriority != other.dictionaryPriority) {
+				return dictionaryPriority > other.dictionaryPriority ? -1 : 1;
+			}
+			final int sortNumber = translation.getPrimarySortNumber();
+			final int otherSortNumber = other.translation.getPrimarySortNumber();
+			if (sortNumber != otherSortNumber) {
+				return sortNumber > otherSortNumber ? -1 : 1;
+			}
+			if (arrival != other.arrival) {
+				return arrival > other.arrival ? -1 : 1;
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * The parsed entries of a result and how exactly they match the search
+	 * term.
+	 */
+	public static final class RankedResult {
+
+		/**
+		 * The dictionary of the result.
+		 */
+		private final DictionaryDataFile dictionary;
+
+		/**
+		 * The parsed entries of the result.
+		 */
+		private final SingleTranslationExtension[] translations;
+
+		/**
+		 * How exactly each entry matches the search term.
+		 */
+		private final int[] exactness;
+
+		/**
+		 * Creates the ranked entries of a result.
+		 *
+		 * @param dictionary
+		 *            the dictionary of the result
+		 * @param translations
+		 *            the parsed entries
+		 * @param exactness
+		 *            how exactly each entry matches the search term
+		 */
+		private RankedResult(final DictionaryDataFile dictionary,
+				final SingleTranslationExtension[] translations, final int[] exactness) {
+			this.dictionary = dictionary;
+			this.translations = translations;
+			this.exactness = exactness;
+		}
+	}
+
+	/**
+	 * The maximum number of entries to keep.
+	 */
+	private final int maxEntries;
+
+	/**
+	 * The best entries with the lowest ranked entry at the head.
+	 */
+	private final PriorityQueue<RankedTranslation> bestEntries;
+
+	/**
+	 * The dictionaries ordered by priority.
+	 */
+	private List<DictionaryDataFile> dictionaryOrder = Collections.emptyList();
+
+	/**
+	 * The number of entries added since the last clear.
+	 */
+	private long addedEntries = 0;
+
+	/**
+	 * The best entries ordered from best to worst or null if they have to be
+	 * sorted again.
+	 */
+	private Vector<SingleTranslationExtension> sortedEntries = null;
+
+	/**
+	 * Creates a merger that keeps the given number of entries.
+	 *
+	 * @param maxEntries
+	 *            the maximum number of entries to keep
+	 */
+	public RankedResultMerger(final int maxEntries) {
+		this.maxEntries = Math.max(1, maxEntries);
+		bestEntries = new PriorityQueue<RankedTranslation>(this.maxEntries + 1);
+	}
+
+	/**
+	 * Sets the priority of the dictionaries. Dictionaries that are not
+	 * included rank lowest.
+	 *
+	 * @param dictionaries
+	 *            the dictionaries ordered from highest to lowest priority
+	 */
+	public void setDictionaryOrder(final List<DictionaryDataFile> dictionaries) {
+		dictionaryOrder = dictionaries;
+	}
+
+	/**
+	 * Parses the entries of the result and compares them with the search
+	 * term. Does not change any merger, so it may be called on any thread.
+	 *
+	 * @param result
+	 *            the result of a dictionary and language pair
+	 * @return the ranked entries to pass to {@link #add(RankedResult)}
+	 */
+	public static RankedResult rank(final TranslationResult result) {
+		final String term = getTerm(result.translationParametersObj.getToBeTranslatedWordText());
+		final int count = result.numberOfFoundTranslations();
+		final SingleTranslationExtension[] translations = new SingleTranslationExtension[count];
+		final int[] exactness = new int[count];
+		for (int i = 0; i < count; i++) {
+			final SingleTranslation entry = result.getTranslationAt(i);
+			if (entry instanceof SingleTranslationExtension) {
+				translations[i] = (SingleTranslationExtension) entry;
+			} else {
+				translations[i] = new SingleTranslationExtension(entry, result.dictionary);
+			}
+			exactness[i] = getExactness(translations[i], term);
+		}
+		return new RankedResult(result.dictionary, translations, exactness);
+	}
+
+	/**
+	 * Ranks the entries of the result and keeps them if they are among the
+	 * best entries.
+	 *
+	 * @param result
+	 *            the result of a dictionary and language pair
+	 */
+	public void add(final TranslationResult result) {
+		add(rank(result));
+	}
+
+	/**
+	 * Keeps the entries of a ranked result if they are among the best
+	 * entries.
+	 *
+	 * @param result
+	 *            the entries ranked by {@link #rank(TranslationResult)}
+	 */
+	public void add(final RankedResult result) {
+		int dictionaryPriority = dictionaryOrder.indexOf(result.dictionary);
+		if (dictionaryPriority < 0) {
+			dictionaryPriority = Integer.MAX_VALUE;
+		}
+		for (int i = 0; i < result.translations.length; i++) {
+			final RankedTranslation ranked = new RankedTranslation(result.translations[i],
+					result.exactness[i], dictionaryPriority, addedEntries++);
+			if (bestEntries.size() >= maxEntries
+					&& ranked.compareTo(bestEntries.peek()) <= 0) {
+				continue;
+			}
+			bestEntries.add(ranked);
+			if (bestEntries.size() > maxEntries) {
+				bestEntries.poll();
+			}
+			sortedEntries = null;
+		}
+	}
+
+	/**
+	 * Returns the best entries.
+	 *
+	 * @return the entries ordered from best to worst
+	 */
+	public Vector<SingleTranslationExtension> getBestEntries() {
+		if (sortedEntries == null) {
+			final Vector<RankedTranslation> ranked = new Vector<RankedTranslation>(bestEntries);
+			Collections.sort(ranked, Collections.reverseOrder());
+			sortedEntries = new Vector<SingleTranslationExtension>(ranked.size());
+			for (RankedTranslation entry : ranked) {
+				sortedEntries.add(entry.translation);
+			}
+		}
+		return sortedEntries;
+	}
+
+	/**
+	 * Returns the number of kept entries.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return bestEntries.size();
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		bestEntries.clear();
+		sortedEntries = null;
+		addedEntries = 0;
+	}
+
+	/**
+	 * Determines how exactly the text of the entry matches the search term.
+	 *
+	 * @param translation
+	 *            the entry
+	 * @param term
+	 *            the lower case search term without modifiers
+	 * @return 2 if the text equals the term, 1 if a word equals the term, 0
+	 *         otherwise
+	 */
+	private static int getExactness(final SingleTranslationExtension translation,
+			final String term) {
+		final String text;
+		try {
+			text = translation.getFromTextAsString().trim().toLowerCase(Locale.ENGLISH);
+		} catch (DictionaryException e) {
+			return 0;
+		}
+		if (text.equals(term)) {
+			return 2;
+		}
+		if (term.length() == 0) {
+			return 0;
+		}
+		int start = text.indexOf(term);
+		while (start >= 0) {
+			final int end = start + term.length();
+			final boolean isWordStart = start == 0 || !Character.isLetterOrDigit(text.charAt(start - 1));
+			final boolean isWordEnd = end == text.length() || !Character.isLetterOrDigit(text.charAt(end));
+			if (isWordStart && isWordEnd) {
+				return 1;
+			}
+			start = text.indexOf(term, start + 1);
+		}
+		return 0;
+	}
+
+	/**
+	 * Removes the modifiers of the search mode from the search word.
+	 *
+	 * @param searchWord
+	 *            the search word including modifiers
+	 * @return the lower case search term
+	 */
+	private static String getTerm(final String searchWord) {
+		final StringBuilder term = new StringBuilder(searchWord.length());
+		for (int i = 0; i < searchWord.length(); i++) {
+			final char character = searchWord.charAt(i);
+			if (character != Util.wildcardAnySeriesOfCharacter
+					&& character != Util.wildcardAnySingleCharacter
+					&& character != Util.noSearchSubExpressionCharacter) {
+				term.append(character);
+			}
+		}
+		return term.toString().trim().toLowerCase(Locale.ENGLISH);
+	}
+
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Vector;
+
+import de.kugihan.dictionaryformids.translation.SingleTranslationExtension;
+import de.kugihan.dictionaryformids.translation.TranslationParameters;
+import de.kugihan.dictionaryformids.translation.TranslationParametersBatch;
+import de.kugihan.dictionaryformids.translation.TranslationResult;
+
+/**
+ * SharedLanguageScan combines the entries of a batch that search the same
+ * dictionary for the same term in the same input language, e.g. DE to EN and
+ * DE to FR. The combined entry searches the index of the input language once
+ * and asks for the translations into all output languages. Its result is
+ * projected to a result for each of the original entries, which only
+ * includes the translations into the entry's output languages.
+ *
+ */
+public final class SharedLanguageScan {
+
+	/**
+	 * The batch to execute.
+	 */
+	private final TranslationParametersBatch batch = new TranslationParametersBatch();
+
+	/**
+	 * The original entries of each combined entry.
+	 */
+	private final IdentityHashMap<TranslationParameters, Vector<TranslationParameters>> members = new IdentityHashMap<TranslationParameters, Vector<TranslationParameters>>();
+
+	/**
+	 * Plans the execution of the batch.
+	 *
+	 * @param searches
+	 *            the entries to search for
+	 * @param isEnabled
+	 *            true if entries should be combined, false to execute the
+	 *            entries unchanged
+	 */
+	public SharedLanguageScan(final TranslationParametersBatch searches, final boolean isEnabled) {
+		final Vector<Vector<TranslationParameters>> groups = new Vector<Vector<TranslationParameters>>();
+		final int count = searches.numberOfTranslationParameters();
+		for (int i = 0; i < count; i++) {
+			final TranslationParameters parameters = searches.getTranslationParametersAt(i);
+			Vector<TranslationParameters> group = null;
+			if (isEnabled) {
+				for (Vector<TranslationParameters> candidate : groups) {
+					if (isSameScan(candidate.firstElement(), parameters)) {
+						group = candidate;
+						break;
+					}
+				}
+			}
+			if (group == null) {
+				group = new Vector<TranslationParameters>();
+				groups.add(group);
+			}
+			group.add(parameters);
+		}
+		for (Vector<TranslationParameters> group : groups) {
+			if (group.size() == 1) {
+				batch.addTranslationParameters(group.firstElement());
+				continue;
+			}
+			final TranslationParameters combined = combine(group);
+			members.put(combined, group);
+			batch.addTranslationParameters(combined);
+		}
+	}
+
+	/**
+	 * Returns the batch to execute.
+	 *
+	 * @return the batch including the combined entries
+	 */
+	public TranslationParametersBatch getBatch() {
+		return batch;
+	}
+
+	/**
+	 * Projects the result of an executed entry to the results of the original
+	 * entries.
+	 *
+	 * @param result
+	 *            the result of an entry of the executed batch
+	 * @return the results of the original entries
+	 */
+	public Vector<TranslationResult> project(final TranslationResult result) {
+		final Vector<TranslationResult> results = new Vector<TranslationResult>();
+		final Vector<TranslationParameters> group = members.get(result.translationParametersObj);
+		if (group == null) {
+			results.add(result);
+			return results;
+		}
+		for (TranslationParameters parameters : group) {
+			final TranslationResult projected = new TranslationResult();
+			for (int i = 0; i < result.numberOfFoundTranslations(); i++) {
+				final SingleTranslationExtension translation = new SingleTranslationExtension(
+						result.getTranslationAt(i), result.dictionary,
+						parameters.getOutputLanguages());
+				if (translation.hasToTexts()) {
+					projected.translations.add(translation);
+				}
+			}
+			projected.translationParametersObj = parameters;
+			projected.dictionary = result.dictionary;
+			projected.translationBreakOccurred = result.translationBreakOccurred;
+			projected.translationBreakReason = result.translationBreakReason;
+			results.add(projected);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns if both entries can be answered by the same search.
+	 *
+	 * @param first
+	 *            the first entry
+	 * @param second
+	 *            the second entry
+	 * @return true if the entries only differ in their output languages
+	 */
+	private static boolean isSameScan(final TranslationParameters first,
+			final TranslationParameters second) {
+		return first.getDictionary() == second.getDictionary()
+				&& first.getMaxHits() == second.getMaxHits()
+				&& first.getToBeTranslatedWordText().equals(second.getToBeTranslatedWordText())
+				&& Arrays.equals(first.getInputLanguages(), second.getInputLanguages());
+	}
+
+	/**
+	 * Creates the entry searching for all output languages of the group. The
+	 * combined entry may run as long as the longest of the entries, so the
+	 * timeout chosen by the creator of the batch is kept.
+	 *
+	 * @param group
+	 *            the entries to combine
+	 * @return the combined entry
+	 */
+	private static TranslationParameters combine(final Vector<TranslationParameters> group) {
+		final TranslationParameters first = group.firstElement();
+		final boolean[] outputLanguages = new boolean[first.getOutputLanguages().length];
+		int timeout = 0;
+		for (TranslationParameters parameters : group) {
+			final boolean[] languages = parameters.getOutputLanguages();
+			for (int i = 0; i < outputLanguages.length; i++) {
+				outputLanguages[i] |= languages[i];
+			}
+			timeout = Math.max(timeout, parameters.getDurationForCancelSearch());
+		}
+		return new TranslationParameters(first.getDictionary(),
+				first.getToBeTranslatedWordText(), first.getInputLanguages(), outputLanguages,
+				first.isExecuteInBackground(), first.getMaxHits(), timeout);
+	}
+
+}
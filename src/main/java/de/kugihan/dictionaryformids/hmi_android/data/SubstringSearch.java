@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.util.HashSet;
+import java.util.Vector;
+
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.CancellationToken;
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.general.Util;
+import de.kugihan.dictionaryformids.translation.SingleTranslation;
+import de.kugihan.dictionaryformids.translation.SingleTranslationExtension;
+import de.kugihan.dictionaryformids.translation.TranslationExecution;
+import de.kugihan.dictionaryformids.translation.TranslationParameters;
+import de.kugihan.dictionaryformids.translation.TranslationResult;
+
+/**
+ * SubstringSearch answers searches for entries including a term, i.e. a term
+ * enclosed in wildcards, from the {@link TrigramIndex} of the input language.
+ * Instead of scanning all index files, the matching terms are looked up in
+ * the trigram index and each of them is searched as an exact match. Terms
+ * equal to the search term come first, followed by terms beginning with it.
+ * <p>
+ * Searches that cannot be answered this way, e.g. because no trigram index is
+ * available, no term matches or too many terms match to search all of them,
+ * are left to the normal search, so a missing or incomplete index never hides
+ * results.
+ *
+ */
+public final class SubstringSearch {
+
+	/**
+	 * The maximum number of matching terms searched.
+	 */
+	private static final int MAX_TERMS = 1000;
+
+	/**
+	 * Returned by {@link #translateTerms} if all terms have been searched.
+	 */
+	static final int NO_BREAK = -1;
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private SubstringSearch() {
+	}
+
+	/**
+	 * Translates the parameters from the trigram index if possible.
+	 *
+	 * @param parameters
+	 *            the parameters of the search
+	 * @param timeout
+	 *            the maximum duration of the search in milliseconds
+	 * @return the result or null if the search has to be executed normally
+	 * @throws DictionaryException
+	 *             if the translation of a term fails
+	 */
+	public static TranslationResult translate(final TranslationParameters parameters,
+			final long timeout) throws DictionaryException {
+		final String term = getTerm(parameters);
+		final int languageIndex = getInputLanguage(parameters);
+		if (term == null || languageIndex < 0) {
+			return null;
+		}
+		final TrigramIndex trigrams = TermIndexes.getTrigramIndex(parameters.getDictionary(),
+				languageIndex);
+		if (trigrams == null) {
+			return null;
+		}
+		// one more term shows if the matching terms have been cut off
+		final int[] matches = trigrams.findContaining(term, MAX_TERMS + 1);
+		if (matches.length == 0 || matches.length > MAX_TERMS) {
+			return null;
+		}
+		final TermIndex terms = trigrams.getTerms();
+		final Vector<String> matchingTerms = new Vector<String>();
+		for (int match : getOrderedTerms(terms, matches, term)) {
+			matchingTerms.add(terms.getTerm(match));
+		}
+		final TranslationResult result = new TranslationResult();
+		result.translationParametersObj = parameters;
+		result.dictionary = parameters.getDictionary();
+		final int breakReason = translateTerms(parameters, matchingTerms,
+				System.currentTimeMillis() + timeout, result.translations);
+		if (breakReason != NO_BREAK) {
+			result.translationBreakOccurred = true;
+			result.translationBreakReason = breakReason;
+		}
+		return result;
+	}
+
+	/**
+	 * Searches each of the terms as an exact match and collects the entries
+	 * in the order of the terms. Entries found for several terms are only
+	 * included once.
+	 *
+	 * @param parameters
+	 *            the parameters of the search, providing the dictionary, the
+	 *            languages and the maximum number of entries
+	 * @param terms
+	 *            the terms to search
+	 * @param deadline
+	 *            the time the search has to stop at
+	 * @param translations
+	 *            receives the found entries
+	 * @return the reason the search stopped early or {@link #NO_BREAK}
+	 * @throws DictionaryException
+	 *             if the translation of a term fails
+	 */
+	static int translateTerms(final TranslationParameters parameters,
+			final Vector<String> terms, final long deadline,
+			final Vector<SingleTranslation> translations) throws DictionaryException {
+		final HashSet<String> foundEntries = new HashSet<String>();
+		for (String term : terms) {
+			if (CancellationToken.isCurrentCancelled()) {
+				return TranslationResult.BreakReasonCancelReceived;
+			}
+			final int remainingHits = parameters.getMaxHits() - translations.size();
+			final long remainingTime = deadline - System.currentTimeMillis();
+			if (remainingHits <= 0) {
+				return TranslationResult.BreakReasonCancelMaxNrOfHitsReached;
+			}
+			if (remainingTime <= 0) {
+				return TranslationResult.BreakReasonMaxExecutionTimeReached;
+			}
+			if (!isPlainTerm(term)) {
+				continue;
+			}
+			final TranslationParameters termParameters = new TranslationParameters(
+					parameters.getDictionary(), Util.noSearchSubExpressionCharacter + term
+							+ Util.noSearchSubExpressionCharacter,
+					parameters.getInputLanguages(), parameters.getOutputLanguages(), true,
+					remainingHits, (int) remainingTime);
+			final TranslationResult termResult = TranslationExecution
+					.getTranslationResult(termParameters);
+			for (int i = 0; i < termResult.numberOfFoundTranslations()
+					&& translations.size() < parameters.getMaxHits(); i++) {
+				final SingleTranslation translation = termResult.getTranslationAt(i);
+				if (foundEntries.add(getKey(translation, parameters))) {
+					translations.add(translation);
+				}
+			}
+			if (termResult.translationBreakOccurred
+					&& termResult.translationBreakReason == TranslationResult.BreakReasonMaxExecutionTimeReached) {
+				return TranslationResult.BreakReasonMaxExecutionTimeReached;
+			}
+		}
+		return NO_BREAK;
+	}
+
+	/**
+	 * Orders the matching terms: terms equal to the search term, terms
+	 * beginning with it and all other terms, each in the order of the index.
+	 *
+	 * @param terms
+	 *            the term index
+	 * @param matches
+	 *            the positions of the matching terms in ascending order
+	 * @param term
+	 *            the search term
+	 * @return the ordered positions
+	 */
+	private static int[] getOrderedTerms(final TermIndex terms, final int[] matches,
+			final String term) {
+		final int[] ordered = new int[matches.length];
+		int count = 0;
+		for (int pass = 0; pass < 3; pass++) {
+			for (int match : matches) {
+				if (getRank(terms, match, term) == pass) {
+					ordered[count++] = match;
+				}
+			}
+		}
+		return ordered;
+	}
+
+	/**
+	 * Determines the group of a matching term.
+	 *
+	 * @param terms
+	 *            the term index
+	 * @param match
+	 *            the position of the term
+	 * @param term
+	 *            the search term
+	 * @return 0 if the term equals the search term, 1 if it begins with it, 2
+	 *         otherwise
+	 */
+	private static int getRank(final TermIndex terms, final int match, final String term) {
+		final int length = terms.getTermLength(match);
+		if (length < term.length()) {
+			return 2;
+		}
+		for (int i = 0; i < term.length(); i++) {
+			if (terms.getLowerCaseCharacter(match, i) != Character.toLowerCase(term.charAt(i))) {
+				return 2;
+			}
+		}
+		return length == term.length() ? 0 : 1;
+	}
+
+	/**
+	 * Returns the key identifying an entry, so entries found for several
+	 * terms are only included once.
+	 *
+	 * @param translation
+	 *            the entry
+	 * @param parameters
+	 *            the parameters of the search
+	 * @return the key of the entry
+	 */
+	private static String getKey(final SingleTranslation translation,
+			final TranslationParameters parameters) {
+		final SingleTranslationExtension extension = new SingleTranslationExtension(translation,
+				parameters.getDictionary());
+		try {
+			return extension.getFromTextAsString() + '\t' + extension.getToTextsAsString("\t");
+		} catch (DictionaryException e) {
+			// entries that cannot be parsed are never merged
+			return String.valueOf(System.identityHashCode(translation));
+		}
+	}
+
+	/**
+	 * Returns the term of a search for entries including a term.
+	 *
+	 * @param parameters
+	 *            the parameters of the search
+	 * @return the term without wildcards or null if the search is not a
+	 *         search for a plain term enclosed in wildcards
+	 */
+	private static String getTerm(final TranslationParameters parameters) {
+		final String searchWord = parameters.getToBeTranslatedWordText();
+		final int length = searchWord.length();
+		if (length < 3 || searchWord.charAt(0) != Util.wildcardAnySeriesOfCharacter
+				|| searchWord.charAt(length - 1) != Util.wildcardAnySeriesOfCharacter) {
+			return null;
+		}
+		final String term = searchWord.substring(1, length - 1);
+		return isPlainTerm(term) ? term : null;
+	}
+
+	/**
+	 * Returns if the term includes no search modifiers.
+	 *
+	 * @param term
+	 *            the term to check
+	 * @return true if the term can be searched as it is
+	 */
+	static boolean isPlainTerm(final String term) {
+		return term.length() > 0 && term.indexOf(Util.wildcardAnySeriesOfCharacter) < 0
+				&& term.indexOf(Util.wildcardAnySingleCharacter) < 0
+				&& term.indexOf(Util.noSearchSubExpressionCharacter) < 0;
+	}
+
+	/**
+	 * Returns the only input language of the search.
+	 *
+	 * @param parameters
+	 *            the parameters of the search
+	 * @return the index of the language or -1 if the search has several or no
+	 *         input languages
+	 */
+	static int getInputLanguage(final TranslationParameters parameters) {
+		final boolean[] inputLanguages = parameters.getInputLanguages();
+		int languageIndex = -1;
+		for (int i = 0; i < inputLanguages.length; i++) {
+			if (inputLanguages[i]) {
+				if (languageIndex >= 0) {
+					return -1;
+				}
+				languageIndex = i;
+			}
+		}
+		return languageIndex;
+	}
+
+}
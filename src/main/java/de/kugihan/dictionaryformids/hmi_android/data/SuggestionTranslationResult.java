@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.util.Vector;
+
+import de.kugihan.dictionaryformids.translation.SingleTranslation;
+import de.kugihan.dictionaryformids.translation.TranslationParameters;
+import de.kugihan.dictionaryformids.translation.TranslationResult;
+
+/**
+ * SuggestionTranslationResult holds the entries of terms similar to the word
+ * of a search that found nothing. It is shown as a separate group and is not
+ * counted as a result of the search.
+ *
+ */
+public final class SuggestionTranslationResult extends TranslationResult {
+
+	/**
+	 * The suggested terms, the most similar term first.
+	 */
+	private final Vector<String> suggestions;
+
+	/**
+	 * Creates an empty result for the suggested terms.
+	 *
+	 * @param parameters
+	 *            the parameters of the search without results
+	 * @param suggestions
+	 *            the suggested terms
+	 */
+	SuggestionTranslationResult(final TranslationParameters parameters,
+			final Vector<String> suggestions) {
+		this.suggestions = suggestions;
+		translationParametersObj = parameters;
+		dictionary = parameters.getDictionary();
+	}
+
+	/**
+	 * Returns the suggested terms.
+	 *
+	 * @return the terms, the most similar term first
+	 */
+	public Vector<String> getSuggestions() {
+		return suggestions;
+	}
+
+	/**
+	 * Returns the list receiving the entries of the suggested terms.
+	 *
+	 * @return the entries
+	 */
+	Vector<SingleTranslation> getTranslations() {
+		return translations;
+	}
+
+}
@@ -0,0 +1,508 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * TermIndex is the sorted list of the search terms of one language of a
+ * dictionary, read from the language's index files. The terms are stored in a
+ * single character array and every term points to its line in the index
+ * files, which lists the positions of the term's entries in the directory
+ * files.
+ * <p>
+ * Exact and prefix lookups are binary searches that do not allocate.
+ *
+ */
+public final class TermIndex {
+
+	/**
+	 * The character separating the term from its positions.
+	 */
+	private static final byte SEPARATOR = '\t';
+
+	/**
+	 * The encoding of the index files.
+	 */
+	private static final String ENCODING = "UTF-8";
+
+	/**
+	 * The estimated number of bytes used per term in addition to its
+	 * characters.
+	 */
+	private static final int TERM_OVERHEAD = 12;
+
+	/**
+	 * The characters of all terms in sorted order.
+	 */
+	private final char[] termCharacters;
+
+	/**
+	 * The start of each term in {@link #termCharacters}, followed by the end
+	 * of the last term.
+	 */
+	private final int[] termStarts;
+
+	/**
+	 * The index file of each term.
+	 */
+	private final short[] fileNumbers;
+
+	/**
+	 * The offset of the positions of each term in its index file.
+	 */
+	private final int[] positionOffsets;
+
+	/**
+	 * The content of the index files.
+	 */
+	private final byte[][] indexFiles;
+
+	/**
+	 * Creates an index from its arrays.
+	 *
+	 * @param termCharacters
+	 *            the characters of all terms
+	 * @param termStarts
+	 *            the start of each term
+	 * @param fileNumbers
+	 *            the index file of each term
+	 * @param positionOffsets
+	 *            the offset of the positions of each term
+	 * @param indexFiles
+	 *            the content of the index files
+	 */
+	private TermIndex(final char[] termCharacters, final int[] termStarts,
+			final short[] fileNumbers, final int[] positionOffsets, final byte[][] indexFiles) {
+		this.termCharacters = termCharacters;
+		this.termStarts = termStarts;
+		this.fileNumbers = fileNumbers;
+		this.positionOffsets = positionOffsets;
+		this.indexFiles = indexFiles;
+	}
+
+	/**
+	 * Creates the index of the given index files.
+	 *
+	 * @param indexFiles
+	 *            the content of the index files of a language in their order
+	 * @return the index
+	 */
+	public static TermIndex create(final byte[][] indexFiles) {
+		int lineCount = 0;
+		for (byte[] content : indexFiles) {
+			for (byte character : content) {
+				if (character == '\n') {
+					lineCount++;
+				}
+			}
+			lineCount++;
+		}
+		final String[] terms = new String[lineCount];
+		final short[] files = new short[lineCount];
+		final int[] offsets = new int[lineCount];
+		int count = 0;
+		boolean isSorted = true;
+		for (int file = 0; file < indexFiles.length; file++) {
+			final byte[] content = indexFiles[file];
+			int lineStart = 0;
+			while (lineStart < content.length) {
+				int lineEnd = lineStart;
+				int separator = -1;
+				while (lineEnd < content.length && content[lineEnd] != '\n') {
+					if (separator < 0 && content[lineEnd] == SEPARATOR) {
+						separator = lineEnd;
+					}
+					lineEnd++;
+				}
+				if (separator > lineStart) {
+					terms[count] = decode(content, lineStart, separator - lineStart);
+					files[count] = (short) file;
+					offsets[count] = separator + 1;
+					if (count > 0 && terms[count - 1].compareTo(terms[count]) > 0) {
+						isSorted = false;
+					}
+					count++;
+				}
+				lineStart = lineEnd + 1;
+			}
+		}
+		final Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		if (!isSorted) {
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(final Integer first, final Integer second) {
+					return terms[first].compareTo(terms[second]);
+				}
+			});
+		}
+		int characterCount = 0;
+		for (int i = 0; i < count; i++) {
+			characterCount += terms[i].length();
+		}
+		final char[] termCharacters = new char[characterCount];
+		final int[] termStarts = new int[count + 1];
+		final short[] fileNumbers = new short[count];
+		final int[] positionOffsets = new int[count];
+		int position = 0;
+		for (int i = 0; i < count; i++) {
+			final int source = order[i];
+			final String term = terms[source];
+			termStarts[i] = position;
+			term.getChars(0, term.length(), termCharacters, position);
+			position += term.length();
+			fileNumbers[i] = files[source];
+			positionOffsets[i] = offsets[source];
+		}
+		termStarts[count] = position;
+		return new TermIndex(termCharacters, termStarts, fileNumbers, positionOffsets,
+				indexFiles);
+	}
+
+	/**
+	 * Returns the number of terms.
+	 *
+	 * @return the number of terms
+	 */
+	public int size() {
+		return positionOffsets.length;
+	}
+
+	/**
+	 * Returns the term at the given position.
+	 *
+	 * @param index
+	 *            the position of the term in sorted order
+	 * @return the term
+	 */
+	public String getTerm(final int index) {
+		return new String(termCharacters, termStarts[index], termStarts[index + 1]
+				- termStarts[index]);
+	}
+
+	/**
+	 * Returns the length of the term at the given position.
+	 *
+	 * @param index
+	 *            the position of the term in sorted order
+	 * @return the number of characters of the term
+	 */
+	public int getTermLength(final int index) {
+		return termStarts[index + 1] - termStarts[index];
+	}
+
+	/**
+	 * Returns a character of the term at the given position in lower case.
+	 *
+	 * @param index
+	 *            the position of the term in sorted order
+	 * @param offset
+	 *            the position of the character in the term
+	 * @return the lower case character
+	 */
+	public char getLowerCaseCharacter(final int index, final int offset) {
+		return Character.toLowerCase(termCharacters[termStarts[index] + offset]);
+	}
+
+	/**
+	 * Returns if the term at the given position includes the text, ignoring
+	 * case.
+	 *
+	 * @param index
+	 *            the position of the term in sorted order
+	 * @param lowerCaseText
+	 *            the text in lower case as returned by
+	 *            {@link Character#toLowerCase(char)}
+	 * @return true if the term includes the text
+	 */
+	public boolean containsIgnoreCase(final int index, final String lowerCaseText) {
+		final int start = termStarts[index];
+		final int last = termStarts[index + 1] - lowerCaseText.length();
+		for (int position = start; position <= last; position++) {
+			int i = 0;
+			while (i < lowerCaseText.length()
+					&& Character.toLowerCase(termCharacters[position + i]) == lowerCaseText.charAt(i)) {
+				i++;
+			}
+			if (i == lowerCaseText.length()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the positions of the term's entries in the directory files as
+	 * stored in the index file.
+	 *
+	 * @param index
+	 *            the position of the term in sorted order
+	 * @return the positions of the term
+	 */
+	public String getPositions(final int index) {
+		final byte[] content = indexFiles[fileNumbers[index]];
+		final int start = positionOffsets[index];
+		int end = start;
+		while (end < content.length && content[end] != '\n' && content[end] != '\r') {
+			end++;
+		}
+		return decode(content, start, end - start);
+	}
+
+	/**
+	 * Finds the term.
+	 *
+	 * @param term
+	 *            the term to find
+	 * @return the position of the term or -1 if the index does not include
+	 *         the term
+	 */
+	public int find(final String term) {
+		final int index = findFirst(term, false);
+		if (index < size() && compare(index, term, false) == 0) {
+			return index;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the position of the first term beginning with the prefix.
+	 *
+	 * @param prefix
+	 *            the beginning of the terms
+	 * @return the position of the first term that is not lower than the
+	 *         prefix
+	 */
+	public int findFirst(final String prefix) {
+		return findFirst(prefix, false);
+	}
+
+	/**
+	 * Finds the position after the last term beginning with the prefix.
+	 *
+	 * @param prefix
+	 *            the beginning of the terms
+	 * @return the position of the first term that is greater than all terms
+	 *         beginning with the prefix
+	 */
+	public int findEnd(final String prefix) {
+		return findFirst(prefix, true);
+	}
+
+	/**
+	 * Finds the position after the last term beginning with the same
+	 * characters as the term at the given position.
+	 *
+	 * @param index
+	 *            the position of a term in sorted order
+	 * @param length
+	 *            the number of characters of the term to compare
+	 * @return the position of the first following term that begins with
+	 *         other characters
+	 */
+	public int findEnd(final int index, final int length) {
+		int low = index + 1;
+		int high = size();
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (hasPrefix(middle, index, length)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the estimated memory used by the index, excluding the index
+	 * files it points to.
+	 *
+	 * @return the size in bytes
+	 */
+	public long getSize() {
+		return termCharacters.length * 2L + (long) size() * TERM_OVERHEAD;
+	}
+
+	/**
+	 * Writes the arrays of the index, so it can be restored with
+	 * {@link #read(ByteBuffer, byte[][])} without parsing and sorting the
+	 * index files again.
+	 *
+	 * @param output
+	 *            the stream to write to
+	 * @throws IOException
+	 *             if the arrays cannot be written
+	 */
+	void write(final DataOutputStream output) throws IOException {
+		output.writeInt(termCharacters.length);
+		output.writeInt(positionOffsets.length);
+		for (char character : termCharacters) {
+			output.writeChar(character);
+		}
+		for (int start : termStarts) {
+			output.writeInt(start);
+		}
+		for (short fileNumber : fileNumbers) {
+			output.writeShort(fileNumber);
+		}
+		for (int offset : positionOffsets) {
+			output.writeInt(offset);
+		}
+	}
+
+	/**
+	 * Restores an index written with {@link #write(DataOutputStream)}.
+	 *
+	 * @param buffer
+	 *            the buffer positioned at the arrays of the index
+	 * @param indexFiles
+	 *            the content of the index files the index was created from
+	 * @return the index or null if the arrays do not fit the index files
+	 */
+	static TermIndex read(final ByteBuffer buffer, final byte[][] indexFiles) {
+		try {
+			final int characterCount = buffer.getInt();
+			final int count = buffer.getInt();
+			if (characterCount < 0 || count < 0
+					|| characterCount * 2L + count * 10L + 4 > buffer.remaining()) {
+				return null;
+			}
+			final char[] termCharacters = new char[characterCount];
+			final int[] termStarts = new int[count + 1];
+			final short[] fileNumbers = new short[count];
+			final int[] positionOffsets = new int[count];
+			buffer.asCharBuffer().get(termCharacters);
+			buffer.position(buffer.position() + characterCount * 2);
+			buffer.asIntBuffer().get(termStarts);
+			buffer.position(buffer.position() + termStarts.length * 4);
+			buffer.asShortBuffer().get(fileNumbers);
+			buffer.position(buffer.position() + count * 2);
+			buffer.asIntBuffer().get(positionOffsets);
+			buffer.position(buffer.position() + count * 4);
+			if (termStarts[count] != characterCount) {
+				return null;
+			}
+			for (short fileNumber : fileNumbers) {
+				if (fileNumber < 0 || fileNumber >= indexFiles.length) {
+					return null;
+				}
+			}
+			return new TermIndex(termCharacters, termStarts, fileNumbers, positionOffsets,
+					indexFiles);
+		} catch (BufferUnderflowException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Finds the first term not lower than the given term.
+	 *
+	 * @param term
+	 *            the term to search
+	 * @param isPrefixEnd
+	 *            true to treat terms beginning with the given term as lower
+	 * @return the position of the term
+	 */
+	private int findFirst(final String term, final boolean isPrefixEnd) {
+		int low = 0;
+		int high = size();
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			final int comparison = compare(middle, term, isPrefixEnd);
+			if (comparison < 0 || (isPrefixEnd && comparison == 0)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns if a term begins with the first characters of another term.
+	 *
+	 * @param index
+	 *            the position of the term to check
+	 * @param prefixIndex
+	 *            the position of the term providing the prefix
+	 * @param length
+	 *            the number of characters of the prefix
+	 * @return true if the term begins with the prefix
+	 */
+	private boolean hasPrefix(final int index, final int prefixIndex, final int length) {
+		if (termStarts[index + 1] - termStarts[index] < length) {
+			return false;
+		}
+		final int start = termStarts[index];
+		final int prefixStart = termStarts[prefixIndex];
+		for (int i = 0; i < length; i++) {
+			if (termCharacters[start + i] != termCharacters[prefixStart + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compares the term at the given position with a term.
+	 *
+	 * @param index
+	 *            the position of the term
+	 * @param term
+	 *            the term to compare with
+	 * @param isPrefix
+	 *            true to treat terms beginning with the given term as equal
+	 * @return a negative value, zero or a positive value if the term at the
+	 *         position is lower, equal or greater
+	 */
+	private int compare(final int index, final String term, final boolean isPrefix) {
+		final int start = termStarts[index];
+		final int length = termStarts[index + 1] - start;
+		final int common = Math.min(length, term.length());
+		for (int i = 0; i < common; i++) {
+			final int difference = termCharacters[start + i] - term.charAt(i);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		if (isPrefix && length >= term.length()) {
+			return 0;
+		}
+		return length - term.length();
+	}
+
+	/**
+	 * Decodes a part of an index file.
+	 *
+	 * @param content
+	 *            the content of the index file
+	 * @param offset
+	 *            the start of the part
+	 * @param length
+	 *            the length of the part
+	 * @return the decoded text
+	 */
+	private static String decode(final byte[] content, final int offset, final int length) {
+		try {
+			return new String(content, offset, length, ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+}
@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * TermIndexSnapshot is the saved state of the term indexes of a dictionary:
+ * the search lists and index files that are installed into memory and the
+ * arrays of each language's {@link TermIndex}. Restoring a snapshot replaces
+ * reading the files from the dictionary and parsing and sorting the terms.
+ * <p>
+ * The header holds the size of the snapshot and a key that identifies the
+ * dictionary and the version of its source files, so a stale snapshot is
+ * rejected before its content is read. The file is mapped into memory to
+ * restore it. Stale or damaged snapshots are reported by an exception, so the
+ * caller can delete them.
+ *
+ */
+final class TermIndexSnapshot {
+
+	/**
+	 * The value identifying snapshot files.
+	 */
+	private static final int MAGIC = 0x44664d53;
+
+	/**
+	 * The version of the file format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The encoding of the texts in the file.
+	 */
+	private static final String ENCODING = "UTF-8";
+
+	/**
+	 * The content of the installed files by their name.
+	 */
+	final HashMap<String, byte[]> files;
+
+	/**
+	 * The index of each language or null for languages that are not
+	 * searchable.
+	 */
+	final TermIndex[] languages;
+
+	/**
+	 * The checksum of the index files of each language.
+	 */
+	final long[] checksums;
+
+	/**
+	 * The memory used by the files and indexes in bytes.
+	 */
+	final long size;
+
+	/**
+	 * Creates a restored snapshot.
+	 *
+	 * @param files
+	 *            the content of the installed files by their name
+	 * @param languages
+	 *            the index of each language
+	 * @param checksums
+	 *            the checksum of the index files of each language
+	 * @param size
+	 *            the memory used in bytes
+	 */
+	private TermIndexSnapshot(final HashMap<String, byte[]> files, final TermIndex[] languages,
+			final long[] checksums, final long size) {
+		this.files = files;
+		this.languages = languages;
+		this.checksums = checksums;
+		this.size = size;
+	}
+
+	/**
+	 * Saves the term indexes of a dictionary.
+	 *
+	 * @param file
+	 *            the file to save the snapshot in
+	 * @param key
+	 *            the key identifying the dictionary and its source files
+	 * @param size
+	 *            the memory used by the files and indexes in bytes
+	 * @param files
+	 *            the content of the installed files by their name
+	 * @param languages
+	 *            the index of each language or null
+	 * @param indexFileNames
+	 *            the names of the index files of each language in their order
+	 * @param checksums
+	 *            the checksum of the index files of each language
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	static void save(final File file, final String key, final long size,
+			final Map<String, byte[]> files, final TermIndex[] languages,
+			final String[][] indexFileNames, final long[] checksums) throws IOException {
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			writeText(output, key);
+			output.writeLong(size);
+			output.writeInt(files.size());
+			for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+				writeText(output, entry.getKey());
+				output.writeInt(entry.getValue().length);
+				output.write(entry.getValue());
+			}
+			output.writeInt(languages.length);
+			for (int i = 0; i < languages.length; i++) {
+				output.writeBoolean(languages[i] != null);
+				if (languages[i] == null) {
+					continue;
+				}
+				output.writeLong(checksums[i]);
+				output.writeInt(indexFileNames[i].length);
+				for (String name : indexFileNames[i]) {
+					writeText(output, name);
+				}
+				languages[i].write(output);
+			}
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Restores a saved snapshot if it matches the key.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @param key
+	 *            the key identifying the dictionary and its source files
+	 * @param languageCount
+	 *            the number of languages of the dictionary
+	 * @param maxSize
+	 *            the memory available for the snapshot in bytes
+	 * @return the snapshot or null if it does not fit into the memory
+	 * @throws IOException
+	 *             if the file cannot be read, is stale or is damaged
+	 */
+	static TermIndexSnapshot load(final File file, final String key, final int languageCount,
+			final long maxSize) throws IOException {
+		final ByteBuffer buffer;
+		final RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = input.getChannel();
+			// the mapping stays valid after the file has been closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			input.close();
+		}
+		try {
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+					|| !key.equals(readText(buffer))) {
+				throw new IOException("Stale term index snapshot: " + file);
+			}
+			final long size = buffer.getLong();
+			if (size > maxSize) {
+				return null;
+			}
+			final int fileCount = buffer.getInt();
+			final HashMap<String, byte[]> files = new HashMap<String, byte[]>();
+			for (int i = 0; i < fileCount; i++) {
+				final String name = readText(buffer);
+				files.put(name, readBytes(buffer));
+			}
+			if (buffer.getInt() != languageCount) {
+				throw new IOException("Stale term index snapshot: " + file);
+			}
+			final TermIndex[] languages = new TermIndex[languageCount];
+			final long[] checksums = new long[languageCount];
+			for (int i = 0; i < languageCount; i++) {
+				if (buffer.get() == 0) {
+					continue;
+				}
+				checksums[i] = buffer.getLong();
+				final byte[][] indexFiles = new byte[buffer.getInt()][];
+				for (int number = 0; number < indexFiles.length; number++) {
+					indexFiles[number] = files.get(readText(buffer));
+					if (indexFiles[number] == null) {
+						throw new IOException("Damaged term index snapshot: " + file);
+					}
+				}
+				languages[i] = TermIndex.read(buffer, indexFiles);
+				if (languages[i] == null) {
+					throw new IOException("Damaged term index snapshot: " + file);
+				}
+			}
+			return new TermIndexSnapshot(files, languages, checksums, size);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Damaged term index snapshot: " + file);
+		} catch (IllegalArgumentException e) {
+			// negative lengths of a damaged file
+			throw new IOException("Damaged term index snapshot: " + file);
+		}
+	}
+
+	/**
+	 * Reads the key of a saved snapshot without reading its content.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @return the key identifying the dictionary and its source files or null
+	 *         if the file is not a snapshot of the current version
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	static String readKey(final File file) throws IOException {
+		final DataInputStream input = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				return null;
+			}
+			final int length = input.readInt();
+			if (length < 0 || length > file.length()) {
+				return null;
+			}
+			final byte[] bytes = new byte[length];
+			input.readFully(bytes);
+			return new String(bytes, ENCODING);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Writes a text preceded by its length.
+	 *
+	 * @param output
+	 *            the stream to write to
+	 * @param text
+	 *            the text to write
+	 * @throws IOException
+	 *             if the text cannot be written
+	 */
+	private static void writeText(final DataOutputStream output, final String text)
+			throws IOException {
+		final byte[] bytes = text.getBytes(ENCODING);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	/**
+	 * Reads a text written by {@link #writeText(DataOutputStream, String)}.
+	 *
+	 * @param buffer
+	 *            the buffer to read from
+	 * @return the text
+	 */
+	private static String readText(final ByteBuffer buffer) {
+		try {
+			return new String(readBytes(buffer), ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+	/**
+	 * Reads an array of bytes preceded by its length.
+	 *
+	 * @param buffer
+	 *            the buffer to read from
+	 * @return the bytes
+	 */
+	private static byte[] readBytes(final ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+}
@@ -0,0 +1,873 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Vector;
+import java.util.zip.CRC32;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import de.kugihan.dictionaryformids.dataaccess.DictionaryDataFile;
+import de.kugihan.dictionaryformids.dataaccess.LanguageDefinition;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.DfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.MemoryIndexDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.hmi_android.DictionaryForMIDs;
+import de.kugihan.dictionaryformids.hmi_android.Preferences;
+
+/**
+ * TermIndexes keeps the in-memory term indexes of the loaded dictionaries.
+ * After a dictionary has been loaded, the search lists and index files of its
+ * searchable languages are read on a background thread. Once all of them fit
+ * into the memory budget, they are installed into the dictionary's
+ * {@link MemoryIndexDfMInputStreamAccess}, so searches no longer read them
+ * from storage, and a {@link TermIndex} is created for each language.
+ * <p>
+ * The files and term indexes are also saved as a {@link TermIndexSnapshot} in
+ * the storage directory. When the dictionary is loaded again and its source
+ * files have not changed, the snapshot is restored while the dictionary is
+ * being loaded, so the first search already uses the index. Stale snapshots
+ * are deleted when they are found and replaced by building the index again in
+ * the background. Snapshots of dictionaries that have been removed from the
+ * list of dictionaries are deleted by {@link #pruneSnapshots()}.
+ * <p>
+ * Afterwards a {@link TrigramIndex} is built for each language and saved in
+ * the storage directory, so it is only read back when the dictionary is loaded
+ * again.
+ *
+ */
+public final class TermIndexes {
+
+	/**
+	 * The number of bytes in a megabyte.
+	 */
+	private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+	/**
+	 * The size of the buffer used to read files.
+	 */
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * The extension of the dictionary's files.
+	 */
+	private static final String FILE_EXTENSION = ".csv";
+
+	/**
+	 * The extension of saved trigram indexes.
+	 */
+	private static final String TRIGRAM_FILE_EXTENSION = ".tri";
+
+	/**
+	 * The extension of saved term index snapshots.
+	 */
+	private static final String SNAPSHOT_FILE_EXTENSION = ".snapshot";
+
+	/**
+	 * The extension of trigram indexes and snapshots being saved.
+	 */
+	private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
+
+	/**
+	 * The indexes of a dictionary.
+	 */
+	private static final class DictionaryIndex {
+
+		/**
+		 * The access serving the files from memory.
+		 */
+		private final MemoryIndexDfMInputStreamAccess access;
+
+		/**
+		 * The index of each language or null for languages that are not
+		 * searchable.
+		 */
+		private final TermIndex[] languages;
+
+		/**
+		 * The trigram index of each language or null if it is not available.
+		 */
+		private final TrigramIndex[] trigrams;
+
+		/**
+		 * The checksum of the index files of each language.
+		 */
+		private final long[] checksums;
+
+		/**
+		 * The memory used by the files and indexes in bytes.
+		 */
+		private long size;
+
+		/**
+		 * Creates the indexes of a dictionary.
+		 *
+		 * @param access
+		 *            the access serving the files from memory
+		 * @param languages
+		 *            the index of each language
+		 * @param checksums
+		 *            the checksum of the index files of each language
+		 * @param size
+		 *            the memory used in bytes
+		 */
+		DictionaryIndex(final MemoryIndexDfMInputStreamAccess access,
+				final TermIndex[] languages, final long[] checksums, final long size) {
+			this.access = access;
+			this.languages = languages;
+			this.trigrams = new TrigramIndex[languages.length];
+			this.checksums = checksums;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * The thread building the indexes.
+	 */
+	private static final ExecutorService BUILDER = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							runnable.run();
+						}
+					}, "TermIndexBuilder");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * The indexes of the dictionaries.
+	 */
+	private static final IdentityHashMap<DictionaryDataFile, DictionaryIndex> INDEXES = new IdentityHashMap<DictionaryDataFile, DictionaryIndex>();
+
+	/**
+	 * The dictionaries whose indexes are being built.
+	 */
+	private static final IdentityHashMap<DictionaryDataFile, Boolean> PENDING = new IdentityHashMap<DictionaryDataFile, Boolean>();
+
+	/**
+	 * The memory used by all indexes in bytes.
+	 */
+	private static long usedBytes = 0;
+
+	/**
+	 * The directory to save snapshots and trigram indexes in or null to not
+	 * save them.
+	 */
+	private static volatile File storageDirectory = null;
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private TermIndexes() {
+	}
+
+	/**
+	 * Builds the indexes of the dictionary on a background thread if enabled.
+	 * A valid snapshot of the term indexes is restored on the calling thread
+	 * first, so it should be called by the thread loading the dictionary.
+	 *
+	 * @param dictionary
+	 *            the loaded dictionary
+	 * @param inputStreamAccess
+	 *            the access the dictionary has been loaded with
+	 */
+	public static void buildInBackground(final DictionaryDataFile dictionary,
+			final DfMInputStreamAccess inputStreamAccess) {
+		final long budget = Preferences.getTermIndexMemory() * BYTES_PER_MEGABYTE;
+		final MemoryIndexDfMInputStreamAccess access = MemoryIndexDfMInputStreamAccess
+				.find(inputStreamAccess);
+		if (budget <= 0 || access == null || access.getPathPrefix() == null) {
+			return;
+		}
+		synchronized (INDEXES) {
+			if (INDEXES.containsKey(dictionary) || PENDING.containsKey(dictionary)) {
+				return;
+			}
+			PENDING.put(dictionary, Boolean.TRUE);
+		}
+		final DictionaryIndex restoredIndex = restoreSnapshot(dictionary, access, budget);
+		BUILDER.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (restoredIndex == null) {
+						build(dictionary, access, budget);
+					} else {
+						buildDerivedIndexes(dictionary, restoredIndex, budget);
+					}
+				} finally {
+					synchronized (INDEXES) {
+						PENDING.remove(dictionary);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the index of a language of the dictionary.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param languageIndex
+	 *            the index of the language
+	 * @return the index or null if it is not available
+	 */
+	public static TermIndex get(final DictionaryDataFile dictionary, final int languageIndex) {
+		synchronized (INDEXES) {
+			final DictionaryIndex index = INDEXES.get(dictionary);
+			if (index == null || languageIndex >= index.languages.length) {
+				return null;
+			}
+			return index.languages[languageIndex];
+		}
+	}
+
+	/**
+	 * Returns the trigram index of a language of the dictionary.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param languageIndex
+	 *            the index of the language
+	 * @return the index or null if it is not available
+	 */
+	public static TrigramIndex getTrigramIndex(final DictionaryDataFile dictionary,
+			final int languageIndex) {
+		synchronized (INDEXES) {
+			final DictionaryIndex index = INDEXES.get(dictionary);
+			if (index == null || languageIndex >= index.trigrams.length) {
+				return null;
+			}
+			return index.trigrams[languageIndex];
+		}
+	}
+
+	/**
+	 * Returns the checksum of the index files of a language of the
+	 * dictionary, identifying the version of the terms.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param languageIndex
+	 *            the index of the language
+	 * @return the checksum or -1 if the index is not available
+	 */
+	public static long getChecksum(final DictionaryDataFile dictionary, final int languageIndex) {
+		synchronized (INDEXES) {
+			final DictionaryIndex index = INDEXES.get(dictionary);
+			if (index == null || languageIndex >= index.languages.length
+					|| index.languages[languageIndex] == null) {
+				return -1;
+			}
+			return index.checksums[languageIndex];
+		}
+	}
+
+	/**
+	 * Sets the directory to save snapshots and trigram indexes in.
+	 *
+	 * @param directory
+	 *            the private directory of the application
+	 */
+	public static void setStorageDirectory(final File directory) {
+		storageDirectory = directory;
+	}
+
+	/**
+	 * Deletes the saved snapshots of dictionaries that are neither in the
+	 * list of recent dictionaries nor loaded. The list is read on the calling
+	 * thread, the files are checked on the background thread.
+	 */
+	public static void pruneSnapshots() {
+		final File directory = storageDirectory;
+		if (directory == null) {
+			return;
+		}
+		final Vector<Dictionary> dictionaries = Preferences.getRecentDictionaries();
+		dictionaries.addAll(Preferences.getLoadedDictionaries());
+		BUILDER.execute(new Runnable() {
+			@Override
+			public void run() {
+				final File[] savedFiles = directory.listFiles();
+				if (savedFiles == null) {
+					return;
+				}
+				for (File savedFile : savedFiles) {
+					if (!savedFile.getName().endsWith(SNAPSHOT_FILE_EXTENSION)) {
+						continue;
+					}
+					String key;
+					try {
+						key = TermIndexSnapshot.readKey(savedFile);
+					} catch (IOException e) {
+						key = null;
+					}
+					if (key == null || !isSnapshotInUse(key, dictionaries)) {
+						Log.d(DictionaryForMIDs.LOG_TAG, "Deleting unused term index snapshot "
+								+ savedFile.getName());
+						savedFile.delete();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns if a snapshot belongs to a dictionary of the list or to a
+	 * dictionary whose indexes are available.
+	 *
+	 * @param key
+	 *            the key of the snapshot
+	 * @param dictionaries
+	 *            the recent and loaded dictionaries
+	 * @return true if the snapshot is still used
+	 */
+	private static boolean isSnapshotInUse(final String key,
+			final Vector<Dictionary> dictionaries) {
+		for (Dictionary dictionary : dictionaries) {
+			if (DfMInputStreamAccessFactory.isSourceKeyOf(key, dictionary.getType(),
+					dictionary.getPath())) {
+				return true;
+			}
+		}
+		synchronized (INDEXES) {
+			for (DictionaryIndex index : INDEXES.values()) {
+				final String sourceKey = index.access.getSourceKey();
+				if (sourceKey != null && key.startsWith(sourceKey + "\n")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the indexes of the dictionary, e.g. when it is unloaded. An
+	 * index that is being built is dropped when it is finished.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 */
+	public static void remove(final DictionaryDataFile dictionary) {
+		final DictionaryIndex index;
+		synchronized (INDEXES) {
+			PENDING.remove(dictionary);
+			index = INDEXES.remove(dictionary);
+			if (index != null) {
+				usedBytes -= index.size;
+			}
+		}
+		if (index != null) {
+			index.access.uninstall();
+		}
+	}
+
+	/**
+	 * Removes the indexes of all dictionaries.
+	 */
+	public static void clear() {
+		final Vector<DictionaryIndex> removed;
+		synchronized (INDEXES) {
+			removed = new Vector<DictionaryIndex>(INDEXES.values());
+			INDEXES.clear();
+			PENDING.clear();
+			usedBytes = 0;
+		}
+		for (DictionaryIndex index : removed) {
+			index.access.uninstall();
+		}
+	}
+
+	/**
+	 * Returns the dictionaries whose indexes are available.
+	 *
+	 * @return the dictionaries
+	 */
+	public static Vector<DictionaryDataFile> getDictionaries() {
+		synchronized (INDEXES) {
+			return new Vector<DictionaryDataFile>(INDEXES.keySet());
+		}
+	}
+
+	/**
+	 * Returns the memory used by all indexes.
+	 *
+	 * @return the size in bytes
+	 */
+	public static long getSize() {
+		synchronized (INDEXES) {
+			return usedBytes;
+		}
+	}
+
+	/**
+	 * Describes the indexes for diagnostics.
+	 *
+	 * @return the description
+	 */
+	public static String getDescription() {
+		synchronized (INDEXES) {
+			return "TermIndexes[size=" + usedBytes + ", dictionaries=" + INDEXES.size()
+					+ ", pending=" + PENDING.size() + "]";
+		}
+	}
+
+	/**
+	 * Reads the files of all searchable languages and installs them if they
+	 * fit into the budget.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param access
+	 *            the access to install the files into
+	 * @param budget
+	 *            the memory available for all indexes in bytes
+	 */
+	private static void build(final DictionaryDataFile dictionary,
+			final MemoryIndexDfMInputStreamAccess access, final long budget) {
+		final long start = System.currentTimeMillis();
+		final DfMInputStreamAccess source = access.getDelegate();
+		final String prefix = access.getPathPrefix();
+		final HashMap<String, byte[]> files = new HashMap<String, byte[]>();
+		final TermIndex[] languages = new TermIndex[dictionary.supportedLanguages.length];
+		final long[] checksums = new long[languages.length];
+		final String[][] indexFileNames = new String[languages.length][];
+		long size = 0;
+		try {
+			for (int i = 0; i < languages.length; i++) {
+				final LanguageDefinition language = dictionary.supportedLanguages[i];
+				if (!language.isSearchable) {
+					continue;
+				}
+				final String searchList = prefix + "searchlist" + language.languageFilePostfix
+						+ FILE_EXTENSION;
+				final byte[] searchListContent = readFile(source, searchList);
+				files.put(searchList, searchListContent);
+				size += searchListContent.length;
+				final Vector<byte[]> indexFiles = new Vector<byte[]>();
+				final Vector<String> names = new Vector<String>();
+				final CRC32 checksum = new CRC32();
+				for (int number = 1;; number++) {
+					final String indexFile = prefix + "index" + language.languageFilePostfix
+							+ number + FILE_EXTENSION;
+					if (!source.fileExists(indexFile)) {
+						break;
+					}
+					final byte[] content = readFile(source, indexFile);
+					files.put(indexFile, content);
+					indexFiles.add(content);
+					names.add(indexFile);
+					checksum.update(content);
+					size += content.length;
+					if (size > getAvailableBytes(budget)) {
+						Log.d(DictionaryForMIDs.LOG_TAG, "Term index exceeds budget: "
+								+ dictionary.dictionaryAbbreviation);
+						return;
+					}
+				}
+				languages[i] = TermIndex.create(indexFiles.toArray(new byte[indexFiles.size()][]));
+				checksums[i] = checksum.getValue();
+				indexFileNames[i] = names.toArray(new String[names.size()]);
+				size += languages[i].getSize();
+			}
+		} catch (DictionaryException e) {
+			Log.d(DictionaryForMIDs.LOG_TAG, "Term index could not be built", e);
+			return;
+		} catch (IOException e) {
+			Log.d(DictionaryForMIDs.LOG_TAG, "Term index could not be built", e);
+			return;
+		}
+		final DictionaryIndex index = new DictionaryIndex(access, languages, checksums,
+				size);
+		synchronized (INDEXES) {
+			if (!PENDING.containsKey(dictionary) || size > budget - usedBytes) {
+				// unloaded while building or other indexes took the budget
+				return;
+			}
+			usedBytes += size;
+			INDEXES.put(dictionary, index);
+			access.install(files);
+		}
+		Log.d(DictionaryForMIDs.LOG_TAG, "Term index of " + dictionary.dictionaryAbbreviation
+				+ " built in " + (System.currentTimeMillis() - start) + " ms: " + size
+				+ " bytes");
+		saveSnapshot(dictionary, access, size, files, languages, indexFileNames, checksums);
+		buildDerivedIndexes(dictionary, index, budget);
+	}
+
+	/**
+	 * Builds the indexes derived from the term indexes of the dictionary.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param index
+	 *            the installed indexes of the dictionary
+	 * @param budget
+	 *            the memory available for all indexes in bytes
+	 */
+	private static void buildDerivedIndexes(final DictionaryDataFile dictionary,
+			final DictionaryIndex index, final long budget) {
+		for (int i = 0; i < index.languages.length; i++) {
+			if (index.languages[i] != null) {
+				buildTrigramIndex(dictionary, index, i, index.checksums[i], budget);
+			}
+		}
+		TranslationTextIndex.indexInBackground(dictionary);
+	}
+
+	/**
+	 * Restores and installs the saved snapshot of the dictionary's term
+	 * indexes if it matches the dictionary's source files.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param access
+	 *            the access to install the files into
+	 * @param budget
+	 *            the memory available for all indexes in bytes
+	 * @return the installed indexes or null if they have to be built
+	 */
+	private static DictionaryIndex restoreSnapshot(final DictionaryDataFile dictionary,
+			final MemoryIndexDfMInputStreamAccess access, final long budget) {
+		final File file = getSnapshotFile(dictionary, access);
+		if (file == null) {
+			return null;
+		}
+		if (!file.exists()) {
+			// snapshots of previous versions of the source files are stale
+			deleteOtherVersions(file, SNAPSHOT_FILE_EXTENSION);
+			return null;
+		}
+		final long start = System.currentTimeMillis();
+		final TermIndexSnapshot snapshot;
+		try {
+			snapshot = TermIndexSnapshot.load(file, getSnapshotKey(dictionary, access),
+					dictionary.supportedLanguages.length, getAvailableBytes(budget));
+		} catch (IOException e) {
+			Log.d(DictionaryForMIDs.LOG_TAG, "Term index snapshot could not be read", e);
+			file.delete();
+			return null;
+		}
+		if (snapshot == null) {
+			return null;
+		}
+		final DictionaryIndex index = new DictionaryIndex(access, snapshot.languages,
+				snapshot.checksums, snapshot.size);
+		synchronized (INDEXES) {
+			if (!PENDING.containsKey(dictionary) || snapshot.size > budget - usedBytes) {
+				return null;
+			}
+			usedBytes += snapshot.size;
+			INDEXES.put(dictionary, index);
+			access.install(snapshot.files);
+		}
+		Log.d(DictionaryForMIDs.LOG_TAG, "Term index of " + dictionary.dictionaryAbbreviation
+				+ " restored in " + (System.currentTimeMillis() - start) + " ms: "
+				+ snapshot.size + " bytes");
+		return index;
+	}
+
+	/**
+	 * Saves a snapshot of the dictionary's term indexes, replacing the
+	 * snapshots of previous versions of the dictionary.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param access
+	 *            the access the files have been installed into
+	 * @param size
+	 *            the memory used by the files and indexes in bytes
+	 * @param files
+	 *            the content of the installed files by their name
+	 * @param languages
+	 *            the index of each language or null
+	 * @param indexFileNames
+	 *            the names of the index files of each language in their order
+	 * @param checksums
+	 *            the checksum of the index files of each language
+	 */
+	private static void saveSnapshot(final DictionaryDataFile dictionary,
+			final MemoryIndexDfMInputStreamAccess access, final long size,
+			final HashMap<String, byte[]> files, final TermIndex[] languages,
+			final String[][] indexFileNames, final long[] checksums) {
+		final File file = getSnapshotFile(dictionary, access);
+		if (file == null) {
+			return;
+		}
+		final File temporaryFile = new File(file.getPath() + TEMPORARY_FILE_EXTENSION);
+		try {
+			TermIndexSnapshot.save(temporaryFile, getSnapshotKey(dictionary, access), size,
+					files, languages, indexFileNames, checksums);
+			if (!temporaryFile.renameTo(file)) {
+				throw new IOException("Cannot rename " + temporaryFile);
+			}
+		} catch (IOException e) {
+			Log.d(DictionaryForMIDs.LOG_TAG, "Term index snapshot could not be saved", e);
+			temporaryFile.delete();
+			return;
+		}
+		deleteOtherVersions(file, SNAPSHOT_FILE_EXTENSION);
+	}
+
+	/**
+	 * Deletes the saved files of previous versions of a snapshot or trigram
+	 * index, i.e. the files with the same name before the last '-' and the
+	 * same extension.
+	 *
+	 * @param file
+	 *            the file of the current version
+	 * @param extension
+	 *            the extension of the files
+	 */
+	private static void deleteOtherVersions(final File file, final String extension) {
+		final String prefix = getVersionPrefix(file.getName());
+		final File[] savedFiles = file.getParentFile().listFiles();
+		if (prefix == null || savedFiles == null) {
+			return;
+		}
+		for (File savedFile : savedFiles) {
+			final String name = savedFile.getName();
+			if (name.endsWith(extension) && prefix.equals(getVersionPrefix(name))
+					&& !savedFile.equals(file)) {
+				savedFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the part of a file name identifying the dictionary and
+	 * language, i.e. the part before the version.
+	 *
+	 * @param name
+	 *            the name of a snapshot or trigram index
+	 * @return the name without the version or null if it includes no version
+	 */
+	private static String getVersionPrefix(final String name) {
+		final int separator = name.lastIndexOf('-');
+		return separator < 0 ? null : name.substring(0, separator);
+	}
+
+	/**
+	 * Returns the file the snapshot of the dictionary's term indexes is saved
+	 * in.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param access
+	 *            the access the dictionary has been loaded with
+	 * @return the file or null if snapshots cannot be saved
+	 */
+	private static File getSnapshotFile(final DictionaryDataFile dictionary,
+			final MemoryIndexDfMInputStreamAccess access) {
+		final File directory = storageDirectory;
+		if (directory == null || access.getSourceKey() == null) {
+			return null;
+		}
+		final CRC32 keyChecksum = new CRC32();
+		keyChecksum.update(getSnapshotKey(dictionary, access).getBytes());
+		return new File(directory, getFileNamePrefix(dictionary.dictionaryAbbreviation) + "-"
+				+ Long.toHexString(keyChecksum.getValue()) + SNAPSHOT_FILE_EXTENSION);
+	}
+
+	/**
+	 * Returns the key a snapshot of the dictionary's term indexes has to
+	 * match.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param access
+	 *            the access the dictionary has been loaded with
+	 * @return the key of the dictionary's source files and abbreviation
+	 */
+	private static String getSnapshotKey(final DictionaryDataFile dictionary,
+			final MemoryIndexDfMInputStreamAccess access) {
+		return access.getSourceKey() + "\n" + dictionary.dictionaryAbbreviation;
+	}
+
+	/**
+	 * Reads the saved trigram index of a language or builds and saves it, and
+	 * adds it to the dictionary's indexes if it fits into the budget.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param index
+	 *            the installed indexes of the dictionary
+	 * @param languageIndex
+	 *            the index of the language
+	 * @param checksum
+	 *            the checksum of the language's index files
+	 * @param budget
+	 *            the memory available for all indexes in bytes
+	 */
+	private static void buildTrigramIndex(final DictionaryDataFile dictionary,
+			final DictionaryIndex index, final int languageIndex, final long checksum,
+			final long budget) {
+		final long start = System.currentTimeMillis();
+		final TermIndex terms = index.languages[languageIndex];
+		final TrigramIndex.BuildControl control = new TrigramIndex.BuildControl() {
+			@Override
+			public boolean isCancelled() {
+				synchronized (INDEXES) {
+					return INDEXES.get(dictionary) != index;
+				}
+			}
+		};
+		final File directory = storageDirectory;
+		final File file = directory == null ? null : new File(directory,
+				getTrigramFileName(dictionary, languageIndex, checksum));
+		TrigramIndex trigrams = null;
+		if (file != null && file.exists()) {
+			try {
+				trigrams = TrigramIndex.load(file, terms, checksum);
+			} catch (IOException e) {
+				Log.d(DictionaryForMIDs.LOG_TAG, "Trigram index could not be read", e);
+			}
+		}
+		final boolean isLoaded = trigrams != null;
+		if (!isLoaded) {
+			trigrams = TrigramIndex.build(terms, control);
+			if (trigrams == null) {
+				return;
+			}
+		}
+		synchronized (INDEXES) {
+			if (INDEXES.get(dictionary) != index || trigrams.getSize() > budget - usedBytes) {
+				return;
+			}
+			usedBytes += trigrams.getSize();
+			index.size += trigrams.getSize();
+			index.trigrams[languageIndex] = trigrams;
+		}
+		Log.d(DictionaryForMIDs.LOG_TAG, "Trigram index of " + dictionary.dictionaryAbbreviation
+				+ " " + (isLoaded ? "read" : "built") + " in "
+				+ (System.currentTimeMillis() - start) + " ms: " + trigrams.getSize() + " bytes");
+		if (!isLoaded && file != null) {
+			saveTrigramIndex(trigrams, file, checksum);
+		}
+	}
+
+	/**
+	 * Saves a trigram index, replacing the file only once it has been written
+	 * completely. The indexes of previous versions of the language's index
+	 * files are deleted.
+	 *
+	 * @param trigrams
+	 *            the index to save
+	 * @param file
+	 *            the file to save the index in
+	 * @param checksum
+	 *            the checksum of the language's index files
+	 */
+	private static void saveTrigramIndex(final TrigramIndex trigrams, final File file,
+			final long checksum) {
+		final File temporaryFile = new File(file.getPath() + TEMPORARY_FILE_EXTENSION);
+		try {
+			trigrams.save(temporaryFile, checksum);
+			if (!temporaryFile.renameTo(file)) {
+				throw new IOException("Cannot rename " + temporaryFile);
+			}
+		} catch (IOException e) {
+			Log.d(DictionaryForMIDs.LOG_TAG, "Trigram index could not be saved", e);
+			temporaryFile.delete();
+			return;
+		}
+		deleteOtherVersions(file, TRIGRAM_FILE_EXTENSION);
+	}
+
+	/**
+	 * Returns the name of the file a trigram index is saved in.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param languageIndex
+	 *            the index of the language
+	 * @param checksum
+	 *            the checksum of the language's index files
+	 * @return the file name
+	 */
+	private static String getTrigramFileName(final DictionaryDataFile dictionary,
+			final int languageIndex, final long checksum) {
+		return getFileNamePrefix(dictionary.dictionaryAbbreviation
+				+ dictionary.supportedLanguages[languageIndex].languageFilePostfix) + "-"
+				+ Long.toHexString(checksum) + TRIGRAM_FILE_EXTENSION;
+	}
+
+	/**
+	 * Returns a name that can be used in file names.
+	 *
+	 * @param name
+	 *            the name of a dictionary or language
+	 * @return the name with all unsafe characters replaced
+	 */
+	private static String getFileNamePrefix(final String name) {
+		return name.replaceAll("[^A-Za-z0-9_-]", "_");
+	}
+
+	/**
+	 * Returns the part of the budget not used by other indexes.
+	 *
+	 * @param budget
+	 *            the memory available for all indexes in bytes
+	 * @return the available bytes
+	 */
+	private static long getAvailableBytes(final long budget) {
+		synchronized (INDEXES) {
+			return budget - usedBytes;
+		}
+	}
+
+	/**
+	 * Reads the complete content of a file.
+	 *
+	 * @param source
+	 *            the access to read from
+	 * @param fileName
+	 *            the name of the file
+	 * @return the content of the file
+	 * @throws DictionaryException
+	 *             if the file cannot be opened
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	private static byte[] readFile(final DfMInputStreamAccess source, final String fileName)
+			throws DictionaryException, IOException {
+		final InputStream input = source.getInputStream(fileName);
+		if (input == null) {
+			throw new DictionaryException("File not found: " + fileName);
+		}
+		try {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int count;
+			while ((count = input.read(buffer)) >= 0) {
+				output.write(buffer, 0, count);
+			}
+			return output.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import android.util.Log;
+
+import java.io.File;
+
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.DelegatingDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.DfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.ManifestDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.MemoryIndexDfMInputStreamAccess;
+import de.kugihan.dictionaryformids.hmi_android.DictionaryForMIDs;
+
+/**
+ * TranscodingDfMInputStreamAccess reads an archived dictionary until it has
+ * been unpacked by the {@link ArchiveDictionaryCache}. Afterwards, all
+ * requests are transparently answered from the unpacked folder.
+ *
+ */
+public class TranscodingDfMInputStreamAccess extends DelegatingDfMInputStreamAccess {
+
+	/**
+	 * The cache that unpacks the archive.
+	 */
+	private final ArchiveDictionaryCache cache;
+
+	/**
+	 * The path of the archive.
+	 */
+	private final String archivePath;
+
+	/**
+	 * True if unpacking has been requested.
+	 */
+	private boolean isTranscodingStarted = false;
+
+	/**
+	 * True if the access has been closed.
+	 */
+	private boolean isClosed = false;
+
+	/**
+	 * Creates a new instance that reads the archive using the given access
+	 * until the archive has been unpacked.
+	 *
+	 * @param archiveCache
+	 *            the cache that unpacks the archive
+	 * @param path
+	 *            the path of the archive
+	 * @param archiveAccess
+	 *            the access to the archive
+	 */
+	public TranscodingDfMInputStreamAccess(final ArchiveDictionaryCache archiveCache,
+			final String path, final DfMInputStreamAccess archiveAccess) {
+		super(archiveAccess);
+		cache = archiveCache;
+		archivePath = path;
+	}
+
+	/**
+	 * Replaces the access to the archive, e.g. by an access to a jar file
+	 * inside the archive.
+	 *
+	 * @param archiveAccess
+	 *            the new access to the archive
+	 */
+	public final void switchTo(final DfMInputStreamAccess archiveAccess) {
+		setDelegate(archiveAccess);
+	}
+
+	/**
+	 * Starts unpacking the archive in the background. Must be called after
+	 * the dictionary has been loaded, so the location of the dictionary in the
+	 * archive is known.
+	 */
+	public final synchronized void startTranscoding() {
+		if (isTranscodingStarted) {
+			return;
+		}
+		final DfMInputStreamAccess source = unwrap(getDelegate());
+		if (!(source instanceof ManifestDfMInputStreamAccess)) {
+			return;
+		}
+		isTranscodingStarted = true;
+		cache.transcodeInBackground(archivePath, (ManifestDfMInputStreamAccess) source,
+				new ArchiveDictionaryCache.OnTranscodedListener() {
+					@Override
+					public void onTranscoded(final File directory) {
+						final DfMInputStreamAccess directoryAccess = new CachedDirectoryDfMInputStreamAccess(
+								cache, directory, DfMInputStreamAccessFactory
+										.createInputStreamAccess(cache.getContext(),
+												DictionaryType.DIRECTORY, directory.getPath()));
+						synchronized (TranscodingDfMInputStreamAccess.this) {
+							if (isClosed) {
+								// the dictionary has been unloaded meanwhile
+								DelegatingDfMInputStreamAccess.close(directoryAccess);
+								return;
+							}
+							switchToDirectory(directoryAccess);
+						}
+						Log.d(DictionaryForMIDs.LOG_TAG, "Switched " + archivePath
+								+ " to " + directory);
+					}
+				});
+	}
+
+	/**
+	 * Replaces the access to the archive by the access to the unpacked
+	 * dictionary.
+	 *
+	 * @param directoryAccess
+	 *            the access to the unpacked dictionary
+	 */
+	private void switchToDirectory(final DfMInputStreamAccess directoryAccess) {
+		final MemoryIndexDfMInputStreamAccess previousIndex = MemoryIndexDfMInputStreamAccess
+				.find(getDelegate());
+		final MemoryIndexDfMInputStreamAccess directoryIndex = MemoryIndexDfMInputStreamAccess
+				.find(directoryAccess);
+		if (previousIndex != null && directoryIndex != null) {
+			// the term index stays installed for the unpacked files
+			previousIndex.handOver(directoryIndex);
+		}
+		final DfMInputStreamAccess archiveAccess = getDelegate();
+		setDelegate(directoryAccess);
+		// streams still reading the archive reopen it if needed
+		DelegatingDfMInputStreamAccess.close(archiveAccess);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void close() {
+		isClosed = true;
+		super.close();
+	}
+
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import android.os.SystemClock;
+
+/**
+ * TranslationBatchPolicy limits a whole translation batch to one deadline and
+ * one number of results instead of applying both limits to every entry.
+ * <p>
+ * Entries reserve their share of the results when they start, in the order
+ * of the batch. An entry may use everything that is not reserved by running
+ * entries, except a minimum share kept for each entry that has not started
+ * yet. Results an entry did not use are returned when it finishes, so later
+ * entries can use them.
+ *
+ */
+public class TranslationBatchPolicy {
+
+	/**
+	 * The time the batch has to be finished at.
+	 */
+	private final long deadline;
+
+	/**
+	 * The minimum number of results kept for each entry that has not started
+	 * yet.
+	 */
+	private final int minimumShare;
+
+	/**
+	 * The number of results that are neither used nor reserved.
+	 */
+	private int unreservedResults;
+
+	/**
+	 * The number of entries that have not started yet.
+	 */
+	private int waitingEntries;
+
+	/**
+	 * Creates the policy for a batch that starts now.
+	 *
+	 * @param entries
+	 *            the number of entries of the batch
+	 * @param maxResults
+	 *            the maximum number of results of the whole batch
+	 * @param timeout
+	 *            the maximum duration of the whole batch in milliseconds
+	 */
+	public TranslationBatchPolicy(final int entries, final int maxResults, final long timeout) {
+		deadline = SystemClock.uptimeMillis() + timeout;
+		unreservedResults = maxResults;
+		waitingEntries = entries;
+		minimumShare = Math.max(1, maxResults / Math.max(1, 2 * entries));
+	}
+
+	/**
+	 * Reserves the share of the next entry.
+	 *
+	 * @return the maximum number of results of the entry or 0 if no results
+	 *         are left
+	 */
+	public synchronized int reserveShare() {
+		waitingEntries--;
+		final int share = Math.min(unreservedResults,
+				Math.max(minimumShare, unreservedResults - minimumShare * waitingEntries));
+		unreservedResults -= share;
+		return Math.max(0, share);
+	}
+
+	/**
+	 * Returns the results an entry reserved but did not use.
+	 *
+	 * @param share
+	 *            the number of reserved results
+	 * @param usedResults
+	 *            the number of found results
+	 */
+	public synchronized void releaseShare(final int share, final int usedResults) {
+		if (usedResults < share) {
+			unreservedResults += share - usedResults;
+		}
+	}
+
+	/**
+	 * Returns the time left until the deadline.
+	 *
+	 * @return the remaining time in milliseconds, may be negative
+	 */
+	public long getRemainingTime() {
+		return deadline - SystemClock.uptimeMillis();
+	}
+
+}
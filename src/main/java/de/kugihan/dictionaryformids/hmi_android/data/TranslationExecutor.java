@@ -1,5 +1,6 @@
 package de.kugihan.dictionaryformids.hmi_android.data;
 
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.CancellationToken;
 import de.kugihan.dictionaryformids.general.DictionaryException;
 import de.kugihan.dictionaryformids.translation.TranslationExecutionCallback;
 import de.kugihan.dictionaryformids.translation.TranslationParameters;
@@ -16,6 +17,22 @@ public interface TranslationExecutor {
 	public void executeTranslationBatch(TranslationParametersBatch translationParametersBatchObj)
 			throws DictionaryException;
 
+	/**
+	 * Executes the batch like
+	 * {@link #executeTranslationBatch(TranslationParametersBatch)}. Entries
+	 * stop as soon as possible once the token is cancelled; executors that
+	 * cannot observe the token rely on {@link #cancelLastTranslation()}.
+	 *
+	 * @param translationParametersBatchObj
+	 *            the batch to execute
+	 * @param token
+	 *            the token cancelling the batch
+	 * @throws DictionaryException
+	 *             if the batch cannot be started
+	 */
+	public void executeTranslationBatch(TranslationParametersBatch translationParametersBatchObj,
+			CancellationToken token) throws DictionaryException;
+
 	public void cancelLastTranslation();
 
 }
@@ -0,0 +1,420 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import de.kugihan.dictionaryformids.dataaccess.DictionaryDataFile;
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.hmi_common.content.StringColourItemText;
+import de.kugihan.dictionaryformids.translation.SingleTranslation;
+import de.kugihan.dictionaryformids.translation.SingleTranslationExtension;
+import de.kugihan.dictionaryformids.translation.TranslationParameters;
+import de.kugihan.dictionaryformids.translation.TranslationResult;
+
+/**
+ * TranslationResultCache keeps the results of recent searches in memory
+ * together with their parsed content. Results are evicted in
+ * least-recently-used order as soon as their estimated size exceeds the byte
+ * budget.
+ * <p>
+ * Results are identified by the dictionary, the input and output languages,
+ * the search term and the maximum number of results. The search mode is
+ * part of the key as it is applied to the search term before searching.
+ * Results of searches that have been cancelled, timed out or stopped before
+ * their maximum number of results are not cached, as they depend on the
+ * circumstances of the search.
+ *
+ */
+public class TranslationResultCache {
+
+	/**
+	 * The estimated number of bytes used by a single entry besides its text.
+	 */
+	private static final int ENTRY_OVERHEAD = 64;
+
+	/**
+	 * The estimated number of bytes used by a single text part besides its
+	 * characters.
+	 */
+	private static final int TEXT_PART_OVERHEAD = 48;
+
+	/**
+	 * Identifies the result of a search.
+	 *
+	 */
+	private static final class ResultKey {
+
+		/**
+		 * The dictionary that has been searched.
+		 */
+		private final DictionaryDataFile dictionary;
+
+		/**
+		 * The input languages of the search.
+		 */
+		private final boolean[] inputLanguages;
+
+		/**
+		 * The output languages of the search.
+		 */
+		private final boolean[] outputLanguages;
+
+		/**
+		 * The search term including the modifiers of the search mode.
+		 */
+		private final String searchTerm;
+
+		/**
+		 * The maximum number of results.
+		 */
+		private final int maxResults;
+
+		/**
+		 * Creates the key of the search.
+		 *
+		 * @param parameters
+		 *            the parameters of the search
+		 */
+		ResultKey(final TranslationParameters parameters) {
+			dictionary = parameters.getDictionary();
+			inputLanguages = parameters.getInputLanguages().clone();
+			outputLanguages = parameters.getOutputLanguages().clone();
+			searchTerm = parameters.getToBeTranslatedWordText();
+			maxResults = parameters.getMaxHits();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean equals(final Object object) {
+			if (!(object instanceof ResultKey)) {
+				return false;
+			}
+			final ResultKey key = (ResultKey) object;
+			return dictionary == key.dictionary && maxResults == key.maxResults
+					&& searchTerm.equals(key.searchTerm)
+					&& Arrays.equals(inputLanguages, key.inputLanguages)
+					&& Arrays.equals(outputLanguages, key.outputLanguages);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int hashCode() {
+			int hash = System.identityHashCode(dictionary);
+			hash = hash * 31 + searchTerm.hashCode();
+			hash = hash * 31 + Arrays.hashCode(inputLanguages);
+			hash = hash * 31 + Arrays.hashCode(outputLanguages);
+			hash = hash * 31 + maxResults;
+			return hash;
+		}
+	}
+
+	/**
+	 * A cached result.
+	 *
+	 */
+	private static final class CachedResult {
+
+		/**
+		 * The parsed entries of the result.
+		 */
+		private final Vector<SingleTranslationExtension> translations;
+
+		/**
+		 * True if the search stopped after the maximum number of results.
+		 */
+		private final boolean translationBreakOccurred;
+
+		/**
+		 * The reason the search stopped.
+		 */
+		private final int translationBreakReason;
+
+		/**
+		 * The estimated number of bytes used by the result.
+		 */
+		private final long size;
+
+		/**
+		 * Creates a cached result.
+		 *
+		 * @param translations
+		 *            the parsed entries of the result
+		 * @param result
+		 *            the result of the search
+		 * @param size
+		 *            the estimated number of bytes used by the result
+		 */
+		CachedResult(final Vector<SingleTranslationExtension> translations,
+				final TranslationResult result, final long size) {
+			this.translations = translations;
+			this.translationBreakOccurred = result.translationBreakOccurred;
+			this.translationBreakReason = result.translationBreakReason;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * A result that is served from the cache. It holds copies of the cached
+	 * entries, so the state of an entry can be changed without affecting the
+	 * cache.
+	 *
+	 */
+	private static final class CachedTranslationResult extends TranslationResult {
+
+		/**
+		 * Creates a result for the search from the cached result.
+		 *
+		 * @param parameters
+		 *            the parameters of the search
+		 * @param cachedResult
+		 *            the cached result
+		 */
+		CachedTranslationResult(final TranslationParameters parameters,
+				final CachedResult cachedResult) {
+			for (SingleTranslationExtension translation : cachedResult.translations) {
+				try {
+					translations.add(translation.copy());
+				} catch (DictionaryException e) {
+					// the content has been parsed before caching
+					throw new IllegalStateException(e.toString());
+				}
+			}
+			translationParametersObj = parameters;
+			dictionary = parameters.getDictionary();
+			translationBreakOccurred = cachedResult.translationBreakOccurred;
+			translationBreakReason = cachedResult.translationBreakReason;
+		}
+	}
+
+	/**
+	 * The cached results ordered from least to most recently used.
+	 */
+	private final LinkedHashMap<ResultKey, CachedResult> results = new LinkedHashMap<ResultKey, CachedResult>(
+			16, 0.75f, true);
+
+	/**
+	 * The maximum number of bytes kept in the cache.
+	 */
+	private long byteBudget;
+
+	/**
+	 * The estimated number of bytes currently kept in the cache.
+	 */
+	private long size = 0;
+
+	/**
+	 * The number of searches that were answered from the cache.
+	 */
+	private long hitCount = 0;
+
+	/**
+	 * The number of searches that could not be answered from the cache.
+	 */
+	private long missCount = 0;
+
+	/**
+	 * The number of results removed to stay within the byte budget.
+	 */
+	private long evictionCount = 0;
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param maxBytes
+	 *            the maximum number of bytes kept in the cache
+	 */
+	public TranslationResultCache(final long maxBytes) {
+		byteBudget = maxBytes;
+	}
+
+	/**
+	 * Returns the cached result of the search.
+	 *
+	 * @param parameters
+	 *            the parameters of the search
+	 * @return the result or null if the result is not cached
+	 */
+	public final synchronized TranslationResult get(final TranslationParameters parameters) {
+		final CachedResult cachedResult = results.get(new ResultKey(parameters));
+		if (cachedResult == null) {
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return new CachedTranslationResult(parameters, cachedResult);
+	}
+
+	/**
+	 * Returns if the result of the search is cached. Neither the statistics
+	 * nor the order of eviction are changed.
+	 *
+	 * @param parameters
+	 *            the parameters of the search
+	 * @return true if the result is cached
+	 */
+	public final synchronized boolean contains(final TranslationParameters parameters) {
+		return results.containsKey(new ResultKey(parameters));
+	}
+
+	/**
+	 * Parses the content of the result and adds it to the cache. Results of
+	 * searches that stopped early are ignored.
+	 *
+	 * @param result
+	 *            the result of a search
+	 */
+	public final void put(final TranslationResult result) {
+		if (result instanceof CachedTranslationResult) {
+			return;
+		}
+		final int count = result.numberOfFoundTranslations();
+		if (result.translationBreakOccurred
+				&& (result.translationBreakReason != TranslationResult.BreakReasonCancelMaxNrOfHitsReached
+				|| count < result.translationParametersObj.getMaxHits())) {
+			// stopped early, e.g. by the limits of its batch
+			return;
+		}
+		final Vector<SingleTranslationExtension> translations = new Vector<SingleTranslationExtension>(
+				count);
+		long resultSize = ENTRY_OVERHEAD;
+		try {
+			for (int i = 0; i < count; i++) {
+				final SingleTranslation translation = result.getTranslationAt(i);
+				final SingleTranslationExtension extension;
+				if (translation instanceof SingleTranslationExtension) {
+					// the entry may still be shown and starred by the list
+					extension = ((SingleTranslationExtension) translation).copy();
+				} else {
+					extension = new SingleTranslationExtension(translation, result.dictionary);
+				}
+				resultSize += ENTRY_OVERHEAD + getSize(extension.getFromTextAsColourItemText());
+				for (StringColourItemText text : extension.getToTextsAsColourItemTexts()) {
+					resultSize += getSize(text);
+				}
+				translations.add(extension);
+			}
+		} catch (DictionaryException e) {
+			return;
+		}
+		final CachedResult cachedResult = new CachedResult(translations, result, resultSize);
+		synchronized (this) {
+			if (resultSize > byteBudget) {
+				return;
+			}
+			final CachedResult previous = results.put(
+					new ResultKey(result.translationParametersObj), cachedResult);
+			if (previous != null) {
+				size -= previous.size;
+			}
+			size += resultSize;
+			trimToSize(byteBudget);
+		}
+	}
+
+	/**
+	 * Estimates the number of bytes used by the text.
+	 *
+	 * @param text
+	 *            the parsed text
+	 * @return the estimated number of bytes
+	 */
+	private static long getSize(final StringColourItemText text) {
+		long textSize = 0;
+		for (int i = 0; i < text.size(); i++) {
+			textSize += TEXT_PART_OVERHEAD + 2 * text.getItemTextPart(i).getText().length();
+		}
+		return textSize;
+	}
+
+	/**
+	 * Removes least recently used results until the cache is not bigger than
+	 * the given size.
+	 *
+	 * @param maxBytes
+	 *            the maximum number of bytes to keep
+	 */
+	public final synchronized void trimToSize(final long maxBytes) {
+		final Iterator<Map.Entry<ResultKey, CachedResult>> iterator = results.entrySet()
+				.iterator();
+		while (size > maxBytes && iterator.hasNext()) {
+			final Map.Entry<ResultKey, CachedResult> eldest = iterator.next();
+			size -= eldest.getValue().size;
+			iterator.remove();
+			evictionCount++;
+		}
+	}
+
+	/**
+	 * Removes all results from the cache.
+	 */
+	public final synchronized void clear() {
+		trimToSize(0);
+	}
+
+	/**
+	 * Removes all results of the dictionary from the cache.
+	 *
+	 * @param dictionary
+	 *            the dictionary whose results to remove
+	 */
+	public final synchronized void remove(final DictionaryDataFile dictionary) {
+		final Iterator<Map.Entry<ResultKey, CachedResult>> iterator = results.entrySet()
+				.iterator();
+		while (iterator.hasNext()) {
+			final Map.Entry<ResultKey, CachedResult> entry = iterator.next();
+			if (entry.getKey().dictionary == dictionary) {
+				size -= entry.getValue().size;
+				iterator.remove();
+			}
+		}
+	}
+
+	public final synchronized long getByteBudget() {
+		return byteBudget;
+	}
+
+	public final synchronized long getSize() {
+		return size;
+	}
+
+	public final synchronized int getResultCount() {
+		return results.size();
+	}
+
+	public final synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public final synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public final synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final synchronized String toString() {
+		return "TranslationResultCache[size=" + size + ", budget=" + byteBudget + ", results="
+				+ results.size() + ", hits=" + hitCount + ", misses=" + missCount
+				+ ", evictions=" + evictionCount + "]";
+	}
+
+}
@@ -0,0 +1,581 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.IdentityHashMap;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import de.kugihan.dictionaryformids.dataaccess.DictionaryDataFile;
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.general.Util;
+import de.kugihan.dictionaryformids.hmi_android.DictionaryForMIDs;
+import de.kugihan.dictionaryformids.hmi_android.Preferences;
+import de.kugihan.dictionaryformids.translation.SingleTranslation;
+import de.kugihan.dictionaryformids.translation.SingleTranslationExtension;
+import de.kugihan.dictionaryformids.translation.TranslationExecution;
+import de.kugihan.dictionaryformids.translation.TranslationParameters;
+import de.kugihan.dictionaryformids.translation.TranslationResult;
+
+/**
+ * TranslationTextIndex keeps the translations of the loaded dictionaries in a
+ * full-text table of a private database, so entries can be found by words of
+ * their translations, see {@link TranslationTextSearch}.
+ * <p>
+ * The entries are read by searching every term of the in-memory
+ * {@link TermIndex} of a language. Terms are indexed in batches, each in a
+ * transaction that also stores the position of the next term, so indexing
+ * resumes where it stopped when the dictionary is loaded again. Indexing runs
+ * on a single thread of the lowest priority and stops when the dictionary is
+ * unloaded or the feature is disabled.
+ *
+ */
+public final class TranslationTextIndex {
+
+	/**
+	 * Name of the database.
+	 */
+	private static final String DATABASE_NAME = "translation_texts";
+
+	/**
+	 * Version of the database layout.
+	 */
+	private static final int DATABASE_VERSION = 1;
+
+	/**
+	 * Name of the table holding the indexing progress of each language.
+	 */
+	private static final String SOURCES_TABLE = "sources";
+
+	/**
+	 * Name of the table holding the indexed entries.
+	 */
+	private static final String ENTRIES_TABLE = "entries";
+
+	/**
+	 * Name of the full-text table holding the translations of the entries.
+	 */
+	private static final String TEXTS_TABLE = "texts";
+
+	/**
+	 * Query to create the table of the indexing progress.
+	 */
+	private static final String SOURCES_CREATE_QUERY = "CREATE TABLE " + SOURCES_TABLE
+			+ " (source TEXT PRIMARY KEY, dictionary TEXT NOT NULL, language TEXT NOT NULL, "
+			+ "nextTerm INTEGER NOT NULL, complete INTEGER NOT NULL);";
+
+	/**
+	 * Query to create the table of the indexed entries.
+	 */
+	private static final String ENTRIES_CREATE_QUERY = "CREATE TABLE " + ENTRIES_TABLE
+			+ " (_id INTEGER PRIMARY KEY AUTOINCREMENT, source TEXT NOT NULL, "
+			+ "location TEXT NOT NULL, term TEXT NOT NULL, UNIQUE (source, location));";
+
+	/**
+	 * The number of terms indexed in one transaction.
+	 */
+	private static final int BATCH_SIZE = 100;
+
+	/**
+	 * The maximum number of entries read for a term.
+	 */
+	private static final int MAX_ENTRIES_PER_TERM = 1000;
+
+	/**
+	 * The maximum duration of reading the entries of a term in milliseconds.
+	 */
+	private static final int TERM_TIMEOUT = 10000;
+
+	/**
+	 * The separator of the translations of an entry.
+	 */
+	static final String TEXT_SEPARATOR = "\n";
+
+	/**
+	 * The single instance of the index.
+	 */
+	private static TranslationTextIndex instance = null;
+
+	/**
+	 * A row of the index matching a search.
+	 */
+	static final class Match {
+
+		/**
+		 * The term the entry has been indexed with.
+		 */
+		final String term;
+
+		/**
+		 * The location of the entry in the dictionary.
+		 */
+		final String location;
+
+		/**
+		 * The indexed translations of the entry.
+		 */
+		final String toTexts;
+
+		/**
+		 * Creates a matching row.
+		 *
+		 * @param term
+		 *            the term the entry has been indexed with
+		 * @param location
+		 *            the location of the entry
+		 * @param toTexts
+		 *            the indexed translations
+		 */
+		Match(final String term, final String location, final String toTexts) {
+			this.term = term;
+			this.location = location;
+			this.toTexts = toTexts;
+		}
+	}
+
+	/**
+	 * Helper to manage database updates.
+	 *
+	 */
+	private static class DatabaseHelper extends SQLiteOpenHelper {
+		DatabaseHelper(Context context) {
+			super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void onCreate(SQLiteDatabase db) {
+			db.execSQL(SOURCES_CREATE_QUERY);
+			db.execSQL(ENTRIES_CREATE_QUERY);
+			try {
+				db.execSQL("CREATE VIRTUAL TABLE " + TEXTS_TABLE + " USING fts4(toTexts);");
+			} catch (SQLException e) {
+				// SQLite of older platforms only supports FTS3
+				db.execSQL("CREATE VIRTUAL TABLE " + TEXTS_TABLE + " USING fts3(toTexts);");
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+			// the index is rebuilt from the dictionaries
+			db.execSQL("DROP TABLE IF EXISTS " + TEXTS_TABLE);
+			db.execSQL("DROP TABLE IF EXISTS " + ENTRIES_TABLE);
+			db.execSQL("DROP TABLE IF EXISTS " + SOURCES_TABLE);
+			onCreate(db);
+		}
+	}
+
+	/**
+	 * Handle to the database helper.
+	 */
+	private final DatabaseHelper databaseHelper;
+
+	/**
+	 * The dictionaries waiting for or being indexed.
+	 */
+	private final IdentityHashMap<DictionaryDataFile, Boolean> pending = new IdentityHashMap<DictionaryDataFile, Boolean>();
+
+	/**
+	 * The background thread indexing the dictionaries.
+	 */
+	private final ExecutorService executor = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+							runnable.run();
+						}
+					}, "TranslationTextIndex");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Creates the index in the application's private database.
+	 *
+	 * @param applicationContext
+	 *            the application's context
+	 */
+	private TranslationTextIndex(final Context applicationContext) {
+		databaseHelper = new DatabaseHelper(applicationContext);
+	}
+
+	/**
+	 * Returns the single instance of the index.
+	 *
+	 * @param context
+	 *            any context of the application
+	 * @return the index
+	 */
+	public static synchronized TranslationTextIndex getInstance(final Context context) {
+		if (instance == null) {
+			instance = new TranslationTextIndex(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * Returns the single instance of the index if it has been created.
+	 *
+	 * @return the index or null
+	 */
+	static synchronized TranslationTextIndex getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Indexes the translations of the dictionary on a background thread if
+	 * enabled. The in-memory term index of the dictionary has to be
+	 * available.
+	 *
+	 * @param dictionary
+	 *            the loaded dictionary
+	 */
+	public static void indexInBackground(final DictionaryDataFile dictionary) {
+		final TranslationTextIndex index = getInstance();
+		if (index == null || !Preferences.getSearchTranslations()) {
+			return;
+		}
+		index.schedule(dictionary);
+	}
+
+	/**
+	 * Indexes the translations of all dictionaries with an in-memory term
+	 * index on a background thread if enabled.
+	 */
+	public static void indexLoadedDictionaries() {
+		for (DictionaryDataFile dictionary : TermIndexes.getDictionaries()) {
+			indexInBackground(dictionary);
+		}
+	}
+
+	/**
+	 * Returns the key identifying the terms of a language of a dictionary.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param languageIndex
+	 *            the index of the language
+	 * @param checksum
+	 *            the checksum of the language's index files
+	 * @return the key
+	 */
+	static String getSource(final DictionaryDataFile dictionary, final int languageIndex,
+			final long checksum) {
+		return dictionary.dictionaryAbbreviation + "/"
+				+ dictionary.supportedLanguages[languageIndex].languageFilePostfix + "/"
+				+ Long.toHexString(checksum);
+	}
+
+	/**
+	 * Finds the indexed entries whose translations match the full-text query.
+	 *
+	 * @param source
+	 *            the key of the terms
+	 * @param query
+	 *            the full-text query
+	 * @param limit
+	 *            the maximum number of entries
+	 * @return the matching entries
+	 */
+	Vector<Match> find(final String source, final String query, final int limit) {
+		final Vector<Match> matches = new Vector<Match>();
+		final SQLiteDatabase db = databaseHelper.getReadableDatabase();
+		final Cursor cursor = db.rawQuery("SELECT e.term, e.location, t.toTexts FROM "
+				+ TEXTS_TABLE + " t JOIN " + ENTRIES_TABLE
+				+ " e ON e._id = t.docid WHERE t.toTexts MATCH ? AND e.source = ? LIMIT "
+				+ limit, new String[] { query, source });
+		try {
+			while (cursor.moveToNext()) {
+				matches.add(new Match(cursor.getString(0), cursor.getString(1), cursor
+						.getString(2)));
+			}
+		} finally {
+			cursor.close();
+		}
+		return matches;
+	}
+
+	/**
+	 * Returns the location of an entry in its dictionary, identifying the
+	 * entry.
+	 *
+	 * @param translation
+	 *            the entry
+	 * @return the location
+	 */
+	static String getLocation(final SingleTranslation translation) {
+		return translation.directoryFileLocation.postfixDictionaryFile + ":"
+				+ translation.directoryFileLocation.directoryFileNumber + ":"
+				+ translation.directoryFileLocation.positionInDirectoryFile;
+	}
+
+	/**
+	 * Schedules indexing the dictionary unless it is already scheduled.
+	 *
+	 * @param dictionary
+	 *            the loaded dictionary
+	 */
+	private void schedule(final DictionaryDataFile dictionary) {
+		synchronized (pending) {
+			if (pending.containsKey(dictionary)) {
+				return;
+			}
+			pending.put(dictionary, Boolean.TRUE);
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < dictionary.supportedLanguages.length; i++) {
+						final TermIndex terms = TermIndexes.get(dictionary, i);
+						if (terms != null) {
+							index(dictionary, i, terms);
+						}
+					}
+				} catch (SQLException e) {
+					Log.d(DictionaryForMIDs.LOG_TAG, "Translations could not be indexed", e);
+				} finally {
+					synchronized (pending) {
+						pending.remove(dictionary);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Indexes the entries of the terms of a language, starting at the first
+	 * term that has not been indexed yet.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param languageIndex
+	 *            the index of the language
+	 * @param terms
+	 *            the terms of the language
+	 */
+	private void index(final DictionaryDataFile dictionary, final int languageIndex,
+			final TermIndex terms) {
+		final long checksum = TermIndexes.getChecksum(dictionary, languageIndex);
+		if (checksum < 0) {
+			return;
+		}
+		final long start = System.currentTimeMillis();
+		final String source = getSource(dictionary, languageIndex, checksum);
+		final SQLiteDatabase db = databaseHelper.getWritableDatabase();
+		removeOutdatedSources(db, dictionary, languageIndex, source);
+		int nextTerm = getNextTerm(db, dictionary, languageIndex, source);
+		if (nextTerm < 0) {
+			// completely indexed
+			return;
+		}
+		final int firstTerm = nextTerm;
+		final boolean[] inputLanguages = new boolean[dictionary.supportedLanguages.length];
+		final boolean[] outputLanguages = new boolean[inputLanguages.length];
+		for (int i = 0; i < inputLanguages.length; i++) {
+			inputLanguages[i] = i == languageIndex;
+			outputLanguages[i] = i != languageIndex;
+		}
+		final SQLiteStatement countEntry = db.compileStatement("SELECT COUNT(*) FROM "
+				+ ENTRIES_TABLE + " WHERE source = ? AND location = ?");
+		final SQLiteStatement insertEntry = db.compileStatement("INSERT INTO " + ENTRIES_TABLE
+				+ " (source, location, term) VALUES (?, ?, ?)");
+		final SQLiteStatement insertText = db.compileStatement("INSERT INTO " + TEXTS_TABLE
+				+ " (docid, toTexts) VALUES (?, ?)");
+		final SQLiteStatement updateProgress = db.compileStatement("UPDATE " + SOURCES_TABLE
+				+ " SET nextTerm = ?, complete = ? WHERE source = ?");
+		try {
+			while (nextTerm < terms.size()) {
+				if (TermIndexes.get(dictionary, languageIndex) != terms
+						|| !Preferences.getSearchTranslations()) {
+					// unloaded or disabled, continue when loaded again
+					return;
+				}
+				final int end = Math.min(nextTerm + BATCH_SIZE, terms.size());
+				db.beginTransaction();
+				try {
+					for (int term = nextTerm; term < end; term++) {
+						indexTerm(dictionary, source, terms.getTerm(term), inputLanguages,
+								outputLanguages, countEntry, insertEntry, insertText);
+					}
+					updateProgress.bindLong(1, end);
+					updateProgress.bindLong(2, end == terms.size() ? 1 : 0);
+					updateProgress.bindString(3, source);
+					updateProgress.execute();
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+				}
+				nextTerm = end;
+			}
+		} finally {
+			countEntry.close();
+			insertEntry.close();
+			insertText.close();
+			updateProgress.close();
+		}
+		Log.d(DictionaryForMIDs.LOG_TAG, "Translations of " + source + " indexed: "
+				+ (terms.size() - firstTerm) + " terms in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Adds the entries of a term that are not indexed yet.
+	 *
+	 * @param dictionary
+	 *            the dictionary
+	 * @param source
+	 *            the key of the terms
+	 * @param term
+	 *            the term
+	 * @param inputLanguages
+	 *            the language of the term
+	 * @param outputLanguages
+	 *            all other languages
+	 * @param countEntry
+	 *            the statement counting the rows of an entry
+	 * @param insertEntry
+	 *            the statement adding an entry
+	 * @param insertText
+	 *            the statement adding the translations of an entry
+	 */
+	private static void indexTerm(final DictionaryDataFile dictionary, final String source,
+			final String term, final boolean[] inputLanguages, final boolean[] outputLanguages,
+			final SQLiteStatement countEntry, final SQLiteStatement insertEntry,
+			final SQLiteStatement insertText) {
+		if (!SubstringSearch.isPlainTerm(term)) {
+			return;
+		}
+		final TranslationParameters parameters = new TranslationParameters(dictionary,
+				Util.noSearchSubExpressionCharacter + term + Util.noSearchSubExpressionCharacter,
+				inputLanguages, outputLanguages, true, MAX_ENTRIES_PER_TERM, TERM_TIMEOUT);
+		try {
+			final TranslationResult result = TranslationExecution.getTranslationResult(parameters);
+			for (int i = 0; i < result.numberOfFoundTranslations(); i++) {
+				final SingleTranslation translation = result.getTranslationAt(i);
+				final String location = getLocation(translation);
+				countEntry.bindString(1, source);
+				countEntry.bindString(2, location);
+				if (countEntry.simpleQueryForLong() > 0) {
+					// already indexed with another term
+					continue;
+				}
+				final String toTexts = new SingleTranslationExtension(translation, dictionary)
+						.getToTextsAsString(TEXT_SEPARATOR);
+				if (toTexts.length() == 0) {
+					continue;
+				}
+				insertEntry.bindString(1, source);
+				insertEntry.bindString(2, location);
+				insertEntry.bindString(3, term);
+				final long id = insertEntry.executeInsert();
+				insertText.bindLong(1, id);
+				insertText.bindString(2, toTexts);
+				insertText.executeInsert();
+			}
+		} catch (DictionaryException e) {
+			Log.d(DictionaryForMIDs.LOG_TAG, "Entries of " + term + " could not be indexed", e);
+		}
+	}
+
+	/**
+	 * Returns the position of the next term to index and registers the
+	 * terms if they have not been indexed before.
+	 *
+	 * @param db
+	 *            the database
+	 * @param dictionary
+	 *            the dictionary
+	 * @param languageIndex
+	 *            the index of the language
+	 * @param source
+	 *            the key of the terms
+	 * @return the position of the next term or -1 if all terms are indexed
+	 */
+	private static int getNextTerm(final SQLiteDatabase db, final DictionaryDataFile dictionary,
+			final int languageIndex, final String source) {
+		final Cursor cursor = db.rawQuery("SELECT nextTerm, complete FROM " + SOURCES_TABLE
+				+ " WHERE source = ?", new String[] { source });
+		try {
+			if (cursor.moveToFirst()) {
+				return cursor.getInt(1) != 0 ? -1 : cursor.getInt(0);
+			}
+		} finally {
+			cursor.close();
+		}
+		db.execSQL("INSERT INTO " + SOURCES_TABLE
+				+ " (source, dictionary, language, nextTerm, complete) VALUES (?, ?, ?, 0, 0)",
+				new Object[] { source, dictionary.dictionaryAbbreviation,
+						dictionary.supportedLanguages[languageIndex].languageFilePostfix });
+		return 0;
+	}
+
+	/**
+	 * Removes the entries indexed from other versions of the dictionary's
+	 * terms.
+	 *
+	 * @param db
+	 *            the database
+	 * @param dictionary
+	 *            the dictionary
+	 * @param languageIndex
+	 *            the index of the language
+	 * @param source
+	 *            the key of the current terms
+	 */
+	private static void removeOutdatedSources(final SQLiteDatabase db,
+			final DictionaryDataFile dictionary, final int languageIndex, final String source) {
+		final Vector<String> outdated = new Vector<String>();
+		final Cursor cursor = db.rawQuery("SELECT source FROM " + SOURCES_TABLE
+				+ " WHERE dictionary = ? AND language = ? AND source != ?", new String[] {
+				dictionary.dictionaryAbbreviation,
+				dictionary.supportedLanguages[languageIndex].languageFilePostfix, source });
+		try {
+			while (cursor.moveToNext()) {
+				outdated.add(cursor.getString(0));
+			}
+		} finally {
+			cursor.close();
+		}
+		for (String outdatedSource : outdated) {
+			final String[] arguments = new String[] { outdatedSource };
+			db.beginTransaction();
+			try {
+				db.execSQL("DELETE FROM " + TEXTS_TABLE + " WHERE docid IN (SELECT _id FROM "
+						+ ENTRIES_TABLE + " WHERE source = ?)", arguments);
+				db.execSQL("DELETE FROM " + ENTRIES_TABLE + " WHERE source = ?", arguments);
+				db.execSQL("DELETE FROM " + SOURCES_TABLE + " WHERE source = ?", arguments);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Vector;
+
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.CancellationToken;
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.general.Util;
+import de.kugihan.dictionaryformids.hmi_android.Preferences;
+import de.kugihan.dictionaryformids.translation.SingleTranslation;
+import de.kugihan.dictionaryformids.translation.SingleTranslationExtension;
+import de.kugihan.dictionaryformids.translation.TranslationExecution;
+import de.kugihan.dictionaryformids.translation.TranslationParameters;
+import de.kugihan.dictionaryformids.translation.TranslationResult;
+
+/**
+ * TranslationTextSearch answers searches from the {@link TranslationTextIndex}
+ * if searching in translations is enabled: it finds the entries whose
+ * translations include the words of the search, instead of the entries of
+ * the search term.
+ * <p>
+ * Matching entries are ranked by how closely one of their translations
+ * matches the words and are then read from the dictionary by searching their
+ * terms, so they are displayed like the entries of normal searches.
+ *
+ */
+public final class TranslationTextSearch {
+
+	/**
+	 * The number of candidates read from the index per requested result.
+	 */
+	private static final int CANDIDATES_PER_RESULT = 4;
+
+	/**
+	 * The maximum number of entries read for a term.
+	 */
+	private static final int MAX_ENTRIES_PER_TERM = 1000;
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private TranslationTextSearch() {
+	}
+
+	/**
+	 * Translates the parameters from the translation text index if enabled.
+	 *
+	 * @param parameters
+	 *            the parameters of the search
+	 * @param timeout
+	 *            the maximum duration of the search in milliseconds
+	 * @return the result or null if the search has to be executed normally,
+	 *         e.g. because the dictionary has not been indexed
+	 * @throws DictionaryException
+	 *             if the translation of a term fails
+	 */
+	public static TranslationResult translate(final TranslationParameters parameters,
+			final long timeout) throws DictionaryException {
+		final TranslationTextIndex index = TranslationTextIndex.getInstance();
+		if (index == null || !Preferences.getSearchTranslations()) {
+			return null;
+		}
+		final String searchWord = parameters.getToBeTranslatedWordText();
+		final Vector<String> words = getWords(searchWord);
+		final int languageIndex = SubstringSearch.getInputLanguage(parameters);
+		if (words.isEmpty() || languageIndex < 0) {
+			return null;
+		}
+		final long checksum = TermIndexes.getChecksum(parameters.getDictionary(), languageIndex);
+		if (checksum < 0) {
+			return null;
+		}
+		final long deadline = System.currentTimeMillis() + timeout;
+		final boolean isPrefix = searchWord.length() > 0
+				&& searchWord.charAt(searchWord.length() - 1) == Util.wildcardAnySeriesOfCharacter;
+		final Vector<TranslationTextIndex.Match> matches = index.find(TranslationTextIndex
+				.getSource(parameters.getDictionary(), languageIndex, checksum), getQuery(words,
+				isPrefix), parameters.getMaxHits() * CANDIDATES_PER_RESULT);
+		rank(matches, words);
+
+		final TranslationResult result = new TranslationResult();
+		result.translationParametersObj = parameters;
+		result.dictionary = parameters.getDictionary();
+		final HashMap<String, TranslationResult> termResults = new HashMap<String, TranslationResult>();
+		for (TranslationTextIndex.Match match : matches) {
+			if (CancellationToken.isCurrentCancelled()) {
+				setBreak(result, TranslationResult.BreakReasonCancelReceived);
+				break;
+			}
+			if (result.translations.size() >= parameters.getMaxHits()) {
+				setBreak(result, TranslationResult.BreakReasonCancelMaxNrOfHitsReached);
+				break;
+			}
+			final long remainingTime = deadline - System.currentTimeMillis();
+			if (remainingTime <= 0) {
+				setBreak(result, TranslationResult.BreakReasonMaxExecutionTimeReached);
+				break;
+			}
+			TranslationResult termResult = termResults.get(match.term);
+			if (termResult == null) {
+				termResult = TranslationExecution.getTranslationResult(new TranslationParameters(
+						parameters.getDictionary(), Util.noSearchSubExpressionCharacter
+								+ match.term + Util.noSearchSubExpressionCharacter,
+						parameters.getInputLanguages(), parameters.getOutputLanguages(), true,
+						MAX_ENTRIES_PER_TERM, (int) remainingTime));
+				termResults.put(match.term, termResult);
+			}
+			final SingleTranslation translation = findEntry(termResult, match.location);
+			if (translation != null && includesWords(translation, parameters, words)) {
+				result.translations.add(translation);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Splits the search into lower case words, ignoring search modifiers.
+	 *
+	 * @param searchWord
+	 *            the searched text
+	 * @return the words
+	 */
+	private static Vector<String> getWords(final String searchWord) {
+		final Vector<String> words = new Vector<String>();
+		int start = -1;
+		for (int i = 0; i <= searchWord.length(); i++) {
+			final boolean isWordCharacter = i < searchWord.length()
+					&& Character.isLetterOrDigit(searchWord.charAt(i));
+			if (isWordCharacter && start < 0) {
+				start = i;
+			} else if (!isWordCharacter && start >= 0) {
+				words.add(searchWord.substring(start, i).toLowerCase(Locale.ENGLISH));
+				start = -1;
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Creates the full-text query matching all words.
+	 *
+	 * @param words
+	 *            the words of the search
+	 * @param isPrefix
+	 *            true if the last word may be the beginning of a word
+	 * @return the query
+	 */
+	private static String getQuery(final Vector<String> words, final boolean isPrefix) {
+		final StringBuilder query = new StringBuilder();
+		for (int i = 0; i < words.size(); i++) {
+			if (i > 0) {
+				query.append(' ');
+			}
+			query.append(words.get(i));
+			if (isPrefix && i == words.size() - 1) {
+				query.append('*');
+			}
+		}
+		return query.toString();
+	}
+
+	/**
+	 * Orders the matching entries: entries with a translation equal to the
+	 * words first, then entries with a translation beginning with them, each
+	 * ordered by the length of their translations.
+	 *
+	 * @param matches
+	 *            the matching entries
+	 * @param words
+	 *            the words of the search
+	 */
+	private static void rank(final Vector<TranslationTextIndex.Match> matches,
+			final Vector<String> words) {
+		final StringBuilder phraseBuilder = new StringBuilder();
+		for (String word : words) {
+			if (phraseBuilder.length() > 0) {
+				phraseBuilder.append(' ');
+			}
+			phraseBuilder.append(word);
+		}
+		final String phrase = phraseBuilder.toString();
+		final HashMap<TranslationTextIndex.Match, Integer> scores = new HashMap<TranslationTextIndex.Match, Integer>();
+		for (TranslationTextIndex.Match match : matches) {
+			scores.put(match, getScore(match.toTexts, phrase));
+		}
+		Collections.sort(matches, new Comparator<TranslationTextIndex.Match>() {
+			@Override
+			public int compare(final TranslationTextIndex.Match first,
+					final TranslationTextIndex.Match second) {
+				final int difference = scores.get(first) - scores.get(second);
+				if (difference != 0) {
+					return difference;
+				}
+				return first.toTexts.length() - second.toTexts.length();
+			}
+		});
+	}
+
+	/**
+	 * Determines how closely the translations match the words.
+	 *
+	 * @param toTexts
+	 *            the indexed translations of an entry
+	 * @param phrase
+	 *            the lower case words separated by spaces
+	 * @return 0 if a translation equals the words, 1 if one begins with them,
+	 *         2 otherwise
+	 */
+	private static int getScore(final String toTexts, final String phrase) {
+		int score = 2;
+		for (String text : toTexts.split(TranslationTextIndex.TEXT_SEPARATOR)) {
+			final String normalized = text.trim().toLowerCase(Locale.ENGLISH);
+			if (normalized.equals(phrase)) {
+				return 0;
+			}
+			if (normalized.startsWith(phrase)) {
+				score = 1;
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Finds the entry at the location in the result of its term.
+	 *
+	 * @param termResult
+	 *            the result of the term
+	 * @param location
+	 *            the location of the entry
+	 * @return the entry or null if the result does not include it
+	 */
+	private static SingleTranslation findEntry(final TranslationResult termResult,
+			final String location) {
+		for (int i = 0; i < termResult.numberOfFoundTranslations(); i++) {
+			final SingleTranslation translation = termResult.getTranslationAt(i);
+			if (TranslationTextIndex.getLocation(translation).equals(location)) {
+				return translation;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if the translations into the requested output languages include
+	 * all words, as the index includes the translations into all languages.
+	 *
+	 * @param translation
+	 *            the entry read for the search
+	 * @param parameters
+	 *            the parameters of the search
+	 * @param words
+	 *            the words of the search
+	 * @return true if the entry should be shown
+	 */
+	private static boolean includesWords(final SingleTranslation translation,
+			final TranslationParameters parameters, final Vector<String> words) {
+		final String toTexts;
+		try {
+			toTexts = new SingleTranslationExtension(translation, parameters.getDictionary())
+					.getToTextsAsString(TranslationTextIndex.TEXT_SEPARATOR).toLowerCase(
+							Locale.ENGLISH);
+		} catch (DictionaryException e) {
+			return false;
+		}
+		for (String word : words) {
+			if (toTexts.indexOf(word) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Marks the result as incomplete.
+	 *
+	 * @param result
+	 *            the result of the search
+	 * @param reason
+	 *            the reason the search stopped
+	 */
+	private static void setBreak(final TranslationResult result, final int reason) {
+		result.translationBreakOccurred = true;
+		result.translationBreakReason = reason;
+	}
+
+}
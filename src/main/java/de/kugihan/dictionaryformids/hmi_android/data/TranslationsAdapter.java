@@ -11,6 +11,9 @@ import android.app.Activity;
 import android.content.res.Resources;
 import android.graphics.Color;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -20,6 +23,7 @@ import android.widget.CompoundButton;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Vector;
@@ -57,13 +61,112 @@ public class TranslationsAdapter extends BaseExpandableListAdapter implements Ob
 
 	private final Activity activity;
 
+	/**
+	 * The minimum time in milliseconds between two updates of the list
+	 * caused by results from background threads.
+	 */
+	private static final long NOTIFY_INTERVAL = 100;
+
+	/**
+	 * The handler of the UI thread.
+	 */
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * A result that has arrived but is not shown yet.
+	 */
+	private static final class PendingResult {
+
+		/**
+		 * The result.
+		 */
+		private final TranslationResult result;
+
+		/**
+		 * The ranked entries of the result or null if the result is not
+		 * included in the best results.
+		 */
+		private final RankedResultMerger.RankedResult rankedResult;
+
+		/**
+		 * Creates a pending result.
+		 *
+		 * @param result
+		 *            the result
+		 * @param rankedResult
+		 *            the ranked entries of the result or null
+		 */
+		PendingResult(final TranslationResult result,
+				final RankedResultMerger.RankedResult rankedResult) {
+			this.result = result;
+			this.rankedResult = rankedResult;
+		}
+	}
+
+	/**
+	 * The results that have arrived but are not shown yet.
+	 */
+	private final Vector<PendingResult> pendingResults = new Vector<PendingResult>();
+
+	/**
+	 * True if the shown results have to be removed before showing the
+	 * pending results.
+	 */
+	private boolean isClearPending = false;
+
+	/**
+	 * True if showing the pending results has been scheduled.
+	 */
+	private boolean isApplyScheduled = false;
+
+	/**
+	 * True if the best results of all groups are shown in an additional first
+	 * group.
+	 */
+	private final boolean isBestResultsEnabled = Preferences.getBestResults();
+
+	/**
+	 * The best results of all groups.
+	 */
+	private final RankedResultMerger bestResults = new RankedResultMerger(
+			Preferences.getMaxResults());
+
+	/**
+	 * The time of the last update of the list.
+	 */
+	private volatile long lastNotifyTime = 0;
+
 	public TranslationsAdapter(Activity activity) {
 		this(activity, new Vector<TranslationResult>());
 	}
 
 	public TranslationsAdapter(Activity activity, Vector<TranslationResult> translationResults) {
+		this(activity, translationResults, new Vector<DictionaryDataFile>());
+	}
+
+	/**
+	 * Creates an adapter showing saved results, e.g. after the activity has
+	 * been recreated.
+	 *
+	 * @param activity
+	 *            the activity showing the results
+	 * @param translationResults
+	 *            the saved results
+	 * @param dictionaryOrder
+	 *            the dictionaries ordered from highest to lowest priority
+	 */
+	public TranslationsAdapter(Activity activity, Vector<TranslationResult> translationResults,
+			List<DictionaryDataFile> dictionaryOrder) {
 		this.activity = activity;
 		this.translationResults = translationResults;
+		bestResults.setDictionaryOrder(dictionaryOrder);
+		if (isBestResultsEnabled) {
+			for (TranslationResult result : translationResults) {
+				if (!(result instanceof SuggestionTranslationResult)) {
+					bestResults.add(result);
+				}
+			}
+		}
 	}
 
 	private String getString(int resId) {
@@ -76,24 +179,73 @@ public class TranslationsAdapter extends BaseExpandableListAdapter implements Ob
 
 	/**
 	 * {@inheritDoc}
+	 * <p>
+	 * Updates from the UI thread are shown immediately. Results that arrive
+	 * from background threads are collected and shown together at most every
+	 * {@link #NOTIFY_INTERVAL} milliseconds, so a batch of fast results causes
+	 * a single update of the list. The entries of the best results are ranked
+	 * on the thread delivering the result.
 	 */
 	@Override
 	public void update(final Observable observable, final Object data) {
-		activity.runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-				if (data == null) {
+		if (data != null && !(data instanceof TranslationResult)) {
+			throw new IllegalArgumentException();
+		}
+		RankedResultMerger.RankedResult rankedResult = null;
+		if (isBestResultsEnabled && data != null && !(data instanceof SuggestionTranslationResult)) {
+			rankedResult = RankedResultMerger.rank((TranslationResult) data);
+		}
+		synchronized (pendingResults) {
+			if (data == null) {
+				isClearPending = true;
+				pendingResults.clear();
+			} else {
+				pendingResults.add(new PendingResult((TranslationResult) data, rankedResult));
+			}
+		}
+		if (Looper.myLooper() == Looper.getMainLooper()) {
+			handler.removeCallbacks(applyPendingResults);
+			applyPendingResults.run();
+			return;
+		}
+		synchronized (pendingResults) {
+			if (isApplyScheduled) {
+				return;
+			}
+			isApplyScheduled = true;
+		}
+		final long delay = lastNotifyTime + NOTIFY_INTERVAL - SystemClock.uptimeMillis();
+		handler.postDelayed(applyPendingResults, Math.max(0, delay));
+	}
+
+	/**
+	 * Shows the collected results.
+	 */
+	private final Runnable applyPendingResults = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (pendingResults) {
+				isApplyScheduled = false;
+				if (!isClearPending && pendingResults.isEmpty()) {
+					return;
+				}
+				if (isClearPending) {
 					translationResults.clear();
-				} else if (data instanceof TranslationResult) {
-					TranslationResult result = (TranslationResult) data;
-					addTranslationResult(result);
-				} else {
-					throw new IllegalArgumentException();
+					bestResults.clear();
+					isClearPending = false;
 				}
-				notifyDataSetChanged();
+				for (PendingResult pendingResult : pendingResults) {
+					addTranslationResult(pendingResult.result);
+					if (pendingResult.rankedResult != null) {
+						bestResults.add(pendingResult.rankedResult);
+					}
+				}
+				pendingResults.clear();
 			}
-		});
-	}
+			lastNotifyTime = SystemClock.uptimeMillis();
+			notifyDataSetChanged();
+		}
+	};
 
 	/**
 	 * Add a new translation result to the sorted collection of results.
@@ -112,25 +264,80 @@ public class TranslationsAdapter extends BaseExpandableListAdapter implements Ob
 		translationResults.add(i, result);
 	}
 
+	/**
+	 * Sets the priority of the dictionaries for ranking the best results.
+	 *
+	 * @param dictionaries
+	 *            the dictionaries ordered from highest to lowest priority
+	 */
+	public void setDictionaryOrder(final List<DictionaryDataFile> dictionaries) {
+		bestResults.setDictionaryOrder(dictionaries);
+	}
+
+	/**
+	 * Returns if the first group shows the best results of all groups.
+	 *
+	 * @return true if the first group shows the best results
+	 */
+	private boolean hasBestResultsGroup() {
+		return isBestResultsEnabled && bestResults.size() > 0;
+	}
+
+	/**
+	 * Returns the result shown in the group.
+	 *
+	 * @param i
+	 *            the position of the group
+	 * @return the result of the group or null for the group of best results
+	 */
+	private TranslationResult getGroupResult(int i) {
+		if (hasBestResultsGroup()) {
+			if (i == 0) {
+				return null;
+			}
+			i--;
+		}
+		return translationResults.elementAt(i);
+	}
+
 	@Override
 	public int getGroupCount() {
+		if (hasBestResultsGroup()) {
+			return translationResults.size() + 1;
+		}
 		return translationResults.size();
 	}
 
 	@Override
 	public int getChildrenCount(int i) {
-		return translationResults.elementAt(i).numberOfFoundTranslations();
+		final TranslationResult result = getGroupResult(i);
+		if (result == null) {
+			return bestResults.size();
+		}
+		return result.numberOfFoundTranslations();
 	}
 
 	@Override
 	public Object getGroup(int i) {
-		return translationResults.elementAt(i);
+		final TranslationResult result = getGroupResult(i);
+		if (result == null) {
+			return bestResults;
+		}
+		return result;
 	}
 
 	@Override
 	public Object getChild(int i, int i2) {
-		SingleTranslation translation = translationResults.elementAt(i).getTranslationAt(i2);
-		DictionaryDataFile dataFile = translationResults.elementAt(i).dictionary;
+		final TranslationResult result = getGroupResult(i);
+		if (result == null) {
+			return bestResults.getBestEntries().elementAt(i2);
+		}
+		SingleTranslation translation = result.getTranslationAt(i2);
+		if (translation instanceof SingleTranslationExtension) {
+			// already parsed, e.g. served from the result cache
+			return translation;
+		}
+		DictionaryDataFile dataFile = result.dictionary;
 		return new SingleTranslationExtension(translation, dataFile);
 	}
 
@@ -168,7 +375,17 @@ public class TranslationsAdapter extends BaseExpandableListAdapter implements Ob
 		TextView line1 = holder.line1;
 		TextView line2 = holder.line2;
 
-		TranslationResult translationResult = (TranslationResult)getGroup(i);
+		TranslationResult translationResult = getGroupResult(i);
+		if (translationResult == null) {
+			line1.setText(R.string.title_best_results);
+			if (bestResults.size() == 1) {
+				line2.setText(R.string.results_found_one);
+			} else {
+				line2.setText(getString(R.string.results_found, bestResults.size()));
+			}
+			result.setBackgroundColor(getDictionaryBackgroundColor(null, viewGroup.getResources()));
+			return result;
+		}
 		TranslationParameters translationParameters = translationResult.translationParametersObj;
 
 		LanguageDefinition[] languagesArray = translationResult.dictionary.supportedLanguages;
@@ -192,7 +409,20 @@ public class TranslationsAdapter extends BaseExpandableListAdapter implements Ob
 		languagesTo = languagesTo.trim();
 
 		final String formatString = activity.getString(R.string.title_format_translation_direction, languagesFrom, languagesTo);
-		line1.setText(formatString);
+		if (translationResult instanceof SuggestionTranslationResult) {
+			// entries of similar terms for a search without results
+			final StringBuilder suggestions = new StringBuilder();
+			for (String suggestion : ((SuggestionTranslationResult) translationResult).getSuggestions()) {
+				if (suggestions.length() > 0) {
+					suggestions.append(", ");
+				}
+				suggestions.append(suggestion);
+			}
+			line1.setText(getString(R.string.title_did_you_mean, suggestions) + " ("
+					+ formatString + ")");
+		} else {
+			line1.setText(formatString);
+		}
 
 		if (translationResult.translationBreakOccurred) {
 			switch (translationResult.translationBreakReason) {
@@ -234,7 +464,8 @@ public class TranslationsAdapter extends BaseExpandableListAdapter implements Ob
 //		final SingleTranslationExtension translation = (SingleTranslationExtension) getGroup(i);
 //		SingleTranslationViewHelper.display(result, translation);
 
-		final int color = getDictionaryBackgroundColor(i, viewGroup.getResources());
+		final int color = getDictionaryBackgroundColor(translationResult.dictionary,
+				viewGroup.getResources());
 		result.setBackgroundColor(color);
 
 		return result;
@@ -290,7 +521,8 @@ public class TranslationsAdapter extends BaseExpandableListAdapter implements Ob
 			star.setOnCheckedChangeListener(listener);
 		}
 
-		final int color = getDictionaryBackgroundColor(i, viewGroup.getResources());
+		final int color = getDictionaryBackgroundColor(translation.getDictionary(),
+				viewGroup.getResources());
 		result.setBackgroundColor(color);
 
 		return result;
@@ -299,17 +531,15 @@ public class TranslationsAdapter extends BaseExpandableListAdapter implements Ob
 	/**
 	 * Returns the background color of the associated dictionary or transparent if dictionary styles should be ignored
 	 *
-	 * @param i the id of the translation entry
+	 * @param dictionary the dictionary of the translation entry or null if the entry has no single dictionary
 	 * @param resources the resources to load the fallback background color from
 	 * @return the associated background color or transparent
 	 */
-	private int getDictionaryBackgroundColor(int i, Resources resources) {
+	private int getDictionaryBackgroundColor(DictionaryDataFile dictionary, Resources resources) {
 		if (Preferences.getIgnoreDictionaryTextStyles()) {
 			return Color.TRANSPARENT;
 		}
-		TranslationResult translationResult = translationResults.elementAt(i);
-		TranslationParameters translationParameters = translationResult.translationParametersObj;
-		final RGBColour rgb = translationParameters.getDictionary().getBackgroundColour();
+		final RGBColour rgb = dictionary == null ? null : dictionary.getBackgroundColour();
 		if (rgb == null) {
 			return resources.getColor(android.R.color.background_light);
 		} else {
@@ -344,7 +574,12 @@ public class TranslationsAdapter extends BaseExpandableListAdapter implements Ob
 	}
 
 	public void clearData() {
+		synchronized (pendingResults) {
+			isClearPending = false;
+			pendingResults.clear();
+		}
 		translationResults.clear();
+		bestResults.clear();
 		notifyDataSetChanged();
 	}
 }
\ No newline at end of file
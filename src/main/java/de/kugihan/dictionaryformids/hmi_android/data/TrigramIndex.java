@@ -0,0 +1,439 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * TrigramIndex maps every sequence of three lower case characters to the
+ * terms of a {@link TermIndex} that include it. Terms including a text of at
+ * least three characters are found by intersecting the posting lists of the
+ * text's trigrams and verifying the remaining candidates. Shorter texts are
+ * verified against all terms.
+ * <p>
+ * The index can be saved to a file and is only read back if it was built
+ * from the same terms.
+ *
+ */
+public final class TrigramIndex {
+
+	/**
+	 * The number of characters of a trigram.
+	 */
+	private static final int GRAM_LENGTH = 3;
+
+	/**
+	 * The number of bits of a character in a packed trigram.
+	 */
+	private static final int CHARACTER_BITS = 16;
+
+	/**
+	 * The number of terms processed before checking for cancellation.
+	 */
+	private static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * The identification of saved indexes.
+	 */
+	private static final int MAGIC = 0x44664d33;
+
+	/**
+	 * The version of the saved format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Decides if building an index should continue.
+	 */
+	public interface BuildControl {
+
+		/**
+		 * Returns if building should stop.
+		 *
+		 * @return true if the index is no longer needed
+		 */
+		boolean isCancelled();
+	}
+
+	/**
+	 * The indexed terms.
+	 */
+	private final TermIndex terms;
+
+	/**
+	 * The packed trigrams in ascending order.
+	 */
+	private final long[] grams;
+
+	/**
+	 * The start of the postings of each trigram, followed by the end of the
+	 * last postings.
+	 */
+	private final int[] postingStarts;
+
+	/**
+	 * The positions of the terms including each trigram in ascending order.
+	 */
+	private final int[] postings;
+
+	/**
+	 * Creates an index from its arrays.
+	 *
+	 * @param terms
+	 *            the indexed terms
+	 * @param grams
+	 *            the packed trigrams
+	 * @param postingStarts
+	 *            the start of the postings of each trigram
+	 * @param postings
+	 *            the positions of the terms
+	 */
+	private TrigramIndex(final TermIndex terms, final long[] grams, final int[] postingStarts,
+			final int[] postings) {
+		this.terms = terms;
+		this.grams = grams;
+		this.postingStarts = postingStarts;
+		this.postings = postings;
+	}
+
+	/**
+	 * Builds the index of the terms.
+	 *
+	 * @param terms
+	 *            the terms to index
+	 * @param control
+	 *            decides if building should continue
+	 * @return the index or null if building has been cancelled
+	 */
+	public static TrigramIndex build(final TermIndex terms, final BuildControl control) {
+		// first pass: count the terms of each trigram
+		final HashMap<Long, int[]> counts = new HashMap<Long, int[]>();
+		final long[] termGrams = new long[64];
+		for (int term = 0; term < terms.size(); term++) {
+			if (term % CHUNK_SIZE == 0 && control.isCancelled()) {
+				return null;
+			}
+			final long[] distinct = getDistinctGrams(terms, term, termGrams);
+			final int gramCount = (int) distinct[distinct.length - 1];
+			for (int i = 0; i < gramCount; i++) {
+				final Long gram = distinct[i];
+				final int[] count = counts.get(gram);
+				if (count == null) {
+					counts.put(gram, new int[] { 1 });
+				} else {
+					count[0]++;
+				}
+			}
+		}
+		final long[] grams = new long[counts.size()];
+		int gramIndex = 0;
+		for (Long gram : counts.keySet()) {
+			grams[gramIndex++] = gram;
+		}
+		Arrays.sort(grams);
+		final int[] postingStarts = new int[grams.length + 1];
+		for (int i = 0; i < grams.length; i++) {
+			postingStarts[i + 1] = postingStarts[i] + counts.get(grams[i])[0];
+		}
+		counts.clear();
+		// second pass: fill the postings in ascending order of the terms
+		final int[] postings = new int[postingStarts[grams.length]];
+		final int[] cursors = copyOf(postingStarts, grams.length);
+		for (int term = 0; term < terms.size(); term++) {
+			if (term % CHUNK_SIZE == 0 && control.isCancelled()) {
+				return null;
+			}
+			final long[] distinct = getDistinctGrams(terms, term, termGrams);
+			final int gramCount = (int) distinct[distinct.length - 1];
+			for (int i = 0; i < gramCount; i++) {
+				final int position = Arrays.binarySearch(grams, distinct[i]);
+				postings[cursors[position]++] = term;
+			}
+		}
+		return new TrigramIndex(terms, grams, postingStarts, postings);
+	}
+
+	/**
+	 * Finds the terms including the text, ignoring case.
+	 *
+	 * @param text
+	 *            the text to find
+	 * @param maxTerms
+	 *            the maximum number of terms to return
+	 * @return the positions of the terms in the term index in ascending order
+	 */
+	public int[] findContaining(final String text, final int maxTerms) {
+		final String lowerCaseText = toLowerCase(text);
+		int[] matches = new int[Math.min(Math.max(0, maxTerms), 256)];
+		int matchCount = 0;
+		if (lowerCaseText.length() < GRAM_LENGTH) {
+			for (int term = 0; term < terms.size() && matchCount < maxTerms; term++) {
+				if (terms.containsIgnoreCase(term, lowerCaseText)) {
+					if (matchCount == matches.length) {
+						matches = copyOf(matches, Math.min(maxTerms, matchCount * 2));
+					}
+					matches[matchCount++] = term;
+				}
+			}
+			return copyOf(matches, matchCount);
+		}
+		// intersect the postings, starting with the shortest list
+		final int gramCount = lowerCaseText.length() - GRAM_LENGTH + 1;
+		final int[] lists = new int[gramCount];
+		int shortest = -1;
+		for (int i = 0; i < gramCount; i++) {
+			lists[i] = Arrays.binarySearch(grams, pack(lowerCaseText, i));
+			if (lists[i] < 0) {
+				return new int[0];
+			}
+			if (shortest < 0 || getPostingCount(lists[i]) < getPostingCount(lists[shortest])) {
+				shortest = i;
+			}
+		}
+		final int[] cursors = new int[gramCount];
+		for (int i = 0; i < gramCount; i++) {
+			cursors[i] = postingStarts[lists[i]];
+		}
+		final int end = postingStarts[lists[shortest] + 1];
+		for (int posting = postingStarts[lists[shortest]]; posting < end
+				&& matchCount < maxTerms; posting++) {
+			final int term = postings[posting];
+			if (!isInAllLists(term, lists, cursors) || !terms.containsIgnoreCase(term, lowerCaseText)) {
+				continue;
+			}
+			if (matchCount == matches.length) {
+				matches = copyOf(matches, Math.min(maxTerms, matchCount * 2));
+			}
+			matches[matchCount++] = term;
+		}
+		return copyOf(matches, matchCount);
+	}
+
+	/**
+	 * Returns the indexed terms.
+	 *
+	 * @return the term index
+	 */
+	public TermIndex getTerms() {
+		return terms;
+	}
+
+	/**
+	 * Returns the estimated memory used by the index, excluding the terms.
+	 *
+	 * @return the size in bytes
+	 */
+	public long getSize() {
+		return grams.length * 8L + postingStarts.length * 4L + postings.length * 4L;
+	}
+
+	/**
+	 * Saves the index.
+	 *
+	 * @param file
+	 *            the file to write
+	 * @param checksum
+	 *            the checksum of the terms the index was built from
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void save(final File file, final long checksum) throws IOException {
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(checksum);
+			output.writeInt(terms.size());
+			output.writeInt(grams.length);
+			output.writeInt(postings.length);
+			for (long gram : grams) {
+				output.writeLong(gram);
+			}
+			for (int start : postingStarts) {
+				output.writeInt(start);
+			}
+			for (int term : postings) {
+				output.writeInt(term);
+			}
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Reads a saved index if it was built from the given terms.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @param terms
+	 *            the terms the index has to be built from
+	 * @param checksum
+	 *            the checksum of the terms
+	 * @return the index or null if the file does not match the terms
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static TrigramIndex load(final File file, final TermIndex terms, final long checksum)
+			throws IOException {
+		final DataInputStream input = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION
+					|| input.readLong() != checksum || input.readInt() != terms.size()) {
+				return null;
+			}
+			final long[] grams = new long[input.readInt()];
+			final int[] postingStarts = new int[grams.length + 1];
+			final int[] postings = new int[input.readInt()];
+			for (int i = 0; i < grams.length; i++) {
+				grams[i] = input.readLong();
+			}
+			for (int i = 0; i < postingStarts.length; i++) {
+				postingStarts[i] = input.readInt();
+			}
+			for (int i = 0; i < postings.length; i++) {
+				postings[i] = input.readInt();
+			}
+			return new TrigramIndex(terms, grams, postingStarts, postings);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Returns the number of terms including a trigram.
+	 *
+	 * @param gramIndex
+	 *            the position of the trigram
+	 * @return the number of postings
+	 */
+	private int getPostingCount(final int gramIndex) {
+		return postingStarts[gramIndex + 1] - postingStarts[gramIndex];
+	}
+
+	/**
+	 * Checks if the term is included in the postings of all trigrams. The
+	 * cursors are advanced, so the terms have to be checked in ascending
+	 * order.
+	 *
+	 * @param term
+	 *            the position of the term
+	 * @param lists
+	 *            the positions of the trigrams
+	 * @param cursors
+	 *            the current position in the postings of each trigram
+	 * @return true if all trigrams include the term
+	 */
+	private boolean isInAllLists(final int term, final int[] lists, final int[] cursors) {
+		for (int i = 0; i < lists.length; i++) {
+			final int end = postingStarts[lists[i] + 1];
+			while (cursors[i] < end && postings[cursors[i]] < term) {
+				cursors[i]++;
+			}
+			if (cursors[i] == end || postings[cursors[i]] != term) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Determines the distinct trigrams of a term.
+	 *
+	 * @param terms
+	 *            the term index
+	 * @param term
+	 *            the position of the term
+	 * @param buffer
+	 *            a buffer that may be returned
+	 * @return the sorted distinct trigrams followed by their number in the
+	 *         last element
+	 */
+	private static long[] getDistinctGrams(final TermIndex terms, final int term,
+			final long[] buffer) {
+		final int length = terms.getTermLength(term);
+		final int gramCount = Math.max(0, length - GRAM_LENGTH + 1);
+		final long[] result = gramCount < buffer.length ? buffer : new long[gramCount + 1];
+		long gram = 0;
+		for (int i = 0; i < length; i++) {
+			gram = (gram << CHARACTER_BITS | terms.getLowerCaseCharacter(term, i))
+					& ((1L << (CHARACTER_BITS * GRAM_LENGTH)) - 1);
+			if (i >= GRAM_LENGTH - 1) {
+				result[i - GRAM_LENGTH + 1] = gram;
+			}
+		}
+		Arrays.sort(result, 0, gramCount);
+		int distinctCount = 0;
+		for (int i = 0; i < gramCount; i++) {
+			if (i == 0 || result[i] != result[i - 1]) {
+				result[distinctCount++] = result[i];
+			}
+		}
+		result[result.length - 1] = distinctCount;
+		return result;
+	}
+
+	/**
+	 * Packs the trigram at the given position of a lower case text.
+	 *
+	 * @param text
+	 *            the lower case text
+	 * @param offset
+	 *            the position of the trigram
+	 * @return the packed trigram
+	 */
+	private static long pack(final String text, final int offset) {
+		long gram = 0;
+		for (int i = 0; i < GRAM_LENGTH; i++) {
+			gram = gram << CHARACTER_BITS | text.charAt(offset + i);
+		}
+		return gram;
+	}
+
+	/**
+	 * Copies the beginning of an array into a new array.
+	 *
+	 * @param source
+	 *            the array to copy
+	 * @param length
+	 *            the length of the new array
+	 * @return the new array
+	 */
+	private static int[] copyOf(final int[] source, final int length) {
+		final int[] result = new int[length];
+		System.arraycopy(source, 0, result, 0, Math.min(length, source.length));
+		return result;
+	}
+
+	/**
+	 * Converts the text to lower case character by character, like the
+	 * characters of the terms.
+	 *
+	 * @param text
+	 *            the text to convert
+	 * @return the lower case text
+	 */
+	private static String toLowerCase(final String text) {
+		final StringBuilder result = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			result.append(Character.toLowerCase(text.charAt(i)));
+		}
+		return result.toString();
+	}
+
+}
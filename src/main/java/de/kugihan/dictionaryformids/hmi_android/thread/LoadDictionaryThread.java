@@ -1,29 +1,88 @@
 package de.kugihan.dictionaryformids.hmi_android.thread;
 
+import android.content.Context;
 import android.os.AsyncTask;
 
 import de.kugihan.dictionaryformids.dataaccess.DictionaryDataFile;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.ArchiveInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.DelegatingDfMInputStreamAccess;
 import de.kugihan.dictionaryformids.dataaccess.fileaccess.DfMInputStreamAccess;
-import de.kugihan.dictionaryformids.dataaccess.fileaccess.NativeZipInputStreamAccess;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.NestedJarInputStreamAccess;
 import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.hmi_android.data.DfMInputStreamAccessFactory;
+import de.kugihan.dictionaryformids.hmi_android.data.DictionaryType;
+import de.kugihan.dictionaryformids.hmi_android.data.TermIndexes;
+import de.kugihan.dictionaryformids.hmi_android.data.TranscodingDfMInputStreamAccess;
 import de.kugihan.dictionaryformids.translation.TranslationExecution;
 
 /**
- * Thread to load a dictionary without interrupting the UI.
+ * Thread to load a dictionary without interrupting the UI. The thread either
+ * loads the dictionary with the given input stream access or, if the type
+ * and path of the dictionary have been passed to the constructor, creates the
+ * input stream access itself, as creating it may read the dictionary's files.
  * 
  */
 public class LoadDictionaryThread extends AsyncTask<DfMInputStreamAccess, Void, DictionaryDataFile> {
 
+	/**
+	 * The context used to create the input stream access or null if the
+	 * access is passed to {@link #execute(DfMInputStreamAccess...)}.
+	 */
+	private final Context context;
+
+	/**
+	 * The type of the dictionary to load or null.
+	 */
+	private final DictionaryType dictionaryType;
+
+	/**
+	 * The path of the dictionary to load or null.
+	 */
+	private final String dictionaryPath;
+
+	/**
+	 * Creates a thread that loads the dictionary with the input stream access
+	 * passed to {@link #execute(DfMInputStreamAccess...)}.
+	 */
+	public LoadDictionaryThread() {
+		this(null, null, null);
+	}
+
+	/**
+	 * Creates a thread that creates the input stream access of the dictionary
+	 * in the background. It is started by calling {@link #execute(DfMInputStreamAccess...)}
+	 * without arguments.
+	 * 
+	 * @param context
+	 *            the context used to create the input stream access
+	 * @param type
+	 *            the type of the dictionary
+	 * @param path
+	 *            the path of the dictionary
+	 */
+	public LoadDictionaryThread(final Context context, final DictionaryType type,
+			final String path) {
+		this.context = context == null ? null : context.getApplicationContext();
+		this.dictionaryType = type;
+		this.dictionaryPath = path;
+	}
+
 	@Override
 	protected DictionaryDataFile doInBackground(DfMInputStreamAccess... dfMInputStreamAccesses) {
-		if (dfMInputStreamAccesses.length != 1) {
+		final DfMInputStreamAccess inputStreamAccess;
+		if (dfMInputStreamAccesses.length == 1) {
+			inputStreamAccess = dfMInputStreamAccesses[0];
+		} else if (dfMInputStreamAccesses.length == 0 && dictionaryPath != null) {
+			inputStreamAccess = DfMInputStreamAccessFactory.createInputStreamAccess(context,
+					dictionaryType, dictionaryPath);
+		} else {
 			throw new IllegalArgumentException();
 		}
 
 		// Configure DictionaryDataFile
 		DictionaryDataFile.useStandardPath = false;
 
-		final DfMInputStreamAccess inputStreamAccess = dfMInputStreamAccesses[0];
+		loadedAccess = inputStreamAccess;
 		DictionaryDataFile dataFile = null;
 
 		try {
@@ -35,9 +94,78 @@ public class LoadDictionaryThread extends AsyncTask<DfMInputStreamAccess, Void,
 			}
 		}
 
+		if (dataFile == null && mayIncludeCompressedDictionary && !isCancelled()) {
+			dataFile = loadNestedDictionary(inputStreamAccess);
+		}
+
+		if (dataFile == null) {
+			// nothing keeps the files of the dictionary open
+			DelegatingDfMInputStreamAccess.close(inputStreamAccess);
+			return null;
+		}
+		DfMInputStreamAccessFactory.registerLoadedAccess(dataFile, loadedAccess);
+
+		if (!isCancelled()) {
+			// searches read the index from memory once it has been built
+			TermIndexes.buildInBackground(dataFile, loadedAccess);
+		}
+
+		if (inputStreamAccess instanceof TranscodingDfMInputStreamAccess) {
+			((TranscodingDfMInputStreamAccess) inputStreamAccess).startTranscoding();
+		}
+
 		return dataFile;
 	}
 
+	/**
+	 * Tries to load the dictionary from the jar file inside the archive of the
+	 * given inputStreamAccess without extracting it.
+	 * 
+	 * @param inputStreamAccess
+	 *            the access to the archive including a jar file
+	 * @return the loaded dictionary or null if it could not be loaded
+	 */
+	private DictionaryDataFile loadNestedDictionary(final DfMInputStreamAccess inputStreamAccess) {
+		final DfMInputStreamAccess innerAccess = DelegatingDfMInputStreamAccess
+				.unwrap(inputStreamAccess);
+		if (innerAccess instanceof NestedJarInputStreamAccess) {
+			return null;
+		}
+		final String archivePath = ((ArchiveInputStreamAccess) innerAccess).getArchivePath();
+		final DfMInputStreamAccess nestedAccess = DfMInputStreamAccessFactory
+				.createNestedArchiveAccess(context, archivePath);
+		if (nestedAccess == null) {
+			return null;
+		}
+		DfMInputStreamAccess loadAccess = nestedAccess;
+		TranscodingDfMInputStreamAccess transcodingAccess = null;
+		DfMInputStreamAccess archiveAccess = null;
+		if (inputStreamAccess instanceof TranscodingDfMInputStreamAccess) {
+			// keep the loaded dictionary attached to the transcoding access
+			transcodingAccess = (TranscodingDfMInputStreamAccess) inputStreamAccess;
+			archiveAccess = transcodingAccess.getDelegate();
+			transcodingAccess.switchTo(nestedAccess);
+			loadAccess = transcodingAccess;
+		}
+		try {
+			final DictionaryDataFile dataFile = TranslationExecution.loadDictionary(loadAccess);
+			this.exception = null;
+			this.mayIncludeCompressedDictionary = false;
+			this.loadedAccess = loadAccess;
+			// the archive is only read through the nested access from now on
+			DelegatingDfMInputStreamAccess.close(transcodingAccess != null ? archiveAccess
+					: inputStreamAccess);
+			return dataFile;
+		} catch (DictionaryException e) {
+			DelegatingDfMInputStreamAccess.close(nestedAccess);
+			if (transcodingAccess != null) {
+				transcodingAccess.switchTo(archiveAccess);
+			}
+			// keep the original exception to offer extracting the dictionary
+			return null;
+		}
+	}
+
 	@Override
 	protected void onPostExecute(DictionaryDataFile dataFile) {
 		synchronized (listenerSync) {
@@ -54,6 +182,10 @@ public class LoadDictionaryThread extends AsyncTask<DfMInputStreamAccess, Void,
 
 	@Override
 	protected void onCancelled(DictionaryDataFile dataFile) {
+		if (dataFile != null) {
+			// the dictionary is not used
+			DfMInputStreamAccessFactory.closeLoadedAccess(dataFile);
+		}
 		synchronized (listenerSync) {
 			if (listener == null) {
 				return;
@@ -118,6 +250,11 @@ public class LoadDictionaryThread extends AsyncTask<DfMInputStreamAccess, Void,
 	 */
 	private boolean mayIncludeCompressedDictionary = false;
 
+	/**
+	 * The access the dictionary has been loaded with.
+	 */
+	private DfMInputStreamAccess loadedAccess = null;
+
 	/**
 	 * Object to synchronize access to the result.
 	 */
@@ -144,11 +281,13 @@ public class LoadDictionaryThread extends AsyncTask<DfMInputStreamAccess, Void,
 	 * @return true if current inputStreamAccess includes a jar-File
 	 */
 	private static boolean hasJarFile(DfMInputStreamAccess inputStreamAccess) {
-		final boolean isZipStream = inputStreamAccess instanceof NativeZipInputStreamAccess;
+		final DfMInputStreamAccess innerAccess = DelegatingDfMInputStreamAccess
+				.unwrap(inputStreamAccess);
+		final boolean isZipStream = innerAccess instanceof ArchiveInputStreamAccess;
 		if (!isZipStream) {
 			return false;
 		}
-		final NativeZipInputStreamAccess stream = (NativeZipInputStreamAccess) inputStreamAccess;
+		final ArchiveInputStreamAccess stream = (ArchiveInputStreamAccess) innerAccess;
 		try {
 			return stream.hasJarDictionary();
 		} catch (DictionaryException e1) {
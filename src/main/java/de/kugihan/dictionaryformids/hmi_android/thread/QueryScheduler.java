@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.thread;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.Observable;
+import java.util.Observer;
+
+import de.kugihan.dictionaryformids.translation.TranslationParametersBatch;
+
+/**
+ * QueryScheduler delays the translations requested while the user is typing.
+ * Only the newest requested batch is kept; batches that are replaced before
+ * their delay has passed are dropped without being started. The delay adapts
+ * to the duration of recent translations: if translations finish quickly,
+ * results follow each keystroke, if they are slow, the scheduler waits for
+ * the user to pause typing.
+ * <p>
+ * All methods have to be called from the thread that created the scheduler.
+ *
+ */
+public class QueryScheduler implements Observer {
+
+	/**
+	 * The minimum delay in milliseconds before a batch is started.
+	 */
+	private static final long MIN_DELAY = 50;
+
+	/**
+	 * The maximum delay in milliseconds before a batch is started.
+	 */
+	private static final long MAX_DELAY = 500;
+
+	/**
+	 * The weight of the newest duration in the average duration of
+	 * translations in percent.
+	 */
+	private static final int DURATION_WEIGHT = 25;
+
+	/**
+	 * The translations that execute the batches.
+	 */
+	private final Translations translations;
+
+	/**
+	 * The handler delaying the start of batches.
+	 */
+	private final Handler handler = new Handler();
+
+	/**
+	 * The batch that is waiting to be started or null.
+	 */
+	private TranslationParametersBatch pendingBatch = null;
+
+	/**
+	 * The handle of the batch started last or null if it is not known, e.g.
+	 * as it has been started before the scheduler was created.
+	 */
+	private TranslationHandle runningTranslation = null;
+
+	/**
+	 * The time the running translation was started at or -1 if no
+	 * translation is measured.
+	 */
+	private volatile long startTime = -1;
+
+	/**
+	 * The average duration of recent translations in milliseconds.
+	 */
+	private volatile long averageDuration = MIN_DELAY;
+
+	/**
+	 * Starts the pending batch.
+	 */
+	private final Runnable startPendingBatch = new Runnable() {
+		@Override
+		public void run() {
+			final TranslationParametersBatch batch = pendingBatch;
+			pendingBatch = null;
+			if (batch != null) {
+				start(batch);
+			}
+		}
+	};
+
+	/**
+	 * Creates a scheduler for the given translations and starts measuring the
+	 * duration of their execution.
+	 *
+	 * @param translations
+	 *            the translations that execute the batches
+	 */
+	public QueryScheduler(final Translations translations) {
+		this.translations = translations;
+		translations.getTranslationState().addObserver(this);
+	}
+
+	/**
+	 * Schedules the batch to be started after the current delay. The running
+	 * translation is cancelled and a batch that has been scheduled before and
+	 * has not been started yet is dropped.
+	 *
+	 * @param batch
+	 *            the batch to start
+	 */
+	public void schedule(final TranslationParametersBatch batch) {
+		dropPendingBatch();
+		cancelRunningTranslation();
+		pendingBatch = batch;
+		handler.postDelayed(startPendingBatch, getDelay());
+	}
+
+	/**
+	 * Starts the batch immediately. The running translation is cancelled and
+	 * any scheduled batch is dropped.
+	 *
+	 * @param batch
+	 *            the batch to start
+	 */
+	public void startNow(final TranslationParametersBatch batch) {
+		cancel();
+		start(batch);
+	}
+
+	/**
+	 * Cancels the running translation and drops the scheduled batch.
+	 */
+	public void cancel() {
+		dropPendingBatch();
+		cancelRunningTranslation();
+	}
+
+	/**
+	 * Stops measuring the translations and drops the scheduled batch.
+	 */
+	public void release() {
+		dropPendingBatch();
+		translations.getTranslationState().deleteObserver(this);
+	}
+
+	/**
+	 * Returns the delay that is applied to newly scheduled batches.
+	 *
+	 * @return the delay in milliseconds
+	 */
+	public long getDelay() {
+		return Math.max(MIN_DELAY, Math.min(MAX_DELAY, averageDuration));
+	}
+
+	/**
+	 * Drops the scheduled batch.
+	 */
+	private void dropPendingBatch() {
+		handler.removeCallbacks(startPendingBatch);
+		pendingBatch = null;
+	}
+
+	/**
+	 * Cancels the running translation. The time it has been running so far is
+	 * a lower bound of its duration and is only taken into account if it
+	 * exceeds the average duration.
+	 */
+	private void cancelRunningTranslation() {
+		final long start = startTime;
+		startTime = -1;
+		if (start >= 0 && translations.getTranslationState().isActive()) {
+			final long duration = SystemClock.uptimeMillis() - start;
+			if (duration > averageDuration) {
+				addDuration(duration);
+			}
+		}
+		final TranslationHandle handle = runningTranslation;
+		runningTranslation = null;
+		if (handle == null) {
+			translations.cancelTranslation();
+		} else {
+			handle.cancel();
+		}
+	}
+
+	/**
+	 * Adds the duration of a translation to the average duration.
+	 *
+	 * @param duration
+	 *            the duration in milliseconds
+	 */
+	private void addDuration(final long duration) {
+		averageDuration = (averageDuration * (100 - DURATION_WEIGHT) + duration
+				* DURATION_WEIGHT) / 100;
+	}
+
+	/**
+	 * Starts the batch and measures its duration.
+	 *
+	 * @param batch
+	 *            the batch to start
+	 */
+	private void start(final TranslationParametersBatch batch) {
+		startTime = SystemClock.uptimeMillis();
+		runningTranslation = translations.startTranslation(batch);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void update(final Observable observable, final Object data) {
+		final boolean isActive = (Boolean) data;
+		final long start = startTime;
+		if (isActive || start < 0) {
+			return;
+		}
+		startTime = -1;
+		addDuration(SystemClock.uptimeMillis() - start);
+	}
+
+}
@@ -0,0 +1,478 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.thread;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.CancellationToken;
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.general.Util;
+import de.kugihan.dictionaryformids.hmi_android.DictionaryForMIDs;
+import de.kugihan.dictionaryformids.hmi_android.Preferences;
+import de.kugihan.dictionaryformids.hmi_android.data.SharedLanguageScan;
+import de.kugihan.dictionaryformids.hmi_android.data.TranslationResultCache;
+import de.kugihan.dictionaryformids.translation.SingleTranslation;
+import de.kugihan.dictionaryformids.translation.SingleTranslationExtension;
+import de.kugihan.dictionaryformids.translation.TranslationExecution;
+import de.kugihan.dictionaryformids.translation.TranslationParameters;
+import de.kugihan.dictionaryformids.translation.TranslationParametersBatch;
+import de.kugihan.dictionaryformids.translation.TranslationResult;
+
+/**
+ * SpeculativePrefetcher uses the time the user reads the results to search
+ * for the terms the user is most likely to type next. The results go into
+ * the result cache and the dictionary files they touch into the block cache,
+ * so the next keystroke usually finds warm data.
+ * <p>
+ * Only prefix searches whose result was truncated are extended, as complete
+ * results are refined in memory anyway. The next characters are chosen by
+ * their frequency in the words of the truncated results and by the terms
+ * searched recently.
+ * <p>
+ * Speculation starts after the translations have been idle for a while and
+ * runs on a single thread of the lowest priority. It stops at the next read
+ * as soon as a new batch is started, and it is skipped while the battery is
+ * low or hot. It is also skipped if the result cache is disabled, as the
+ * results would be discarded, and if translations run sequentially, as the
+ * sequential executor expects to be the only thread searching the
+ * dictionaries.
+ *
+ */
+public class SpeculativePrefetcher implements Observer {
+
+	/**
+	 * The time in milliseconds the translations have to be idle before
+	 * speculation starts.
+	 */
+	private static final long IDLE_DELAY = 1500;
+
+	/**
+	 * The maximum number of extended terms searched after each batch.
+	 */
+	private static final int MAX_CANDIDATES = 3;
+
+	/**
+	 * The number of recently searched terms that are kept.
+	 */
+	private static final int HISTORY_SIZE = 32;
+
+	/**
+	 * The weight of a recently searched term compared to a word of a result.
+	 */
+	private static final int HISTORY_WEIGHT = 4;
+
+	/**
+	 * The minimum battery level in percent to speculate on battery power.
+	 */
+	private static final int MIN_BATTERY_PERCENT = 30;
+
+	/**
+	 * The maximum battery temperature in tenths of a degree Celsius to
+	 * speculate at.
+	 */
+	private static final int MAX_BATTERY_TEMPERATURE = 400;
+
+	/**
+	 * The number of milliseconds in a second.
+	 */
+	private static final int MILLISECONDS_IN_A_SECOND = 1000;
+
+	/**
+	 * The number of characters counted as next characters.
+	 */
+	private static final int CHARACTER_COUNT = 0x80;
+
+	/**
+	 * The thread executing the speculative searches, shared by all instances.
+	 */
+	private static final ExecutorService SPECULATION = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+							runnable.run();
+						}
+					}, "Speculation");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * The context used to read the battery state.
+	 */
+	private final Context context;
+
+	/**
+	 * The translations whose results are extended.
+	 */
+	private final Translations translations;
+
+	/**
+	 * The handler delaying the start of speculation.
+	 */
+	private final Handler handler = new Handler();
+
+	/**
+	 * The truncated prefix results of the current batch.
+	 */
+	private final Vector<TranslationResult> truncatedResults = new Vector<TranslationResult>();
+
+	/**
+	 * The lower case terms searched recently, the newest term last.
+	 */
+	private final LinkedList<String> history = new LinkedList<String>();
+
+	/**
+	 * The token of the running speculation or null.
+	 */
+	private volatile CancellationToken token = null;
+
+	/**
+	 * Starts speculating.
+	 */
+	private final Runnable speculate = new Runnable() {
+		@Override
+		public void run() {
+			startSpeculation();
+		}
+	};
+
+	/**
+	 * Creates a prefetcher for the given translations.
+	 *
+	 * @param context
+	 *            the context used to read the battery state
+	 * @param translations
+	 *            the translations whose results are extended
+	 */
+	public SpeculativePrefetcher(final Context context, final Translations translations) {
+		this.context = context;
+		this.translations = translations;
+		translations.addObserver(this);
+		translations.getTranslationState().addObserver(this);
+	}
+
+	/**
+	 * Stops speculating and stops observing the translations.
+	 */
+	public void release() {
+		translations.deleteObserver(this);
+		translations.getTranslationState().deleteObserver(this);
+		yieldToForeground();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void update(final Observable observable, final Object data) {
+		if (observable == translations) {
+			if (data == null) {
+				// a new batch has been started
+				yieldToForeground();
+				truncatedResults.clear();
+				return;
+			}
+			addResult((TranslationResult) data);
+			return;
+		}
+		final boolean isActive = (Boolean) data;
+		handler.removeCallbacks(speculate);
+		if (isActive) {
+			yieldToForeground();
+		} else {
+			handler.postDelayed(speculate, IDLE_DELAY);
+		}
+	}
+
+	/**
+	 * Stops the running speculation at its next read and drops the scheduled
+	 * one.
+	 */
+	private void yieldToForeground() {
+		handler.removeCallbacks(speculate);
+		final CancellationToken runningToken = token;
+		token = null;
+		if (runningToken != null) {
+			runningToken.cancel();
+		}
+	}
+
+	/**
+	 * Keeps the result if it can be extended and remembers its term.
+	 *
+	 * @param result
+	 *            a result of the current batch
+	 */
+	private void addResult(final TranslationResult result) {
+		final String prefix = getPrefix(result.translationParametersObj);
+		if (prefix == null) {
+			return;
+		}
+		final String term = prefix.toLowerCase(Locale.ENGLISH);
+		synchronized (history) {
+			if (history.isEmpty() || !history.getLast().equals(term)) {
+				history.add(term);
+				if (history.size() > HISTORY_SIZE) {
+					history.removeFirst();
+				}
+			}
+		}
+		if (result.translationBreakOccurred
+				&& result.translationBreakReason == TranslationResult.BreakReasonCancelMaxNrOfHitsReached) {
+			truncatedResults.add(result);
+		}
+	}
+
+	/**
+	 * Starts searching for the extended terms of the current results if
+	 * enabled, the results can be kept and the device can afford it.
+	 */
+	private void startSpeculation() {
+		if (!Preferences.getSpeculativePrefetch() || !Preferences.getResultCache()
+				|| !Preferences.getParallelTranslation()) {
+			return;
+		}
+		if (Preferences.getSearchTranslations()
+				|| translations.getTranslationState().isActive() || !isPowerAvailable()) {
+			return;
+		}
+		final Vector<TranslationResult> results = new Vector<TranslationResult>(truncatedResults);
+		if (results.isEmpty()) {
+			return;
+		}
+		final String[] recentTerms;
+		synchronized (history) {
+			recentTerms = history.toArray(new String[history.size()]);
+		}
+		yieldToForeground();
+		final CancellationToken speculationToken = new CancellationToken();
+		token = speculationToken;
+		SPECULATION.execute(new Runnable() {
+			@Override
+			public void run() {
+				prefetch(results, recentTerms, speculationToken);
+			}
+		});
+	}
+
+	/**
+	 * Searches for the most likely extended terms and adds their results to
+	 * the result cache.
+	 *
+	 * @param results
+	 *            the truncated results to extend
+	 * @param recentTerms
+	 *            the terms searched recently
+	 * @param speculationToken
+	 *            the token stopping the speculation
+	 */
+	private static void prefetch(final Vector<TranslationResult> results,
+			final String[] recentTerms, final CancellationToken speculationToken) {
+		final String prefix = getPrefix(results.firstElement().translationParametersObj);
+		final char[] nextCharacters = getNextCharacters(results, recentTerms,
+				prefix.toLowerCase(Locale.ENGLISH), speculationToken);
+		final TranslationResultCache cache = Translations.getResultCache();
+		int searches = 0;
+		for (char nextCharacter : nextCharacters) {
+			final String word = prefix + nextCharacter + Util.wildcardAnySeriesOfCharacter;
+			final TranslationParametersBatch batch = new TranslationParametersBatch();
+			for (TranslationResult result : results) {
+				final TranslationParameters parameters = result.translationParametersObj;
+				final TranslationParameters extended = new TranslationParameters(
+						parameters.getDictionary(), word, parameters.getInputLanguages(),
+						parameters.getOutputLanguages(), true, parameters.getMaxHits(),
+						Preferences.getSearchTimeout() * MILLISECONDS_IN_A_SECOND);
+				if (!cache.contains(extended)) {
+					batch.addTranslationParameters(extended);
+				}
+			}
+			final SharedLanguageScan scan = new SharedLanguageScan(batch,
+					Preferences.getSharedLanguageScan());
+			final TranslationParametersBatch executed = scan.getBatch();
+			for (int i = 0; i < executed.numberOfTranslationParameters(); i++) {
+				if (speculationToken.isCancelled()) {
+					return;
+				}
+				final TranslationResult result;
+				speculationToken.attach();
+				try {
+					result = TranslationExecution.getTranslationResult(executed
+							.getTranslationParametersAt(i));
+				} catch (DictionaryException e) {
+					// cancelled or failed, the foreground search will report
+					// the error
+					return;
+				} finally {
+					CancellationToken.detach();
+				}
+				if (speculationToken.isCancelled()) {
+					return;
+				}
+				for (TranslationResult projected : scan.project(result)) {
+					cache.put(projected);
+				}
+				searches++;
+			}
+		}
+		Log.d(DictionaryForMIDs.LOG_TAG, "Prefetched " + searches + " searches for "
+				+ new String(nextCharacters) + " after " + prefix);
+	}
+
+	/**
+	 * Determines the characters most likely typed after the prefix.
+	 *
+	 * @param results
+	 *            the truncated results of the prefix
+	 * @param recentTerms
+	 *            the terms searched recently
+	 * @param term
+	 *            the lower case prefix
+	 * @param speculationToken
+	 *            the token stopping the speculation
+	 * @return the characters ordered by their likelihood
+	 */
+	private static char[] getNextCharacters(final Vector<TranslationResult> results,
+			final String[] recentTerms, final String term,
+			final CancellationToken speculationToken) {
+		final int[] counts = new int[CHARACTER_COUNT];
+		for (String recentTerm : recentTerms) {
+			countNextCharacter(counts, recentTerm, term, HISTORY_WEIGHT);
+		}
+		for (TranslationResult result : results) {
+			for (int i = 0; i < result.numberOfFoundTranslations(); i++) {
+				if (speculationToken.isCancelled()) {
+					return new char[0];
+				}
+				final SingleTranslation entry = result.getTranslationAt(i);
+				final String text;
+				try {
+					if (entry instanceof SingleTranslationExtension) {
+						text = ((SingleTranslationExtension) entry).getFromTextAsString();
+					} else {
+						text = new SingleTranslationExtension(entry, result.dictionary)
+								.getFromTextAsString();
+					}
+				} catch (DictionaryException e) {
+					continue;
+				}
+				final String[] words = text.toLowerCase(Locale.ENGLISH).split("[^\\p{L}\\p{Nd}]+");
+				for (String word : words) {
+					countNextCharacter(counts, word, term, 1);
+				}
+			}
+		}
+		final StringBuilder candidates = new StringBuilder(MAX_CANDIDATES);
+		while (candidates.length() < MAX_CANDIDATES) {
+			int best = -1;
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] > 0 && (best < 0 || counts[i] > counts[best])) {
+					best = i;
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			candidates.append((char) best);
+			counts[best] = 0;
+		}
+		return candidates.toString().toCharArray();
+	}
+
+	/**
+	 * Counts the character following the term in the word.
+	 *
+	 * @param counts
+	 *            the counts of the characters
+	 * @param word
+	 *            a lower case word
+	 * @param term
+	 *            the lower case prefix
+	 * @param weight
+	 *            the weight of the word
+	 */
+	private static void countNextCharacter(final int[] counts, final String word,
+			final String term, final int weight) {
+		if (word.length() <= term.length() || !word.startsWith(term)) {
+			return;
+		}
+		final char next = word.charAt(term.length());
+		if (next < CHARACTER_COUNT && Character.isLetterOrDigit(next)) {
+			counts[next] += weight;
+		}
+	}
+
+	/**
+	 * Returns the prefix of a search for words beginning with a plain term.
+	 *
+	 * @param parameters
+	 *            the parameters of the search
+	 * @return the prefix or null if it is not such a search
+	 */
+	private static String getPrefix(final TranslationParameters parameters) {
+		final String searchWord = parameters.getToBeTranslatedWordText();
+		final int length = searchWord.length() - 1;
+		if (length < 1 || searchWord.charAt(length) != Util.wildcardAnySeriesOfCharacter) {
+			return null;
+		}
+		for (int i = 0; i < length; i++) {
+			final char character = searchWord.charAt(i);
+			if (character >= CHARACTER_COUNT || !Character.isLetterOrDigit(character)) {
+				return null;
+			}
+		}
+		return searchWord.substring(0, length);
+	}
+
+	/**
+	 * Returns if the battery can afford speculative work.
+	 *
+	 * @return true if the device is charging or the battery is sufficiently
+	 *         charged, and the battery is not hot
+	 */
+	private boolean isPowerAvailable() {
+		final Intent battery = context.registerReceiver(null, new IntentFilter(
+				Intent.ACTION_BATTERY_CHANGED));
+		if (battery == null) {
+			return true;
+		}
+		final int temperature = battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+		if (temperature > MAX_BATTERY_TEMPERATURE) {
+			return false;
+		}
+		if (battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0) {
+			return true;
+		}
+		final int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+		final int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+		if (level < 0 || scale <= 0) {
+			return true;
+		}
+		return level * 100 / scale >= MIN_BATTERY_PERCENT;
+	}
+
+}
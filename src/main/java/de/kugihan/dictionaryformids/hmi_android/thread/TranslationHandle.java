@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * DictionaryForMIDs - a free multi-language dictionary for mobile devices.
+ * Copyright (C) 2005, 2006, 2009 Gert Nuber (dict@kugihan.de) and
+ * Achim Weimert (achim.weimert@gmail.com)
+ *
+ * GPL applies - see file COPYING for copyright statement.
+ ******************************************************************************/
+package de.kugihan.dictionaryformids.hmi_android.thread;
+
+import java.util.Observable;
+
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.CancellationToken;
+
+/**
+ * TranslationHandle represents one batch started by
+ * {@link Translations#startTranslation}. Every batch gets its own generation
+ * number and {@link CancellationToken}, so cancelling a batch never affects
+ * the batches started after it, and results of the batch are dropped once it
+ * has been cancelled or superseded.
+ * <p>
+ * Observers are notified with the handle when the batch is cancelled or when
+ * all its results have been passed on. Notifications may arrive on the thread
+ * delivering the results.
+ *
+ */
+public final class TranslationHandle extends Observable {
+
+	/**
+	 * The translations that started the batch.
+	 */
+	private final Translations owner;
+
+	/**
+	 * The number of the batch, increasing with every started batch.
+	 */
+	private final long generation;
+
+	/**
+	 * The token stopping the reads of the batch.
+	 */
+	private final CancellationToken token = new CancellationToken();
+
+	/**
+	 * The number of searches of the batch whose results have not been passed
+	 * on yet.
+	 */
+	private int outstandingSearches;
+
+	/**
+	 * True if the batch has been cancelled.
+	 */
+	private volatile boolean isCancelled = false;
+
+	/**
+	 * Creates the handle of a batch.
+	 *
+	 * @param owner
+	 *            the translations that started the batch
+	 * @param generation
+	 *            the number of the batch
+	 * @param searches
+	 *            the number of searches of the batch
+	 */
+	TranslationHandle(final Translations owner, final long generation, final int searches) {
+		this.owner = owner;
+		this.generation = generation;
+		this.outstandingSearches = searches;
+	}
+
+	/**
+	 * Returns the number of the batch. Batches started later have higher
+	 * numbers.
+	 *
+	 * @return the generation of the batch
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Returns the token stopping the reads of the batch.
+	 *
+	 * @return the cancellation token
+	 */
+	public CancellationToken getToken() {
+		return token;
+	}
+
+	/**
+	 * Cancels the batch. Its remaining results are dropped and running
+	 * searches stop at their next read. Cancelling a finished or superseded
+	 * batch has no effect on other batches.
+	 */
+	public void cancel() {
+		owner.cancelTranslation(this);
+	}
+
+	/**
+	 * Returns if the batch has been cancelled or superseded by a newer batch.
+	 *
+	 * @return true if the batch has been cancelled
+	 */
+	public boolean isCancelled() {
+		return isCancelled;
+	}
+
+	/**
+	 * Returns if all results of the batch have been passed on.
+	 *
+	 * @return true if the batch has finished
+	 */
+	public synchronized boolean isFinished() {
+		return outstandingSearches <= 0;
+	}
+
+	/**
+	 * Marks the batch as cancelled and stops its reads.
+	 *
+	 * @return true if the batch had not been cancelled or finished before
+	 */
+	boolean markCancelled() {
+		synchronized (this) {
+			if (isCancelled || outstandingSearches <= 0) {
+				return false;
+			}
+			isCancelled = true;
+		}
+		token.cancel();
+		setChanged();
+		notifyObservers(this);
+		return true;
+	}
+
+	/**
+	 * Counts a search whose result has been passed on.
+	 */
+	void finishSearch() {
+		synchronized (this) {
+			outstandingSearches--;
+			if (outstandingSearches != 0) {
+				return;
+			}
+		}
+		setChanged();
+		notifyObservers(this);
+	}
+
+}
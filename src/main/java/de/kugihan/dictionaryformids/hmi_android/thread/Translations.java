@@ -1,9 +1,27 @@
 package de.kugihan.dictionaryformids.hmi_android.thread;
 
+import android.os.Process;
+import android.util.Log;
+
+import java.util.IdentityHashMap;
 import java.util.Observable;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
+import de.kugihan.dictionaryformids.dataaccess.DictionaryDataFile;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.CancellationToken;
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.IoStatistics;
 import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.hmi_android.DictionaryForMIDs;
+import de.kugihan.dictionaryformids.hmi_android.Preferences;
+import de.kugihan.dictionaryformids.hmi_android.data.DfMInputStreamAccessFactory;
+import de.kugihan.dictionaryformids.hmi_android.data.FuzzyLookup;
+import de.kugihan.dictionaryformids.hmi_android.data.PrefixRefinement;
+import de.kugihan.dictionaryformids.hmi_android.data.SharedLanguageScan;
 import de.kugihan.dictionaryformids.hmi_android.data.TranslationExecutor;
+import de.kugihan.dictionaryformids.hmi_android.data.TranslationResultCache;
 import de.kugihan.dictionaryformids.translation.TranslationExecutionCallback;
 import de.kugihan.dictionaryformids.translation.TranslationParameters;
 import de.kugihan.dictionaryformids.translation.TranslationParametersBatch;
@@ -11,19 +29,86 @@ import de.kugihan.dictionaryformids.translation.TranslationResult;
 
 public class Translations extends Observable {
 
+	/**
+	 * The part of the maximum heap size used for caching results.
+	 */
+	private static final int RESULT_CACHE_HEAP_DIVISOR = 32;
+
+	/**
+	 * The results of recent searches, shared by all instances so they survive
+	 * recreated activities.
+	 */
+	private static final TranslationResultCache RESULT_CACHE = new TranslationResultCache(
+			Runtime.getRuntime().maxMemory() / RESULT_CACHE_HEAP_DIVISOR);
+
+	/**
+	 * The number of milliseconds in a second.
+	 */
+	private static final int MILLISECONDS_IN_A_SECOND = 1000;
+
+	/**
+	 * The thread searching for similar terms after searches without results,
+	 * shared by all instances.
+	 */
+	private static final ExecutorService SUGGESTIONS = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							runnable.run();
+						}
+					}, "Suggestions");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
 	private class TranslationHandler implements TranslationExecutionCallback {
 
 		@Override
 		public void newTranslationResult(TranslationResult resultOfTranslation) {
-			setChanged();
-			notifyObservers(resultOfTranslation);
-			translationState.decreaseActiveCount();
+			final TranslationHandle handle;
+			final Vector<TranslationResult> results;
+			// the batch cannot be replaced until the result has been passed
+			// on, so observers never receive results of superseded batches
+			synchronized (currentParameters) {
+				handle = takeHandle(resultOfTranslation.translationParametersObj);
+				if (handle == null) {
+					// result of a superseded or cancelled batch
+					return;
+				}
+				if (ioStatistics.isEnabled()) {
+					// the I/O since the previous result was caused by these parameters
+					final IoStatistics.Query query = ioStatistics.finishSegment(
+							describe(resultOfTranslation.translationParametersObj));
+					if (query != null) {
+						Log.d(DictionaryForMIDs.LOG_TAG, "I/O of search " + query);
+					}
+				}
+				results = currentScan.project(resultOfTranslation);
+				for (TranslationResult result : results) {
+					addRefinement(refinements, PrefixRefinement.create(result));
+					currentResults.add(result);
+					setChanged();
+					notifyObservers(result);
+				}
+			}
+			finishSearch(handle);
+			if (Preferences.getResultCache() && !Preferences.getSearchTranslations()) {
+				for (TranslationResult result : results) {
+					RESULT_CACHE.put(result);
+				}
+			}
+			suggestIfNothingFound(handle);
 		}
 
 		@Override
 		public void deletePreviousTranslationResult() {
-			setChanged();
-			notifyObservers(null);
+			// previous results are deleted when the batch is started, as
+			// refined results may already have been passed on
 		}
 	}
 
@@ -51,12 +136,48 @@ public class Translations extends Observable {
 
 	private final TranslationHandler handler = new TranslationHandler();
 
+	private final IoStatistics ioStatistics = DfMInputStreamAccessFactory.getIoStatistics();
+
 	public TranslationState getTranslationState() {
 		return translationState;
 	}
 
 	private final TranslationState translationState = new TranslationState();
 
+	/**
+	 * The parameters of the current batch with its handle. Results for other
+	 * parameters belong to superseded or cancelled batches and are not passed
+	 * to the observers.
+	 */
+	private final IdentityHashMap<TranslationParameters, TranslationHandle> currentParameters = new IdentityHashMap<TranslationParameters, TranslationHandle>();
+
+	/**
+	 * The handle of the current batch or null if no batch has been started.
+	 */
+	private TranslationHandle currentHandle = null;
+
+	/**
+	 * The plan of the current batch, mapping its results to the requested
+	 * language pairs.
+	 */
+	private SharedLanguageScan currentScan = null;
+
+	/**
+	 * The generation of the last started batch.
+	 */
+	private long generation = 0;
+
+	/**
+	 * The refinements of the results of the current batch, used to answer
+	 * searches for extended terms.
+	 */
+	private final Vector<PrefixRefinement> refinements = new Vector<PrefixRefinement>();
+
+	/**
+	 * The results of the current batch that have been passed on.
+	 */
+	private final Vector<TranslationResult> currentResults = new Vector<TranslationResult>();
+
 	public void setExecutor(TranslationExecutor executor) {
 		if (executor == null) {
 			throw new IllegalArgumentException();
@@ -65,7 +186,14 @@ public class Translations extends Observable {
 		this.executor.setTranslationExecutionCallback(handler);
 	}
 
-	public void startTranslation(TranslationParametersBatch translationParameters) {
+	/**
+	 * Starts the translation of the batch. The previous batch is cancelled.
+	 *
+	 * @param translationParameters
+	 *            the batch to translate
+	 * @return the handle of the batch
+	 */
+	public TranslationHandle startTranslation(TranslationParametersBatch translationParameters) {
 		if (executor == null) {
 			throw new IllegalStateException("Set executor first");
 		}
@@ -79,19 +207,303 @@ public class Translations extends Observable {
 			}
 		}
 
+		// answer repeated searches from the cache and extended terms from
+		// the previous results where possible
+		final Vector<PrefixRefinement> previousRefinements = new Vector<PrefixRefinement>(refinements);
+		final Vector<PrefixRefinement> newRefinements = new Vector<PrefixRefinement>();
+		final Vector<TranslationResult> refinedResults = new Vector<TranslationResult>();
+		final TranslationParametersBatch searches = new TranslationParametersBatch();
+		for (int i = 0; i < count; i++) {
+			final TranslationParameters parameters = translationParameters.getTranslationParametersAt(i);
+			final TranslationResult cachedResult = getCachedResult(parameters);
+			if (cachedResult != null) {
+				addRefinement(newRefinements, PrefixRefinement.create(cachedResult));
+				refinedResults.add(cachedResult);
+				continue;
+			}
+			final PrefixRefinement refinement = refine(previousRefinements, parameters);
+			if (refinement == null) {
+				searches.addTranslationParameters(parameters);
+			} else {
+				newRefinements.add(refinement);
+				refinedResults.add(refinement.getResult());
+			}
+		}
+		// language pairs with the same input language share one search
+		final SharedLanguageScan scan = new SharedLanguageScan(searches,
+				Preferences.getSharedLanguageScan());
+		final TranslationParametersBatch executedSearches = scan.getBatch();
+		final int searchCount = executedSearches.numberOfTranslationParameters();
+
+		if (ioStatistics.isEnabled() && searchCount > 0) {
+			final String searchWord = executedSearches.getTranslationParametersAt(0)
+					.getToBeTranslatedWordText();
+			ioStatistics.beginQuery(searchWord, searchCount);
+		}
+
+		final TranslationHandle handle;
+		final TranslationHandle previousHandle;
+		synchronized (currentParameters) {
+			previousHandle = currentHandle;
+			handle = new TranslationHandle(this, ++generation, searchCount);
+			currentHandle = handle;
+			currentScan = scan;
+			currentResults.clear();
+			currentResults.addAll(refinedResults);
+			refinements.clear();
+			refinements.addAll(newRefinements);
+			currentParameters.clear();
+			for (int i = 0; i < searchCount; i++) {
+				currentParameters.put(executedSearches.getTranslationParametersAt(i), handle);
+			}
+			translationState.setActive(searchCount);
+		}
+		if (previousHandle != null) {
+			previousHandle.markCancelled();
+		}
+
+		setChanged();
+		notifyObservers(null);
+		for (TranslationResult result : refinedResults) {
+			setChanged();
+			notifyObservers(result);
+		}
+
+		if (searchCount == 0) {
+			executor.cancelLastTranslation();
+			suggestIfNothingFound(handle);
+			return handle;
+		}
 		try {
-			translationState.setActive(translationParameters.numberOfTranslationParameters());
-			executor.executeTranslationBatch(translationParameters);
+			executor.executeTranslationBatch(executedSearches, handle.getToken());
 		} catch (DictionaryException exception) {
 			// TODO: handle
 		}
+		return handle;
+	}
+
+	/**
+	 * Returns the cached result of the search.
+	 *
+	 * @param parameters
+	 *            the parameters of the search
+	 * @return the result or null if the search has to be executed
+	 */
+	private static TranslationResult getCachedResult(TranslationParameters parameters) {
+		if (!Preferences.getResultCache() || Preferences.getSearchTranslations()) {
+			// results of searches in translations are not cached
+			return null;
+		}
+		return RESULT_CACHE.get(parameters);
+	}
+
+	/**
+	 * Returns the cache of recent results.
+	 *
+	 * @return the result cache
+	 */
+	public static TranslationResultCache getResultCache() {
+		return RESULT_CACHE;
+	}
+
+	/**
+	 * Answers the search from one of the previous results if it is a search
+	 * for an extended term.
+	 *
+	 * @param previousRefinements
+	 *            the refinements of the previous results
+	 * @param parameters
+	 *            the parameters of the search
+	 * @return the refinement with the result of the search or null if the
+	 *         search has to be executed
+	 */
+	private static PrefixRefinement refine(Vector<PrefixRefinement> previousRefinements,
+			TranslationParameters parameters) {
+		if (!Preferences.getPrefixRefinement() || Preferences.getSearchTranslations()) {
+			return null;
+		}
+		for (PrefixRefinement previous : previousRefinements) {
+			final PrefixRefinement refinement = previous.refine(parameters);
+			if (refinement != null) {
+				return refinement;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Keeps the refinement of a result.
+	 *
+	 * @param batchRefinements
+	 *            the refinements of the batch of the result
+	 * @param refinement
+	 *            the refinement or null if the result cannot be refined
+	 */
+	private static void addRefinement(Vector<PrefixRefinement> batchRefinements,
+			PrefixRefinement refinement) {
+		if (refinement != null) {
+			batchRefinements.add(refinement);
+		}
+	}
+
+	/**
+	 * Returns the handle of the parameters if they belong to the current
+	 * batch and removes them, so every translation of the batch is passed on
+	 * at most once.
+	 *
+	 * @param parameters
+	 *            the parameters of a finished translation
+	 * @return the handle of the batch or null if the result of the
+	 *         translation should be dropped
+	 */
+	private TranslationHandle takeHandle(TranslationParameters parameters) {
+		synchronized (currentParameters) {
+			final TranslationHandle handle = currentParameters.remove(parameters);
+			if (handle == null || handle.isCancelled()) {
+				return null;
+			}
+			return handle;
+		}
+	}
+
+	/**
+	 * Counts a passed on result of the batch. The state is only changed if
+	 * the batch is still current, so results of superseded batches cannot
+	 * change the state of newer batches.
+	 *
+	 * @param handle
+	 *            the handle of the batch of the result
+	 */
+	private void finishSearch(TranslationHandle handle) {
+		synchronized (currentParameters) {
+			if (handle == currentHandle && !handle.isCancelled()) {
+				translationState.decreaseActiveCount();
+			}
+		}
+		handle.finishSearch();
+	}
+
+	/**
+	 * Searches for the entries of similar terms if enabled and the finished
+	 * batch found nothing. The suggestions are passed to the observers like
+	 * results, unless the batch has been superseded or cancelled meanwhile.
+	 *
+	 * @param handle
+	 *            the handle of the batch
+	 */
+	private void suggestIfNothingFound(final TranslationHandle handle) {
+		final Vector<TranslationResult> results;
+		synchronized (currentParameters) {
+			if (handle != currentHandle || handle.isCancelled() || !currentParameters.isEmpty()) {
+				// other searches of the batch are still running
+				return;
+			}
+			results = new Vector<TranslationResult>(currentResults);
+		}
+		if (results.isEmpty() || !Preferences.getFuzzySuggestions()
+				|| Preferences.getSearchTranslations()) {
+			return;
+		}
+		final long timeout = Preferences.getSearchTimeout() * MILLISECONDS_IN_A_SECOND;
+		SUGGESTIONS.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (handle.isCancelled()) {
+					return;
+				}
+				final Vector<TranslationResult> suggestions;
+				handle.getToken().attach();
+				try {
+					suggestions = FuzzyLookup.suggest(results, timeout);
+				} catch (DictionaryException e) {
+					Log.d(DictionaryForMIDs.LOG_TAG, "Suggestions failed", e);
+					return;
+				} finally {
+					CancellationToken.detach();
+				}
+				for (TranslationResult suggestion : suggestions) {
+					synchronized (currentParameters) {
+						if (handle != currentHandle || handle.isCancelled()) {
+							return;
+						}
+						setChanged();
+						notifyObservers(suggestion);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Describes the dictionary and the languages of the translation for the
+	 * I/O statistics.
+	 *
+	 * @param parameters
+	 *            the parameters of the translation
+	 * @return the description of the translation
+	 */
+	private static String describe(TranslationParameters parameters) {
+		final DictionaryDataFile dictionary = parameters.getDictionary();
+		final StringBuilder description = new StringBuilder(dictionary.dictionaryAbbreviation);
+		for (int i = 0; i < dictionary.supportedLanguages.length; i++) {
+			if (parameters.getInputLanguages()[i]) {
+				description.append(' ').append(dictionary.supportedLanguages[i].languageDisplayText);
+			}
+		}
+		description.append(" ->");
+		for (int i = 0; i < dictionary.supportedLanguages.length; i++) {
+			if (parameters.getOutputLanguages()[i]) {
+				description.append(' ').append(dictionary.supportedLanguages[i].languageDisplayText);
+			}
+		}
+		return description.toString();
 	}
 
+	/**
+	 * Cancels the current batch.
+	 */
 	public void cancelTranslation() {
+		final TranslationHandle handle;
+		synchronized (currentParameters) {
+			handle = currentHandle;
+		}
+		if (handle == null) {
+			if (executor == null) {
+				throw new IllegalStateException("Set executor first");
+			}
+			executor.cancelLastTranslation();
+			return;
+		}
+		cancelTranslation(handle);
+	}
+
+	/**
+	 * Cancels the batch of the handle. The executor is only cancelled if the
+	 * batch is still current, so cancelling an old handle does not affect
+	 * newer batches.
+	 *
+	 * @param handle
+	 *            the handle of the batch to cancel
+	 */
+	void cancelTranslation(TranslationHandle handle) {
 		if (executor == null) {
 			throw new IllegalStateException("Set executor first");
 		}
 
-		executor.cancelLastTranslation();
+		final boolean isCurrentHandle;
+		synchronized (currentParameters) {
+			isCurrentHandle = handle == currentHandle;
+			if (isCurrentHandle) {
+				currentParameters.clear();
+				if (translationState.isActive()) {
+					// results of the cancelled translations will not be passed on
+					translationState.setActive(0);
+				}
+			}
+		}
+		handle.markCancelled();
+		if (isCurrentHandle) {
+			executor.cancelLastTranslation();
+		}
 	}
 }
@@ -54,6 +54,14 @@ public class SingleTranslationExtension extends SingleTranslation {
 	 */
 	private DictionaryDataFile dictionaryDataFile = null;
 
+	public boolean isFoundAtBeginOfExpression() {
+		return foundAtBeginOfExpression;
+	}
+
+	public int getPrimarySortNumber() {
+		return primarySortNumber;
+	}
+
 	/**
 	 * Creates an instance from the given translation object.
 	 *
@@ -68,6 +76,57 @@ public class SingleTranslationExtension extends SingleTranslation {
 		dictionaryDataFile = dataFile;
 	}
 
+	/**
+	 * Creates an instance from the given translation that only includes the
+	 * toTexts of the given languages.
+	 *
+	 * @param translation
+	 *            the object's data to use for initialization
+	 * @param dataFile
+	 *            the dictionary in which the translation was found
+	 * @param outputLanguages
+	 *            the languages of the toTexts to include
+	 */
+	public SingleTranslationExtension(final SingleTranslation translation,
+			final DictionaryDataFile dataFile, final boolean[] outputLanguages) {
+		super(translation.fromText, getToTextsOfLanguages(translation.toTexts, outputLanguages),
+				translation.foundAtBeginOfExpression, translation.primarySortNumber,
+				translation.directoryFileLocation);
+		fromText = null;
+		toTexts = null;
+		dictionaryDataFile = dataFile;
+	}
+
+	/**
+	 * Returns if the translation includes any toText.
+	 *
+	 * @return true if there is at least one toText
+	 */
+	public boolean hasToTexts() {
+		return getToTexts() != null && getToTexts().size() > 0;
+	}
+
+	/**
+	 * Selects the toTexts of the given languages.
+	 *
+	 * @param data
+	 *            a Vector of TextOfLanguage objects
+	 * @param outputLanguages
+	 *            the languages to select
+	 * @return a Vector of the TextOfLanguage objects of the languages
+	 */
+	private static Vector<Object> getToTextsOfLanguages(final Vector<?> data,
+			final boolean[] outputLanguages) {
+		final Vector<Object> result = new Vector<Object>();
+		for (Object object : data) {
+			final int languageIndex = ((TextOfLanguage) object).getLanguageIndex();
+			if (languageIndex < outputLanguages.length && outputLanguages[languageIndex]) {
+				result.add(object);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Creates an instance from the given parameters.
 	 *
@@ -93,6 +152,37 @@ public class SingleTranslationExtension extends SingleTranslation {
 		dictionaryDataFile = dataFile;
 	}
 
+	/**
+	 * Creates a copy that shares the parsed content of this instance but not
+	 * its starred state.
+	 *
+	 * @return the copy
+	 * @throws DictionaryException
+	 *             if parsing fails
+	 */
+	public SingleTranslationExtension copy() throws DictionaryException {
+		return new SingleTranslationExtension(this);
+	}
+
+	/**
+	 * Creates a copy of the given instance that keeps its fromText and
+	 * toTexts, including their languages, and shares its parsed content.
+	 *
+	 * @param original
+	 *            the instance to copy
+	 * @throws DictionaryException
+	 *             if parsing fails
+	 */
+	private SingleTranslationExtension(final SingleTranslationExtension original)
+			throws DictionaryException {
+		super(((SingleTranslation) original).fromText, ((SingleTranslation) original).toTexts,
+				original.foundAtBeginOfExpression, original.primarySortNumber,
+				original.directoryFileLocation);
+		fromText = original.getFromTextAsColourItemText();
+		toTexts = original.getToTextsAsColourItemTexts();
+		dictionaryDataFile = original.dictionaryDataFile;
+	}
+
 	/**
 	 * Creates a textual representation of toTexts for searches.
 	 *
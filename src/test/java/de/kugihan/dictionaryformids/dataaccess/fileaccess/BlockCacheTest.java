@@ -0,0 +1,121 @@
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import org.junit.Test;
+
+import de.kugihan.dictionaryformids.dataaccess.fileaccess.BlockCache.BlockKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BlockCacheTest {
+
+    private static BlockKey key(final long offset) {
+        return new BlockKey(1, "dictionary.csv", offset);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBlock() {
+        final BlockCache cache = new BlockCache(30);
+        cache.put(key(0), new byte[10]);
+        cache.put(key(10), new byte[10]);
+        cache.put(key(20), new byte[10]);
+
+        // reading the first block makes the second one the eldest
+        assertNotNull(cache.get(key(0)));
+        cache.put(key(30), new byte[10]);
+
+        assertTrue(cache.contains(key(0)));
+        assertFalse(cache.contains(key(10)));
+        assertTrue(cache.contains(key(20)));
+        assertTrue(cache.contains(key(30)));
+        assertEquals(30, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        final BlockCache cache = new BlockCache(100);
+        final byte[] block = new byte[10];
+        cache.put(key(0), block);
+
+        assertSame(block, cache.get(key(0)));
+        assertNull(cache.get(key(10)));
+        assertNull(cache.get(key(20)));
+        // checking for a block is not counted
+        cache.contains(key(0));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void replacingBlockUpdatesSize() {
+        final BlockCache cache = new BlockCache(100);
+        cache.put(key(0), new byte[10]);
+        cache.put(key(0), new byte[20]);
+
+        assertEquals(20, cache.getSize());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void ignoresBlocksLargerThanBudget() {
+        final BlockCache cache = new BlockCache(10);
+        cache.put(key(0), new byte[5]);
+        cache.put(key(10), new byte[11]);
+
+        assertFalse(cache.contains(key(10)));
+        assertTrue(cache.contains(key(0)));
+        assertEquals(5, cache.getSize());
+    }
+
+    @Test
+    public void removesBlocksOfNamespace() {
+        final BlockCache cache = new BlockCache(100);
+        final BlockKey otherKey = new BlockKey(2, "dictionary.csv", 0);
+        cache.put(key(0), new byte[10]);
+        cache.put(key(10), new byte[10]);
+        cache.put(otherKey, new byte[10]);
+
+        cache.removeNamespace(1);
+
+        assertFalse(cache.contains(key(0)));
+        assertFalse(cache.contains(key(10)));
+        assertTrue(cache.contains(otherKey));
+        assertEquals(10, cache.getSize());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void shrinkingBudgetEvictsBlocks() {
+        final BlockCache cache = new BlockCache(100);
+        cache.put(key(0), new byte[10]);
+        cache.put(key(10), new byte[10]);
+        cache.put(key(20), new byte[10]);
+
+        cache.setByteBudget(15);
+
+        assertEquals(15, cache.getByteBudget());
+        assertEquals(10, cache.getSize());
+        assertEquals(2, cache.getEvictionCount());
+        assertTrue(cache.contains(key(20)));
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertEquals(3, cache.getEvictionCount());
+    }
+
+    @Test
+    public void keysDistinguishNamespaces() {
+        final BlockCache cache = new BlockCache(100);
+        cache.put(new BlockKey(1, "dictionary.csv", 0), new byte[10]);
+
+        assertTrue(cache.contains(new BlockKey(1, "dictionary.csv", 0)));
+        assertFalse(cache.contains(new BlockKey(2, "dictionary.csv", 0)));
+        assertFalse(cache.contains(new BlockKey(1, "index.csv", 0)));
+    }
+}
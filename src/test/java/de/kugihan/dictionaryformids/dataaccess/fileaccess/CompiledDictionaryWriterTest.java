@@ -0,0 +1,171 @@
+package de.kugihan.dictionaryformids.dataaccess.fileaccess;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.kugihan.dictionaryformids.general.DictionaryException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledDictionaryWriterTest {
+
+    private File directory;
+
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("dictionary", "");
+        directory.delete();
+        directory.mkdir();
+        target = File.createTempFile("dictionary", ".compiled");
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        target.delete();
+    }
+
+    private static byte[] createSearchList(final int lines) throws IOException {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            content.append(String.format("term%06d\tB%d-%d\n", i, i / 7, i % 7));
+        }
+        return content.toString().getBytes("UTF-8");
+    }
+
+    private static byte[] createRandomData(final int size) {
+        final byte[] content = new byte[size];
+        new Random(1).nextBytes(content);
+        return content;
+    }
+
+    private void writeFile(final String name, final byte[] content) throws IOException {
+        final FileOutputStream output = new FileOutputStream(new File(directory, name));
+        try {
+            output.write(content);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static byte[] readAll(final InputStream input) throws IOException {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1000];
+        int count;
+        while ((count = input.read(buffer, 0, buffer.length)) >= 0) {
+            content.write(buffer, 0, count);
+        }
+        input.close();
+        return content.toByteArray();
+    }
+
+    @Test
+    public void compiledFileReproducesFiles() throws Exception {
+        final byte[] searchList = createSearchList(5000);
+        final byte[] directoryFile = createRandomData(40000);
+        final byte[] properties = "infoText: Test\n".getBytes("UTF-8");
+        writeFile("searchlistEng.csv", searchList);
+        writeFile("directoryEng1.csv", directoryFile);
+        writeFile("DictionaryForMIDs.properties", properties);
+        writeFile("empty.csv", new byte[0]);
+
+        CompiledDictionaryWriter.compile(directory, target);
+        final CompiledDfMInputStreamAccess access = CompiledDfMInputStreamAccess.open(target);
+        try {
+            assertEquals(CompiledDictionaryWriter.computeSourceChecksum(directory),
+                    access.getSourceChecksum());
+            assertArrayEquals(searchList, readAll(access.getInputStream("searchlistEng.csv")));
+            assertArrayEquals(directoryFile, readAll(access.getInputStream("directoryEng1.csv")));
+            assertArrayEquals(properties,
+                    readAll(access.getInputStream("DictionaryForMIDs.properties")));
+            assertEquals(0, readAll(access.getInputStream("empty.csv")).length);
+            assertEquals(searchList.length, access.getFileSize("searchlistEng.csv"));
+            assertTrue(access.fileExists("directoryEng1.csv"));
+            assertFalse(access.fileExists("indexEng1.csv"));
+        } finally {
+            access.close();
+        }
+        assertTrue(access.isClosed());
+    }
+
+    @Test
+    public void streamsSkipAcrossBlocks() throws Exception {
+        final byte[] searchList = createSearchList(5000);
+        writeFile("searchlistEng.csv", searchList);
+
+        CompiledDictionaryWriter.compile(directory, target);
+        final CompiledDfMInputStreamAccess access = CompiledDfMInputStreamAccess.open(target);
+        try {
+            final InputStream input = access.getInputStream("searchlistEng.csv");
+            final int position = searchList.length - 100;
+            long skipped = 0;
+            while (skipped < position) {
+                skipped += input.skip(position - skipped);
+            }
+            assertEquals(searchList[position] & 0xff, input.read());
+            input.close();
+        } finally {
+            access.close();
+        }
+    }
+
+    @Test(expected = DictionaryException.class)
+    public void missingFileCannotBeOpened() throws Exception {
+        writeFile("DictionaryForMIDs.properties", new byte[10]);
+
+        CompiledDictionaryWriter.compile(directory, target);
+        final CompiledDfMInputStreamAccess access = CompiledDfMInputStreamAccess.open(target);
+        try {
+            access.getInputStream("searchlistEng.csv");
+        } finally {
+            access.close();
+        }
+    }
+
+    @Test
+    public void checksumChangesWithFiles() throws Exception {
+        writeFile("searchlistEng.csv", createSearchList(10));
+        final long checksum = CompiledDictionaryWriter.computeSourceChecksum(directory);
+
+        writeFile("searchlistEng.csv", createSearchList(11));
+
+        assertFalse(checksum == CompiledDictionaryWriter.computeSourceChecksum(directory));
+    }
+
+    @Test(expected = IOException.class)
+    public void damagedDirectoryIsRejected() throws Exception {
+        writeFile("DictionaryForMIDs.properties", new byte[10]);
+        CompiledDictionaryWriter.compile(directory, target);
+
+        final RandomAccessFile file = new RandomAccessFile(target, "rw");
+        try {
+            file.seek(file.length() - 1);
+            final int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xff);
+        } finally {
+            file.close();
+        }
+        CompiledDfMInputStreamAccess.open(target);
+    }
+}
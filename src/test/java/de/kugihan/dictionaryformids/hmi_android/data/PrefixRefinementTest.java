@@ -0,0 +1,92 @@
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import org.junit.Test;
+
+import de.kugihan.dictionaryformids.translation.SingleTranslationExtension;
+import de.kugihan.dictionaryformids.translation.TranslationParameters;
+import de.kugihan.dictionaryformids.translation.TranslationResult;
+
+import static de.kugihan.dictionaryformids.hmi_android.data.TestTranslations.createEntry;
+import static de.kugihan.dictionaryformids.hmi_android.data.TestTranslations.createParameters;
+import static de.kugihan.dictionaryformids.hmi_android.data.TestTranslations.createResult;
+import static de.kugihan.dictionaryformids.hmi_android.data.TestTranslations.getText;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PrefixRefinementTest {
+
+    private static TranslationResult createHouseResult() {
+        return createResult("ho*",
+                createEntry("house", true, 0),
+                createEntry("Hotel", true, 0),
+                createEntry("big house", false, 0),
+                createEntry("hound, dog", true, 0));
+    }
+
+    @Test
+    public void filtersEntriesForLongerTerm() throws Exception {
+        final PrefixRefinement refinement = PrefixRefinement.create(createHouseResult());
+        final TranslationParameters parameters = createParameters("HOU*");
+
+        final PrefixRefinement refined = refinement.refine(parameters);
+
+        assertNotNull(refined);
+        final TranslationResult result = refined.getResult();
+        assertSame(parameters, result.translationParametersObj);
+        assertEquals(3, result.numberOfFoundTranslations());
+        assertEquals("house", getText((SingleTranslationExtension) result.getTranslationAt(0)));
+        assertEquals("big house", getText((SingleTranslationExtension) result.getTranslationAt(1)));
+        assertEquals("hound, dog", getText((SingleTranslationExtension) result.getTranslationAt(2)));
+    }
+
+    @Test
+    public void refinesRefinedResult() throws Exception {
+        final PrefixRefinement refined = PrefixRefinement.create(createHouseResult())
+                .refine(createParameters("hou*")).refine(createParameters("hous*"));
+
+        assertNotNull(refined);
+        assertEquals(2, refined.getResult().numberOfFoundTranslations());
+    }
+
+    @Test
+    public void refusesResultsThatCannotBeRefined() {
+        final TranslationResult truncated = createHouseResult();
+        truncated.translationBreakOccurred = true;
+
+        assertNull(PrefixRefinement.create(truncated));
+        assertNull(PrefixRefinement.create(createResult("house")));
+        assertNull(PrefixRefinement.create(createResult("*")));
+        assertNull(PrefixRefinement.create(createResult("hö*")));
+    }
+
+    @Test
+    public void refusesSearchesThatDoNotExtendTerm() {
+        final PrefixRefinement refinement = PrefixRefinement.create(createHouseResult());
+
+        assertNull(refinement.refine(createParameters("ha*")));
+        assertNull(refinement.refine(createParameters("hou")));
+        assertNull(refinement.refine(new TranslationParameters(null, "hou*",
+                TestTranslations.OUTPUT_LANGUAGES, TestTranslations.INPUT_LANGUAGES, true, 100,
+                1000)));
+    }
+
+    @Test
+    public void refusesEntriesFoundByOtherKeys() {
+        final PrefixRefinement refinement = PrefixRefinement.create(createResult("ho*",
+                createEntry("house", true, 0),
+                createEntry("dwelling", false, 0)));
+
+        assertNull(refinement.refine(createParameters("hou*")));
+    }
+
+    @Test
+    public void refusesWordsWithNormalizedCharacters() {
+        final PrefixRefinement refinement = PrefixRefinement.create(createResult("h*",
+                createEntry("höhle", true, 0),
+                createEntry("house", true, 0)));
+
+        assertNull(refinement.refine(createParameters("ho*")));
+    }
+}
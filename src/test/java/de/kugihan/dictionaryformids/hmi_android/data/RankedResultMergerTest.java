@@ -0,0 +1,81 @@
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.util.Vector;
+
+import org.junit.Test;
+
+import de.kugihan.dictionaryformids.translation.SingleTranslationExtension;
+
+import static de.kugihan.dictionaryformids.hmi_android.data.TestTranslations.createEntry;
+import static de.kugihan.dictionaryformids.hmi_android.data.TestTranslations.createResult;
+import static de.kugihan.dictionaryformids.hmi_android.data.TestTranslations.getText;
+import static org.junit.Assert.assertEquals;
+
+public class RankedResultMergerTest {
+
+    @Test
+    public void exactMatchesRankFirst() throws Exception {
+        final RankedResultMerger merger = new RankedResultMerger(10);
+        merger.add(createResult("house*",
+                createEntry("houseboat", true, 0),
+                createEntry("the house", false, 0),
+                createEntry(" House ", false, 0)));
+
+        final Vector<SingleTranslationExtension> entries = merger.getBestEntries();
+
+        assertEquals(3, entries.size());
+        assertEquals(" House ", getText(entries.get(0)));
+        assertEquals("the house", getText(entries.get(1)));
+        assertEquals("houseboat", getText(entries.get(2)));
+    }
+
+    @Test
+    public void beginOfExpressionRanksBeforeSortNumber() throws Exception {
+        final RankedResultMerger merger = new RankedResultMerger(10);
+        merger.add(createResult("boat",
+                createEntry("a boathouse", false, 0),
+                createEntry("boathouse", true, 5)));
+
+        final Vector<SingleTranslationExtension> entries = merger.getBestEntries();
+
+        assertEquals("boathouse", getText(entries.get(0)));
+        assertEquals("a boathouse", getText(entries.get(1)));
+    }
+
+    @Test
+    public void lowerSortNumberAndEarlierArrivalRankFirst() throws Exception {
+        final RankedResultMerger merger = new RankedResultMerger(10);
+        merger.add(createResult("tree",
+                createEntry("treetop", true, 3),
+                createEntry("trees", true, 1)));
+        merger.add(createResult("tree",
+                createEntry("treehouse", true, 1)));
+
+        final Vector<SingleTranslationExtension> entries = merger.getBestEntries();
+
+        assertEquals("trees", getText(entries.get(0)));
+        assertEquals("treehouse", getText(entries.get(1)));
+        assertEquals("treetop", getText(entries.get(2)));
+    }
+
+    @Test
+    public void keepsOnlyBestEntries() throws Exception {
+        final RankedResultMerger merger = new RankedResultMerger(2);
+        merger.add(createResult("sun",
+                createEntry("sunrise", true, 0),
+                createEntry("sunset", true, 0)));
+        merger.add(RankedResultMerger.rank(createResult("sun",
+                createEntry("sun", true, 0),
+                createEntry("sunday", true, 0))));
+
+        final Vector<SingleTranslationExtension> entries = merger.getBestEntries();
+
+        assertEquals(2, merger.size());
+        assertEquals("sun", getText(entries.get(0)));
+        assertEquals("sunrise", getText(entries.get(1)));
+
+        merger.clear();
+        assertEquals(0, merger.size());
+        assertEquals(0, merger.getBestEntries().size());
+    }
+}
@@ -0,0 +1,75 @@
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.io.UnsupportedEncodingException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TermIndexTest {
+
+    static TermIndex createIndex(final String... files) throws UnsupportedEncodingException {
+        final byte[][] content = new byte[files.length][];
+        for (int i = 0; i < files.length; i++) {
+            content[i] = files[i].getBytes("UTF-8");
+        }
+        return TermIndex.create(content);
+    }
+
+    @Test
+    public void findsTermsAcrossFiles() throws Exception {
+        final TermIndex index = createIndex("apple\tB1\nbanana\tB2\n", "cherry\tB3\r\n");
+
+        assertEquals(3, index.size());
+        assertEquals(1, index.find("banana"));
+        assertEquals("B2", index.getPositions(1));
+        // carriage returns are not part of the positions
+        assertEquals("B3", index.getPositions(index.find("cherry")));
+        assertEquals(-1, index.find("bana"));
+        assertEquals(-1, index.find("date"));
+    }
+
+    @Test
+    public void sortsUnsortedFiles() throws Exception {
+        final TermIndex index = createIndex("pear\tB1\n", "fig\tB2\nkiwi\tB3");
+
+        assertEquals("fig", index.getTerm(0));
+        assertEquals("kiwi", index.getTerm(1));
+        assertEquals("pear", index.getTerm(2));
+        assertEquals("B1", index.getPositions(2));
+    }
+
+    @Test
+    public void skipsLinesWithoutTerm() throws Exception {
+        final TermIndex index = createIndex("\n\tB1\nplum\tB2\n\n");
+
+        assertEquals(1, index.size());
+        assertEquals("plum", index.getTerm(0));
+    }
+
+    @Test
+    public void findsPrefixRange() throws Exception {
+        final TermIndex index = createIndex("car\tB1\ncard\tB2\ncare\tB3\ncat\tB4\n");
+
+        assertEquals(0, index.findFirst("car"));
+        assertEquals(3, index.findEnd("car"));
+        assertEquals(3, index.findFirst("cas"));
+        assertEquals(3, index.findEnd("cas"));
+        assertEquals(4, index.findFirst("d"));
+        assertEquals(3, index.findEnd(0, 3));
+        assertEquals(2, index.findEnd(1, 4));
+    }
+
+    @Test
+    public void containsIgnoresCase() throws Exception {
+        final TermIndex index = createIndex("Straße\tB1\n");
+
+        assertTrue(index.containsIgnoreCase(0, "straß"));
+        assertTrue(index.containsIgnoreCase(0, "aße"));
+        assertFalse(index.containsIgnoreCase(0, "strasse"));
+        assertEquals(6, index.getTermLength(0));
+        assertEquals('s', index.getLowerCaseCharacter(0, 0));
+    }
+}
@@ -0,0 +1,53 @@
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import de.kugihan.dictionaryformids.dataaccess.content.FontStyle;
+import de.kugihan.dictionaryformids.dataaccess.content.RGBColour;
+import de.kugihan.dictionaryformids.dataaccess.content.SelectionMode;
+import de.kugihan.dictionaryformids.general.DictionaryException;
+import de.kugihan.dictionaryformids.hmi_common.content.StringColourItemText;
+import de.kugihan.dictionaryformids.hmi_common.content.StringColourItemTextPart;
+import de.kugihan.dictionaryformids.translation.SingleTranslationExtension;
+import de.kugihan.dictionaryformids.translation.TranslationParameters;
+import de.kugihan.dictionaryformids.translation.TranslationResult;
+
+/**
+ * Creates results with already parsed entries, so tests do not need a loaded
+ * dictionary.
+ */
+final class TestTranslations {
+
+    static final boolean[] INPUT_LANGUAGES = { true, false };
+
+    static final boolean[] OUTPUT_LANGUAGES = { false, true };
+
+    private TestTranslations() {
+    }
+
+    static SingleTranslationExtension createEntry(final String fromText,
+            final boolean foundAtBeginOfExpression, final int primarySortNumber) {
+        final StringColourItemText text = new StringColourItemText();
+        text.addItemTextPart(new StringColourItemTextPart(fromText, new RGBColour(0, 0, 0),
+                new FontStyle(0), new SelectionMode(0)));
+        return new SingleTranslationExtension(text, null, foundAtBeginOfExpression,
+                primarySortNumber, null, null);
+    }
+
+    static TranslationParameters createParameters(final String searchWord) {
+        return new TranslationParameters(null, searchWord, INPUT_LANGUAGES, OUTPUT_LANGUAGES,
+                true, 100, 1000);
+    }
+
+    static TranslationResult createResult(final String searchWord,
+            final SingleTranslationExtension... entries) {
+        final TranslationResult result = new TranslationResult();
+        result.translationParametersObj = createParameters(searchWord);
+        for (SingleTranslationExtension entry : entries) {
+            result.translations.add(entry);
+        }
+        return result;
+    }
+
+    static String getText(final SingleTranslationExtension entry) throws DictionaryException {
+        return entry.getFromTextAsString();
+    }
+}
@@ -0,0 +1,58 @@
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TranslationBatchPolicyTest {
+
+    @Test
+    public void firstEntryKeepsMinimumShareForOthers() {
+        final TranslationBatchPolicy policy = new TranslationBatchPolicy(4, 80, 1000);
+
+        // 10 results are kept for each of the three waiting entries
+        assertEquals(50, policy.reserveShare());
+        assertEquals(10, policy.reserveShare());
+        assertEquals(10, policy.reserveShare());
+        assertEquals(10, policy.reserveShare());
+    }
+
+    @Test
+    public void unusedResultsGoToLaterEntries() {
+        final TranslationBatchPolicy policy = new TranslationBatchPolicy(2, 40, 1000);
+
+        final int first = policy.reserveShare();
+        assertEquals(30, first);
+        policy.releaseShare(first, 5);
+
+        assertEquals(35, policy.reserveShare());
+    }
+
+    @Test
+    public void usedResultsAreNotReturned() {
+        final TranslationBatchPolicy policy = new TranslationBatchPolicy(2, 40, 1000);
+
+        final int first = policy.reserveShare();
+        policy.releaseShare(first, first + 3);
+
+        assertEquals(10, policy.reserveShare());
+    }
+
+    @Test
+    public void sharesNeverExceedMaximum() {
+        final TranslationBatchPolicy policy = new TranslationBatchPolicy(5, 3, 1000);
+
+        int total = 0;
+        for (int i = 0; i < 5; i++) {
+            total += policy.reserveShare();
+        }
+        assertEquals(3, total);
+    }
+
+    @Test
+    public void remainingTimeStartsWithTimeout() {
+        final TranslationBatchPolicy policy = new TranslationBatchPolicy(1, 10, 1000);
+
+        assertEquals(1000, policy.getRemainingTime());
+    }
+}
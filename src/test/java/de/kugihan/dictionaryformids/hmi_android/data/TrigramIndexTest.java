@@ -0,0 +1,107 @@
+package de.kugihan.dictionaryformids.hmi_android.data;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TrigramIndexTest {
+
+    private static final TrigramIndex.BuildControl NEVER_CANCELLED = new TrigramIndex.BuildControl() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    private static TrigramIndex createIndex() throws Exception {
+        final TermIndex terms = TermIndexTest.createIndex(
+                "Bookcase\tB1\nbook\tB2\nfacebook\tB3\nnotebooks\tB4\ncase\tB5\nbox\tB6\n");
+        return TrigramIndex.build(terms, NEVER_CANCELLED);
+    }
+
+    private static String[] getTerms(final TrigramIndex index, final int[] positions) {
+        final String[] result = new String[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            result[i] = index.getTerms().getTerm(positions[i]);
+        }
+        return result;
+    }
+
+    @Test
+    public void findsTermsContainingText() throws Exception {
+        final TrigramIndex index = createIndex();
+
+        final String[] found = getTerms(index, index.findContaining("BOOK", 10));
+
+        assertEquals(4, found.length);
+        assertEquals("Bookcase", found[0]);
+        assertEquals("book", found[1]);
+        assertEquals("facebook", found[2]);
+        assertEquals("notebooks", found[3]);
+    }
+
+    @Test
+    public void checksOrderOfTrigrams() throws Exception {
+        final TrigramIndex index = createIndex();
+
+        // "kcase" only matches Bookcase, although "case" shares its trigrams
+        final String[] found = getTerms(index, index.findContaining("kcase", 10));
+
+        assertEquals(1, found.length);
+        assertEquals("Bookcase", found[0]);
+        assertEquals(0, index.findContaining("xyz", 10).length);
+    }
+
+    @Test
+    public void scansTermsForShortText() throws Exception {
+        final TrigramIndex index = createIndex();
+
+        final String[] found = getTerms(index, index.findContaining("ox", 10));
+
+        assertEquals(1, found.length);
+        assertEquals("box", found[0]);
+    }
+
+    @Test
+    public void limitsNumberOfTerms() throws Exception {
+        final TrigramIndex index = createIndex();
+
+        assertEquals(2, index.findContaining("oo", 2).length);
+        assertEquals(3, index.findContaining("book", 3).length);
+        assertEquals(0, index.findContaining("book", 0).length);
+    }
+
+    @Test
+    public void returnsNullIfCancelled() throws Exception {
+        final TermIndex terms = TermIndexTest.createIndex("book\tB1\n");
+
+        assertNull(TrigramIndex.build(terms, new TrigramIndex.BuildControl() {
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        }));
+    }
+
+    @Test
+    public void loadsSavedIndex() throws Exception {
+        final TrigramIndex index = createIndex();
+        final File file = File.createTempFile("trigrams", ".tri");
+        try {
+            index.save(file, 42);
+
+            assertNull(TrigramIndex.load(file, index.getTerms(), 43));
+            final TrigramIndex loaded = TrigramIndex.load(file, index.getTerms(), 42);
+            assertNotNull(loaded);
+            assertArrayEquals(index.findContaining("book", 10), loaded.findContaining("book", 10));
+            assertEquals(index.getSize(), loaded.getSize());
+        } finally {
+            file.delete();
+        }
+    }
+}